@@ -0,0 +1,104 @@
+/*
+ * Copyright 2023-2025 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.eid.idp.authn;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Loads the messages of the benchmark corpus (found under {@code corpus/} on the classpath).
+ * <p>
+ * Sign messages are stored in {@code corpus/sign/}, one message per file. The file extension gives the message type
+ * ({@code .txt}, {@code .html} or {@code .md}).
+ * </p>
+ * <p>
+ * User messages are stored in {@code corpus/user/}, one user message per file. Each language is introduced by a line
+ * {@code @@ <lang>}, and the file extension gives the MIME type ({@code .txt} or {@code .md}).
+ * </p>
+ *
+ * @author agent
+ */
+public final class MessageCorpus {
+
+  /** The prefix for language lines in user message files. */
+  private static final String LANGUAGE_PREFIX = "@@ ";
+
+  /**
+   * Loads a corpus file.
+   *
+   * @param path the path relative to {@code corpus/}
+   * @return the file contents
+   */
+  public static String load(final String path) {
+    try (final InputStream is = MessageCorpus.class.getClassLoader().getResourceAsStream("corpus/" + path)) {
+      if (is == null) {
+        throw new IllegalArgumentException("No corpus file: " + path);
+      }
+      return new String(is.readAllBytes(), StandardCharsets.UTF_8);
+    }
+    catch (final IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Loads a user message file and returns a map of languages and their Base64-encoded messages.
+   *
+   * @param path the path relative to {@code corpus/}
+   * @return a map of languages and encoded messages
+   */
+  public static Map<String, String> loadUserMessage(final String path) {
+    final Map<String, String> messages = new LinkedHashMap<>();
+    String lang = null;
+    StringBuilder sb = new StringBuilder();
+    for (final String line : load(path).split("\n", -1)) {
+      if (line.startsWith(LANGUAGE_PREFIX)) {
+        if (lang != null) {
+          messages.put(lang, encode(sb.toString()));
+        }
+        lang = line.substring(LANGUAGE_PREFIX.length()).trim();
+        sb = new StringBuilder();
+      }
+      else {
+        sb.append(line).append('\n');
+      }
+    }
+    if (lang != null) {
+      messages.put(lang, encode(sb.toString()));
+    }
+    return messages;
+  }
+
+  /**
+   * Base64-encodes the supplied message (as it is sent in a request).
+   *
+   * @param message the message
+   * @return the encoded message
+   */
+  public static String encode(final String message) {
+    return Base64.getEncoder().encodeToString(message.getBytes(StandardCharsets.UTF_8));
+  }
+
+  // Hidden constructor
+  private MessageCorpus() {
+  }
+
+}
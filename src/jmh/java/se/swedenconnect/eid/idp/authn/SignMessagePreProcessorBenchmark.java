@@ -0,0 +1,84 @@
+/*
+ * Copyright 2023-2025 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.eid.idp.authn;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import se.swedenconnect.opensaml.sweid.saml2.signservice.dss.SignMessageMimeTypeEnum;
+import se.swedenconnect.spring.saml.idp.error.Saml2ErrorStatusException;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for {@link HtmlSignMessagePreProcessor}. The cache is not used, so each invocation measures the complete
+ * processing of a message. The adversarial messages are expected to be rejected.
+ *
+ * @author agent
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SignMessagePreProcessorBenchmark {
+
+  /** The corpus file (under corpus/sign). */
+  @Param({ "text-short.txt", "text-long.txt", "html.html", "markdown.md", "markdown-large.md",
+      "adversarial-nesting.md", "adversarial-emphasis.md", "adversarial-table.md", "adversarial-html.html" })
+  public String message;
+
+  private HtmlSignMessagePreProcessor processor;
+
+  private String encodedMessage;
+
+  private SignMessageMimeTypeEnum messageType;
+
+  @Setup
+  public void setup() {
+    this.processor = new HtmlSignMessagePreProcessor();
+    this.encodedMessage = MessageCorpus.encode(MessageCorpus.load("sign/" + this.message));
+    if (this.message.endsWith(".html")) {
+      this.messageType = SignMessageMimeTypeEnum.TEXT_HTML;
+    }
+    else if (this.message.endsWith(".md")) {
+      this.messageType = SignMessageMimeTypeEnum.TEXT_MARKDOWN;
+    }
+    else {
+      this.messageType = SignMessageMimeTypeEnum.TEXT;
+    }
+  }
+
+  @Benchmark
+  public Object processSignMessage() {
+    try {
+      return this.processor.processSignMessage(this.encodedMessage, this.messageType);
+    }
+    catch (final Saml2ErrorStatusException e) {
+      return e;
+    }
+  }
+
+}
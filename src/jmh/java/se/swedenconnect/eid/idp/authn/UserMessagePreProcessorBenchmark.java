@@ -0,0 +1,106 @@
+/*
+ * Copyright 2023-2025 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.eid.idp.authn;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+import se.swedenconnect.spring.saml.idp.error.Saml2ErrorStatusException;
+
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for {@link HtmlUserMessagePreProcessor}. The {@code process} benchmark measures the processing of the
+ * user message (as done when the request is received), and {@code processAndRenderOne} also includes rendering the
+ * message for one language (as done when the UI is displayed).
+ *
+ * @author agent
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserMessagePreProcessorBenchmark {
+
+  /** The corpus file (under corpus/user). */
+  @Param({ "single-sv.md", "multilang-markdown.md", "multilang-duplicates.md", "multilang-text.txt" })
+  public String message;
+
+  /** The parallel threshold (0 means sequential processing). */
+  @Param({ "0", "4" })
+  public int parallelThreshold;
+
+  private HtmlUserMessagePreProcessor processor;
+
+  private ExecutorService executor;
+
+  private Map<String, String> messages;
+
+  private MimeType mimeType;
+
+  private String displayLanguage;
+
+  @Setup
+  public void setup() {
+    this.processor = new HtmlUserMessagePreProcessor();
+    this.processor.setParallelThreshold(this.parallelThreshold);
+    if (this.parallelThreshold > 0) {
+      this.executor = Executors.newFixedThreadPool(4);
+      this.processor.setExecutor(this.executor);
+    }
+    this.messages = MessageCorpus.loadUserMessage("user/" + this.message);
+    this.mimeType = this.message.endsWith(".md")
+        ? MimeTypeUtils.parseMimeType("text/markdown")
+        : MimeTypeUtils.TEXT_PLAIN;
+    this.displayLanguage = this.messages.keySet().iterator().next();
+  }
+
+  @TearDown
+  public void tearDown() {
+    if (this.executor != null) {
+      this.executor.shutdownNow();
+    }
+  }
+
+  @Benchmark
+  public Object process() throws Saml2ErrorStatusException {
+    return this.processor.processUserMessage(this.messages, this.mimeType);
+  }
+
+  @Benchmark
+  public void processAndRenderOne(final Blackhole blackhole) throws Saml2ErrorStatusException {
+    final Map<String, String> processed = this.processor.processUserMessage(this.messages, this.mimeType);
+    blackhole.consume(processed.get(this.displayLanguage));
+  }
+
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2023-2025 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.eid.idp.admin;
+
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.Setter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import se.swedenconnect.eid.idp.users.UserBulkImporter;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Controller for bulk import and export of simulated users. The endpoints require the administrator credentials
+ * ({@code authn.admin.*}), and are disabled if no administrator password has been configured.
+ * <p>
+ * Users are imported by posting NDJSON ({@code application/x-ndjson}) or CSV ({@code text/csv}) to
+ * {@value #USERS_PATH}, and exported using a GET request to the same path ({@code format=ndjson|csv}).
+ * </p>
+ *
+ * @author agent
+ */
+@RestController
+public class UserAdminController {
+
+  /** The base path for the administration endpoints. */
+  public static final String ADMIN_PATH = "/admin";
+
+  /** The path for the user import and export. */
+  public static final String USERS_PATH = ADMIN_PATH + "/users";
+
+  /** The media type for NDJSON. */
+  public static final String NDJSON = "application/x-ndjson";
+
+  /** The media type for CSV. */
+  public static final String CSV = "text/csv";
+
+  /** Handles the import and export. */
+  @Setter
+  @Autowired
+  private UserBulkImporter importer;
+
+  /**
+   * Imports users. The users are committed in batches, and the result tells how many users that were imported and
+   * which batches that were rejected.
+   *
+   * @param request the HTTP servlet request
+   * @return the result of the import
+   * @throws IOException for read errors
+   */
+  @PostMapping(value = USERS_PATH, consumes = { NDJSON, CSV }, produces = MediaType.APPLICATION_JSON_VALUE)
+  public ResponseEntity<UserBulkImporter.Result> importUsers(final HttpServletRequest request) throws IOException {
+    final UserBulkImporter.Format format = request.getContentType().startsWith(CSV)
+        ? UserBulkImporter.Format.CSV
+        : UserBulkImporter.Format.NDJSON;
+    try (final BufferedReader reader =
+        new BufferedReader(new InputStreamReader(request.getInputStream(), StandardCharsets.UTF_8))) {
+      final UserBulkImporter.Result result = this.importer.importUsers(reader, format);
+      return ResponseEntity
+          .status(result.getRejectedBatches() > 0 ? HttpStatus.UNPROCESSABLE_ENTITY : HttpStatus.OK)
+          .body(result);
+    }
+  }
+
+  /**
+   * Exports all users.
+   *
+   * @param format the format ({@code ndjson} or {@code csv})
+   * @return the streamed users
+   */
+  @GetMapping(USERS_PATH)
+  public ResponseEntity<StreamingResponseBody> exportUsers(
+      @RequestParam(value = "format", defaultValue = "ndjson") final String format) {
+    final UserBulkImporter.Format f = "csv".equalsIgnoreCase(format)
+        ? UserBulkImporter.Format.CSV
+        : UserBulkImporter.Format.NDJSON;
+    return ResponseEntity.ok()
+        .contentType(MediaType.parseMediaType(f == UserBulkImporter.Format.CSV ? CSV : NDJSON))
+        .body(out -> this.importer.exportUsers(new OutputStreamWriter(out, StandardCharsets.UTF_8), f));
+  }
+
+  /**
+   * Responds with 429 (Too Many Requests) if the maximum number of concurrent imports are already running.
+   *
+   * @param e the exception
+   * @return the response
+   */
+  @ExceptionHandler(RejectedExecutionException.class)
+  public ResponseEntity<Map<String, String>> tooManyImports(final RejectedExecutionException e) {
+    return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).body(Map.of("error", e.getMessage()));
+  }
+
+  /**
+   * Responds with 409 (Conflict) if the users can not be changed.
+   *
+   * @param e the exception
+   * @return the response
+   */
+  @ExceptionHandler(UnsupportedOperationException.class)
+  public ResponseEntity<Map<String, String>> readOnly(final UnsupportedOperationException e) {
+    return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("error", e.getMessage()));
+  }
+
+}
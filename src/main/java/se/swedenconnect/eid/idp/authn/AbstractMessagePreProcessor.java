@@ -23,14 +23,20 @@ import com.vladsch.flexmark.util.ast.Document;
 import com.vladsch.flexmark.util.data.MutableDataSet;
 import jakarta.annotation.Nonnull;
 import org.apache.commons.text.StringEscapeUtils;
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Attribute;
+import org.apache.commons.text.translate.EntityArrays;
+import org.jsoup.nodes.CDataNode;
 import org.jsoup.nodes.Element;
-import org.jsoup.safety.Safelist;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+import org.jsoup.parser.ParseErrorList;
+import org.jsoup.select.NodeFilter;
+import org.jsoup.select.NodeTraversor;
 
-import java.nio.charset.StandardCharsets;
-import java.util.Base64;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 
 /**
  * Support class for pre-processing of messages.
@@ -40,41 +46,76 @@ import java.util.List;
 public abstract class AbstractMessagePreProcessor {
 
   /** The allowed HTML tags that may appear in a sign message. */
-  private static final String[] allowedHtmlTags = new String[] { "b", "blockquote", "br", "caption", "cite", "code",
+  private static final Set<String> allowedHtmlTags = Set.of("b", "blockquote", "br", "caption", "cite", "code",
       "dd", "div", "dl", "dt", "em", "h1", "h2", "h3", "h4", "h5", "h6",
       "i", "li", "ol", "p", "pre", "q", "small", "span", "strike", "strong",
-      "sub", "sup", "table", "tbody", "td", "tfoot", "th", "thead", "tr", "u", "ul" };
+      "sub", "sup", "table", "tbody", "td", "tfoot", "th", "thead", "tr", "u", "ul");
 
-  /** The HTML whitelist used when cleaning supplied HTML. */
-  private final Safelist htmlWhitelist;
+  /** The start of the HTML produced for plain text messages. */
+  private static final String TEXT_HTML_PREFIX = "<div style='font-family: \"Lucida Console\", Monaco, monospace'>";
 
-  /** The HTML whitelist when checking for illegal HTML tags. */
-  private final PreprocessingWhitelist htmlPreprocessingWhitelist;
-
-  /** Markdown parser. */
-  private final Parser markdownParser;
-
-  /** HTML renderer for markdown. */
-  private final HtmlRenderer markdownHtmlRenderer;
+  /** The end of the HTML produced for plain text messages. */
+  private static final String TEXT_HTML_SUFFIX = "</div>";
 
   /**
-   * Constructor.
+   * HTML escapes for characters, indexed by the character. This is the same set of escapes as used by
+   * {@link StringEscapeUtils#escapeHtml4(String)}.
    */
-  public AbstractMessagePreProcessor() {
-    // HTML
-    this.htmlWhitelist = new Safelist();
-    this.htmlWhitelist.addTags(allowedHtmlTags);
+  private static final String[] htmlEscapes = createHtmlEscapes();
+
+  /** The default maximum size (in bytes) for a decoded message. */
+  public static final int DEFAULT_MAX_MESSAGE_SIZE = 128 * 1024;
+
+  /** The decoder for Base64-encoded messages. */
+  private Base64MessageDecoder messageDecoder = new Base64MessageDecoder(DEFAULT_MAX_MESSAGE_SIZE);
+
+  /** The limits for processing of Markdown and HTML messages. */
+  private MessageProcessingLimits limits = new MessageProcessingLimits();
+
+  /** Markdown parser (shared by all processors, the parser and renderers are thread-safe). */
+  private static final Parser markdownParser;
 
-    this.htmlPreprocessingWhitelist = new PreprocessingWhitelist();
-    this.htmlPreprocessingWhitelist.addTags(allowedHtmlTags);
+  /** HTML renderer for markdown that only writes allowed HTML tags. */
+  private static final HtmlRenderer markdownHtmlRenderer;
 
-    // Markdown
+  /** HTML renderer for markdown containing raw HTML (the result needs to be validated and cleaned). */
+  private static final HtmlRenderer rawMarkdownHtmlRenderer;
+
+  static {
     final MutableDataSet options = new MutableDataSet();
     options.setFrom(ParserEmulationProfile.MARKDOWN);
     options.set(Parser.EXTENSIONS, List.of(TablesExtension.create()));
 
-    this.markdownParser = Parser.builder(options).build();
-    this.markdownHtmlRenderer = HtmlRenderer.builder(options).build();
+    markdownParser = Parser.builder(options).build();
+    rawMarkdownHtmlRenderer = HtmlRenderer.builder(options).build();
+
+    // The safe renderer handles the table nodes itself, so we don't want the renderer of the tables extension ...
+    //
+    final MutableDataSet safeOptions = new MutableDataSet(options);
+    safeOptions.remove(Parser.EXTENSIONS);
+    markdownHtmlRenderer = HtmlRenderer.builder(safeOptions)
+        .nodeRendererFactory(new SafeMarkdownNodeRenderer.Factory(allowedHtmlTags))
+        .build();
+  }
+
+  /**
+   * Assigns the maximum allowed size (in bytes) for a decoded message. The default is
+   * {@value #DEFAULT_MAX_MESSAGE_SIZE}.
+   *
+   * @param maxMessageSize the maximum size in bytes
+   */
+  public void setMaxMessageSize(final int maxMessageSize) {
+    this.messageDecoder = new Base64MessageDecoder(maxMessageSize);
+  }
+
+  /**
+   * Assigns the limits for processing of Markdown and HTML messages. The default is {@link MessageProcessingLimits}
+   * with its default settings.
+   *
+   * @param limits the processing limits
+   */
+  public void setLimits(final MessageProcessingLimits limits) {
+    this.limits = Objects.requireNonNull(limits, "limits must not be null");
   }
 
   /**
@@ -82,15 +123,10 @@ public abstract class AbstractMessagePreProcessor {
    *
    * @param encodedMessage the message to decode
    * @return the decoded text
-   * @throws MessageProcessingException for decoding errors
+   * @throws MessageProcessingException for decoding errors, or if the message exceeds the maximum allowed size
    */
   protected String decodeMessage(final String encodedMessage) throws MessageProcessingException {
-    try {
-      return new String(Base64.getDecoder().decode(encodedMessage), StandardCharsets.UTF_8);
-    }
-    catch (final IllegalArgumentException e) {
-      throw new MessageProcessingException("Invalid message encoding", e);
-    }
+    return this.messageDecoder.decode(encodedMessage);
   }
 
   /**
@@ -100,20 +136,49 @@ public abstract class AbstractMessagePreProcessor {
    * @return a string containing the HTML
    */
   protected String textToHtml(final String text) {
-    String htmlMessage = "<div style='font-family: \"Lucida Console\", Monaco, monospace'>";
-
-    // Filter to protect against XSS
-    htmlMessage += StringEscapeUtils.escapeHtml4(text);
+    return escapeText(text);
+  }
 
-    // Replace NL with <br />
-    htmlMessage = htmlMessage.replaceAll("(\r\n|\n\r|\r|\n)", "<br />");
+  /**
+   * Converts the supplied plain text into its HTML representation.
+   *
+   * @param text the plain text
+   * @return a string containing the HTML
+   */
+  private static String escapeText(final String text) {
+    final StringBuilder sb = new StringBuilder(
+        TEXT_HTML_PREFIX.length() + text.length() + (text.length() >> 3) + TEXT_HTML_SUFFIX.length());
+    sb.append(TEXT_HTML_PREFIX);
 
-    // Replace tabs with &emsp;
-    htmlMessage = htmlMessage.replaceAll("\t", "&emsp;");
+    final int length = text.length();
+    for (int i = 0; i < length; i++) {
+      final char c = text.charAt(i);
 
-    htmlMessage += "</div>";
+      // Replace NL (\r\n, \n\r, \r or \n) with <br />
+      if (c == '\r' || c == '\n') {
+        if (i + 1 < length) {
+          final char next = text.charAt(i + 1);
+          if ((c == '\r' && next == '\n') || (c == '\n' && next == '\r')) {
+            i++;
+          }
+        }
+        sb.append("<br />");
+      }
+      // Replace tabs with &emsp;
+      else if (c == '\t') {
+        sb.append("&emsp;");
+      }
+      // Filter to protect against XSS
+      else if (c < htmlEscapes.length && htmlEscapes[c] != null) {
+        sb.append(htmlEscapes[c]);
+      }
+      else {
+        sb.append(c);
+      }
+    }
+    sb.append(TEXT_HTML_SUFFIX);
 
-    return htmlMessage;
+    return sb.toString();
   }
 
   /**
@@ -124,14 +189,78 @@ public abstract class AbstractMessagePreProcessor {
    * @throws MessageProcessingException for processing errors (including illegal tags)
    */
   protected String markdownToHtml(final String markdown) throws MessageProcessingException {
-    // First translate the Markdown into HTML.
+    final MessageProcessingLimits.Budget budget = this.limits.newBudget();
+    final ParsedMarkdown parsed = this.parseMarkdown(markdown, budget);
+    if (parsed.containsHtml()) {
+      return this.validateAndCleanHtml(rawMarkdownHtmlRenderer.render(parsed.document()), budget);
+    }
+    parsed.document().set(SafeMarkdownNodeRenderer.BUDGET, budget);
+    try {
+      return markdownHtmlRenderer.render(parsed.document());
+    }
+    catch (final SafeMarkdownNodeRenderer.TimeLimitExceededException e) {
+      throw budget.timeLimitExceeded();
+    }
+  }
+
+  /**
+   * Validates the supplied Markdown and returns a message that is rendered into HTML when it is read. This makes it
+   * possible to report any errors directly, but postpone the rendering until the HTML is needed.
+   * <p>
+   * Note that the time limit is not enforced when the message is rendered (rendering must not fail). The Markdown has
+   * already been checked against the node and depth limits, so the rendering time is bounded.
+   * </p>
+   *
+   * @param markdown the Markdown text
+   * @return a validated message
+   * @throws MessageProcessingException for processing errors (including illegal tags)
+   */
+  LazyProcessedMessageMap.Message prepareMarkdown(final String markdown) throws MessageProcessingException {
+    final MessageProcessingLimits.Budget budget = this.limits.newBudget();
+    final ParsedMarkdown parsed = this.parseMarkdown(markdown, budget);
+
+    // If the Markdown contains raw HTML we need to validate and clean the rendered HTML (now). Otherwise, the safe
+    // renderer only writes allowed tags (without attributes) and no further processing is needed. Only the Markdown
+    // is kept, and it is parsed again when rendered (the parsed document is not kept).
     //
-    final Document document = this.markdownParser.parse(markdown);
-    final String html = this.markdownHtmlRenderer.render(document);
+    if (parsed.containsHtml()) {
+      return new LazyProcessedMessageMap.Message(LazyProcessedMessageMap.Format.HTML,
+          this.validateAndCleanHtml(rawMarkdownHtmlRenderer.render(parsed.document()), budget));
+    }
+    return new LazyProcessedMessageMap.Message(LazyProcessedMessageMap.Format.MARKDOWN, markdown);
+  }
 
-    // Next, validate and clean the rendered HTML.
+  /**
+   * Renders a validated message into HTML using the shared renderers.
+   *
+   * @param format the message format
+   * @param message the validated message
+   * @return the HTML
+   */
+  static String render(final LazyProcessedMessageMap.Format format, final String message) {
+    return switch (format) {
+      case TEXT -> escapeText(message);
+      case MARKDOWN -> markdownHtmlRenderer.render(markdownParser.parse(message));
+      case HTML -> message;
+    };
+  }
+
+  /**
+   * Parses the supplied Markdown and checks that it only contains allowed elements and that it does not exceed the
+   * processing limits.
+   *
+   * @param markdown the Markdown text
+   * @param budget the processing budget
+   * @return the parsed Markdown
+   * @throws MessageProcessingException for non-allowed elements, or if a processing limit is exceeded
+   */
+  private ParsedMarkdown parseMarkdown(final String markdown, final MessageProcessingLimits.Budget budget)
+      throws MessageProcessingException {
+    // The parsing can not be interrupted, but its cost is bounded by the maximum message size ...
     //
-    return this.validateAndCleanHtml(html);
+    final Document document = markdownParser.parse(markdown);
+    budget.checkTime();
+    return new ParsedMarkdown(document, SafeMarkdownNodeRenderer.checkDocument(document, budget));
   }
 
   /**
@@ -143,35 +272,169 @@ public abstract class AbstractMessagePreProcessor {
    * @throws MessageProcessingException if the HTML contains illegal tags
    */
   protected String validateAndCleanHtml(final String html) throws MessageProcessingException {
+    return this.validateAndCleanHtml(html, this.limits.newBudget());
+  }
+
+  /**
+   * Validates that the supplied HTML does not contain any non-allowed HTML tags and cleans the supplied HTML from any
+   * supplied attributes.
+   *
+   * @param html the HTML to validate and clean
+   * @param budget the processing budget
+   * @return validated and cleaned HTML
+   * @throws MessageProcessingException if the HTML contains illegal tags, or if a processing limit is exceeded
+   */
+  private String validateAndCleanHtml(final String html, final MessageProcessingLimits.Budget budget)
+      throws MessageProcessingException {
 
-    // First validate the HTML based on allowed tags.
-    // At this point we allow any attributes, but will fail on non-allowed
-    // tags.
+    // Parse the HTML (once) and track any parse errors. Invalid HTML is not accepted.
     //
-    if (!Jsoup.isValid(html, this.htmlPreprocessingWhitelist)) {
+    final org.jsoup.nodes.Document document = org.jsoup.nodes.Document.createShell("");
+    final ParseErrorList errors = ParseErrorList.tracking(1);
+    final List<Node> nodes = org.jsoup.parser.Parser.parseFragment(html, document.body(), "", errors);
+    if (!errors.isEmpty()) {
       throw new MessageProcessingException(
           "Message HTML is not allowed - contains invalid HTML or non-allowed HTML tags");
     }
+    budget.checkTime();
+    document.body().appendChildren(nodes);
 
-    // Then clean the HTML (removing attributes).
+    // Next, walk the tree and fail on non-allowed tags (and other nodes such as comments). In the same pass
+    // we clean the HTML by removing all attributes.
     //
-    return Jsoup.clean(html, this.htmlWhitelist);
+    budget.resetNodeCount();
+    final CleaningFilter filter = new CleaningFilter(document.body(), budget);
+    NodeTraversor.filter(filter, document.body());
+    if (filter.getLimitExceeded() != null) {
+      throw filter.getLimitExceeded();
+    }
+    if (!filter.isValid()) {
+      throw new MessageProcessingException(
+          "Message HTML is not allowed - contains invalid HTML or non-allowed HTML tags");
+    }
+    // CDATA sections are written as (escaped) text, just as Jsoup.clean would do ...
+    filter.getCdataNodes().forEach(n -> n.replaceWith(new TextNode(n.getWholeText())));
+
+    return document.body().html();
+  }
+
+  /**
+   * Creates the lookup table for HTML escapes. Holds the same escapes as {@link StringEscapeUtils#escapeHtml4(String)}.
+   *
+   * @return a lookup table indexed by character
+   */
+  private static String[] createHtmlEscapes() {
+    final List<Map<CharSequence, CharSequence>> maps = List.of(EntityArrays.BASIC_ESCAPE,
+        EntityArrays.ISO8859_1_ESCAPE, EntityArrays.HTML40_EXTENDED_ESCAPE);
+    final int max = maps.stream()
+        .flatMap(m -> m.keySet().stream())
+        .mapToInt(k -> k.charAt(0))
+        .max()
+        .orElse(0);
+    final String[] escapes = new String[max + 1];
+    maps.stream()
+        .flatMap(m -> m.entrySet().stream())
+        .filter(e -> e.getKey().length() == 1)
+        .forEach(e -> escapes[e.getKey().charAt(0)] = e.getValue().toString());
+    return escapes;
+  }
+
+  /**
+   * The result of parsing a Markdown message.
+   *
+   * @param document the Markdown document
+   * @param containsHtml whether the document contains raw HTML
+   */
+  private record ParsedMarkdown(Document document, boolean containsHtml) {
   }
 
   /**
-   * A Jsoup {@link Safelist} class that will allow all attributes. We use this instance when checking for invalid HTML
-   * tags.
+   * A {@link NodeFilter} that checks that only allowed HTML tags (and text) are present, and removes all attributes
+   * from the elements. The traversal is stopped as soon as a non-allowed node is found, or when a processing limit is
+   * exceeded.
    */
-  private static class PreprocessingWhitelist extends Safelist {
+  private static class CleaningFilter implements NodeFilter {
 
-    public PreprocessingWhitelist() {
-      super();
+    /** The root element (the body). */
+    private final Element root;
+
+    /** The processing budget. */
+    private final MessageProcessingLimits.Budget budget;
+
+    /** Whether all visited nodes were allowed. */
+    private boolean valid = true;
+
+    /** Set if a processing limit was exceeded. */
+    private MessageProcessingException limitExceeded;
+
+    /** CDATA nodes found during the traversal. */
+    private final List<CDataNode> cdataNodes = new ArrayList<>();
+
+    /**
+     * Constructor.
+     *
+     * @param root the root element
+     * @param budget the processing budget
+     */
+    public CleaningFilter(final Element root, final MessageProcessingLimits.Budget budget) {
+      this.root = root;
+      this.budget = budget;
     }
 
+    /** {@inheritDoc} */
+    @Nonnull
     @Override
-    public boolean isSafeAttribute(@Nonnull final String tagName, @Nonnull final Element el,
-        @Nonnull final Attribute attr) {
-      return true;
+    public FilterResult head(@Nonnull final Node node, final int depth) {
+      if (node == this.root) {
+        return FilterResult.CONTINUE;
+      }
+      try {
+        this.budget.countNode(depth);
+      }
+      catch (final MessageProcessingException e) {
+        this.limitExceeded = e;
+        return FilterResult.STOP;
+      }
+      if (node instanceof final CDataNode cdata) {
+        this.cdataNodes.add(cdata);
+        return FilterResult.CONTINUE;
+      }
+      if (node instanceof TextNode) {
+        return FilterResult.CONTINUE;
+      }
+      if (node instanceof final Element element && allowedHtmlTags.contains(element.normalName())) {
+        element.clearAttributes();
+        return FilterResult.CONTINUE;
+      }
+      this.valid = false;
+      return FilterResult.STOP;
+    }
+
+    /**
+     * Tells whether all visited nodes were allowed.
+     *
+     * @return {@code true} if the HTML only contained allowed tags and {@code false} otherwise
+     */
+    public boolean isValid() {
+      return this.valid;
+    }
+
+    /**
+     * If a processing limit was exceeded during the traversal, the exception to throw is returned.
+     *
+     * @return a {@link MessageProcessingException} or {@code null}
+     */
+    public MessageProcessingException getLimitExceeded() {
+      return this.limitExceeded;
+    }
+
+    /**
+     * Gets the CDATA nodes that were found during the traversal.
+     *
+     * @return a list of CDATA nodes
+     */
+    public List<CDataNode> getCdataNodes() {
+      return this.cdataNodes;
     }
   }
 
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2023-2025 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.eid.idp.authn;
+
+import se.swedenconnect.eid.idp.users.ImmutableSimulatedUser;
+import se.swedenconnect.eid.idp.users.SimulatedUser;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Base class for {@link SavedUserStore} implementations, holding the limits and the logic for merging added users.
+ *
+ * @author agent
+ */
+public abstract class AbstractSavedUserStore implements SavedUserStore {
+
+  /** The maximum number of identifiers held by the store. */
+  protected final int maxEntries;
+
+  /** The maximum number of users per identifier. */
+  protected final int maxUsers;
+
+  /** The time (in millis) after which an unused identifier is evicted. */
+  protected final long idleTimeout;
+
+  /**
+   * Constructor.
+   *
+   * @param maxEntries the maximum number of identifiers held by the store
+   * @param maxUsers the maximum number of users per identifier
+   * @param idleTimeout the time after which an unused identifier is evicted
+   */
+  protected AbstractSavedUserStore(final int maxEntries, final int maxUsers, final Duration idleTimeout) {
+    if (maxEntries <= 0) {
+      throw new IllegalArgumentException("maxEntries must be greater than 0");
+    }
+    if (maxUsers <= 0) {
+      throw new IllegalArgumentException("maxUsers must be greater than 0");
+    }
+    this.maxEntries = maxEntries;
+    this.maxUsers = maxUsers;
+    this.idleTimeout = Objects.requireNonNull(idleTimeout, "idleTimeout must not be null").toMillis();
+  }
+
+  /**
+   * Merges added users into the current users. Users that already are present are moved last, and if there are more
+   * than {@code maxUsers} users, the first (oldest) users are removed.
+   *
+   * @param current the current users
+   * @param added the users to add
+   * @return an unmodifiable list of (immutable) users
+   */
+  protected List<SimulatedUser> merge(final List<SimulatedUser> current, final List<SimulatedUser> added) {
+    final Set<String> addedNumbers = new HashSet<>();
+    added.forEach(u -> addedNumbers.add(u.getPersonalNumber()));
+    final List<SimulatedUser> merged = new ArrayList<>(current.size() + added.size());
+    for (final SimulatedUser user : current) {
+      if (!addedNumbers.contains(user.getPersonalNumber())) {
+        merged.add(user);
+      }
+    }
+    added.forEach(u -> merged.add(ImmutableSimulatedUser.of(u)));
+    return List.copyOf(merged.subList(Math.max(0, merged.size() - this.maxUsers), merged.size()));
+  }
+
+}
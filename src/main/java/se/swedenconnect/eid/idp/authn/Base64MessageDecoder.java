@@ -0,0 +1,222 @@
+/*
+ * Copyright 2023-2025 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.eid.idp.authn;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A decoder for Base64-encoded UTF-8 messages that enforces an upper limit on the size of the decoded message.
+ * <p>
+ * The size of the decoded message is calculated from the length of the encoded message, so too large messages are
+ * rejected before any decoding takes place. The decoding is streamed through a small byte buffer into a char buffer.
+ * Both buffers are re-used between invocations made by the same thread (unless the message is larger than
+ * {@value #MAX_RETAINED_BUFFER_SIZE} characters).
+ * </p>
+ * <p>
+ * The decoder accepts the same input as {@link java.util.Base64#getDecoder()}, and gives the same result as
+ * {@code new String(Base64.getDecoder().decode(s), StandardCharsets.UTF_8)}.
+ * </p>
+ *
+ * @author agent
+ */
+public class Base64MessageDecoder {
+
+  /** The size of the char buffer that is retained between invocations. */
+  public static final int MAX_RETAINED_BUFFER_SIZE = 16 * 1024;
+
+  /** The size of the byte buffer that the decoded bytes are written to before being decoded to chars. */
+  private static final int CHUNK_SIZE = 3 * 1024;
+
+  /** Marker for invalid Base64 characters. */
+  private static final int INVALID = -1;
+
+  /** Lookup table for Base64 characters. */
+  private static final int[] base64Values = new int[128];
+
+  static {
+    Arrays.fill(base64Values, INVALID);
+    final String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+    for (int i = 0; i < alphabet.length(); i++) {
+      base64Values[alphabet.charAt(i)] = i;
+    }
+  }
+
+  /** The maximum allowed size (in bytes) of a decoded message. */
+  private final int maxDecodedSize;
+
+  /** Per thread decoder state. */
+  private final ThreadLocal<DecoderState> decoderState = ThreadLocal.withInitial(DecoderState::new);
+
+  /**
+   * Constructor.
+   *
+   * @param maxDecodedSize the maximum allowed size (in bytes) of a decoded message
+   */
+  public Base64MessageDecoder(final int maxDecodedSize) {
+    if (maxDecodedSize <= 0) {
+      throw new IllegalArgumentException("maxDecodedSize must be greater than 0");
+    }
+    this.maxDecodedSize = maxDecodedSize;
+  }
+
+  /**
+   * Gets the maximum allowed size (in bytes) of a decoded message.
+   *
+   * @return the maximum size in bytes
+   */
+  public int getMaxDecodedSize() {
+    return this.maxDecodedSize;
+  }
+
+  /**
+   * Decodes the supplied Base64-encoded message into a string.
+   *
+   * @param encodedMessage the Base64-encoded message
+   * @return the decoded message
+   * @throws MessageProcessingException for invalid encoding, or if the decoded message is too large
+   */
+  public String decode(final String encodedMessage) throws MessageProcessingException {
+
+    // Calculate the decoded size given the length and padding of the encoded message ...
+    //
+    final int length = encodedMessage.length();
+    int padding = 0;
+    if (length > 0 && encodedMessage.charAt(length - 1) == '=') {
+      padding = length > 1 && encodedMessage.charAt(length - 2) == '=' ? 2 : 1;
+      if (length % 4 != 0) {
+        throw new MessageProcessingException("Invalid message encoding");
+      }
+    }
+    final int dataLength = length - padding;
+    if (dataLength % 4 == 1) {
+      throw new MessageProcessingException("Invalid message encoding");
+    }
+    final long decodedSize = (dataLength / 4) * 3L + (dataLength % 4 == 0 ? 0 : dataLength % 4 - 1);
+    if (decodedSize > this.maxDecodedSize) {
+      throw new MessageProcessingException(String.format(
+          "Message exceeds the maximum allowed size (%d bytes)", this.maxDecodedSize));
+    }
+    if (decodedSize == 0) {
+      return "";
+    }
+
+    // Decode ...
+    //
+    final DecoderState state = this.decoderState.get();
+    final CharBuffer output = state.getOutputBuffer((int) decodedSize);
+    final CharsetDecoder decoder = state.decoder.reset();
+    final byte[] chunk = state.chunk;
+    int pos = 0;
+
+    int bits = 0;
+    int count = 0;
+    for (int i = 0; i < dataLength; i++) {
+      final char c = encodedMessage.charAt(i);
+      final int value = c < 128 ? base64Values[c] : INVALID;
+      if (value == INVALID) {
+        throw new MessageProcessingException("Invalid message encoding");
+      }
+      bits = (bits << 6) | value;
+      if (++count == 4) {
+        chunk[pos++] = (byte) (bits >> 16);
+        chunk[pos++] = (byte) (bits >> 8);
+        chunk[pos++] = (byte) bits;
+        bits = 0;
+        count = 0;
+        if (pos > CHUNK_SIZE - 3) {
+          pos = decodeChunk(decoder, state.chunkBuffer, pos, output, false);
+        }
+      }
+    }
+    if (count == 2) {
+      chunk[pos++] = (byte) (bits >> 4);
+    }
+    else if (count == 3) {
+      chunk[pos++] = (byte) (bits >> 10);
+      chunk[pos++] = (byte) (bits >> 2);
+    }
+    decodeChunk(decoder, state.chunkBuffer, pos, output, true);
+    decoder.flush(output);
+
+    return new String(output.array(), 0, output.position());
+  }
+
+  /**
+   * Decodes the bytes in the chunk into the output buffer. Any bytes that could not be decoded (an incomplete UTF-8
+   * sequence) are moved to the start of the chunk.
+   *
+   * @param decoder the charset decoder
+   * @param chunk the chunk
+   * @param length the number of bytes in the chunk
+   * @param output the output buffer
+   * @param endOfInput whether this is the last chunk
+   * @return the number of bytes left in the chunk
+   */
+  private static int decodeChunk(final CharsetDecoder decoder, final ByteBuffer chunk, final int length,
+      final CharBuffer output, final boolean endOfInput) {
+    chunk.clear().limit(length);
+    decoder.decode(chunk, output, endOfInput);
+    final int remaining = chunk.remaining();
+    if (remaining > 0) {
+      System.arraycopy(chunk.array(), chunk.position(), chunk.array(), 0, remaining);
+    }
+    return remaining;
+  }
+
+  /**
+   * Decoder state that is re-used between invocations made by the same thread.
+   */
+  private static class DecoderState {
+
+    /** UTF-8 decoder that replaces malformed input (as {@code new String(bytes, UTF_8)} does). */
+    final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    /** Buffer for decoded bytes. */
+    final byte[] chunk = new byte[CHUNK_SIZE];
+
+    /** Byte buffer wrapping the chunk. */
+    final ByteBuffer chunkBuffer = ByteBuffer.wrap(this.chunk);
+
+    /** Re-usable output buffer. */
+    CharBuffer output;
+
+    /**
+     * Gets an output buffer that can hold at least {@code size} chars. A UTF-8 decoded byte never gives more than one
+     * char, so the decoded size in bytes is a safe upper limit.
+     *
+     * @param size the required size
+     * @return a cleared char buffer
+     */
+    CharBuffer getOutputBuffer(final int size) {
+      if (size > MAX_RETAINED_BUFFER_SIZE) {
+        return CharBuffer.allocate(size);
+      }
+      if (this.output == null || this.output.capacity() < size) {
+        this.output = CharBuffer.allocate(
+            Math.min(MAX_RETAINED_BUFFER_SIZE, Math.max(size, this.output == null ? 1024 : this.output.capacity() * 2)));
+      }
+      return this.output.clear();
+    }
+  }
+
+}
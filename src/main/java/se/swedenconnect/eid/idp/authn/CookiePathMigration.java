@@ -0,0 +1,150 @@
+/*
+ * Copyright 2023-2025 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.eid.idp.authn;
+
+import jakarta.servlet.http.Cookie;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import se.swedenconnect.eid.idp.config.CookieWriter;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Moves the IdP cookies from a previous (broader) cookie path to the current cookie path.
+ * <p>
+ * When the cookie path is narrowed (for example from the context path to the authentication path), browsers still
+ * hold the cookies set with the previous path, and send them with every request under that path (including requests
+ * for static resources). The first time a browser visits the IdP after the change, the cookies are written with the
+ * current path (keeping their values), and cleared for the previous path. A small marker cookie, holding the current
+ * path, is set so that this is only done once. If the cookie path is the same as the previous path, nothing is done.
+ * </p>
+ *
+ * @author agent
+ */
+public class CookiePathMigration {
+
+  /** The name of the marker cookie. */
+  public static final String MARKER_COOKIE_NAME = "idpCookiePath";
+
+  /** The previous cookie path. */
+  private final String legacyPath;
+
+  /** The writers for the cookies to migrate (using the current path). */
+  private final List<CookieWriter> writers;
+
+  /** The writer for the marker cookie. */
+  private final CookieWriter marker;
+
+  /**
+   * Constructor.
+   *
+   * @param legacyPath the previous cookie path
+   * @param writers the writers for the cookies to migrate (using the current path)
+   */
+  public CookiePathMigration(final String legacyPath, final List<CookieWriter> writers) {
+    this.legacyPath = Objects.requireNonNull(legacyPath, "legacyPath must not be null");
+    this.writers = List.copyOf(Objects.requireNonNull(writers, "writers must not be null"));
+    if (this.writers.isEmpty()) {
+      throw new IllegalArgumentException("writers must not be empty");
+    }
+    this.marker = new CookieWriter(MARKER_COOKIE_NAME, this.getPath(), Duration.ofDays(365));
+  }
+
+  /**
+   * Migrates the cookies of the request, unless the request holds a marker cookie telling that the cookies already
+   * have been migrated.
+   *
+   * @param request the HTTP servlet request
+   * @param response the HTTP servlet response
+   * @return {@code true} if the cookies were migrated and {@code false} if they already had been migrated (or if the
+   *     cookie path has not been changed)
+   */
+  public boolean migrate(final HttpServletRequest request, final HttpServletResponse response) {
+    if (!this.isEnabled()) {
+      return false;
+    }
+    final Cookie[] cookies = request.getCookies();
+    if (cookies != null) {
+      for (final Cookie cookie : cookies) {
+        if (MARKER_COOKIE_NAME.equals(cookie.getName()) && this.getPath().equals(cookie.getValue())) {
+          return false;
+        }
+      }
+    }
+
+    // Cookies with the same name are sent with the most specific path first, so if the browser holds both a
+    // legacy and a current cookie, the current value is kept ...
+    //
+    final Set<String> migrated = new HashSet<>();
+    if (cookies != null) {
+      for (final Cookie cookie : cookies) {
+        if (migrated.contains(cookie.getName())) {
+          continue;
+        }
+        for (final CookieWriter writer : this.writers) {
+          final int index = getIndex(writer, cookie.getName());
+          if (index >= 0) {
+            writer.addCookie(index, cookie.getValue(), response);
+            writer.clearCookie(index, this.legacyPath, response);
+            migrated.add(cookie.getName());
+            break;
+          }
+        }
+      }
+    }
+    this.marker.addCookie(this.getPath(), response);
+    return true;
+  }
+
+  /**
+   * Tells whether the cookie path differs from the previous path, i.e., whether cookies need to be migrated.
+   *
+   * @return {@code true} if cookies are migrated and {@code false} otherwise
+   */
+  public boolean isEnabled() {
+    return !this.legacyPath.equals(this.getPath());
+  }
+
+  /**
+   * Gets the current cookie path.
+   *
+   * @return the cookie path
+   */
+  public String getPath() {
+    return this.writers.get(0).getPath();
+  }
+
+  /**
+   * Gets the number of a numbered cookie (see {@link CookieWriter#getName(int)}) written by the supplied writer.
+   *
+   * @param writer the cookie writer
+   * @param name the cookie name
+   * @return the cookie number, or -1 if the cookie is not written by the writer
+   */
+  private static int getIndex(final CookieWriter writer, final String name) {
+    for (int i = 0; i < SavedUsersCookie.MAX_COOKIES; i++) {
+      if (writer.getName(i).equals(name)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+}
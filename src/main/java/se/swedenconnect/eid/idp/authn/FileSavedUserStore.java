@@ -0,0 +1,224 @@
+/*
+ * Copyright 2023-2025 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.eid.idp.authn;
+
+import lombok.extern.slf4j.Slf4j;
+import se.swedenconnect.eid.idp.users.SimulatedUser;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A file-backed {@link SavedUserStore}. The users of each identifier are stored in a file named {@code <id>.users}
+ * in the given directory (using the same compact format as the saved users cookie, see {@link SavedUsersCookie}), and
+ * the last modification time of the file is used as the time the identifier was last used.
+ * <p>
+ * Files are replaced atomically, and each read, update (read, merge and write) and purge is made while holding an
+ * exclusive {@link FileLock} on a lock file in the directory. This way several IdP nodes may share the directory (for example on
+ * a shared volume), provided that the file system supports file locks.
+ * </p>
+ * <p>
+ * Expired files are removed, and if the directory holds more than the maximum number of files, the least recently
+ * used files are removed. This is done at most once a minute, when users are added.
+ * </p>
+ *
+ * @author agent
+ */
+@Slf4j
+public class FileSavedUserStore extends AbstractSavedUserStore {
+
+  /** The file name suffix. */
+  private static final String SUFFIX = ".users";
+
+  /** The name of the lock file that serializes updates (also between IdP nodes). */
+  private static final String LOCK_FILE = ".lock";
+
+  /** The minimum time (in millis) between two purges of the directory. */
+  private static final long PURGE_INTERVAL = 60_000L;
+
+  /** The directory holding the files. */
+  private final Path directory;
+
+  /** When the directory should be purged the next time. */
+  private long nextPurge = 0;
+
+  /**
+   * Constructor.
+   *
+   * @param directory the directory holding the files (created if it does not exist)
+   * @param maxEntries the maximum number of identifiers held by the store
+   * @param maxUsers the maximum number of users per identifier
+   * @param idleTimeout the time after which an unused identifier is evicted
+   * @throws IOException if the directory can not be created
+   */
+  public FileSavedUserStore(final Path directory, final int maxEntries, final int maxUsers,
+      final Duration idleTimeout) throws IOException {
+    super(maxEntries, maxUsers, idleTimeout);
+    this.directory = Files.createDirectories(Objects.requireNonNull(directory, "directory must not be null"));
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public synchronized List<SimulatedUser> getUsers(final String id) {
+    final Path file = this.getFile(id);
+    try (final FileChannel channel = this.openLockFile();
+        final FileLock ignored = channel.lock()) {
+      return this.readUsers(file);
+    }
+    catch (final IOException e) {
+      throw new UncheckedIOException("Failed to read saved users from " + file, e);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public synchronized List<SimulatedUser> addUsers(final String id, final List<SimulatedUser> users) {
+    final Path file = this.getFile(id);
+    final List<SimulatedUser> merged;
+    try (final FileChannel channel = this.openLockFile();
+        final FileLock ignored = channel.lock()) {
+
+      merged = this.merge(this.readUsers(file), users);
+      final String value = SavedUsersCookie.encode(merged, Integer.MAX_VALUE).get(0);
+      final Path tmp = Files.createTempFile(this.directory, id, ".tmp");
+      try {
+        Files.writeString(tmp, value, StandardCharsets.US_ASCII);
+        try {
+          Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (final AtomicMoveNotSupportedException e) {
+          Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+      }
+      finally {
+        Files.deleteIfExists(tmp);
+      }
+    }
+    catch (final IOException e) {
+      throw new UncheckedIOException("Failed to write saved users to " + file, e);
+    }
+    if (System.currentTimeMillis() >= this.nextPurge) {
+      this.purge();
+    }
+    return merged;
+  }
+
+  /**
+   * Removes expired files, and the least recently used files if the directory holds more than the maximum number of
+   * files.
+   */
+  public synchronized void purge() {
+    final long now = System.currentTimeMillis();
+    this.nextPurge = now + PURGE_INTERVAL;
+    final List<FileEntry> files = new ArrayList<>();
+    try (final FileChannel channel = this.openLockFile();
+        final FileLock ignored = channel.lock();
+        final DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory, "*" + SUFFIX)) {
+      for (final Path file : stream) {
+        try {
+          final long lastModified = Files.getLastModifiedTime(file).toMillis();
+          if (now - lastModified >= this.idleTimeout) {
+            Files.deleteIfExists(file);
+          }
+          else {
+            files.add(new FileEntry(file, lastModified));
+          }
+        }
+        catch (final NoSuchFileException e) {
+          // Removed by another node ...
+        }
+      }
+      if (files.size() > this.maxEntries) {
+        files.sort(Comparator.comparingLong(FileEntry::lastModified));
+        for (final FileEntry entry : files.subList(0, files.size() - this.maxEntries)) {
+          Files.deleteIfExists(entry.file());
+        }
+      }
+    }
+    catch (final IOException e) {
+      log.warn("Failed to purge saved users directory {} - {}", this.directory, e.getMessage());
+    }
+  }
+
+  /**
+   * Reads the users from a file and updates its last modification time. An expired file is removed. The caller must
+   * hold the lock.
+   *
+   * @param file the file
+   * @return the users (empty if the file does not exist or has expired)
+   * @throws IOException for read errors
+   */
+  private List<SimulatedUser> readUsers(final Path file) throws IOException {
+    try {
+      final long now = System.currentTimeMillis();
+      if (now - Files.getLastModifiedTime(file).toMillis() >= this.idleTimeout) {
+        Files.deleteIfExists(file);
+        return Collections.emptyList();
+      }
+      final String value = Files.readString(file, StandardCharsets.US_ASCII);
+      Files.setLastModifiedTime(file, FileTime.fromMillis(now));
+      return List.copyOf(SavedUsersCookie.decode(new String[] { value }));
+    }
+    catch (final NoSuchFileException e) {
+      return Collections.emptyList();
+    }
+  }
+
+  /**
+   * Opens the lock file that serializes the access to the directory.
+   *
+   * @return the file channel
+   * @throws IOException if the lock file can not be opened
+   */
+  private FileChannel openLockFile() throws IOException {
+    return FileChannel.open(this.directory.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+  }
+
+  /**
+   * Gets the file for an identifier.
+   *
+   * @param id the identifier
+   * @return the file
+   * @throws IllegalArgumentException if the identifier is not valid
+   */
+  private Path getFile(final String id) {
+    if (!SavedUserStore.isValidId(id)) {
+      throw new IllegalArgumentException("Invalid identifier");
+    }
+    return this.directory.resolve(id + SUFFIX);
+  }
+
+  private record FileEntry(Path file, long lastModified) {
+  }
+
+}
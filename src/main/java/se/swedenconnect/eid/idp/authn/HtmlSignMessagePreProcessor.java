@@ -15,7 +15,7 @@
  */
 package se.swedenconnect.eid.idp.authn;
 
-import org.springframework.stereotype.Component;
+import lombok.Setter;
 import se.swedenconnect.opensaml.sweid.saml2.signservice.dss.SignMessageMimeTypeEnum;
 import se.swedenconnect.spring.saml.idp.error.Saml2ErrorStatus;
 import se.swedenconnect.spring.saml.idp.error.Saml2ErrorStatusException;
@@ -26,9 +26,12 @@ import se.swedenconnect.spring.saml.idp.extensions.SignatureMessagePreprocessor;
  *
  * @author Martin Lindström
  */
-@Component
 public class HtmlSignMessagePreProcessor extends AbstractMessagePreProcessor implements SignatureMessagePreprocessor {
 
+  /** Optional cache for processed sign messages. */
+  @Setter
+  private ProcessedMessageCache cache;
+
   /**
    * Constructor.
    */
@@ -41,6 +44,30 @@ public class HtmlSignMessagePreProcessor extends AbstractMessagePreProcessor imp
   public String processSignMessage(final String encodedText, final SignMessageMimeTypeEnum messageType)
       throws Saml2ErrorStatusException {
 
+    if (this.cache == null) {
+      return this.processMessage(encodedText, messageType);
+    }
+    final String key = ProcessedMessageCache.createKey(encodedText,
+        messageType != null ? messageType.name() : SignMessageMimeTypeEnum.TEXT.name());
+    String html = this.cache.get(key);
+    if (html == null) {
+      html = this.processMessage(encodedText, messageType);
+      this.cache.put(key, html);
+    }
+    return html;
+  }
+
+  /**
+   * Transforms the supplied sign message into HTML.
+   *
+   * @param encodedText the Base64-encoded message
+   * @param messageType the message type
+   * @return the HTML
+   * @throws Saml2ErrorStatusException for processing errors
+   */
+  private String processMessage(final String encodedText, final SignMessageMimeTypeEnum messageType)
+      throws Saml2ErrorStatusException {
+
     try {
       final String input = this.decodeMessage(encodedText);
 
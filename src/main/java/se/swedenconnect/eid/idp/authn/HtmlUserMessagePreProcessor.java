@@ -15,8 +15,8 @@
  */
 package se.swedenconnect.eid.idp.authn;
 
+import lombok.Setter;
 import org.springframework.lang.NonNull;
-import org.springframework.stereotype.Component;
 import org.springframework.util.MimeType;
 import org.springframework.util.MimeTypeUtils;
 import se.swedenconnect.spring.saml.idp.error.Saml2ErrorStatus;
@@ -24,18 +24,43 @@ import se.swedenconnect.spring.saml.idp.error.Saml2ErrorStatusException;
 import se.swedenconnect.spring.saml.idp.extensions.UserMessagePreprocessor;
 
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
 /**
- * Transforms all user messages to safe HTML for later inclusion in the IdP UI.
+ * Transforms all user messages to safe HTML for later inclusion in the IdP UI. All messages are validated when the
+ * message is processed, but each message is rendered into HTML first when it is read.
+ * <p>
+ * Identical (encoded) messages, for example a fallback message given for several languages, are only processed once.
+ * If an executor has been assigned, and the number of distinct messages reaches the parallel threshold, the messages
+ * are processed in parallel.
+ * </p>
  *
  * @author Martin Lindström
  */
-@Component
 public class HtmlUserMessagePreProcessor extends AbstractMessagePreProcessor implements UserMessagePreprocessor {
 
   private static final MimeType TEXT_MARKDOWN = MimeTypeUtils.parseMimeType("text/markdown");
 
+  /** The default number of distinct messages needed for parallel processing. */
+  public static final int DEFAULT_PARALLEL_THRESHOLD = 4;
+
+  /** Optional executor for parallel processing of messages. If not set, messages are processed sequentially. */
+  @Setter
+  private Executor executor;
+
+  /**
+   * The number of distinct messages needed for messages to be processed in parallel (if an executor is assigned).
+   * Zero disables parallel processing.
+   */
+  @Setter
+  private int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+
   /** {@inheritDoc} */
   @NonNull
   @Override
@@ -43,26 +68,88 @@ public class HtmlUserMessagePreProcessor extends AbstractMessagePreProcessor imp
       @NonNull final MimeType mimeType) throws Saml2ErrorStatusException {
 
     try {
-      final Map<String, String> processed = new HashMap<>();
-
+      final MessagePreparer preparer;
       if (MimeTypeUtils.TEXT_PLAIN.equals(mimeType)) {
-        for (final Map.Entry<String, String> entry : messages.entrySet()) {
-          processed.put(entry.getKey(), this.textToHtml(this.decodeMessage(entry.getValue())));
-        }
+        preparer = encodedMessage -> new LazyProcessedMessageMap.Message(
+            LazyProcessedMessageMap.Format.TEXT, this.decodeMessage(encodedMessage));
       }
       else if (TEXT_MARKDOWN.equals(mimeType)) {
-        for (final Map.Entry<String, String> entry : messages.entrySet()) {
-          processed.put(entry.getKey(), this.markdownToHtml(this.decodeMessage(entry.getValue())));
-        }
+        preparer = encodedMessage -> this.prepareMarkdown(this.decodeMessage(encodedMessage));
       }
       else {
         throw new Saml2ErrorStatusException(Saml2ErrorStatus.INVALID_USER_MESSAGE, "Unsupported MIME type");
       }
-      return processed;
+
+      // Decode and validate each distinct message, but postpone the rendering of each message until it is read
+      // (only one of the messages will be displayed) ...
+      //
+      final Map<String, LazyProcessedMessageMap.Message> prepared =
+          this.prepareMessages(new LinkedHashSet<>(messages.values()), preparer);
+
+      // The keys sharing the same message also share the same message object (the message is rendered once) ...
+      //
+      final Map<String, LazyProcessedMessageMap.Message> validated = new LinkedHashMap<>();
+      messages.forEach((key, encodedMessage) -> validated.put(key, prepared.get(encodedMessage)));
+      return new LazyProcessedMessageMap(validated);
     }
     catch (final MessageProcessingException e) {
       throw new Saml2ErrorStatusException(Saml2ErrorStatus.INVALID_USER_MESSAGE, e.getMessage(), e);
     }
   }
 
+  /**
+   * Prepares (decodes and validates) the supplied messages. If the number of messages reaches the parallel threshold,
+   * and an executor has been assigned, the messages are prepared in parallel.
+   *
+   * @param encodedMessages the distinct encoded messages
+   * @param preparer the message preparer
+   * @return a map of the encoded messages and their validated messages
+   * @throws MessageProcessingException for processing errors
+   */
+  private Map<String, LazyProcessedMessageMap.Message> prepareMessages(final Set<String> encodedMessages,
+      final MessagePreparer preparer) throws MessageProcessingException {
+
+    final Map<String, LazyProcessedMessageMap.Message> prepared = new HashMap<>();
+    if (this.executor == null || this.parallelThreshold <= 0 || encodedMessages.size() < this.parallelThreshold) {
+      for (final String encodedMessage : encodedMessages) {
+        prepared.put(encodedMessage, preparer.prepare(encodedMessage));
+      }
+      return prepared;
+    }
+
+    final Map<String, CompletableFuture<LazyProcessedMessageMap.Message>> futures = new LinkedHashMap<>();
+    for (final String encodedMessage : encodedMessages) {
+      futures.put(encodedMessage, CompletableFuture.supplyAsync(() -> {
+        try {
+          return preparer.prepare(encodedMessage);
+        }
+        catch (final MessageProcessingException e) {
+          throw new CompletionException(e);
+        }
+      }, this.executor));
+    }
+    for (final Map.Entry<String, CompletableFuture<LazyProcessedMessageMap.Message>> entry : futures.entrySet()) {
+      try {
+        prepared.put(entry.getKey(), entry.getValue().join());
+      }
+      catch (final CompletionException e) {
+        futures.values().forEach(f -> f.cancel(false));
+        if (e.getCause() instanceof final MessageProcessingException mpe) {
+          throw mpe;
+        }
+        throw e;
+      }
+    }
+    return prepared;
+  }
+
+  /**
+   * Decodes and validates an encoded message, and returns a message that is rendered into HTML when read.
+   */
+  @FunctionalInterface
+  private interface MessagePreparer {
+
+    LazyProcessedMessageMap.Message prepare(final String encodedMessage) throws MessageProcessingException;
+  }
+
 }
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2023-2025 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.eid.idp.authn;
+
+import jakarta.servlet.http.Cookie;
+import jakarta.servlet.http.HttpServletRequest;
+import se.swedenconnect.eid.idp.users.SimulatedUser;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Holds the IdP cookies of a request. The cookies of the request are scanned once, and the values are decoded the
+ * first time they are asked for, so a request that needs the same value several times (for example the saved users,
+ * that are needed both when a user is selected and when the view is rendered) only decodes it once.
+ * <p>
+ * The context is stored as a request attribute, see
+ * {@link #getContext(HttpServletRequest, String, SavedUsersCookie, String)}.
+ * </p>
+ *
+ * @author agent
+ */
+public class IdpCookieContext {
+
+  /** The name of the request attribute holding the context. */
+  public static final String ATTRIBUTE_NAME = IdpCookieContext.class.getName();
+
+  /** The value of the selected user cookie ({@code personal-number#loa}). */
+  private final String selection;
+
+  /** The values of the (numbered) saved users cookies. */
+  private final String[] savedUsersValues = new String[SavedUsersCookie.MAX_COOKIES];
+
+  /** Reads the saved users given the values of the saved users cookies. */
+  private final SavedUsersCookie savedUsersCookie;
+
+  /** The value of the auto authentication cookie. */
+  private final String autoAuthnUser;
+
+  /** The selected user (decoded from the selection). */
+  private String selectedUser;
+
+  /** The selected LoA (decoded from the selection). */
+  private String selectedLoa;
+
+  /** Whether the selection has been decoded. */
+  private boolean selectionDecoded = false;
+
+  /** The saved users (decoded from the saved users cookie). */
+  private List<SimulatedUser> savedUsers;
+
+  /**
+   * Constructor scanning the cookies of the request, where the saved users are read using the supplied
+   * {@link SavedUsersCookie} (that may use a {@link SavedUserStore}).
+   *
+   * @param request the HTTP servlet request
+   * @param selectedUserCookie the name of the selected user cookie
+   * @param savedUsersCookie the saved users cookie
+   * @param autoAuthnCookie the name of the auto authentication cookie
+   */
+  public IdpCookieContext(final HttpServletRequest request, final String selectedUserCookie,
+      final SavedUsersCookie savedUsersCookie, final String autoAuthnCookie) {
+    this.savedUsersCookie = Objects.requireNonNull(savedUsersCookie, "savedUsersCookie must not be null");
+    final String savedUsersCookieName = savedUsersCookie.getName();
+    String selection = null;
+    String autoAuthn = null;
+    final Cookie[] cookies = request.getCookies();
+    if (cookies != null) {
+      for (final Cookie cookie : cookies) {
+        final String name = cookie.getName();
+        if (selection == null && name.equals(selectedUserCookie)) {
+          selection = cookie.getValue();
+        }
+        else if (autoAuthn == null && name.equals(autoAuthnCookie)) {
+          autoAuthn = cookie.getValue();
+        }
+        else if (name.startsWith(savedUsersCookieName)) {
+          final int index = getCookieIndex(name, savedUsersCookieName.length());
+          if (index >= 0 && this.savedUsersValues[index] == null) {
+            this.savedUsersValues[index] = cookie.getValue();
+          }
+        }
+      }
+    }
+    this.selection = selection;
+    this.autoAuthnUser = autoAuthn;
+  }
+
+  /**
+   * Gets the cookie context for the request, where the saved users are read using the supplied
+   * {@link SavedUsersCookie}. The context is created the first time it is asked for, and is then stored as a request
+   * attribute.
+   *
+   * @param request the HTTP servlet request
+   * @param selectedUserCookie the name of the selected user cookie
+   * @param savedUsersCookie the saved users cookie
+   * @param autoAuthnCookie the name of the auto authentication cookie
+   * @return the cookie context
+   */
+  public static IdpCookieContext getContext(final HttpServletRequest request, final String selectedUserCookie,
+      final SavedUsersCookie savedUsersCookie, final String autoAuthnCookie) {
+    if (request.getAttribute(ATTRIBUTE_NAME) instanceof final IdpCookieContext context) {
+      return context;
+    }
+    final IdpCookieContext context =
+        new IdpCookieContext(request, selectedUserCookie, savedUsersCookie, autoAuthnCookie);
+    request.setAttribute(ATTRIBUTE_NAME, context);
+    return context;
+  }
+
+  /**
+   * Gets the personal identity number of the last selected user.
+   *
+   * @return the personal identity number, or {@code null}
+   */
+  public String getSelectedUser() {
+    this.decodeSelection();
+    return this.selectedUser;
+  }
+
+  /**
+   * Gets the last selected LoA.
+   *
+   * @return the LoA URI, or {@code null}
+   */
+  public String getSelectedLoa() {
+    this.decodeSelection();
+    return this.selectedLoa;
+  }
+
+  /**
+   * Gets the users that have been entered in the "Advanced" view.
+   *
+   * @return an unmodifiable list of users
+   */
+  public List<SimulatedUser> getSavedUsers() {
+    if (this.savedUsers == null) {
+      this.savedUsers = Collections.unmodifiableList(this.savedUsersCookie.read(this.savedUsersValues));
+    }
+    return this.savedUsers;
+  }
+
+  /**
+   * Gets the number of saved users cookies received (the saved users may be split over several cookies).
+   *
+   * @return the number of cookies
+   */
+  public int getSavedUsersCookieCount() {
+    int count = 0;
+    for (int i = 0; i < this.savedUsersValues.length; i++) {
+      if (this.savedUsersValues[i] != null) {
+        count = i + 1;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Gets the values of the (numbered) saved users cookies.
+   *
+   * @return the values, where missing cookies are {@code null}
+   */
+  String[] getSavedUsersValues() {
+    return this.savedUsersValues;
+  }
+
+  /**
+   * Updates the saved users (when a new saved users cookie has been written in the response), so that the rest of
+   * the request sees the new users.
+   *
+   * @param savedUsers the saved users
+   */
+  public void setSavedUsers(final List<SimulatedUser> savedUsers) {
+    this.savedUsers = Collections.unmodifiableList(Objects.requireNonNull(savedUsers, "savedUsers must not be null"));
+  }
+
+  /**
+   * Finds a saved user.
+   *
+   * @param personalNumber the personal identity number
+   * @return the saved user, or {@code null}
+   */
+  public SimulatedUser getSavedUser(final String personalNumber) {
+    for (final SimulatedUser user : this.getSavedUsers()) {
+      if (user.getPersonalNumber() != null && user.getPersonalNumber().equals(personalNumber)) {
+        return user;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Gets the personal identity number of the user for automatic authentication.
+   *
+   * @return the personal identity number, or {@code null}
+   */
+  public String getAutoAuthnUser() {
+    return this.autoAuthnUser;
+  }
+
+  /**
+   * Gets the number of a numbered cookie (see {@code CookieWriter#getName(int)}).
+   *
+   * @param name the cookie name
+   * @param baseLength the length of the base name
+   * @return the cookie number, or -1 if the name is not a valid numbered cookie name
+   */
+  private static int getCookieIndex(final String name, final int baseLength) {
+    if (name.length() == baseLength) {
+      return 0;
+    }
+    if (name.length() == baseLength + 1) {
+      final int index = name.charAt(baseLength) - '0';
+      return index >= 1 && index < SavedUsersCookie.MAX_COOKIES ? index : -1;
+    }
+    return -1;
+  }
+
+  private void decodeSelection() {
+    if (!this.selectionDecoded) {
+      if (this.selection != null) {
+        final int pos = this.selection.indexOf('#');
+        this.selectedUser = pos >= 0 ? this.selection.substring(0, pos) : this.selection;
+        this.selectedLoa = pos >= 0 ? this.selection.substring(pos + 1) : null;
+      }
+      this.selectionDecoded = true;
+    }
+  }
+
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2023-2025 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.eid.idp.authn;
+
+import se.swedenconnect.eid.idp.users.SimulatedUser;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * An in-memory {@link SavedUserStore}. The identifiers are kept in least recently used order, and when the store is
+ * full, the least recently used identifier is evicted.
+ *
+ * @author agent
+ */
+public class InMemorySavedUserStore extends AbstractSavedUserStore {
+
+  /** The entries ordered by access (least recently used first). */
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+  /**
+   * Constructor.
+   *
+   * @param maxEntries the maximum number of identifiers held by the store
+   * @param maxUsers the maximum number of users per identifier
+   * @param idleTimeout the time after which an unused identifier is evicted
+   */
+  public InMemorySavedUserStore(final int maxEntries, final int maxUsers, final Duration idleTimeout) {
+    super(maxEntries, maxUsers, idleTimeout);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public synchronized List<SimulatedUser> getUsers(final String id) {
+    final long now = System.currentTimeMillis();
+    final Entry entry = this.entries.get(id);
+    if (entry == null) {
+      return Collections.emptyList();
+    }
+    if (entry.isExpired(now, this.idleTimeout)) {
+      this.entries.remove(id);
+      return Collections.emptyList();
+    }
+    entry.lastAccess = now;
+    return entry.users;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public synchronized List<SimulatedUser> addUsers(final String id, final List<SimulatedUser> users) {
+    final List<SimulatedUser> merged = this.merge(this.getUsers(id), users);
+    this.entries.put(id, new Entry(merged, System.currentTimeMillis()));
+    this.evict();
+    return merged;
+  }
+
+  /**
+   * Gets the number of identifiers held by the store.
+   *
+   * @return the number of identifiers
+   */
+  public synchronized int getEntryCount() {
+    return this.entries.size();
+  }
+
+  /**
+   * Removes expired entries, and the least recently used entries if the store holds too many entries. Since the
+   * entries are ordered by access, expired entries are always found first.
+   */
+  private void evict() {
+    final long now = System.currentTimeMillis();
+    final Iterator<Entry> iterator = this.entries.values().iterator();
+    while (iterator.hasNext()) {
+      final Entry entry = iterator.next();
+      if (this.entries.size() > this.maxEntries || entry.isExpired(now, this.idleTimeout)) {
+        iterator.remove();
+      }
+      else {
+        break;
+      }
+    }
+  }
+
+  /**
+   * The users for an identifier.
+   */
+  private static class Entry {
+
+    /** The users. */
+    private final List<SimulatedUser> users;
+
+    /** When the entry was last used. */
+    private long lastAccess;
+
+    Entry(final List<SimulatedUser> users, final long lastAccess) {
+      this.users = users;
+      this.lastAccess = lastAccess;
+    }
+
+    boolean isExpired(final long now, final long idleTimeout) {
+      return now - this.lastAccess >= idleTimeout;
+    }
+  }
+
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright 2023-2025 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.eid.idp.authn;
+
+import jakarta.annotation.Nonnull;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * An unmodifiable map of processed messages (language to HTML) where each message is rendered the first time its value
+ * is read. The rendered message is then kept, so each message is rendered at most once.
+ * <p>
+ * The map only holds the (validated) messages and their formats. The messages are rendered using the renderers shared
+ * by all message processors (see {@link AbstractMessagePreProcessor#render(Format, String)}), so no parsed documents or
+ * processor references are kept, and the messages must be validated before they are added to the map.
+ * </p>
+ * <p>
+ * When serialized, only the messages and their formats are written. Rendered messages are not written, so a
+ * deserialized map renders each message again when it is read.
+ * </p>
+ *
+ * @author agent
+ */
+class LazyProcessedMessageMap extends AbstractMap<String, String> implements Serializable {
+
+  @Serial
+  private static final long serialVersionUID = -4034961256617375311L;
+
+  /** The messages. */
+  private final Map<String, Message> messages;
+
+  /**
+   * Constructor.
+   *
+   * @param messages the validated messages for each language (the same message may be given for several languages)
+   */
+  LazyProcessedMessageMap(final Map<String, Message> messages) {
+    this.messages = new LinkedHashMap<>(messages);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String get(final Object key) {
+    final Message message = this.messages.get(key);
+    return message != null ? message.get() : null;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean containsKey(final Object key) {
+    return this.messages.containsKey(key);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public int size() {
+    return this.messages.size();
+  }
+
+  /** {@inheritDoc} */
+  @Nonnull
+  @Override
+  public Set<String> keySet() {
+    return Collections.unmodifiableSet(this.messages.keySet());
+  }
+
+  /** {@inheritDoc} */
+  @Nonnull
+  @Override
+  public Set<Map.Entry<String, String>> entrySet() {
+    return new EntrySet();
+  }
+
+  /**
+   * Tells whether the message for the given key has been rendered.
+   *
+   * @param key the key (language)
+   * @return {@code true} if the message has been rendered, and {@code false} otherwise
+   */
+  boolean isRendered(final String key) {
+    final Message message = this.messages.get(key);
+    return message != null && message.html != null;
+  }
+
+  /**
+   * The format of a validated message.
+   */
+  enum Format {
+
+    /** Plain text. */
+    TEXT,
+
+    /** Markdown that does not contain any raw HTML. */
+    MARKDOWN,
+
+    /** HTML that has been validated and cleaned (already rendered). */
+    HTML
+  }
+
+  /**
+   * A validated message that is rendered on first access. Keys sharing the same message object also share the
+   * rendered message.
+   */
+  static final class Message implements Serializable {
+
+    @Serial
+    private static final long serialVersionUID = 6620196337458426127L;
+
+    /** The message format. */
+    private final Format format;
+
+    /** The (decoded) message. */
+    private final String content;
+
+    /** The rendered message. */
+    private transient volatile String html;
+
+    /**
+     * Constructor.
+     *
+     * @param format the message format
+     * @param content the validated message
+     */
+    Message(final Format format, final String content) {
+      this.format = Objects.requireNonNull(format, "format must not be null");
+      this.content = Objects.requireNonNull(content, "content must not be null");
+    }
+
+    /**
+     * Gets the rendered message (renders it on first access).
+     *
+     * @return the HTML
+     */
+    String get() {
+      String result = this.html;
+      if (result == null) {
+        synchronized (this) {
+          result = this.html;
+          if (result == null) {
+            result = AbstractMessagePreProcessor.render(this.format, this.content);
+            this.html = result;
+          }
+        }
+      }
+      return result;
+    }
+  }
+
+  /**
+   * Entry set view where the values are rendered when {@link Map.Entry#getValue()} is invoked.
+   */
+  private class EntrySet extends AbstractSet<Map.Entry<String, String>> {
+
+    /** {@inheritDoc} */
+    @Nonnull
+    @Override
+    public Iterator<Map.Entry<String, String>> iterator() {
+      final Iterator<Map.Entry<String, Message>> iterator = messages.entrySet().iterator();
+      return new Iterator<>() {
+
+        @Override
+        public boolean hasNext() {
+          return iterator.hasNext();
+        }
+
+        @Override
+        public Map.Entry<String, String> next() {
+          final Map.Entry<String, Message> entry = iterator.next();
+          return new LazyEntry(entry.getKey(), entry.getValue());
+        }
+      };
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int size() {
+      return messages.size();
+    }
+  }
+
+  /**
+   * An unmodifiable map entry that renders the value on first access.
+   *
+   * @param key the key
+   * @param message the lazy message
+   */
+  private record LazyEntry(String key, Message message) implements Map.Entry<String, String> {
+
+    /** {@inheritDoc} */
+    @Override
+    public String getKey() {
+      return this.key;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String getValue() {
+      return this.message.get();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String setValue(final String value) {
+      throw new UnsupportedOperationException("Map is unmodifiable");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean equals(final Object o) {
+      return o instanceof final Map.Entry<?, ?> e
+          && Objects.equals(this.key, e.getKey()) && Objects.equals(this.getValue(), e.getValue());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(this.key) ^ Objects.hashCode(this.getValue());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+      return this.key + "=" + this.getValue();
+    }
+  }
+
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2023-2025 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.eid.idp.authn;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.Nonnull;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits for the complexity of, and the time spent on, processing a Markdown or HTML message. The limits are enforced
+ * using a {@link Budget} that is created for each message that is processed.
+ *
+ * @author agent
+ */
+public class MessageProcessingLimits implements MeterBinder {
+
+  /** The default maximum number of nodes (Markdown AST nodes or HTML nodes) in a message. */
+  public static final int DEFAULT_MAX_NODES = 10_000;
+
+  /** The default maximum nesting depth of a message. */
+  public static final int DEFAULT_MAX_DEPTH = 64;
+
+  /** The default maximum processing time for a message. */
+  public static final Duration DEFAULT_MAX_PROCESSING_TIME = Duration.ofSeconds(1);
+
+  /**
+   * The limits.
+   */
+  public enum Limit {
+
+    /** The number of nodes. */
+    NODES,
+
+    /** The nesting depth. */
+    DEPTH,
+
+    /** The processing time. */
+    TIME
+  }
+
+  /** The maximum number of nodes. */
+  private final int maxNodes;
+
+  /** The maximum nesting depth. */
+  private final int maxDepth;
+
+  /** The maximum processing time (in nanos). */
+  private final long maxProcessingTime;
+
+  /** The number of messages rejected by each limit. */
+  private final Map<Limit, LongAdder> rejections = new EnumMap<>(Limit.class);
+
+  /**
+   * Constructor setting up the default limits.
+   */
+  public MessageProcessingLimits() {
+    this(DEFAULT_MAX_NODES, DEFAULT_MAX_DEPTH, DEFAULT_MAX_PROCESSING_TIME);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param maxNodes the maximum number of nodes (Markdown AST nodes or HTML nodes) in a message
+   * @param maxDepth the maximum nesting depth of a message
+   * @param maxProcessingTime the maximum processing time for a message
+   */
+  public MessageProcessingLimits(final int maxNodes, final int maxDepth, final Duration maxProcessingTime) {
+    if (maxNodes <= 0) {
+      throw new IllegalArgumentException("maxNodes must be greater than 0");
+    }
+    if (maxDepth <= 0) {
+      throw new IllegalArgumentException("maxDepth must be greater than 0");
+    }
+    this.maxNodes = maxNodes;
+    this.maxDepth = maxDepth;
+    this.maxProcessingTime =
+        Objects.requireNonNull(maxProcessingTime, "maxProcessingTime must not be null").toNanos();
+    for (final Limit limit : Limit.values()) {
+      this.rejections.put(limit, new LongAdder());
+    }
+  }
+
+  /**
+   * Creates a new budget, i.e., starts the processing of a message.
+   *
+   * @return a {@link Budget}
+   */
+  public Budget newBudget() {
+    return new Budget(System.nanoTime() + this.maxProcessingTime);
+  }
+
+  /**
+   * Gets the number of messages that have been rejected by the given limit.
+   *
+   * @param limit the limit
+   * @return the number of rejected messages
+   */
+  public long getRejectedCount(final Limit limit) {
+    return this.rejections.get(limit).sum();
+  }
+
+  /**
+   * Registers the metrics for rejected messages.
+   */
+  @Override
+  public void bindTo(@Nonnull final MeterRegistry registry) {
+    for (final Limit limit : Limit.values()) {
+      FunctionCounter.builder("message.processing.rejected", this, l -> l.getRejectedCount(limit))
+          .tag("limit", limit.name().toLowerCase())
+          .description("The number of messages rejected since they exceeded a processing limit")
+          .register(registry);
+    }
+  }
+
+  /**
+   * Records that a message has been rejected, and creates the exception to throw.
+   *
+   * @param limit the limit that was exceeded
+   * @return a {@link MessageProcessingException}
+   */
+  private MessageProcessingException reject(final Limit limit) {
+    this.rejections.get(limit).increment();
+    return new MessageProcessingException(switch (limit) {
+      case NODES -> String.format("Message is too complex - exceeds %d nodes", this.maxNodes);
+      case DEPTH -> String.format("Message is too complex - exceeds nesting depth %d", this.maxDepth);
+      case TIME -> String.format("Message processing exceeded the time limit (%d ms)",
+          Duration.ofNanos(this.maxProcessingTime).toMillis());
+    });
+  }
+
+  /**
+   * The processing budget for a message. A budget is not thread safe.
+   */
+  public class Budget {
+
+    /** The deadline (in nanos). */
+    private final long deadline;
+
+    /** The number of nodes processed. */
+    private int nodes = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param deadline the deadline
+     */
+    private Budget(final long deadline) {
+      this.deadline = deadline;
+    }
+
+    /**
+     * Counts a processed node at the given depth. The time limit is checked for every 256 nodes.
+     *
+     * @param depth the depth of the node
+     * @throws MessageProcessingException if any limit is exceeded
+     */
+    public void countNode(final int depth) throws MessageProcessingException {
+      if (++this.nodes > maxNodes) {
+        throw reject(Limit.NODES);
+      }
+      if (depth > maxDepth) {
+        throw reject(Limit.DEPTH);
+      }
+      if ((this.nodes & 0xff) == 0) {
+        this.checkTime();
+      }
+    }
+
+    /**
+     * Checks that the time limit has not been exceeded.
+     *
+     * @throws MessageProcessingException if the time limit is exceeded
+     */
+    public void checkTime() throws MessageProcessingException {
+      if (this.isTimeExceeded()) {
+        throw this.timeLimitExceeded();
+      }
+    }
+
+    /**
+     * Records that the message was rejected since the time limit was exceeded, and creates the exception to throw.
+     *
+     * @return a {@link MessageProcessingException}
+     */
+    public MessageProcessingException timeLimitExceeded() {
+      return reject(Limit.TIME);
+    }
+
+    /**
+     * Tells whether the time limit has been exceeded.
+     *
+     * @return {@code true} if the time limit has been exceeded and {@code false} otherwise
+     */
+    public boolean isTimeExceeded() {
+      return System.nanoTime() - this.deadline > 0;
+    }
+
+    /**
+     * Resets the node count (when the same message is processed in several steps).
+     */
+    public void resetNodeCount() {
+      this.nodes = 0;
+    }
+  }
+
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright 2023-2025 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.eid.idp.authn;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.Nonnull;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache for processed (HTML) messages. The cache is keyed by a digest of the encoded message and its type,
+ * and is bounded by the (estimated) number of bytes held by its entries. When the cache is full the least recently used
+ * entries are evicted, and entries older than the configured time-to-live are never returned.
+ *
+ * @author agent
+ */
+public class ProcessedMessageCache implements MeterBinder {
+
+  /** Estimated overhead (in bytes) for each entry (map entry, key and value objects). */
+  private static final long ENTRY_OVERHEAD = 128;
+
+  /** The cache name (used as a tag for metrics). */
+  private final String name;
+
+  /** The maximum size (in bytes) for the cache. */
+  private final long maxSize;
+
+  /** The time-to-live for cache entries (in millis). */
+  private final long timeToLive;
+
+  /** The cache entries ordered by access (least recently used first). */
+  private final LinkedHashMap<String, CacheEntry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+  /** The current (estimated) size of the cache. */
+  private long currentSize = 0;
+
+  /** Number of cache hits. */
+  private final LongAdder hits = new LongAdder();
+
+  /** Number of cache misses. */
+  private final LongAdder misses = new LongAdder();
+
+  /** Number of evicted entries (including expired entries). */
+  private final LongAdder evictions = new LongAdder();
+
+  /**
+   * Constructor.
+   *
+   * @param name the cache name
+   * @param maxSize the maximum size (in bytes) of the cache
+   * @param timeToLive the time-to-live for each entry
+   */
+  public ProcessedMessageCache(final String name, final long maxSize, final Duration timeToLive) {
+    this.name = Objects.requireNonNull(name, "name must not be null");
+    if (maxSize <= 0) {
+      throw new IllegalArgumentException("maxSize must be greater than 0");
+    }
+    this.maxSize = maxSize;
+    this.timeToLive = Objects.requireNonNull(timeToLive, "timeToLive must not be null").toMillis();
+  }
+
+  /**
+   * Creates a cache key given the encoded message and its type.
+   *
+   * @param encodedMessage the encoded message
+   * @param messageType the message type
+   * @return the cache key
+   */
+  public static String createKey(final String encodedMessage, final String messageType) {
+    try {
+      final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      digest.update(String.valueOf(messageType).getBytes(StandardCharsets.UTF_8));
+      digest.update((byte) 0);
+      digest.update(encodedMessage.getBytes(StandardCharsets.UTF_8));
+      return Base64.getEncoder().encodeToString(digest.digest());
+    }
+    catch (final NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not supported", e);
+    }
+  }
+
+  /**
+   * Gets the cached value for the given key.
+   *
+   * @param key the cache key
+   * @return the cached value, or {@code null} if the cache does not hold a (valid) value for the key
+   */
+  public synchronized String get(final String key) {
+    final CacheEntry entry = this.entries.get(key);
+    if (entry == null) {
+      this.misses.increment();
+      return null;
+    }
+    if (entry.isExpired(System.currentTimeMillis())) {
+      this.remove(key, entry);
+      this.evictions.increment();
+      this.misses.increment();
+      return null;
+    }
+    this.hits.increment();
+    return entry.value();
+  }
+
+  /**
+   * Adds a value to the cache. If the value is larger than the maximum size of the cache it is not added.
+   *
+   * @param key the cache key
+   * @param value the value to cache
+   */
+  public synchronized void put(final String key, final String value) {
+    final long size = estimateSize(key, value);
+    if (size > this.maxSize) {
+      return;
+    }
+    final CacheEntry previous = this.entries.put(key,
+        new CacheEntry(value, size, System.currentTimeMillis() + this.timeToLive));
+    if (previous != null) {
+      this.currentSize -= previous.size();
+    }
+    this.currentSize += size;
+
+    // Evict the least recently used entries until we are below the limit ...
+    //
+    final Iterator<Map.Entry<String, CacheEntry>> iterator = this.entries.entrySet().iterator();
+    while (this.currentSize > this.maxSize && iterator.hasNext()) {
+      final Map.Entry<String, CacheEntry> eldest = iterator.next();
+      iterator.remove();
+      this.currentSize -= eldest.getValue().size();
+      this.evictions.increment();
+    }
+  }
+
+  /**
+   * Clears the cache.
+   */
+  public synchronized void clear() {
+    this.entries.clear();
+    this.currentSize = 0;
+  }
+
+  /**
+   * Gets the number of entries in the cache.
+   *
+   * @return the number of entries
+   */
+  public synchronized int getEntryCount() {
+    return this.entries.size();
+  }
+
+  /**
+   * Gets the current (estimated) size of the cache in bytes.
+   *
+   * @return the size in bytes
+   */
+  public synchronized long getSize() {
+    return this.currentSize;
+  }
+
+  /**
+   * Gets the number of cache hits.
+   *
+   * @return the number of hits
+   */
+  public long getHitCount() {
+    return this.hits.sum();
+  }
+
+  /**
+   * Gets the number of cache misses.
+   *
+   * @return the number of misses
+   */
+  public long getMissCount() {
+    return this.misses.sum();
+  }
+
+  /**
+   * Gets the number of evicted cache entries.
+   *
+   * @return the number of evictions
+   */
+  public long getEvictionCount() {
+    return this.evictions.sum();
+  }
+
+  /**
+   * Registers the cache metrics.
+   */
+  @Override
+  public void bindTo(@Nonnull final MeterRegistry registry) {
+    FunctionCounter.builder("cache.gets", this, ProcessedMessageCache::getHitCount)
+        .tag("cache", this.name)
+        .tag("result", "hit")
+        .description("The number of times a cached processed message was returned")
+        .register(registry);
+    FunctionCounter.builder("cache.gets", this, ProcessedMessageCache::getMissCount)
+        .tag("cache", this.name)
+        .tag("result", "miss")
+        .description("The number of times a message had to be processed")
+        .register(registry);
+    FunctionCounter.builder("cache.evictions", this, ProcessedMessageCache::getEvictionCount)
+        .tag("cache", this.name)
+        .description("The number of evicted (or expired) cache entries")
+        .register(registry);
+    Gauge.builder("cache.size", this, ProcessedMessageCache::getEntryCount)
+        .tag("cache", this.name)
+        .description("The number of entries in the cache")
+        .register(registry);
+    Gauge.builder("cache.size.bytes", this, ProcessedMessageCache::getSize)
+        .tag("cache", this.name)
+        .description("The estimated size of the cache in bytes")
+        .baseUnit("bytes")
+        .register(registry);
+  }
+
+  private void remove(final String key, final CacheEntry entry) {
+    this.entries.remove(key);
+    this.currentSize -= entry.size();
+  }
+
+  private static long estimateSize(final String key, final String value) {
+    return ENTRY_OVERHEAD + 2L * key.length() + 2L * value.length();
+  }
+
+  /**
+   * A cache entry.
+   *
+   * @param value the cached value
+   * @param size the estimated size of the entry
+   * @param expires the expiration time (millis since epoch)
+   */
+  private record CacheEntry(String value, long size, long expires) {
+
+    boolean isExpired(final long now) {
+      return now > this.expires;
+    }
+  }
+
+}
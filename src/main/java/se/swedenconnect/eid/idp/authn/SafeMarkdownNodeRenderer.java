@@ -0,0 +1,347 @@
+/*
+ * Copyright 2023-2025 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.eid.idp.authn;
+
+import com.vladsch.flexmark.ast.BlockQuote;
+import com.vladsch.flexmark.ast.BulletList;
+import com.vladsch.flexmark.ast.BulletListItem;
+import com.vladsch.flexmark.ast.Code;
+import com.vladsch.flexmark.ast.Emphasis;
+import com.vladsch.flexmark.ast.FencedCodeBlock;
+import com.vladsch.flexmark.ast.HardLineBreak;
+import com.vladsch.flexmark.ast.Heading;
+import com.vladsch.flexmark.ast.HtmlBlockBase;
+import com.vladsch.flexmark.ast.HtmlEntity;
+import com.vladsch.flexmark.ast.HtmlInlineBase;
+import com.vladsch.flexmark.ast.ImageRef;
+import com.vladsch.flexmark.ast.IndentedCodeBlock;
+import com.vladsch.flexmark.ast.LinkRef;
+import com.vladsch.flexmark.ast.OrderedList;
+import com.vladsch.flexmark.ast.OrderedListItem;
+import com.vladsch.flexmark.ast.Paragraph;
+import com.vladsch.flexmark.ast.ParagraphItemContainer;
+import com.vladsch.flexmark.ast.RefNode;
+import com.vladsch.flexmark.ast.Reference;
+import com.vladsch.flexmark.ast.SoftLineBreak;
+import com.vladsch.flexmark.ast.StrongEmphasis;
+import com.vladsch.flexmark.ast.Text;
+import com.vladsch.flexmark.ast.TextBase;
+import com.vladsch.flexmark.ext.tables.TableBlock;
+import com.vladsch.flexmark.ext.tables.TableBody;
+import com.vladsch.flexmark.ext.tables.TableCaption;
+import com.vladsch.flexmark.ext.tables.TableCell;
+import com.vladsch.flexmark.ext.tables.TableHead;
+import com.vladsch.flexmark.ext.tables.TableRow;
+import com.vladsch.flexmark.ext.tables.TableSeparator;
+import com.vladsch.flexmark.html.HtmlWriter;
+import com.vladsch.flexmark.html.renderer.NodeRenderer;
+import com.vladsch.flexmark.html.renderer.NodeRendererContext;
+import com.vladsch.flexmark.html.renderer.NodeRendererFactory;
+import com.vladsch.flexmark.html.renderer.NodeRenderingHandler;
+import com.vladsch.flexmark.parser.ListOptions;
+import com.vladsch.flexmark.util.ast.Document;
+import com.vladsch.flexmark.util.ast.Node;
+import com.vladsch.flexmark.util.data.DataHolder;
+import com.vladsch.flexmark.util.data.NullableDataKey;
+import com.vladsch.flexmark.util.sequence.Escaping;
+import jakarta.annotation.Nonnull;
+
+import java.io.Serial;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * A flexmark {@link NodeRenderer} that is safe by construction. It only writes the allowed HTML tags, never writes any
+ * attributes, and all text is HTML escaped. Node types that the renderer does not handle are never rendered, and
+ * {@link #checkDocument(Document)} is used to reject Markdown containing such nodes (e.g., links, images and thematic
+ * breaks) before the document is rendered.
+ * <p>
+ * Raw HTML in the Markdown is not handled by this renderer. Documents containing raw HTML have to be rendered using the
+ * default renderer, and the result validated and cleaned.
+ * </p>
+ *
+ * @author agent
+ */
+class SafeMarkdownNodeRenderer implements NodeRenderer {
+
+  /** The Markdown node types that this renderer handles. */
+  private static final Set<Class<? extends Node>> supportedNodeTypes = Set.of(
+      Document.class, Paragraph.class, Heading.class, BlockQuote.class, BulletList.class, OrderedList.class,
+      BulletListItem.class, OrderedListItem.class, FencedCodeBlock.class, IndentedCodeBlock.class, Code.class,
+      Emphasis.class, StrongEmphasis.class, HardLineBreak.class, SoftLineBreak.class, Text.class, TextBase.class,
+      HtmlEntity.class, Reference.class, LinkRef.class, ImageRef.class,
+      TableBlock.class, TableCaption.class, TableHead.class, TableBody.class, TableRow.class, TableCell.class,
+      TableSeparator.class);
+
+  /** Key for the (optional) processing budget that is checked during rendering. */
+  static final NullableDataKey<MessageProcessingLimits.Budget> BUDGET = new NullableDataKey<>("MESSAGE_BUDGET");
+
+  /** The HTML tags that we are allowed to write. */
+  private final Set<String> allowedTags;
+
+  /** The renderer options. */
+  private final DataHolder options;
+
+  /** The list options (needed to tell whether a paragraph should be wrapped in a p-tag). */
+  private final ListOptions listOptions;
+
+  /**
+   * Constructor.
+   *
+   * @param allowedTags the HTML tags that we are allowed to write
+   * @param options the renderer options
+   */
+  SafeMarkdownNodeRenderer(final Set<String> allowedTags, final DataHolder options) {
+    this.allowedTags = Objects.requireNonNull(allowedTags, "allowedTags must not be null");
+    this.options = options;
+    this.listOptions = ListOptions.get(options);
+  }
+
+  /**
+   * Checks that the supplied document only contains nodes that may be rendered by this renderer, or raw HTML. Each
+   * node is also counted against the supplied budget.
+   *
+   * @param document the document to check
+   * @param budget the processing budget
+   * @return {@code true} if the document contains raw HTML (that needs to be validated after rendering) and
+   *     {@code false} otherwise
+   * @throws MessageProcessingException if the document contains non-allowed nodes, or if a processing limit is
+   *     exceeded
+   */
+  static boolean checkDocument(final Document document, final MessageProcessingLimits.Budget budget)
+      throws MessageProcessingException {
+    boolean containsHtml = false;
+    Node node = document.getFirstChild();
+    int depth = 1;
+    while (node != null) {
+      budget.countNode(depth);
+      if (node instanceof HtmlBlockBase || node instanceof HtmlInlineBase) {
+        containsHtml = true;
+      }
+      else if (!supportedNodeTypes.contains(node.getClass())
+          || node instanceof final RefNode refNode && refNode.isDefined()) {
+        // Links, images, thematic breaks and references to defined links and images are not allowed.
+        throw new MessageProcessingException(String.format(
+            "Message Markdown is not allowed - contains non-allowed element (%s)", node.getNodeName()));
+      }
+
+      // Next node (depth first) ...
+      //
+      Node next = node.getFirstChild();
+      if (next != null) {
+        depth++;
+      }
+      else {
+        while (node != document && node.getNext() == null) {
+          node = node.getParent();
+          depth--;
+        }
+        next = node != document ? node.getNext() : null;
+      }
+      node = next;
+    }
+    return containsHtml;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Set<NodeRenderingHandler<?>> getNodeRenderingHandlers() {
+    return Set.of(
+        new NodeRenderingHandler<>(Document.class, (node, context, html) -> context.renderChildren(node)),
+        new NodeRenderingHandler<>(Paragraph.class, this::renderParagraph),
+        new NodeRenderingHandler<>(Heading.class,
+            (node, context, html) -> this.tagLine(html, "h" + node.getLevel(), () -> context.renderChildren(node))),
+        new NodeRenderingHandler<>(BlockQuote.class,
+            (node, context, html) -> this.tagLineIndent(html, "blockquote", () -> context.renderChildren(node))),
+        new NodeRenderingHandler<>(BulletList.class,
+            (node, context, html) -> this.tagLineIndent(html, "ul", () -> context.renderChildren(node))),
+        new NodeRenderingHandler<>(OrderedList.class,
+            (node, context, html) -> this.tagLineIndent(html, "ol", () -> context.renderChildren(node))),
+        new NodeRenderingHandler<>(BulletListItem.class,
+            (node, context, html) -> this.tagLine(html, "li", () -> context.renderChildren(node))),
+        new NodeRenderingHandler<>(OrderedListItem.class,
+            (node, context, html) -> this.tagLine(html, "li", () -> context.renderChildren(node))),
+        new NodeRenderingHandler<>(FencedCodeBlock.class,
+            (node, context, html) -> this.renderCodeBlock(node.getContentChars().normalizeEOL(), html)),
+        new NodeRenderingHandler<>(IndentedCodeBlock.class, (node, context, html) -> this.renderCodeBlock(
+            node.getContentChars().trimTailBlankLines().normalizeEndWithEOL(), html)),
+        new NodeRenderingHandler<>(Code.class, (node, context, html) -> this.tag(html, "code",
+            () -> html.text(Escaping.collapseWhitespace(node.getText(), true)))),
+        new NodeRenderingHandler<>(Emphasis.class,
+            (node, context, html) -> this.tag(html, "em", () -> context.renderChildren(node))),
+        new NodeRenderingHandler<>(StrongEmphasis.class,
+            (node, context, html) -> this.tag(html, "strong", () -> context.renderChildren(node))),
+        new NodeRenderingHandler<>(HardLineBreak.class, (node, context, html) -> {
+          this.checkTag("br");
+          html.tagVoid("br").line();
+        }),
+        new NodeRenderingHandler<>(SoftLineBreak.class,
+            (node, context, html) -> html.raw(context.getHtmlOptions().softBreak)),
+        new NodeRenderingHandler<>(Text.class,
+            (node, context, html) -> html.text(Escaping.normalizeEOL(node.getChars().unescape()))),
+        new NodeRenderingHandler<>(TextBase.class, (node, context, html) -> context.renderChildren(node)),
+        new NodeRenderingHandler<>(HtmlEntity.class,
+            (node, context, html) -> html.text(node.getChars().unescape())),
+        new NodeRenderingHandler<>(Reference.class, (node, context, html) -> {
+        }),
+        new NodeRenderingHandler<>(LinkRef.class, this::renderUndefinedRef),
+        new NodeRenderingHandler<>(ImageRef.class, this::renderUndefinedRef),
+        new NodeRenderingHandler<>(TableBlock.class,
+            (node, context, html) -> this.tagLineIndent(html, "table", () -> context.renderChildren(node))),
+        new NodeRenderingHandler<>(TableCaption.class,
+            (node, context, html) -> this.tagLine(html, "caption", () -> context.renderChildren(node))),
+        new NodeRenderingHandler<>(TableHead.class,
+            (node, context, html) -> this.tagLineIndent(html, "thead", () -> context.renderChildren(node))),
+        new NodeRenderingHandler<>(TableBody.class,
+            (node, context, html) -> this.tagLineIndent(html, "tbody", () -> context.renderChildren(node))),
+        new NodeRenderingHandler<>(TableRow.class, (node, context, html) -> {
+          checkTime(context);
+          this.tagLineIndent(html, "tr", () -> context.renderChildren(node));
+        }),
+        new NodeRenderingHandler<>(TableCell.class, (node, context, html) -> this.tagLine(html,
+            node.isHeader() ? "th" : "td", () -> context.renderChildren(node))),
+        new NodeRenderingHandler<>(TableSeparator.class, (node, context, html) -> {
+        }));
+  }
+
+  /**
+   * Renders a paragraph. Paragraphs in tight list items are not wrapped in a p-tag.
+   */
+  private void renderParagraph(final Paragraph node, final NodeRendererContext context, final HtmlWriter html) {
+    checkTime(context);
+    if (node.getParent() instanceof final ParagraphItemContainer container
+        && container.isParagraphWrappingDisabled(node, this.listOptions, this.options)) {
+      context.renderChildren(node);
+    }
+    else {
+      this.tagLine(html, "p", () -> context.renderChildren(node));
+    }
+  }
+
+  /**
+   * Renders a fenced or indented code block. The language info (if any) is not written.
+   */
+  private void renderCodeBlock(final String content, final HtmlWriter html) {
+    this.checkTag("pre");
+    this.checkTag("code");
+    html.line();
+    html.tag("pre").openPre();
+    html.tag("code");
+    html.text(content);
+    html.tag("/code");
+    html.tag("/pre").closePre();
+    html.line();
+  }
+
+  /**
+   * Renders a link or image reference that does not refer to a defined reference. Such a reference is rendered as
+   * text (references to defined links and images are rejected by {@link #checkDocument(Document)}).
+   */
+  private void renderUndefinedRef(final RefNode node, final NodeRendererContext context, final HtmlWriter html) {
+    if (node.isDefined()) {
+      throw new IllegalStateException("Links and images are not allowed");
+    }
+    if (!node.hasChildren()) {
+      html.text(node.getChars().unescape());
+    }
+    else {
+      html.text(node.getChars().prefixOf(node.getChildChars()).unescape());
+      context.renderChildren(node);
+      html.text(node.getChars().suffixOf(node.getChildChars()).unescape());
+    }
+  }
+
+  /**
+   * Checks the time limit of the processing budget (if present).
+   *
+   * @param context the rendering context
+   * @throws TimeLimitExceededException if the time limit has been exceeded
+   */
+  private static void checkTime(final NodeRendererContext context) {
+    final MessageProcessingLimits.Budget budget = BUDGET.get(context.getDocument());
+    if (budget != null && budget.isTimeExceeded()) {
+      throw new TimeLimitExceededException();
+    }
+  }
+
+  private void tag(final HtmlWriter html, final String name, final Runnable runnable) {
+    this.checkTag(name);
+    html.tag(name, runnable);
+  }
+
+  private void tagLine(final HtmlWriter html, final String name, final Runnable runnable) {
+    this.checkTag(name);
+    html.tagLine(name, runnable);
+  }
+
+  private void tagLineIndent(final HtmlWriter html, final String name, final Runnable runnable) {
+    this.checkTag(name);
+    html.tagLineIndent(name, runnable);
+  }
+
+  /**
+   * Guards against (future) changes of the renderer that would write non-allowed tags.
+   *
+   * @param name the tag name
+   */
+  private void checkTag(final String name) {
+    if (!this.allowedTags.contains(name)) {
+      throw new IllegalStateException(String.format("Tag '%s' is not allowed", name));
+    }
+  }
+
+  /**
+   * Thrown during rendering if the time limit of the processing budget has been exceeded.
+   */
+  static class TimeLimitExceededException extends RuntimeException {
+
+    @Serial
+    private static final long serialVersionUID = -3089622540436379578L;
+
+    /**
+     * Constructor.
+     */
+    TimeLimitExceededException() {
+      super("Time limit exceeded", null, false, false);
+    }
+  }
+
+  /**
+   * Factory for creating {@link SafeMarkdownNodeRenderer} instances.
+   */
+  static class Factory implements NodeRendererFactory {
+
+    /** The HTML tags that the renderer is allowed to write. */
+    private final Set<String> allowedTags;
+
+    /**
+     * Constructor.
+     *
+     * @param allowedTags the HTML tags that the renderer is allowed to write
+     */
+    Factory(final Set<String> allowedTags) {
+      this.allowedTags = allowedTags;
+    }
+
+    /** {@inheritDoc} */
+    @Nonnull
+    @Override
+    public NodeRenderer apply(@Nonnull final DataHolder options) {
+      return new SafeMarkdownNodeRenderer(this.allowedTags, options);
+    }
+  }
+
+}
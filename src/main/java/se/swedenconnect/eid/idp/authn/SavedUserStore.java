@@ -0,0 +1,97 @@
+/*
+ * Copyright 2023-2025 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.eid.idp.authn;
+
+import se.swedenconnect.eid.idp.users.SimulatedUser;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * A server-side store for the users that a browser has entered in the "Advanced" view. Each browser is identified by a
+ * short random identifier (see {@link #createId()}) that is held in the saved users cookie instead of the users
+ * themselves.
+ * <p>
+ * The users of each identifier are kept in least recently used order (the most recently added user last), and the
+ * number of users per identifier is bounded. Identifiers that have not been used for a configured time are evicted.
+ * </p>
+ *
+ * @author agent
+ */
+public interface SavedUserStore {
+
+  /**
+   * Gets the users for the given identifier. The identifier counts as used, i.e., its idle time is reset.
+   *
+   * @param id the identifier
+   * @return an unmodifiable list of users (oldest first), or an empty list if the identifier is unknown or has expired
+   */
+  List<SimulatedUser> getUsers(final String id);
+
+  /**
+   * Adds users for the given identifier. Users that are already stored (same personal identity number) are moved last,
+   * and if the maximum number of users is exceeded, the least recently added users are removed.
+   *
+   * @param id the identifier
+   * @param users the users to add
+   * @return an unmodifiable list of the users stored for the identifier after the update (oldest first)
+   */
+  List<SimulatedUser> addUsers(final String id, final List<SimulatedUser> users);
+
+  /**
+   * Creates a new random identifier (128 bits, base64url encoded).
+   *
+   * @return an identifier
+   */
+  static String createId() {
+    final byte[] bytes = new byte[16];
+    IdHolder.RANDOM.nextBytes(bytes);
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+  }
+
+  /**
+   * Tells whether the supplied string is a valid identifier (as created by {@link #createId()}).
+   *
+   * @param id the string to test
+   * @return {@code true} if the string is a valid identifier and {@code false} otherwise
+   */
+  static boolean isValidId(final String id) {
+    if (id == null || id.length() != 22) {
+      return false;
+    }
+    for (int i = 0; i < id.length(); i++) {
+      final char c = id.charAt(i);
+      if (!(c >= 'A' && c <= 'Z' || c >= 'a' && c <= 'z' || c >= '0' && c <= '9' || c == '-' || c == '_')) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Holder for the random generator used to create identifiers.
+   */
+  final class IdHolder {
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    // Hidden constructor
+    private IdHolder() {
+    }
+  }
+
+}
@@ -0,0 +1,419 @@
+/*
+ * Copyright 2023-2025 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.eid.idp.authn;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.Nonnull;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import se.swedenconnect.eid.idp.config.CookieWriter;
+import se.swedenconnect.eid.idp.users.PersonalIdentityNumberCodec;
+import se.swedenconnect.eid.idp.users.SimulatedUser;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reads and writes the saved users cookie (the users entered in the "Advanced" view).
+ * <p>
+ * The users are written in a compact, versioned, format: {@code v1.<number of cookies>.<data>}, where the data is the
+ * base64url encoding of a deflated binary structure holding a table of the (deduplicated) names, followed by the
+ * users, each represented by its packed personal identity number (5 bytes) and the indexes of its given name and
+ * surname. If the value is too long for one cookie, it is split over numbered cookies (see
+ * {@link CookieWriter#getName(int)}).
+ * </p>
+ * <p>
+ * Cookies written in the previous (URL-encoded text) format, see {@link SimulatedUser#encodeList(List)}, are still
+ * read.
+ * </p>
+ * <p>
+ * If a {@link SavedUserStore} is assigned, the users are kept server-side, and the cookie only holds the identifier of
+ * the browser's users ({@code s1.<id>}). Users held in a cookie from before the store was configured are moved to the
+ * store the next time a user is added.
+ * </p>
+ * <p>
+ * The size of the written cookies ({@code Set-Cookie} header values) is reported using the {@code idp.cookie.size}
+ * metric.
+ * </p>
+ *
+ * @author agent
+ */
+@Slf4j
+public class SavedUsersCookie implements MeterBinder {
+
+  /** The maximum number of cookies that the value may be split over. */
+  public static final int MAX_COOKIES = 4;
+
+  /** The default maximum length of a cookie value. */
+  public static final int DEFAULT_MAX_COOKIE_LENGTH = 3500;
+
+  /** The prefix of values in the current format. */
+  private static final String VERSION_PREFIX = "v1.";
+
+  /** The prefix of values holding a {@link SavedUserStore} identifier. */
+  private static final String STORE_PREFIX = "s1.";
+
+  /** The format version. */
+  private static final int VERSION = 1;
+
+  /** Upper limit for the number of users, names and name lengths when a (client supplied) cookie is decoded. */
+  private static final int DECODE_LIMIT = 1000;
+
+  /** The cookie writer. */
+  private final CookieWriter cookieWriter;
+
+  /** The maximum length of a cookie value. */
+  private final int maxCookieLength;
+
+  /** The size of the written cookies. */
+  private DistributionSummary cookieSize;
+
+  /** The server-side store for saved users. If not assigned, the users are held in the cookie(s). */
+  @Setter
+  private SavedUserStore store;
+
+  /**
+   * Constructor.
+   *
+   * @param cookieWriter the cookie writer for the saved users cookie
+   * @param maxCookieLength the maximum length of a cookie value
+   */
+  public SavedUsersCookie(final CookieWriter cookieWriter, final int maxCookieLength) {
+    this.cookieWriter = Objects.requireNonNull(cookieWriter, "cookieWriter must not be null");
+    if (maxCookieLength < 100) {
+      throw new IllegalArgumentException("maxCookieLength must be at least 100");
+    }
+    this.maxCookieLength = maxCookieLength;
+  }
+
+  /**
+   * Gets the name of the (first) cookie.
+   *
+   * @return the cookie name
+   */
+  public String getName() {
+    return this.cookieWriter.getName();
+  }
+
+  /**
+   * Reads the saved users given the values of the saved users cookies. If the value is an identifier for the
+   * {@link SavedUserStore}, the users are read from the store, otherwise they are decoded from the values (see
+   * {@link #decode(String[])}).
+   *
+   * @param values the values of the numbered cookies
+   * @return a list of users
+   */
+  public List<SimulatedUser> read(final String[] values) {
+    final String id = this.getStoreId(values);
+    if (id == null) {
+      return decode(values);
+    }
+    try {
+      return this.store.getUsers(id);
+    }
+    catch (final RuntimeException e) {
+      log.warn("Failed to read saved users from store - {}", e.getMessage());
+      return Collections.emptyList();
+    }
+  }
+
+  /**
+   * Adds a user to the saved users and writes the cookie(s) to the response. If the maximum number of users
+   * ({@link SimulatedAuthenticationController#MAX_SAVED_USERS}) is exceeded, the oldest user is removed.
+   * <p>
+   * If a {@link SavedUserStore} is assigned, but the users can not be saved in the store, a cookie holding an
+   * identifier is kept as is. If the browser has no identifier, the users are written to the cookie(s) instead.
+   * </p>
+   *
+   * @param user the user to add
+   * @param cookies the IdP cookies of the request
+   * @param response the HTTP servlet response
+   * @return the saved users after the update (oldest first)
+   */
+  public List<SimulatedUser> addUser(final SimulatedUser user, final IdpCookieContext cookies,
+      final HttpServletResponse response) {
+    final List<SimulatedUser> savedUsers = cookies.getSavedUsers();
+    final List<SimulatedUser> newSavedUsers = new ArrayList<>(
+        savedUsers.subList(Math.max(0, savedUsers.size() - SimulatedAuthenticationController.MAX_SAVED_USERS + 1),
+            savedUsers.size()));
+    newSavedUsers.add(user);
+    if (this.store == null) {
+      this.write(newSavedUsers, cookies.getSavedUsersCookieCount(), response);
+      return newSavedUsers;
+    }
+
+    // If the browser does not have an identifier yet, any users held in the cookie are moved to the store ...
+    //
+    final String currentId = this.getStoreId(cookies.getSavedUsersValues());
+    final String id = currentId != null ? currentId : SavedUserStore.createId();
+    final List<SimulatedUser> added = new ArrayList<>();
+    if (currentId == null) {
+      added.addAll(savedUsers);
+    }
+    added.add(user);
+    final List<SimulatedUser> storedUsers;
+    try {
+      storedUsers = this.store.addUsers(id, added);
+    }
+    catch (final RuntimeException e) {
+      // The cookie must not point at users that were never stored. If the browser already has an identifier, its
+      // cookie is kept as is, otherwise the users are written to the cookie(s) ...
+      //
+      log.warn("Failed to save users in store - {}", e.getMessage());
+      if (currentId == null) {
+        this.write(newSavedUsers, cookies.getSavedUsersCookieCount(), response);
+      }
+      return newSavedUsers;
+    }
+    final int size = this.cookieWriter.addCookie(0, STORE_PREFIX + id, response);
+    for (int i = 1; i < cookies.getSavedUsersCookieCount(); i++) {
+      this.cookieWriter.clearCookie(i, response);
+    }
+    if (this.cookieSize != null) {
+      this.cookieSize.record(size);
+    }
+    return storedUsers;
+  }
+
+  /**
+   * Writes the saved users to the response. If the users were previously written to more cookies than needed now, the
+   * superfluous cookies are cleared. If the users do not fit in {@value #MAX_COOKIES} cookies, the oldest users are
+   * dropped.
+   *
+   * @param users the users (oldest first)
+   * @param previousCookies the number of cookies that the users were previously written to
+   * @param response the HTTP servlet response
+   */
+  public void write(final List<SimulatedUser> users, final int previousCookies, final HttpServletResponse response) {
+    List<SimulatedUser> written = users;
+    List<String> values = encode(written, this.maxCookieLength);
+    while (values.size() > MAX_COOKIES) {
+      written = written.subList(1, written.size());
+      values = encode(written, this.maxCookieLength);
+    }
+    int size = 0;
+    for (int i = 0; i < values.size(); i++) {
+      size += this.cookieWriter.addCookie(i, values.get(i), response);
+    }
+    for (int i = values.size(); i < previousCookies; i++) {
+      this.cookieWriter.clearCookie(i, response);
+    }
+    if (this.cookieSize != null) {
+      this.cookieSize.record(size);
+    }
+  }
+
+  /**
+   * Encodes users into cookie values (see the class documentation). Users with an invalid personal identity number
+   * are not encoded.
+   *
+   * @param users the users
+   * @param maxCookieLength the maximum length of each value
+   * @return a list of cookie values (at least one)
+   */
+  public static List<String> encode(final List<SimulatedUser> users, final int maxCookieLength) {
+    final Map<String, Integer> names = new LinkedHashMap<>();
+    final List<long[]> entries = new ArrayList<>(users.size());
+    for (final SimulatedUser user : users) {
+      final long packed = PersonalIdentityNumberCodec.parse(user.getPersonalNumber());
+      if (packed == PersonalIdentityNumberCodec.INVALID) {
+        continue;
+      }
+      entries.add(new long[] { packed, index(names, user.getGivenName()), index(names, user.getSurname()) });
+    }
+
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+    try (final DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes, deflater))) {
+      out.writeByte(VERSION);
+      writeVarint(out, names.size());
+      for (final String name : names.keySet()) {
+        final byte[] utf8 = name.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, utf8.length);
+        out.write(utf8);
+      }
+      writeVarint(out, entries.size());
+      for (final long[] entry : entries) {
+        for (int shift = 32; shift >= 0; shift -= 8) {
+          out.writeByte((int) (entry[0] >>> shift));
+        }
+        writeVarint(out, (int) entry[1]);
+        writeVarint(out, (int) entry[2]);
+      }
+    }
+    catch (final IOException e) {
+      throw new IllegalStateException("Failed to encode saved users", e);
+    }
+    finally {
+      deflater.end();
+    }
+
+    final String data = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.toByteArray());
+    final int firstLength = Math.max(1, maxCookieLength - VERSION_PREFIX.length() - 4);
+    final int count = data.length() <= firstLength ? 1 : 1 + (data.length() - firstLength + maxCookieLength - 1)
+        / maxCookieLength;
+    final List<String> values = new ArrayList<>(count);
+    int pos = Math.min(firstLength, data.length());
+    values.add(VERSION_PREFIX + count + "." + data.substring(0, pos));
+    while (pos < data.length()) {
+      final int end = Math.min(pos + maxCookieLength, data.length());
+      values.add(data.substring(pos, end));
+      pos = end;
+    }
+    return values;
+  }
+
+  /**
+   * Decodes the saved users from the cookie values. Values in the previous (URL-encoded text) format are also
+   * accepted. Values that can not be decoded are ignored.
+   *
+   * @param values the values of the numbered cookies (the value at index 0 is the value of the first cookie, and
+   *     missing cookies are {@code null})
+   * @return a list of users
+   */
+  public static List<SimulatedUser> decode(final String[] values) {
+    if (values.length == 0 || values[0] == null || values[0].isEmpty()) {
+      return Collections.emptyList();
+    }
+    if (values[0].startsWith(STORE_PREFIX)) {
+      return Collections.emptyList();
+    }
+    if (!values[0].startsWith(VERSION_PREFIX)) {
+      return SimulatedUser.parseList(values[0]);
+    }
+    try {
+      final int dot = values[0].indexOf('.', VERSION_PREFIX.length());
+      final int count = Integer.parseInt(values[0], VERSION_PREFIX.length(), dot, 10);
+      if (count < 1 || count > values.length) {
+        return Collections.emptyList();
+      }
+      final StringBuilder data = new StringBuilder(values[0].substring(dot + 1));
+      for (int i = 1; i < count; i++) {
+        if (values[i] == null) {
+          return Collections.emptyList();
+        }
+        data.append(values[i]);
+      }
+      final Inflater inflater = new Inflater(true);
+      try (final DataInputStream in = new DataInputStream(new InflaterInputStream(
+          new ByteArrayInputStream(Base64.getUrlDecoder().decode(data.toString())), inflater))) {
+        if (in.readUnsignedByte() != VERSION) {
+          return Collections.emptyList();
+        }
+        final String[] names = new String[readVarint(in, DECODE_LIMIT)];
+        for (int i = 0; i < names.length; i++) {
+          final byte[] utf8 = new byte[readVarint(in, DECODE_LIMIT)];
+          in.readFully(utf8);
+          names[i] = new String(utf8, StandardCharsets.UTF_8);
+        }
+        final int userCount = readVarint(in, DECODE_LIMIT);
+        final List<SimulatedUser> users = new ArrayList<>(userCount);
+        for (int i = 0; i < userCount; i++) {
+          long packed = 0;
+          for (int b = 0; b < 5; b++) {
+            packed = packed << 8 | in.readUnsignedByte();
+          }
+          final SimulatedUser user = new SimulatedUser();
+          user.setPersonalNumber(PersonalIdentityNumberCodec.format(packed));
+          user.setGivenName(names[readVarint(in, names.length)]);
+          user.setSurname(names[readVarint(in, names.length)]);
+          users.add(user);
+        }
+        return users;
+      }
+      finally {
+        inflater.end();
+      }
+    }
+    catch (final IOException | RuntimeException e) {
+      log.debug("Invalid saved users cookie - {}", e.getMessage());
+      return Collections.emptyList();
+    }
+  }
+
+  /**
+   * Registers the {@code idp.cookie.size} metric (the total size of the written saved users cookies per response).
+   */
+  @Override
+  public void bindTo(@Nonnull final MeterRegistry registry) {
+    this.cookieSize = DistributionSummary.builder("idp.cookie.size")
+        .tag("cookie", this.cookieWriter.getName())
+        .description("The size of the Set-Cookie headers written for a response")
+        .baseUnit("bytes")
+        .register(registry);
+  }
+
+  /**
+   * Gets the {@link SavedUserStore} identifier from the cookie values.
+   *
+   * @param values the values of the numbered cookies
+   * @return the identifier, or {@code null} if no store is assigned or if the values do not hold a valid identifier
+   */
+  private String getStoreId(final String[] values) {
+    if (this.store == null || values.length == 0 || values[0] == null || !values[0].startsWith(STORE_PREFIX)) {
+      return null;
+    }
+    final String id = values[0].substring(STORE_PREFIX.length());
+    return SavedUserStore.isValidId(id) ? id : null;
+  }
+
+  private static int index(final Map<String, Integer> names, final String name) {
+    return names.computeIfAbsent(name != null ? name : "", n -> names.size());
+  }
+
+  private static void writeVarint(final DataOutputStream out, final int value) throws IOException {
+    int v = value;
+    while ((v & ~0x7F) != 0) {
+      out.writeByte(v & 0x7F | 0x80);
+      v >>>= 7;
+    }
+    out.writeByte(v);
+  }
+
+  private static int readVarint(final DataInputStream in, final int limit) throws IOException {
+    int value = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      final int b = in.readUnsignedByte();
+      value |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        if (value < 0 || value > limit) {
+          throw new IOException("Value out of range");
+        }
+        return value;
+      }
+    }
+    throw new IOException("Invalid varint");
+  }
+
+}
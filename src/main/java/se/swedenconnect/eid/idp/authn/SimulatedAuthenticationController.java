@@ -16,40 +16,45 @@
 package se.swedenconnect.eid.idp.authn;
 
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Collectors;
 
-import jakarta.servlet.http.Cookie;
-import org.apache.commons.lang3.tuple.ImmutablePair;
-import org.apache.commons.lang3.tuple.Pair;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.util.StringUtils;
-import org.springframework.web.bind.annotation.CookieValue;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.ModelAttribute;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.servlet.ModelAndView;
 
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpSession;
 import lombok.Setter;
 import se.swedenconnect.eid.idp.authn.model.SelectedUserModel;
 import se.swedenconnect.eid.idp.authn.model.UiModel;
-import se.swedenconnect.eid.idp.config.CookieGenerator;
+import se.swedenconnect.eid.idp.authn.model.UserSearchHit;
+import se.swedenconnect.eid.idp.config.CookieWriter;
+import se.swedenconnect.eid.idp.config.UiConfigurationProperties;
 import se.swedenconnect.eid.idp.config.UiConfigurationProperties.Language;
 import se.swedenconnect.eid.idp.users.SimulatedUser;
 import se.swedenconnect.eid.idp.users.SimulatedUserDetailsManager;
+import se.swedenconnect.eid.idp.users.UserDirectory;
+import se.swedenconnect.eid.idp.users.UserSearchIndex;
+import se.swedenconnect.eid.idp.users.UserValidator;
 import se.swedenconnect.opensaml.sweid.saml2.attribute.AttributeConstants;
 import se.swedenconnect.opensaml.sweid.saml2.metadata.entitycategory.EntityCategoryConstants;
 import se.swedenconnect.spring.saml.idp.authentication.Saml2ServiceProviderUiInfo;
@@ -72,6 +77,16 @@ public class SimulatedAuthenticationController
 
   public static final String AUTO_AUTHN_PATH = AUTHN_PATH + "/autoauth";
 
+  /** The path for the user search (typeahead). */
+  public static final String USER_SEARCH_PATH = AUTHN_PATH + "/users";
+
+  /**
+   * Session attribute telling that a view offering the user search has been rendered for the session, i.e., that the
+   * session has an ongoing authentication (or is setting up automatic authentication).
+   */
+  private static final String USER_SEARCH_SESSION_ATTRIBUTE =
+      SimulatedAuthenticationController.class.getName() + ".userSearch";
+
   /** The name of the auto-auth cookie. */
   public static final String AUTO_AUTHN_COOKIE_NAME = "autoAuthUser";
 
@@ -90,6 +105,11 @@ public class SimulatedAuthenticationController
   @Autowired
   private SimulatedUserDetailsManager userDetailsService;
 
+  /** UI settings. */
+  @Setter
+  @Autowired
+  private UiConfigurationProperties uiProperties;
+
   /** Possible languages for the UI. */
   @Setter
   @Autowired
@@ -98,20 +118,24 @@ public class SimulatedAuthenticationController
   /** For saving/getting selected user (and last selected LoA). */
   @Setter
   @Autowired
-  @Qualifier("selectedUserCookieGenerator")
-  private CookieGenerator selectedUserCookieGenerator;
+  @Qualifier("selectedUserCookieWriter")
+  private CookieWriter selectedUserCookieWriter;
 
-  /** The cookie generator for saved users. */
+  /** For reading and writing the saved users cookie(s) (and the server-side store, if configured). */
   @Setter
   @Autowired
-  @Qualifier("savedUsersCookieGenerator")
-  private CookieGenerator savedUsersCookieGenerator;
+  private SavedUsersCookie savedUsersCookie;
 
   /** For saving/getting auto authentication user. */
   @Setter
   @Autowired
   @Qualifier(AUTO_AUTHN_COOKIE_NAME)
-  private CookieGenerator autoAuthnCookieGenerator;
+  private CookieWriter autoAuthnCookieWriter;
+
+  /** Moves the IdP cookies from the previous (broader) cookie path, if configured. */
+  @Setter
+  @Autowired(required = false)
+  private CookiePathMigration cookiePathMigration;
 
   /** Maximum number of users to save in the above cookie. */
   public static final int MAX_SAVED_USERS = 40;
@@ -126,11 +150,14 @@ public class SimulatedAuthenticationController
   @GetMapping(AUTHN_PATH)
   public ModelAndView authenticate(final HttpServletRequest request, final HttpServletResponse response) {
     final ModelAndView mav = new ModelAndView("simulated");
+    this.migrateCookies(request, response);
 
-    final List<SimulatedUser> users = this.getStaticAndSavedUsers(request);
-    mav.addObject("users", users);
+    final UserDirectory directory = this.userDetailsService.getDirectory();
+    final IdpCookieContext cookies = this.getCookieContext(request);
+    final List<SimulatedUser> savedUsers = cookies.getSavedUsers();
 
     final RedirectForAuthenticationToken token = this.getInputToken(request);
+    request.getSession().setAttribute(USER_SEARCH_SESSION_ATTRIBUTE, Boolean.TRUE);
     final Saml2ServiceProviderUiInfo uiInfo = token.getAuthnInputToken().getUiInfo();
 
     final UiModel ui = new UiModel();
@@ -138,9 +165,8 @@ public class SimulatedAuthenticationController
 
     // Check if we have the last user and LoA saved ...
     //
-    final Pair<String, String> userAndLoa = this.getSelectedUserAndLoa(request);
-    ui.setSelectedUser(userAndLoa.getLeft());
-    ui.setSelectedAuthnContextUri(userAndLoa.getRight());
+    ui.setSelectedUser(cookies.getSelectedUser());
+    ui.setSelectedAuthnContextUri(cookies.getSelectedLoa());
 
     // Check if we received a PrincipalSelection ...
     //
@@ -150,7 +176,8 @@ public class SimulatedAuthenticationController
         .filter(a -> !a.getValues().isEmpty())
         .map(a -> a.getValues().get(0))
         .map(String.class::cast)
-        .filter(u -> users.stream().anyMatch(s -> u.equals(s.getUsername())))
+        .filter(u -> this.userDetailsService.userExists(u)
+            || savedUsers.stream().anyMatch(s -> u.equals(s.getUsername())))
         .findFirst()
         .orElse(null);
     if (preSelected != null) {
@@ -158,6 +185,18 @@ public class SimulatedAuthenticationController
       ui.setFixedSelectedUser(true);
     }
 
+    // A pre-selected generated user is not part of the directory, so it is added to the listed users ...
+    //
+    if (preSelected != null && !directory.contains(preSelected)
+        && savedUsers.stream().noneMatch(s -> preSelected.equals(s.getUsername()))) {
+      final List<SimulatedUser> listedUsers = new ArrayList<>(savedUsers);
+      listedUsers.add(this.userDetailsService.getUser(preSelected));
+      this.addUsers(mav, directory.merge(listedUsers), ui.getSelectedUser(), savedUsers);
+    }
+    else {
+      this.addUsers(mav, directory.merge(savedUsers), ui.getSelectedUser(), savedUsers);
+    }
+
     // Authentication context(s) ...
     //
     ui.setPossibleAuthnContextUris(new ArrayList<>(
@@ -186,11 +225,7 @@ public class SimulatedAuthenticationController
 
     // Automatic authentication?
     //
-    final String autoUser = Arrays.stream(request.getCookies())
-        .filter(c -> c.getName().equals(AUTO_AUTHN_COOKIE_NAME))
-        .map(Cookie::getValue)
-        .findFirst()
-        .orElse(null);
+    final String autoUser = cookies.getAutoAuthnUser();
     if (autoUser != null) {
       if (preSelected != null && !preSelected.equals(autoUser)) {
         return mav;
@@ -248,19 +283,24 @@ public class SimulatedAuthenticationController
    * Handles the automatic authentication setup view.
    *
    * @param request the HTTP servlet request
-   * @param authnCookieValue the auto authn cookie value (optional)
+   * @param response the HTTP servlet response
    * @return a {@link ModelAndView}
    */
   @GetMapping(AUTO_AUTHN_PATH)
-  public ModelAndView autoAuthn(final HttpServletRequest request,
-      @CookieValue(value = AUTO_AUTHN_COOKIE_NAME, required = false) final String authnCookieValue) {
+  public ModelAndView autoAuthn(final HttpServletRequest request, final HttpServletResponse response) {
 
     final ModelAndView mav = new ModelAndView("testconf");
-    final List<SimulatedUser> users = this.getStaticAndSavedUsers(request);
-    mav.addObject("users", users);
+    this.migrateCookies(request, response);
+    final UserDirectory directory = this.userDetailsService.getDirectory();
+    final IdpCookieContext cookies = this.getCookieContext(request);
+    final List<SimulatedUser> savedUsers = cookies.getSavedUsers();
+    final String authnCookieValue = cookies.getAutoAuthnUser();
+    request.getSession().setAttribute(USER_SEARCH_SESSION_ATTRIBUTE, Boolean.TRUE);
+    this.addUsers(mav, directory.merge(savedUsers), authnCookieValue, savedUsers);
 
     // Make sure the cookie contains a valid user.
-    if (authnCookieValue != null && users.stream().anyMatch(u -> authnCookieValue.equals(u.getPersonalNumber()))) {
+    if (authnCookieValue != null && (this.userDetailsService.userExists(authnCookieValue)
+        || cookies.getSavedUser(authnCookieValue) != null)) {
       mav.addObject("selectedUserId", authnCookieValue);
     }
     else {
@@ -285,16 +325,68 @@ public class SimulatedAuthenticationController
 
     if ("save".equals(action) && selectedUser != null) {
       if (!"NONE".equals(selectedUser)) {
-        this.autoAuthnCookieGenerator.addCookie(selectedUser, response);
+        this.autoAuthnCookieWriter.addCookie(selectedUser, response);
       }
     }
     else {
-      this.autoAuthnCookieGenerator.clearCookie(response);
+      this.autoAuthnCookieWriter.clearCookie(response);
     }
 
     return new ModelAndView("redirect:" + AUTO_AUTHN_PATH);
   }
 
+  /**
+   * Searches for users (typeahead). A user matches if each word of the query is the start of the user's personal
+   * identity number, given name or surname. Saved users are listed first, followed by the matching users of the user
+   * directory. Generated users can only be found by their complete personal identity number.
+   * <p>
+   * The search is only available to sessions for which a view that embeds it has been rendered, i.e., sessions having
+   * an ongoing authentication (or sign) operation, or that are setting up automatic authentication. Other requests
+   * are rejected with status 403.
+   * </p>
+   *
+   * @param request the HTTP servlet request
+   * @param query the query
+   * @param limit the maximum number of users to return (optional)
+   * @return a list of matching users
+   */
+  @GetMapping(value = USER_SEARCH_PATH, produces = MediaType.APPLICATION_JSON_VALUE)
+  @ResponseBody
+  public ResponseEntity<List<UserSearchHit>> searchUsers(final HttpServletRequest request,
+      @RequestParam(value = "q", required = false) final String query,
+      @RequestParam(value = "limit", required = false) final Integer limit) {
+
+    final HttpSession session = request.getSession(false);
+    if (session == null || session.getAttribute(USER_SEARCH_SESSION_ATTRIBUTE) == null) {
+      return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+    }
+
+    final int searchLimit = this.uiProperties.getUserList().getSearchLimit();
+    final int max = limit != null && limit > 0 ? Math.min(limit, searchLimit) : searchLimit;
+    final String[] tokens = UserSearchIndex.tokenize(query);
+
+    final Map<String, SimulatedUser> result = new LinkedHashMap<>();
+    this.getCookieContext(request).getSavedUsers().stream()
+        .filter(u -> UserSearchIndex.matches(u, tokens))
+        .limit(max)
+        .forEach(u -> result.putIfAbsent(u.getPersonalNumber(), u));
+
+    final UserDirectory directory = this.userDetailsService.getDirectory();
+    if (tokens.length == 1 && result.size() < max && !directory.contains(tokens[0])) {
+      Optional.ofNullable(this.userDetailsService.getUser(tokens[0]))
+          .ifPresent(u -> result.putIfAbsent(u.getPersonalNumber(), u));
+    }
+    for (final SimulatedUser user : directory.search(query, max)) {
+      if (result.size() >= max) {
+        break;
+      }
+      result.putIfAbsent(user.getPersonalNumber(), user);
+    }
+    return ResponseEntity.ok(result.values().stream()
+        .map(UserSearchHit::of)
+        .toList());
+  }
+
   /** {@inheritDoc} */
   @Override
   protected SimulatedAuthenticationProvider getProvider() {
@@ -315,48 +407,69 @@ public class SimulatedAuthenticationController
         .collect(Collectors.toList()));
   }
 
-  private Pair<String, String> getSelectedUserAndLoa(final HttpServletRequest request) {
-    final String selection = Arrays.stream(request.getCookies())
-        .filter(c -> c.getName().equals(this.selectedUserCookieGenerator.getName()))
-        .map(Cookie::getValue)
-        .findFirst()
-        .orElse(null);
-    if (selection != null) {
-      final String[] parts = selection.split("#");
-      return ImmutablePair.of(parts[0], parts.length > 1 ? parts[1] : null);
+  /**
+   * Adds the users to list in the view. If a maximum size for the initial user list has been configured, and the users
+   * do not fit, only the first users (and the selected user) are listed, and the view is told to offer a search field
+   * (typeahead).
+   *
+   * @param mav the model and view
+   * @param users all users (sorted)
+   * @param selectedUser the selected user (may be {@code null})
+   * @param savedUsers the saved users
+   */
+  private void addUsers(final ModelAndView mav, final List<SimulatedUser> users, final String selectedUser,
+      final List<SimulatedUser> savedUsers) {
+    final List<SimulatedUser> initialUsers =
+        getInitialUsers(users, this.uiProperties.getUserList().getInitialSize());
+    if (initialUsers.size() == users.size()) {
+      mav.addObject("users", users);
+      mav.addObject("typeahead", false);
+      return;
     }
-    else {
-      return ImmutablePair.nullPair();
+    final List<SimulatedUser> listedUsers = new ArrayList<>(initialUsers);
+    if (selectedUser != null && listedUsers.stream().noneMatch(u -> selectedUser.equals(u.getPersonalNumber()))) {
+      Optional.ofNullable(this.userDetailsService.getUser(selectedUser))
+          .or(() -> savedUsers.stream().filter(u -> selectedUser.equals(u.getPersonalNumber())).findFirst())
+          .ifPresent(listedUsers::add);
     }
+    mav.addObject("users", listedUsers);
+    mav.addObject("typeahead", true);
   }
 
   /**
-   * Returns a list of the users that have been entered in the "Advanced" view and the static users.
+   * Gets the users that are listed when a view is rendered, i.e., the first {@code initialSize} users. If not all users
+   * are listed, the view offers a search field (typeahead).
    *
-   * @param request the HTTP request
-   * @return a list of simulated users
+   * @param users all users (sorted)
+   * @param initialSize the maximum number of users to list (zero means that all users are listed)
+   * @return the users to list (a view of the supplied list)
    */
-  private List<SimulatedUser> getStaticAndSavedUsers(final HttpServletRequest request) {
-    final List<SimulatedUser> users = new ArrayList<>(this.userDetailsService.getUsers());
-    users.addAll(this.getSavedUsers(request));
-    Collections.sort(users);
-    return users;
+  public static List<SimulatedUser> getInitialUsers(final List<SimulatedUser> users, final int initialSize) {
+    return initialSize <= 0 || users.size() <= initialSize ? users : users.subList(0, initialSize);
   }
 
   /**
-   * Returns a list of the users that have been entered in the "Advanced" view.
+   * Moves the IdP cookies from the previous (broader) cookie path, see {@link CookiePathMigration}. The values of the
+   * request cookies are not changed, so the cookies of the request are still read as usual.
    *
    * @param request the HTTP request
-   * @return a list of simulated users
+   * @param response the HTTP response
    */
-  private List<SimulatedUser> getSavedUsers(final HttpServletRequest request) {
-    final String v = Arrays.stream(request.getCookies())
-        .filter(c -> c.getName().equals(this.savedUsersCookieGenerator.getName()))
-        .map(Cookie::getValue)
-        .findFirst()
-        .orElse(null);
+  private void migrateCookies(final HttpServletRequest request, final HttpServletResponse response) {
+    if (this.cookiePathMigration != null) {
+      this.cookiePathMigration.migrate(request, response);
+    }
+  }
 
-    return v != null ? SimulatedUser.parseList(v) : Collections.emptyList();
+  /**
+   * Gets the IdP cookies of the request. The cookies are parsed once per request.
+   *
+   * @param request the HTTP request
+   * @return the cookie context
+   */
+  private IdpCookieContext getCookieContext(final HttpServletRequest request) {
+    return IdpCookieContext.getContext(request, this.selectedUserCookieWriter.getName(),
+        this.savedUsersCookie, this.autoAuthnCookieWriter.getName());
   }
 
   /**
@@ -374,39 +487,33 @@ public class SimulatedAuthenticationController
     if (result.getPersonalIdentityNumber() == null) {
       return null;
     }
-    // First check among the static users ...
+    // First check among the static (and generated) users ...
     //
-    SimulatedUser user = this.userDetailsService.getUsers().stream()
-        .filter(u -> result.getPersonalIdentityNumber().equals(u.getPersonalNumber()))
-        .findFirst()
-        .orElse(null);
+    SimulatedUser user = this.userDetailsService.getUser(result.getPersonalIdentityNumber());
 
     // Check the custom users ...
     //
     if (user == null) {
-      final List<SimulatedUser> savedUsers = this.getSavedUsers(httpRequest);
-      user = savedUsers.stream()
-          .filter(u -> result.getPersonalIdentityNumber().equals(u.getPersonalNumber()))
-          .findFirst()
-          .orElse(null);
+      final IdpCookieContext cookies = this.getCookieContext(httpRequest);
+      user = cookies.getSavedUser(result.getPersonalIdentityNumber());
 
       if (user == null && result.isCustom()) {
-        final List<SimulatedUser> newSavedUsers = new ArrayList<>();
-        if (savedUsers.size() >= MAX_SAVED_USERS) {
-          // Remove the oldest ...
-          newSavedUsers.addAll(savedUsers.subList(1, savedUsers.size()));
-        }
-        else {
-          newSavedUsers.addAll(savedUsers);
-        }
         user = new SimulatedUser();
         user.setPersonalNumber(result.getPersonalIdentityNumber());
         user.setGivenName(result.getGivenName());
         user.setSurname(result.getSurname());
-        newSavedUsers.add(user);
 
-        // Update the cookie ...
-        this.savedUsersCookieGenerator.addCookie(SimulatedUser.encodeList(newSavedUsers), httpResponse);
+        // Malformed users are never saved ...
+        try {
+          UserValidator.validate(user);
+        }
+        catch (final IllegalArgumentException e) {
+          return null;
+        }
+
+        // Update the cookie (and store) ...
+        final List<SimulatedUser> newSavedUsers = this.savedUsersCookie.addUser(user, cookies, httpResponse);
+        cookies.setSavedUsers(newSavedUsers);
       }
     }
     if (user == null) {
@@ -415,7 +522,7 @@ public class SimulatedAuthenticationController
 
     // Save the selected user in a cookie (for pre-selection the next time).
     //
-    this.selectedUserCookieGenerator.addCookie(
+    this.selectedUserCookieWriter.addCookie(
         String.format("%s#%s", user.getPersonalNumber(), result.getLoa()),
         httpResponse);
 
@@ -424,22 +531,25 @@ public class SimulatedAuthenticationController
 
   private String getUserMessage(final UserMessageExtension userMessage) {
     final String lang = LocaleContextHolder.getLocale().getLanguage();
-    String bestChoice = null;
-    if (userMessage.getProcessedMessages() == null || userMessage.getProcessedMessages().isEmpty()) {
+    final Map<String, String> messages = userMessage.getProcessedMessages();
+    if (messages == null || messages.isEmpty()) {
       return null;
     }
-    for (final Map.Entry<String, String> entry : userMessage.getProcessedMessages().entrySet()) {
-      if (entry.getKey().startsWith(lang)) {
-        return entry.getValue();
+    // The processed messages are rendered when read, so we only read the value for the chosen language ...
+    //
+    String bestChoice = null;
+    for (final String key : messages.keySet()) {
+      if (key.startsWith(lang)) {
+        return messages.get(key);
       }
-      else if (UserMessageExtension.NO_LANG.equals(entry.getKey())) {
-        bestChoice = entry.getValue();
+      else if (UserMessageExtension.NO_LANG.equals(key)) {
+        bestChoice = key;
       }
       else if (bestChoice == null) {
-        bestChoice = entry.getValue();
+        bestChoice = key;
       }
     }
-    return bestChoice;
+    return messages.get(bestChoice);
   }
 
   private void updateSpUiDisplayItems(final UiModel model, final Saml2ServiceProviderUiInfo uiInfo) {
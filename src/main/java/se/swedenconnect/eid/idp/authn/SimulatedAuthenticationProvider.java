@@ -97,6 +97,27 @@ public class SimulatedAuthenticationProvider extends AbstractUserRedirectAuthent
     final SimulatedAuthenticationToken simAuth = (SimulatedAuthenticationToken) token.getAuthnToken();
     final SimulatedUser user = (SimulatedUser) simAuth.getDetails();
 
+    final Saml2UserDetails userDetails = this.createUserDetails(user, simAuth.getLoa(),
+        simAuth.isSignMessageDisplayed(), token.getServletRequest().getRemoteAddr());
+
+    final Saml2UserAuthentication userAuth = new Saml2UserAuthentication(userDetails);
+    userAuth.setReuseAuthentication(true);
+
+    return userAuth;
+  }
+
+  /**
+   * Creates the {@link Saml2UserDetails} (including the user attributes) for an authenticated user.
+   *
+   * @param user the authenticated user
+   * @param loa the LoA (authentication context URI)
+   * @param signMessageDisplayed whether a sign message was displayed
+   * @param remoteAddr the IP address of the user
+   * @return a {@link Saml2UserDetails}
+   */
+  public Saml2UserDetails createUserDetails(final SimulatedUser user, final String loa,
+      final boolean signMessageDisplayed, final String remoteAddr) {
+
     final List<UserAttribute> attributes = List.of(
         new UserAttribute(AttributeConstants.ATTRIBUTE_NAME_PERSONAL_IDENTITY_NUMBER,
             AttributeConstants.ATTRIBUTE_FRIENDLY_NAME_PERSONAL_IDENTITY_NUMBER, user.getPersonalNumber()),
@@ -110,14 +131,9 @@ public class SimulatedAuthenticationProvider extends AbstractUserRedirectAuthent
             AttributeConstants.ATTRIBUTE_FRIENDLY_NAME_DATE_OF_BIRTH, user.getDateOfBirth()));
 
     final Saml2UserDetails userDetails = new Saml2UserDetails(attributes,
-        AttributeConstants.ATTRIBUTE_NAME_PERSONAL_IDENTITY_NUMBER, simAuth.getLoa(),
-        Instant.now(), token.getServletRequest().getRemoteAddr());
-    userDetails.setSignMessageDisplayed(simAuth.isSignMessageDisplayed());
-
-    final Saml2UserAuthentication userAuth = new Saml2UserAuthentication(userDetails);
-    userAuth.setReuseAuthentication(true);
-
-    return userAuth;
+        AttributeConstants.ATTRIBUTE_NAME_PERSONAL_IDENTITY_NUMBER, loa, Instant.now(), remoteAddr);
+    userDetails.setSignMessageDisplayed(signMessageDisplayed);
+    return userDetails;
   }
 
   /** {@inheritDoc} */
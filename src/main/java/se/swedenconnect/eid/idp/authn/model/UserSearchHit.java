@@ -0,0 +1,48 @@
+/*
+ * Copyright 2023-2025 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.eid.idp.authn.model;
+
+import lombok.Data;
+import se.swedenconnect.eid.idp.users.SimulatedUser;
+
+/**
+ * Model class for a user returned by the user search (typeahead).
+ *
+ * @author agent
+ */
+@Data
+public class UserSearchHit {
+
+  /** The personal identity number (the value of the option). */
+  private String personalNumber;
+
+  /** The text to display for the user. */
+  private String text;
+
+  /**
+   * Creates a search hit for the supplied user.
+   *
+   * @param user the user
+   * @return a {@link UserSearchHit}
+   */
+  public static UserSearchHit of(final SimulatedUser user) {
+    final UserSearchHit hit = new UserSearchHit();
+    hit.setPersonalNumber(user.getPersonalNumber());
+    hit.setText(user.toViewString());
+    return hit;
+  }
+
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2023-2025 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.eid.idp.config;
+
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * Writes {@code Set-Cookie} headers for a cookie.
+ * <p>
+ * The writer is immutable, and may be used from concurrent requests. The constant parts of the header ({@code name=}
+ * and the {@code Path}, {@code Max-Age}, {@code Secure}, {@code HttpOnly} and {@code SameSite} attributes) are
+ * formatted once, when the writer is created, so writing a cookie only appends the value. The cookie lifetime is given
+ * by {@code Max-Age} only (it takes precedence over {@code Expires}, and is supported by all current browsers), since
+ * an {@code Expires} date would have to be formatted for each cookie.
+ * </p>
+ * <p>
+ * Characters that are not allowed in a cookie value (see RFC 6265, section 4.1.1) are percent-encoded. The values
+ * written by the IdP never hold such characters, so this only guarantees that the header can not be corrupted.
+ * </p>
+ *
+ * @author agent
+ */
+public class CookieWriter {
+
+  /** The attributes for a cleared cookie (except for the path). */
+  private static final String CLEARED = "; Max-Age=0; Expires=Thu, 01 Jan 1970 00:00:00 GMT";
+
+  /** Hex digits for percent-encoding. */
+  private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+  /** Tells which (ASCII) characters are allowed in a cookie value. */
+  private static final boolean[] COOKIE_OCTETS = new boolean[128];
+
+  static {
+    for (char c = 0x21; c < 0x7F; c++) {
+      COOKIE_OCTETS[c] = c != '"' && c != ',' && c != ';' && c != '\\';
+    }
+  }
+
+  /** The cookie name. */
+  private final String name;
+
+  /** The attributes following the value of a cookie. */
+  private final String suffix;
+
+  /** The attributes following the (empty) value of a cleared cookie. */
+  private final String clearedSuffix;
+
+  /** The cookie path. */
+  private final String path;
+
+  /** The Secure, HttpOnly and SameSite attributes. */
+  private final String attributes;
+
+  /**
+   * Constructor.
+   *
+   * @param name cookie name
+   * @param path cookie path
+   * @param maxAge max age
+   */
+  public CookieWriter(final String name, final String path, final Duration maxAge) {
+    this(name, path, maxAge, null);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param name cookie name
+   * @param path cookie path
+   * @param maxAge max age
+   * @param sameSite the {@code SameSite} attribute (if {@code null}, no attribute is written)
+   */
+  public CookieWriter(final String name, final String path, final Duration maxAge, final String sameSite) {
+    this.name = Objects.requireNonNull(name, "name must not be null");
+    if (name.isEmpty() || !isToken(name)) {
+      throw new IllegalArgumentException("Invalid cookie name: " + name);
+    }
+    this.path = path;
+    this.attributes = "; Secure; HttpOnly" + (sameSite != null ? "; SameSite=" + sameSite : "");
+    final String pathAttribute = path != null ? "; Path=" + path : "";
+    this.suffix = pathAttribute
+        + "; Max-Age=" + Objects.requireNonNull(maxAge, "maxAge must not be null").toSeconds()
+        + this.attributes;
+    this.clearedSuffix = pathAttribute + CLEARED + this.attributes;
+  }
+
+  /**
+   * Gets the cookie name.
+   *
+   * @return the cookie name
+   */
+  public String getName() {
+    return this.name;
+  }
+
+  /**
+   * Gets the cookie path.
+   *
+   * @return the cookie path, or {@code null} if no path is written
+   */
+  public String getPath() {
+    return this.path;
+  }
+
+  /**
+   * Gets the name of a numbered cookie, used when a value is split over several cookies. Cookie 0 has the name of the
+   * writer, and cookie {@code n} has the name of the writer followed by {@code n}.
+   *
+   * @param index the cookie number
+   * @return the cookie name
+   */
+  public String getName(final int index) {
+    return index == 0 ? this.name : this.name + index;
+  }
+
+  /**
+   * Adds a cookie to the response.
+   *
+   * @param value the value of the cookie
+   * @param response the HTTP servlet response
+   * @return the length of the {@code Set-Cookie} header value
+   */
+  public int addCookie(final String value, final HttpServletResponse response) {
+    return this.addCookie(0, value, response);
+  }
+
+  /**
+   * Adds a numbered cookie (see {@link #getName(int)}) to the response.
+   *
+   * @param index the cookie number
+   * @param value the value of the cookie
+   * @param response the HTTP servlet response
+   * @return the length of the {@code Set-Cookie} header value
+   */
+  public int addCookie(final int index, final String value, final HttpServletResponse response) {
+    final String header = this.toHeaderValue(index, value);
+    response.addHeader(HttpHeaders.SET_COOKIE, header);
+    return header.length();
+  }
+
+  /**
+   * Clears the cookie.
+   *
+   * @param response the HTTP servlet response
+   */
+  public void clearCookie(final HttpServletResponse response) {
+    this.clearCookie(0, response);
+  }
+
+  /**
+   * Clears a numbered cookie (see {@link #getName(int)}).
+   *
+   * @param index the cookie number
+   * @param response the HTTP servlet response
+   */
+  public void clearCookie(final int index, final HttpServletResponse response) {
+    response.addHeader(HttpHeaders.SET_COOKIE, this.getName(index) + "=" + this.clearedSuffix);
+  }
+
+  /**
+   * Clears a numbered cookie (see {@link #getName(int)}) that was set with another path than the path of this writer,
+   * for example when the cookie path has been changed.
+   *
+   * @param index the cookie number
+   * @param path the path of the cookie to clear
+   * @param response the HTTP servlet response
+   */
+  public void clearCookie(final int index, final String path, final HttpServletResponse response) {
+    response.addHeader(HttpHeaders.SET_COOKIE,
+        this.getName(index) + "=; Path=" + Objects.requireNonNull(path, "path must not be null") + CLEARED
+            + this.attributes);
+  }
+
+  /**
+   * Formats the {@code Set-Cookie} header value for a numbered cookie.
+   *
+   * @param index the cookie number
+   * @param value the value of the cookie
+   * @return the header value
+   */
+  public String toHeaderValue(final int index, final String value) {
+    final String v = value != null ? value : "";
+    final StringBuilder sb = new StringBuilder(this.name.length() + 2 + v.length() + this.suffix.length());
+    sb.append(this.name);
+    if (index != 0) {
+      sb.append(index);
+    }
+    sb.append('=');
+    appendValue(sb, v);
+    return sb.append(this.suffix).toString();
+  }
+
+  /**
+   * Appends a cookie value, where characters that are not allowed are percent-encoded (as UTF-8).
+   *
+   * @param sb the builder to append to
+   * @param value the value
+   */
+  private static void appendValue(final StringBuilder sb, final String value) {
+    int start = 0;
+    for (int i = 0; i < value.length(); i++) {
+      final char c = value.charAt(i);
+      if (c < 128 && COOKIE_OCTETS[c]) {
+        continue;
+      }
+      sb.append(value, start, i);
+      if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+        appendEncoded(sb, value.substring(i, i + 2));
+        i++;
+      }
+      else {
+        appendEncoded(sb, String.valueOf(c));
+      }
+      start = i + 1;
+    }
+    sb.append(value, start, value.length());
+  }
+
+  private static void appendEncoded(final StringBuilder sb, final String chars) {
+    for (final byte b : chars.getBytes(StandardCharsets.UTF_8)) {
+      sb.append('%').append(HEX[b >> 4 & 0x0F]).append(HEX[b & 0x0F]);
+    }
+  }
+
+  private static boolean isToken(final String s) {
+    for (int i = 0; i < s.length(); i++) {
+      final char c = s.charAt(i);
+      if (c >= 128 || !COOKIE_OCTETS[c] || c == '=' || c == '(' || c == ')' || c == '<' || c == '>' || c == '@'
+          || c == ':' || c == '/' || c == '[' || c == ']' || c == '?' || c == '{' || c == '}') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+}
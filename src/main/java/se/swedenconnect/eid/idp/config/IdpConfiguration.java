@@ -15,32 +15,72 @@
  */
 package se.swedenconnect.eid.idp.config;
 
+import jakarta.servlet.ServletContext;
 import lombok.Setter;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.actuate.autoconfigure.security.servlet.EndpointRequest;
+import org.springframework.boot.actuate.metrics.MetricsEndpoint;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.annotation.Order;
 import org.springframework.security.authentication.AuthenticationProvider;
+import org.springframework.security.authentication.ProviderManager;
+import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
 import org.springframework.security.config.Customizer;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configurers.AbstractHttpConfigurer;
+import org.springframework.security.config.http.SessionCreationPolicy;
+import org.springframework.security.core.userdetails.User;
 import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.security.crypto.factory.PasswordEncoderFactories;
+import org.springframework.security.provisioning.InMemoryUserDetailsManager;
 import org.springframework.security.web.SecurityFilterChain;
+import org.springframework.util.StringUtils;
 import org.thymeleaf.spring6.SpringTemplateEngine;
+import se.swedenconnect.eid.idp.admin.UserAdminController;
+import se.swedenconnect.eid.idp.authn.CookiePathMigration;
+import se.swedenconnect.eid.idp.authn.FileSavedUserStore;
+import se.swedenconnect.eid.idp.authn.HtmlSignMessagePreProcessor;
+import se.swedenconnect.eid.idp.authn.HtmlUserMessagePreProcessor;
+import se.swedenconnect.eid.idp.authn.InMemorySavedUserStore;
+import se.swedenconnect.eid.idp.authn.MessageProcessingLimits;
+import se.swedenconnect.eid.idp.authn.ProcessedMessageCache;
+import se.swedenconnect.eid.idp.authn.SavedUserStore;
+import se.swedenconnect.eid.idp.authn.SavedUsersCookie;
 import se.swedenconnect.eid.idp.authn.SimulatedAuthenticationController;
 import se.swedenconnect.eid.idp.authn.SimulatedAuthenticationProvider;
+import se.swedenconnect.eid.idp.config.UiConfigurationProperties.Language;
+import se.swedenconnect.eid.idp.users.CachingUserSource;
+import se.swedenconnect.eid.idp.users.HttpUserSource;
+import se.swedenconnect.eid.idp.users.MappedUserStore;
+import se.swedenconnect.eid.idp.users.SimulatedUser;
 import se.swedenconnect.eid.idp.users.SimulatedUserDetailsManager;
+import se.swedenconnect.eid.idp.users.SyntheticUserGenerator;
+import se.swedenconnect.eid.idp.users.UserBulkImporter;
+import se.swedenconnect.eid.idp.users.UserFileLoader;
+import se.swedenconnect.eid.idp.users.UserSource;
+import se.swedenconnect.eid.idp.users.UsersFileReloader;
 import se.swedenconnect.eid.idp.users.UsersConfigurationProperties;
 import se.swedenconnect.spring.saml.idp.config.configurers.Saml2IdpConfigurerAdapter;
 import se.swedenconnect.spring.saml.idp.extensions.SignatureMessagePreprocessor;
 import se.swedenconnect.spring.saml.idp.extensions.UserMessagePreprocessor;
 import se.swedenconnect.spring.saml.idp.response.ThymeleafResponsePage;
+import se.swedenconnect.spring.saml.idp.settings.IdentityProviderSettings;
 
+import java.io.IOException;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
 
 /**
  * IdP configuration.
@@ -51,6 +91,9 @@ import java.util.Objects;
 @EnableConfigurationProperties({ IdpConfigurationProperties.class, UsersConfigurationProperties.class })
 public class IdpConfiguration {
 
+  /** The bean name of the executor for parallel processing of user messages. */
+  public static final String USER_MESSAGE_EXECUTOR = "userMessageExecutor";
+
   /** IdP configuration properties. */
   private final IdpConfigurationProperties properties;
 
@@ -85,17 +128,108 @@ public class IdpConfiguration {
   }
 
   /**
-   * Creates the {@link UserDetailsService} holding all simulated users.
+   * Creates the {@link UserFileLoader} that loads the users file, and reports the {@code users.load.*} metrics.
+   *
+   * @return a {@link UserFileLoader}
+   */
+  @Bean
+  UserFileLoader userFileLoader() {
+    final IdpConfigurationProperties.UsersLoad settings = this.properties.getUsersLoad();
+    final UserFileLoader loader = new UserFileLoader();
+    loader.setBatchSize(settings.getBatchSize());
+    loader.setChunkSize(settings.getChunkSize());
+    if (settings.getParallelism() > 0) {
+      loader.setParallelism(settings.getParallelism());
+    }
+    return loader;
+  }
+
+  /**
+   * Creates the (cached) {@link UserSource} for the external user directory, if configured.
    *
+   * @return a {@link CachingUserSource}
+   */
+  @Bean
+  @ConditionalOnProperty("authn.user-source.url")
+  CachingUserSource userSource() {
+    final IdpConfigurationProperties.ExternalUserSource settings = this.properties.getUserSource();
+    final CachingUserSource userSource = new CachingUserSource(
+        new HttpUserSource(settings.getUrl(), settings.getTimeout()), settings.getMaxEntries(),
+        settings.getTimeToLive());
+    userSource.setRefreshAhead(settings.getRefreshAhead());
+    userSource.setNegativeTimeToLive(settings.getNegativeTimeToLive());
+    return userSource;
+  }
+
+  /**
+   * Creates the {@link UserDetailsService} holding all simulated users. Users configured under {@code users} are added
+   * first, and then the users of the users file ({@code authn.users-load.location}) are loaded and added in one
+   * operation. The configured users are kept (and take precedence) when the users file is reloaded.
+   *
+   * @param userFileLoader the loader for the users file
+   * @param userSource the external user source (if configured)
    * @return a {@link UserDetailsService}
+   * @throws IOException if the user store, or users file, can not be read
    */
   @Bean
-  SimulatedUserDetailsManager userDetailsService() {
-    final SimulatedUserDetailsManager mgr = new SimulatedUserDetailsManager();
-    this.users.getUsers().forEach(mgr::createUser);
+  SimulatedUserDetailsManager userDetailsService(final UserFileLoader userFileLoader,
+      final ObjectProvider<CachingUserSource> userSource) throws IOException {
+    final SimulatedUserDetailsManager mgr;
+    if (this.properties.getUserStore() != null) {
+      mgr = new SimulatedUserDetailsManager(MappedUserStore.open(this.properties.getUserStore().toPath()));
+    }
+    else {
+      mgr = new SimulatedUserDetailsManager(this.users.getUsers());
+      final String location = this.properties.getUsersLoad().getLocation();
+      if (location != null && !location.isBlank()) {
+        // Collect the users of the file, and add them in one operation, so the directory is only built once ...
+        final List<SimulatedUser> fileUsers = new ArrayList<>();
+        userFileLoader.load(location, fileUsers::addAll);
+        mgr.replaceFileUsers(fileUsers);
+      }
+    }
+    final IdpConfigurationProperties.SyntheticUsers syntheticUsers = this.properties.getSyntheticUsers();
+    if (syntheticUsers.isEnabled()) {
+      mgr.setGenerator(new SyntheticUserGenerator(syntheticUsers.getSeed(), syntheticUsers.getSize()));
+    }
+    userSource.ifAvailable(mgr::setUserSource);
     return mgr;
   }
 
+  /**
+   * Creates the {@link UsersFileReloader} that reloads the users when the users file is changed, and reports the
+   * {@code users.reload} and {@code users.count} metrics.
+   *
+   * @param userDetailsService the simulated users
+   * @param userFileLoader the loader for the users file
+   * @return a {@link UsersFileReloader}
+   */
+  @Bean
+  @ConditionalOnProperty(value = "authn.users-reload.enabled", havingValue = "true", matchIfMissing = true)
+  UsersFileReloader usersFileReloader(final SimulatedUserDetailsManager userDetailsService,
+      final UserFileLoader userFileLoader) {
+    final IdpConfigurationProperties.UsersReload settings = this.properties.getUsersReload();
+    final UsersFileReloader reloader =
+        new UsersFileReloader(UsersFileReloader.resolveFile(settings.getLocation()), userDetailsService);
+    reloader.setQuietPeriod(settings.getQuietPeriod());
+    reloader.setLoader(userFileLoader);
+    return reloader;
+  }
+
+  /**
+   * Creates the {@link UserBulkImporter} used by the administration endpoints.
+   *
+   * @param userDetailsService the simulated users
+   * @return a {@link UserBulkImporter}
+   */
+  @Bean
+  UserBulkImporter userBulkImporter(final SimulatedUserDetailsManager userDetailsService) {
+    final IdpConfigurationProperties.Admin settings = this.properties.getAdmin();
+    final UserBulkImporter importer = new UserBulkImporter(userDetailsService, settings.getMaxConcurrentImports());
+    importer.setBatchSize(settings.getImportBatchSize());
+    return importer;
+  }
+
   /**
    * Creates the {@link SimulatedAuthenticationProvider} which is the {@link AuthenticationProvider} that is responsible
    * for the user authentication.
@@ -111,6 +245,172 @@ public class IdpConfiguration {
     return provider;
   }
 
+  /**
+   * Creates the cache for processed sign messages.
+   *
+   * @return a {@link ProcessedMessageCache}
+   */
+  @Bean
+  @ConditionalOnProperty(value = "authn.message-processing.sign-message-cache.enabled", havingValue = "true",
+      matchIfMissing = true)
+  ProcessedMessageCache signMessageCache() {
+    return this.createSignMessageCache("signMessages");
+  }
+
+  /**
+   * Creates the limits for processing of Markdown and HTML messages.
+   *
+   * @return a {@link MessageProcessingLimits}
+   */
+  @Bean
+  MessageProcessingLimits messageProcessingLimits() {
+    return this.createMessageProcessingLimits();
+  }
+
+  /**
+   * Creates the {@link SignatureMessagePreprocessor} that transforms sign messages into HTML.
+   *
+   * @param signMessageCache the (optional) cache for processed sign messages
+   * @param messageProcessingLimits the processing limits
+   * @return a {@link HtmlSignMessagePreProcessor}
+   */
+  @Bean
+  HtmlSignMessagePreProcessor signMessagePreProcessor(final ObjectProvider<ProcessedMessageCache> signMessageCache,
+      final MessageProcessingLimits messageProcessingLimits) {
+    return this.createSignMessagePreProcessor(signMessageCache.getIfAvailable(), messageProcessingLimits);
+  }
+
+  /**
+   * Creates the executor for parallel processing of user messages. The executor is bounded, and when all threads are
+   * busy, and the queue is full, messages are processed by the calling thread.
+   * <p>
+   * Note: Since this is an {@link Executor} bean, Spring Boot would not create its application task executor. The
+   * {@code spring.task.execution.mode} property is therefore set to {@code force} in the application configuration.
+   * </p>
+   *
+   * @return a {@link ThreadPoolTaskExecutor}
+   */
+  @Bean(USER_MESSAGE_EXECUTOR)
+  @ConditionalOnExpression("${authn.message-processing.user-message.parallel-threshold:4} > 0 "
+      + "and ${authn.message-processing.user-message.max-threads:4} > 0")
+  ThreadPoolTaskExecutor userMessageExecutor() {
+    final IdpConfigurationProperties.UserMessage settings = this.properties.getMessageProcessing().getUserMessage();
+    final ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+    executor.setCorePoolSize(settings.getMaxThreads());
+    executor.setMaxPoolSize(settings.getMaxThreads());
+    executor.setQueueCapacity(settings.getQueueCapacity());
+    executor.setAllowCoreThreadTimeOut(true);
+    executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+    executor.setThreadNamePrefix("user-message-");
+    executor.setDaemon(true);
+    return executor;
+  }
+
+  /**
+   * Creates the {@link UserMessagePreprocessor} that transforms user messages into HTML.
+   *
+   * @param messageProcessingLimits the processing limits
+   * @param userMessageExecutor the (optional) executor for parallel processing of messages
+   * @return a {@link HtmlUserMessagePreProcessor}
+   */
+  @Bean
+  HtmlUserMessagePreProcessor userMessagePreProcessor(final MessageProcessingLimits messageProcessingLimits,
+      @Qualifier(USER_MESSAGE_EXECUTOR) final ObjectProvider<Executor> userMessageExecutor) {
+    final IdpConfigurationProperties.UserMessage settings = this.properties.getMessageProcessing().getUserMessage();
+    final HtmlUserMessagePreProcessor processor = new HtmlUserMessagePreProcessor();
+    processor.setMaxMessageSize(
+        Math.toIntExact(this.properties.getMessageProcessing().getMaxMessageSize().toBytes()));
+    processor.setParallelThreshold(settings.getParallelThreshold());
+    processor.setLimits(messageProcessingLimits);
+    userMessageExecutor.ifAvailable(processor::setExecutor);
+    return processor;
+  }
+
+  /**
+   * Creates the {@link StartupWarmUp} that warms up the IdP when the application has been started. It is also the
+   * {@code warmUp} health indicator that is part of the readiness group.
+   * <p>
+   * The warm-up processes sign messages using a processor of its own, with a scratch cache and processing limits that
+   * are not beans. This way the synthetic messages do not end up in the shared sign message cache and they are not
+   * counted by its metrics.
+   * </p>
+   *
+   * @param signMessageCache the (optional) cache for processed sign messages (only used to determine whether caching
+   *          is enabled)
+   * @param userMessagePreProcessor the user message processor
+   * @param simulatedAuthenticationProvider the authentication provider
+   * @param templateEngine the template engine
+   * @param servletContext the servlet context
+   * @param userDetailsService the simulated users
+   * @param languages the UI languages
+   * @param identityProviderSettings the IdP settings (for the entity ID)
+   * @param uiProperties the UI settings (for the size of the user list)
+   * @return a {@link StartupWarmUp}
+   */
+  @Bean
+  StartupWarmUp warmUp(final ObjectProvider<ProcessedMessageCache> signMessageCache,
+      final HtmlUserMessagePreProcessor userMessagePreProcessor,
+      final SimulatedAuthenticationProvider simulatedAuthenticationProvider,
+      final SpringTemplateEngine templateEngine, final ServletContext servletContext,
+      final SimulatedUserDetailsManager userDetailsService, final List<Language> languages,
+      final ObjectProvider<IdentityProviderSettings> identityProviderSettings,
+      final UiConfigurationProperties uiProperties) {
+    final IdpConfigurationProperties.WarmUp settings = this.properties.getWarmUp();
+    final HtmlSignMessagePreProcessor signMessagePreProcessor = this.createSignMessagePreProcessor(
+        signMessageCache.getIfAvailable() != null ? this.createSignMessageCache("warmUp") : null,
+        this.createMessageProcessingLimits());
+    final StartupWarmUp warmUp = new StartupWarmUp(signMessagePreProcessor, userMessagePreProcessor,
+        simulatedAuthenticationProvider, templateEngine, servletContext, userDetailsService::getUsers, languages);
+    warmUp.setEnabled(settings.isEnabled());
+    warmUp.setIterations(settings.getIterations());
+    warmUp.setTimeout(settings.getTimeout());
+    warmUp.setInitialUserListSize(uiProperties.getUserList().getInitialSize());
+    warmUp.setSignAssertions(settings.isSignAssertions());
+    identityProviderSettings.ifAvailable(idp -> warmUp.setEntityId(idp.getEntityId()));
+    return warmUp;
+  }
+
+  /**
+   * Creates a {@link ProcessedMessageCache} according to the sign message cache settings.
+   *
+   * @param name the cache name
+   * @return a {@link ProcessedMessageCache}
+   */
+  private ProcessedMessageCache createSignMessageCache(final String name) {
+    final IdpConfigurationProperties.MessageCache settings =
+        this.properties.getMessageProcessing().getSignMessageCache();
+    return new ProcessedMessageCache(name, settings.getMaxSize().toBytes(), settings.getTimeToLive());
+  }
+
+  /**
+   * Creates the {@link MessageProcessingLimits} according to the settings.
+   *
+   * @return a {@link MessageProcessingLimits}
+   */
+  private MessageProcessingLimits createMessageProcessingLimits() {
+    final IdpConfigurationProperties.Limits settings = this.properties.getMessageProcessing().getLimits();
+    return new MessageProcessingLimits(settings.getMaxNodes(), settings.getMaxDepth(), settings.getMaxProcessingTime());
+  }
+
+  /**
+   * Creates a {@link HtmlSignMessagePreProcessor}.
+   *
+   * @param cache the cache to use (may be {@code null})
+   * @param limits the processing limits
+   * @return a {@link HtmlSignMessagePreProcessor}
+   */
+  private HtmlSignMessagePreProcessor createSignMessagePreProcessor(final ProcessedMessageCache cache,
+      final MessageProcessingLimits limits) {
+    final HtmlSignMessagePreProcessor processor = new HtmlSignMessagePreProcessor();
+    processor.setMaxMessageSize(
+        Math.toIntExact(this.properties.getMessageProcessing().getMaxMessageSize().toBytes()));
+    processor.setLimits(limits);
+    if (cache != null) {
+      processor.setCache(cache);
+    }
+    return processor;
+  }
+
   /**
    * Gets a {@link Saml2IdpConfigurerAdapter} that applies custom configuration for the IdP.
    *
@@ -140,36 +440,149 @@ public class IdpConfiguration {
   }
 
   /**
-   * Creates a {@link CookieGenerator} for saving selected (simulated) user.
+   * Creates a {@link CookieWriter} for saving selected (simulated) user.
+   *
+   * @return a {@link CookieWriter}
+   */
+  @Bean("selectedUserCookieWriter")
+  CookieWriter selectedUserCookieWriter() {
+    return new CookieWriter("selectedUser", this.getCookiePath(), Duration.ofDays(365));
+  }
+
+  /**
+   * Creates a {@link CookieWriter} for saving custom users.
+   *
+   * @return a {@link CookieWriter}
+   */
+  @Bean("savedUsersCookieWriter")
+  CookieWriter savedUsersCookieWriter() {
+    return new CookieWriter("savedUsers", this.getCookiePath(), Duration.ofDays(365));
+  }
+
+  /**
+   * Creates the server-side {@link SavedUserStore}, if {@code authn.saved-users.store} is {@code memory} or
+   * {@code file}.
    *
-   * @return a {@link CookieGenerator}
+   * @return a {@link SavedUserStore}
+   * @throws IOException if the directory for the file store can not be created
    */
-  @Bean("selectedUserCookieGenerator")
-  CookieGenerator selectedUserCookieGenerator() {
-    return new CookieGenerator("selectedUser", this.contextPath, Duration.ofDays(365));
+  @Bean
+  @ConditionalOnExpression("'${authn.saved-users.store:cookie}'.toLowerCase() != 'cookie'")
+  SavedUserStore savedUserStore() throws IOException {
+    final IdpConfigurationProperties.SavedUsers settings = this.properties.getSavedUsers();
+    if (settings.getStore() == IdpConfigurationProperties.SavedUsers.StoreType.FILE) {
+      if (settings.getDirectory() == null) {
+        throw new IllegalArgumentException("authn.saved-users.directory must be assigned for the file store");
+      }
+      return new FileSavedUserStore(settings.getDirectory().toPath(), settings.getMaxEntries(),
+          SimulatedAuthenticationController.MAX_SAVED_USERS, settings.getIdleTimeout());
+    }
+    return new InMemorySavedUserStore(settings.getMaxEntries(), SimulatedAuthenticationController.MAX_SAVED_USERS,
+        settings.getIdleTimeout());
   }
 
   /**
-   * Creates a {@link CookieGenerator} for saving custom users.
+   * Creates the {@link SavedUsersCookie} that reads and writes the (compact) saved users cookie(s), and reports the
+   * {@code idp.cookie.size} metric. If a {@link SavedUserStore} is configured, the users are held in the store.
    *
-   * @return a {@link CookieGenerator}
+   * @param savedUsersCookieWriter the cookie writer for saved users
+   * @param savedUserStore the server-side store for saved users (if configured)
+   * @return a {@link SavedUsersCookie}
    */
-  @Bean("savedUsersCookieGenerator")
-  CookieGenerator savedUsersCookieGenerator() {
-    return new CookieGenerator("savedUsers", this.contextPath, Duration.ofDays(365));
+  @Bean
+  SavedUsersCookie savedUsersCookie(
+      @Qualifier("savedUsersCookieWriter") final CookieWriter savedUsersCookieWriter,
+      final ObjectProvider<SavedUserStore> savedUserStore) {
+    final SavedUsersCookie cookie =
+        new SavedUsersCookie(savedUsersCookieWriter, SavedUsersCookie.DEFAULT_MAX_COOKIE_LENGTH);
+    savedUserStore.ifAvailable(cookie::setStore);
+    return cookie;
   }
 
   /**
-   * Creates a {@link CookieGenerator} for saving custom users.
+   * Creates a {@link CookieWriter} for saving the user for automatic authentication.
    *
-   * @return a {@link CookieGenerator}
+   * @return a {@link CookieWriter}
    */
   @Bean(SimulatedAuthenticationController.AUTO_AUTHN_COOKIE_NAME)
-  CookieGenerator autoAuthnCookieGenerator() {
-    return new CookieGenerator(SimulatedAuthenticationController.AUTO_AUTHN_COOKIE_NAME, this.contextPath,
+  CookieWriter autoAuthnCookieWriter() {
+    return new CookieWriter(SimulatedAuthenticationController.AUTO_AUTHN_COOKIE_NAME, this.getCookiePath(),
         Duration.ofDays(365));
   }
 
+  /**
+   * Creates the {@link CookiePathMigration} that moves the IdP cookies from the context path to the (narrower) cookie
+   * path ({@code authn.cookies.path}), unless {@code authn.cookies.migrate} is turned off.
+   *
+   * @param selectedUserCookieWriter the cookie writer for the selected user
+   * @param savedUsersCookieWriter the cookie writer for saved users
+   * @param autoAuthnCookieWriter the cookie writer for the automatic authentication user
+   * @return a {@link CookiePathMigration}
+   */
+  @Bean
+  @ConditionalOnProperty(value = "authn.cookies.migrate", havingValue = "true", matchIfMissing = true)
+  CookiePathMigration cookiePathMigration(
+      @Qualifier("selectedUserCookieWriter") final CookieWriter selectedUserCookieWriter,
+      @Qualifier("savedUsersCookieWriter") final CookieWriter savedUsersCookieWriter,
+      @Qualifier(SimulatedAuthenticationController.AUTO_AUTHN_COOKIE_NAME) final CookieWriter autoAuthnCookieWriter) {
+    return new CookiePathMigration(StringUtils.hasText(this.contextPath) ? this.contextPath : "/",
+        List.of(selectedUserCookieWriter, savedUsersCookieWriter, autoAuthnCookieWriter));
+  }
+
+  /**
+   * Gets the path for the IdP cookies, i.e., the context path followed by {@code authn.cookies.path}.
+   *
+   * @return the cookie path
+   */
+  private String getCookiePath() {
+    final String contextPath = StringUtils.hasText(this.contextPath) && !"/".equals(this.contextPath)
+        ? this.contextPath : "";
+    final String path = this.properties.getCookies().getPath();
+    if (!StringUtils.hasText(path) || "/".equals(path)) {
+      return contextPath.isEmpty() ? "/" : contextPath;
+    }
+    return contextPath + (path.startsWith("/") ? path : "/" + path);
+  }
+
+  /**
+   * Gets the {@link SecurityFilterChain} for the administration endpoints and the metrics actuator endpoint. The
+   * endpoints require HTTP basic authentication using the administrator credentials, and are closed if no administrator
+   * password has been configured. The administrator is authenticated separately from the simulated users.
+   *
+   * @param http the HttpSecurity object
+   * @return a SecurityFilterChain
+   * @throws Exception for config errors
+   */
+  @Bean
+  @Order(1)
+  SecurityFilterChain adminSecurityFilterChain(final HttpSecurity http) throws Exception {
+    final IdpConfigurationProperties.Admin admin = this.properties.getAdmin();
+
+    http
+        .securityMatchers(matchers -> matchers
+            .requestMatchers(UserAdminController.ADMIN_PATH + "/**")
+            .requestMatchers(EndpointRequest.to(MetricsEndpoint.class)))
+        .csrf(AbstractHttpConfigurer::disable)
+        .sessionManagement(session -> session.sessionCreationPolicy(SessionCreationPolicy.STATELESS))
+        .httpBasic(Customizer.withDefaults());
+
+    if (StringUtils.hasText(admin.getPassword())) {
+      final String password = admin.getPassword().startsWith("{")
+          ? admin.getPassword()
+          : "{noop}" + admin.getPassword();
+      final DaoAuthenticationProvider provider = new DaoAuthenticationProvider(new InMemoryUserDetailsManager(
+          User.withUsername(admin.getUsername()).password(password).roles("ADMIN").build()));
+      provider.setPasswordEncoder(PasswordEncoderFactories.createDelegatingPasswordEncoder());
+      http
+          .authenticationManager(new ProviderManager(provider))
+          .authorizeHttpRequests((authorize) -> authorize.anyRequest().hasRole("ADMIN"));
+    }
+    else {
+      http.authorizeHttpRequests((authorize) -> authorize.anyRequest().denyAll());
+    }
+    return http.build();
+  }
+
   /**
    * Gets a default {@link SecurityFilterChain} protecting other resources.
    *
@@ -15,9 +15,18 @@
  */
 package se.swedenconnect.eid.idp.config;
 
+import java.io.File;
+import java.time.Duration;
 import java.util.List;
 
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+import se.swedenconnect.eid.idp.authn.MessageProcessingLimits;
+import se.swedenconnect.eid.idp.authn.SimulatedAuthenticationController;
+import se.swedenconnect.eid.idp.users.SyntheticUserGenerator;
+import se.swedenconnect.eid.idp.users.UserBulkImporter;
+import se.swedenconnect.eid.idp.users.UserFileLoader;
 
 import lombok.Data;
 
@@ -55,4 +64,392 @@ public class IdpConfigurationProperties {
    */
   private List<String> entityCategories;
 
+  /**
+   * Settings for the processing of sign and user messages.
+   */
+  private MessageProcessing messageProcessing = new MessageProcessing();
+
+  /**
+   * Settings for the warm-up that is performed when the application has been started.
+   */
+  private WarmUp warmUp = new WarmUp();
+
+  /**
+   * The location of a user store file (see {@code MappedUserStore}). If assigned, the users are served from this file
+   * instead of from the users configuration (users.yml).
+   */
+  private File userStore;
+
+  /**
+   * Settings for a generated population of synthetic users (in addition to the configured users).
+   */
+  private SyntheticUsers syntheticUsers = new SyntheticUsers();
+
+  /**
+   * Settings for loading of the users file (users.yml) at startup.
+   */
+  private UsersLoad usersLoad = new UsersLoad();
+
+  /**
+   * Settings for an external user directory that is consulted for users that are not configured (or generated).
+   */
+  private ExternalUserSource userSource = new ExternalUserSource();
+
+  /**
+   * Settings for reloading of the users file (users.yml) when it is changed.
+   */
+  private UsersReload usersReload = new UsersReload();
+
+  /**
+   * Settings for the administration endpoints (bulk import and export of users).
+   */
+  private Admin admin = new Admin();
+
+  /**
+   * Settings for where the users entered in the "Advanced" view are saved.
+   */
+  private SavedUsers savedUsers = new SavedUsers();
+
+  /**
+   * Settings for the IdP cookies (selected user, saved users and automatic authentication).
+   */
+  private Cookies cookies = new Cookies();
+
+  /**
+   * Settings for the IdP cookies (selected user, saved users and automatic authentication).
+   */
+  @Data
+  public static class Cookies {
+
+    /**
+     * The path of the cookies, relative to the context path. The cookies are only read by the authentication views, so
+     * by limiting the path to the authentication path, the cookies are not sent with requests for static resources.
+     * If not assigned, the context path is used.
+     */
+    private String path = SimulatedAuthenticationController.AUTHN_PATH;
+
+    /**
+     * Whether cookies set with the context path (the path used by previous versions) should be moved to the cookie
+     * path. Only applies if the cookie path differs from the context path.
+     */
+    private boolean migrate = true;
+
+  }
+
+  /**
+   * Settings for where the users entered in the "Advanced" view are saved.
+   */
+  @Data
+  public static class SavedUsers {
+
+    /**
+     * Where the saved users are held. {@code cookie} (default) means that the users are held in the browser's
+     * cookie(s), {@code memory} and {@code file} means that they are held server-side, and that the browser only holds
+     * a short identifier.
+     */
+    private StoreType store = StoreType.COOKIE;
+
+    /**
+     * The directory for the {@code file} store. Several IdP nodes may share the directory.
+     */
+    private File directory;
+
+    /**
+     * The maximum number of browsers (identifiers) whose users are held server-side.
+     */
+    private int maxEntries = 10_000;
+
+    /**
+     * The time after which the users of a browser that has not been used are removed from the server-side store.
+     */
+    private Duration idleTimeout = Duration.ofDays(30);
+
+    /**
+     * Store types.
+     */
+    public enum StoreType {
+      /** The users are held in the cookie(s). */
+      COOKIE,
+      /** The users are held in memory. */
+      MEMORY,
+      /** The users are held in files. */
+      FILE
+    }
+
+  }
+
+  /**
+   * Settings for the administration endpoints (bulk import and export of users).
+   */
+  @Data
+  public static class Admin {
+
+    /**
+     * The administrator user name.
+     */
+    private String username = "admin";
+
+    /**
+     * The administrator password (for example {@code {bcrypt}...}, or plain text). If not assigned, the
+     * administration endpoints are disabled.
+     */
+    private String password;
+
+    /**
+     * The number of users committed in each batch of an import.
+     */
+    private int importBatchSize = UserBulkImporter.DEFAULT_BATCH_SIZE;
+
+    /**
+     * The maximum number of imports that may run concurrently.
+     */
+    private int maxConcurrentImports = 1;
+
+  }
+
+  /**
+   * Settings for an external user directory, that is accessed over HTTP ({@code GET <url>/<personal-number>}), and
+   * cached.
+   */
+  @Data
+  public static class ExternalUserSource {
+
+    /**
+     * The base URL of the user directory. If not assigned, no external user directory is used.
+     */
+    private String url;
+
+    /**
+     * The connect and request timeout for calls to the user directory.
+     */
+    private Duration timeout = Duration.ofSeconds(5);
+
+    /**
+     * The maximum number of cached users (and misses).
+     */
+    private int maxEntries = 10_000;
+
+    /**
+     * The time-to-live for a cached user.
+     */
+    private Duration timeToLive = Duration.ofMinutes(10);
+
+    /**
+     * The age after which a cached user is reloaded in the background when it is used. If not assigned, users are not
+     * reloaded before they expire.
+     */
+    private Duration refreshAhead = Duration.ofMinutes(5);
+
+    /**
+     * The time-to-live for cached misses (for example, an unknown user given in a PrincipalSelection).
+     */
+    private Duration negativeTimeToLive = Duration.ofMinutes(1);
+
+  }
+
+  /**
+   * Settings for loading of the users file (users.yml) at startup.
+   */
+  @Data
+  public static class UsersLoad {
+
+    /**
+     * The location of the users file (YAML, or CSV if the file name ends with {@code .csv}). If the file does not
+     * exist, no users are loaded from it.
+     */
+    private String location;
+
+    /**
+     * The number of users added to the user directory in each batch.
+     */
+    private int batchSize = UserFileLoader.DEFAULT_BATCH_SIZE;
+
+    /**
+     * The number of rows that are validated by a worker thread in one go.
+     */
+    private int chunkSize = UserFileLoader.DEFAULT_CHUNK_SIZE;
+
+    /**
+     * The number of worker threads (0 means one thread per available processor).
+     */
+    private int parallelism = 0;
+
+  }
+
+  /**
+   * Settings for reloading of the users file (users.yml) when it is changed.
+   */
+  @Data
+  public static class UsersReload {
+
+    /**
+     * Whether the users file should be watched and reloaded.
+     */
+    private boolean enabled = true;
+
+    /**
+     * The location of the users file. Only files in the file system are watched.
+     */
+    private String location;
+
+    /**
+     * How long to wait after a change of the file before it is reloaded.
+     */
+    private Duration quietPeriod = Duration.ofSeconds(1);
+
+  }
+
+  /**
+   * Settings for a generated population of synthetic users. The generated users are not listed in the UI, but they can
+   * be authenticated using a PrincipalSelection, or the "Advanced" view. The generated personal identity numbers only
+   * use the test series of birth numbers (980-999).
+   */
+  @Data
+  public static class SyntheticUsers {
+
+    /**
+     * Whether synthetic users are enabled.
+     */
+    private boolean enabled = false;
+
+    /**
+     * The seed for the generated population. The same seed always gives the same users.
+     */
+    private long seed = 0;
+
+    /**
+     * The number of users in the population (at most {@link SyntheticUserGenerator#MAX_SIZE}).
+     */
+    private long size = 100_000;
+
+  }
+
+  /**
+   * Settings for the startup warm-up. The readiness probe reports that the application is not ready until the warm-up
+   * has finished, or timed out.
+   */
+  @Data
+  public static class WarmUp {
+
+    /**
+     * Whether warm-up is enabled.
+     */
+    private boolean enabled = true;
+
+    /**
+     * The number of warm-up iterations.
+     */
+    private int iterations = StartupWarmUp.DEFAULT_ITERATIONS;
+
+    /**
+     * The maximum time to wait for the warm-up before the application is reported as ready.
+     */
+    private Duration timeout = StartupWarmUp.DEFAULT_TIMEOUT;
+
+    /**
+     * Whether representative SAML assertions should be signed (using a throwaway key) during warm-up.
+     */
+    private boolean signAssertions = false;
+
+  }
+
+  /**
+   * Settings for the processing of sign and user messages.
+   */
+  @Data
+  public static class MessageProcessing {
+
+    /**
+     * The maximum allowed size of a decoded sign or user message.
+     */
+    private DataSize maxMessageSize = DataSize.ofKilobytes(128);
+
+    /**
+     * Settings for the cache of processed sign messages.
+     */
+    private MessageCache signMessageCache = new MessageCache();
+
+    /**
+     * Settings for the processing of user messages.
+     */
+    private UserMessage userMessage = new UserMessage();
+
+    /**
+     * Limits for the processing of Markdown and HTML messages.
+     */
+    private Limits limits = new Limits();
+
+  }
+
+  /**
+   * Limits for the processing of Markdown and HTML messages. Messages exceeding any limit are rejected.
+   */
+  @Data
+  public static class Limits {
+
+    /**
+     * The maximum number of nodes (Markdown AST nodes or HTML nodes) in a message.
+     */
+    private int maxNodes = MessageProcessingLimits.DEFAULT_MAX_NODES;
+
+    /**
+     * The maximum nesting depth of a message.
+     */
+    private int maxDepth = MessageProcessingLimits.DEFAULT_MAX_DEPTH;
+
+    /**
+     * The maximum processing time for a message.
+     */
+    private Duration maxProcessingTime = MessageProcessingLimits.DEFAULT_MAX_PROCESSING_TIME;
+
+  }
+
+  /**
+   * Settings for the processing of user messages.
+   */
+  @Data
+  public static class UserMessage {
+
+    /**
+     * The number of distinct messages (translations) that a user message must contain for the messages to be
+     * processed in parallel. Zero means that messages are always processed sequentially.
+     */
+    private int parallelThreshold = 4;
+
+    /**
+     * The maximum number of threads used for parallel processing of user messages.
+     */
+    private int maxThreads = 4;
+
+    /**
+     * The maximum number of messages waiting to be processed by the threads. When the queue is full, messages are
+     * processed by the calling thread.
+     */
+    private int queueCapacity = 100;
+
+  }
+
+  /**
+   * Settings for a cache of processed messages.
+   */
+  @Data
+  public static class MessageCache {
+
+    /**
+     * Whether the cache is enabled.
+     */
+    private boolean enabled = true;
+
+    /**
+     * The maximum (estimated) size of the cache.
+     */
+    private DataSize maxSize = DataSize.ofMegabytes(2);
+
+    /**
+     * The time-to-live for a cached message.
+     */
+    private Duration timeToLive = Duration.ofHours(1);
+
+  }
+
 }
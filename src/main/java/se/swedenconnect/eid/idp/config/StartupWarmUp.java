@@ -0,0 +1,617 @@
+/*
+ * Copyright 2023-2025 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.eid.idp.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.Nonnull;
+import jakarta.servlet.ServletContext;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import net.shibboleth.shared.xml.SerializeSupport;
+import org.opensaml.core.xml.io.MarshallingException;
+import org.opensaml.core.xml.util.XMLObjectSupport;
+import org.opensaml.saml.saml2.core.Assertion;
+import org.opensaml.saml.saml2.core.AttributeStatement;
+import org.opensaml.saml.saml2.core.Audience;
+import org.opensaml.saml.saml2.core.AudienceRestriction;
+import org.opensaml.saml.saml2.core.AuthnContext;
+import org.opensaml.saml.saml2.core.AuthnContextClassRef;
+import org.opensaml.saml.saml2.core.AuthnStatement;
+import org.opensaml.saml.saml2.core.Conditions;
+import org.opensaml.saml.saml2.core.Issuer;
+import org.opensaml.saml.saml2.core.NameID;
+import org.opensaml.saml.saml2.core.Response;
+import org.opensaml.saml.saml2.core.Status;
+import org.opensaml.saml.saml2.core.StatusCode;
+import org.opensaml.saml.saml2.core.Subject;
+import org.opensaml.security.SecurityException;
+import org.opensaml.security.credential.BasicCredential;
+import org.opensaml.xmlsec.SignatureSigningParameters;
+import org.opensaml.xmlsec.signature.support.SignatureConstants;
+import org.opensaml.xmlsec.signature.support.SignatureException;
+import org.opensaml.xmlsec.signature.support.SignatureSupport;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.util.MimeTypeUtils;
+import org.thymeleaf.context.WebContext;
+import org.thymeleaf.spring6.SpringTemplateEngine;
+import org.thymeleaf.web.IWebExchange;
+import se.swedenconnect.eid.idp.authn.HtmlSignMessagePreProcessor;
+import se.swedenconnect.eid.idp.authn.HtmlUserMessagePreProcessor;
+import se.swedenconnect.eid.idp.authn.SimulatedAuthenticationController;
+import se.swedenconnect.eid.idp.authn.SimulatedAuthenticationProvider;
+import se.swedenconnect.eid.idp.authn.model.SelectedUserModel;
+import se.swedenconnect.eid.idp.authn.model.UiModel;
+import se.swedenconnect.eid.idp.config.UiConfigurationProperties.Language;
+import se.swedenconnect.eid.idp.users.SimulatedUser;
+import se.swedenconnect.opensaml.sweid.saml2.signservice.dss.SignMessageMimeTypeEnum;
+import se.swedenconnect.spring.saml.idp.authentication.Saml2UserDetails;
+import se.swedenconnect.spring.saml.idp.error.Saml2ErrorStatusException;
+
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.spec.ECGenParameterSpec;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Warms up the IdP when the application has been started, so that the first users do not have to pay for class
+ * loading, JIT compilation and template parsing. The warm-up runs in a background thread and processes synthetic sign
+ * and user messages, renders the UI and response templates, builds user attributes the same way as
+ * {@link SimulatedAuthenticationProvider#resumeAuthentication} and (if {@code signAssertions} is set) builds, signs and
+ * marshals a representative SAML assertion. The assertions are signed using a throwaway key that is generated for the
+ * warm-up, so they can never be accepted by a real Service Provider.
+ * <p>
+ * The warm-up is also a {@link HealthIndicator} that reports {@code DOWN} until the warm-up has finished, or timed out.
+ * By including it in the readiness health group, the readiness probe reports that the application is not ready until
+ * it has been warmed up. A failed or timed out warm-up does not prevent the application from becoming ready.
+ * </p>
+ *
+ * @author agent
+ */
+@Slf4j
+public class StartupWarmUp implements ApplicationListener<ApplicationStartedEvent>, HealthIndicator, MeterBinder {
+
+  /** The default number of iterations. */
+  public static final int DEFAULT_ITERATIONS = 10;
+
+  /** The default timeout for the warm-up. */
+  public static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(30);
+
+  /** Synthetic sign message in text format. */
+  private static final String SIGN_MESSAGE_TEXT = "Warm-up %d.\nI approve the signing of the document \"%d.pdf\".";
+
+  /** Synthetic sign message in HTML format. */
+  private static final String SIGN_MESSAGE_HTML = "<h2>Warm-up %d</h2><p>I approve the signing of the document "
+      + "<strong>%d.pdf</strong>.</p><ul><li>First item</li><li>Second item</li></ul>";
+
+  /** Synthetic sign message in Markdown format. */
+  private static final String SIGN_MESSAGE_MARKDOWN = "## Warm-up %d\n\nI approve the signing of the document "
+      + "**%d.pdf**.\n\n* First item\n* Second _item_\n\n| Name | Value |\n|------|-------|\n| Amount | 100 |\n";
+
+  /** The destination of the warm-up responses. */
+  private static final String WARM_UP_ACS = "https://sp.example.com/acs";
+
+  /** The audience of the warm-up assertions. */
+  private static final String WARM_UP_AUDIENCE = "https://sp.example.com/warm-up";
+
+  /** The validity of the warm-up assertions. */
+  private static final Duration WARM_UP_ASSERTION_VALIDITY = Duration.ofSeconds(30);
+
+  /** Synthetic user message in Markdown format. */
+  private static final String USER_MESSAGE = "### Warm-up %d\n\nPlease log in to *continue* (%d).\n";
+
+  /**
+   * The state of the warm-up.
+   */
+  public enum State {
+
+    /** The warm-up has not been started. */
+    PENDING,
+
+    /** The warm-up is running. */
+    RUNNING,
+
+    /** The warm-up has completed. */
+    COMPLETED,
+
+    /** The warm-up failed. */
+    FAILED,
+
+    /** The warm-up did not finish within the timeout. */
+    TIMED_OUT,
+
+    /** Warm-up is disabled. */
+    DISABLED
+  }
+
+  /** The sign message processor. */
+  private final HtmlSignMessagePreProcessor signMessagePreProcessor;
+
+  /** The user message processor. */
+  private final HtmlUserMessagePreProcessor userMessagePreProcessor;
+
+  /** The authentication provider. */
+  private final SimulatedAuthenticationProvider authenticationProvider;
+
+  /** The template engine. */
+  private final SpringTemplateEngine templateEngine;
+
+  /** The servlet context. */
+  private final ServletContext servletContext;
+
+  /** Supplies the users to display in the UI. */
+  private final Supplier<List<SimulatedUser>> users;
+
+  /** The UI languages. */
+  private final List<Language> languages;
+
+  /** The entity ID of the IdP (the issuer of the warm-up assertions). */
+  @Setter
+  private String entityId = "https://idp.example.com";
+
+  /**
+   * Whether representative assertions should be signed during warm-up. The assertions are signed using a throwaway
+   * key, never the IdP signing credential.
+   */
+  @Setter
+  private boolean signAssertions = false;
+
+  /**
+   * The maximum number of users listed in the rendered views (see {@code ui.user-list.initial-size}). Zero means that
+   * all users are listed.
+   */
+  @Setter
+  private int initialUserListSize = 0;
+
+  /** Whether warm-up is enabled. */
+  @Setter
+  private boolean enabled = true;
+
+  /** The number of iterations. */
+  @Setter
+  private int iterations = DEFAULT_ITERATIONS;
+
+  /** The timeout for the warm-up. */
+  @Setter
+  private Duration timeout = DEFAULT_TIMEOUT;
+
+  /** The current state. */
+  private volatile State state = State.PENDING;
+
+  /** When the warm-up was started (in nanos). */
+  private volatile long startTime;
+
+  /** The duration of the warm-up (in nanos), or -1 if the warm-up has not finished. */
+  private volatile long duration = -1;
+
+  /**
+   * Constructor.
+   *
+   * @param signMessagePreProcessor the sign message processor
+   * @param userMessagePreProcessor the user message processor
+   * @param authenticationProvider the authentication provider
+   * @param templateEngine the template engine
+   * @param servletContext the servlet context
+   * @param users supplies the users to display in the UI
+   * @param languages the UI languages
+   */
+  public StartupWarmUp(final HtmlSignMessagePreProcessor signMessagePreProcessor,
+      final HtmlUserMessagePreProcessor userMessagePreProcessor,
+      final SimulatedAuthenticationProvider authenticationProvider, final SpringTemplateEngine templateEngine,
+      final ServletContext servletContext, final Supplier<List<SimulatedUser>> users, final List<Language> languages) {
+    this.signMessagePreProcessor =
+        Objects.requireNonNull(signMessagePreProcessor, "signMessagePreProcessor must not be null");
+    this.userMessagePreProcessor =
+        Objects.requireNonNull(userMessagePreProcessor, "userMessagePreProcessor must not be null");
+    this.authenticationProvider =
+        Objects.requireNonNull(authenticationProvider, "authenticationProvider must not be null");
+    this.templateEngine = Objects.requireNonNull(templateEngine, "templateEngine must not be null");
+    this.servletContext = Objects.requireNonNull(servletContext, "servletContext must not be null");
+    this.users = Objects.requireNonNull(users, "users must not be null");
+    this.languages = Optional.ofNullable(languages).orElseGet(Collections::emptyList);
+  }
+
+  /**
+   * Starts the warm-up in a background thread when the application has been started.
+   */
+  @Override
+  public void onApplicationEvent(@Nonnull final ApplicationStartedEvent event) {
+    this.start();
+  }
+
+  /**
+   * Starts the warm-up in a background thread (unless it already has been started).
+   *
+   * @return a {@link CompletableFuture} that completes when the warm-up has finished
+   */
+  public synchronized CompletableFuture<Void> start() {
+    if (this.state != State.PENDING) {
+      return CompletableFuture.completedFuture(null);
+    }
+    if (!this.enabled) {
+      this.state = State.DISABLED;
+      return CompletableFuture.completedFuture(null);
+    }
+    this.startTime = System.nanoTime();
+    this.state = State.RUNNING;
+    log.debug("Starting warm-up ({} iterations, timeout {})", this.iterations, this.timeout);
+
+    return CompletableFuture.runAsync(this::warmUp, r -> {
+          final Thread thread = new Thread(r, "idp-warm-up");
+          thread.setDaemon(true);
+          thread.start();
+        })
+        .orTimeout(this.timeout.toMillis(), TimeUnit.MILLISECONDS)
+        .handle((v, e) -> {
+          this.finish(e);
+          return null;
+        });
+  }
+
+  /**
+   * Gets the state of the warm-up.
+   *
+   * @return the state
+   */
+  public State getState() {
+    return this.state;
+  }
+
+  /**
+   * Reports {@code DOWN} while the warm-up is pending or running, and {@code UP} otherwise.
+   */
+  @Override
+  public Health health() {
+    final State current = this.state;
+    final Health.Builder builder = current == State.PENDING || current == State.RUNNING
+        ? Health.down()
+        : Health.up();
+    builder.withDetail("state", current);
+    if (this.duration >= 0) {
+      builder.withDetail("duration", Duration.ofNanos(this.duration).toString());
+    }
+    return builder.build();
+  }
+
+  /**
+   * Registers the warm-up duration metric. While the warm-up is running, the elapsed time is reported.
+   */
+  @Override
+  public void bindTo(@Nonnull final MeterRegistry registry) {
+    TimeGauge.builder("idp.warmup.duration", this, TimeUnit.NANOSECONDS, StartupWarmUp::getDurationNanos)
+        .description("The duration of the startup warm-up")
+        .register(registry);
+  }
+
+  /**
+   * Gets the duration of the warm-up, or the elapsed time if it is still running.
+   *
+   * @return the duration in nanos
+   */
+  private double getDurationNanos() {
+    if (this.duration >= 0) {
+      return this.duration;
+    }
+    return this.state == State.RUNNING ? System.nanoTime() - this.startTime : 0;
+  }
+
+  /**
+   * Records the result of the warm-up.
+   *
+   * @param error the error, or {@code null} if the warm-up completed
+   */
+  private synchronized void finish(final Throwable error) {
+    if (this.state != State.RUNNING) {
+      return;
+    }
+    this.duration = System.nanoTime() - this.startTime;
+    final Throwable cause = error != null && error.getCause() != null ? error.getCause() : error;
+    if (cause == null) {
+      this.state = State.COMPLETED;
+      log.info("Warm-up completed in {} ms", TimeUnit.NANOSECONDS.toMillis(this.duration));
+    }
+    else if (cause instanceof TimeoutException) {
+      this.state = State.TIMED_OUT;
+      log.warn("Warm-up did not complete within {} - application is marked as ready", this.timeout);
+    }
+    else {
+      this.state = State.FAILED;
+      log.warn("Warm-up failed - application is marked as ready", cause);
+    }
+  }
+
+  /**
+   * Runs the warm-up. The iterations are stopped if the warm-up times out.
+   */
+  private void warmUp() {
+    // Only the users that the views list initially are rendered (the rest are found using the search field) ...
+    //
+    final List<SimulatedUser> allUsers = this.users.get();
+    final List<SimulatedUser> users =
+        List.copyOf(SimulatedAuthenticationController.getInitialUsers(allUsers, this.initialUserListSize));
+    final boolean typeahead = users.size() < allUsers.size();
+    final SignatureSigningParameters signingParameters = this.signAssertions ? createSigningParameters() : null;
+
+    for (int i = 0; i < this.iterations && this.state == State.RUNNING; i++) {
+      try {
+        final String signMessage = this.processSignMessages(i);
+        final String userMessage = this.processUserMessage(i);
+        final Saml2UserDetails userDetails = this.buildUserAuthentication(users, i);
+        this.renderTemplates(users, typeahead, signMessage, userMessage,
+            this.createSamlResponse(userDetails, signingParameters, i), i);
+      }
+      catch (final Saml2ErrorStatusException e) {
+        throw new IllegalStateException("Failed to process warm-up message", e);
+      }
+    }
+  }
+
+  /**
+   * Processes synthetic sign messages of all types. Each iteration uses unique messages so that the cache of
+   * processed sign messages does not short-cut the processing.
+   *
+   * @param iteration the iteration
+   * @return the processed Markdown message
+   * @throws Saml2ErrorStatusException for processing errors
+   */
+  private String processSignMessages(final int iteration) throws Saml2ErrorStatusException {
+    this.signMessagePreProcessor.processSignMessage(
+        encode(SIGN_MESSAGE_TEXT, iteration), SignMessageMimeTypeEnum.TEXT);
+    this.signMessagePreProcessor.processSignMessage(
+        encode(SIGN_MESSAGE_HTML, iteration), SignMessageMimeTypeEnum.TEXT_HTML);
+    return this.signMessagePreProcessor.processSignMessage(
+        encode(SIGN_MESSAGE_MARKDOWN, iteration), SignMessageMimeTypeEnum.TEXT_MARKDOWN);
+  }
+
+  /**
+   * Processes a synthetic user message in Markdown and text format.
+   *
+   * @param iteration the iteration
+   * @return the processed Markdown message
+   * @throws Saml2ErrorStatusException for processing errors
+   */
+  private String processUserMessage(final int iteration) throws Saml2ErrorStatusException {
+    final Map<String, String> messages = new LinkedHashMap<>();
+    messages.put("sv", encode(USER_MESSAGE, iteration));
+    messages.put("en", encode(USER_MESSAGE, iteration + 1));
+    this.userMessagePreProcessor.processUserMessage(messages, MimeTypeUtils.TEXT_PLAIN).get("en");
+    return this.userMessagePreProcessor.processUserMessage(messages, MimeTypeUtils.parseMimeType("text/markdown"))
+        .get("en");
+  }
+
+  /**
+   * Builds the user details (attributes) for a user.
+   *
+   * @param users the users
+   * @param iteration the iteration
+   * @return the user details, or {@code null} if there are no users
+   */
+  private Saml2UserDetails buildUserAuthentication(final List<SimulatedUser> users, final int iteration) {
+    if (users.isEmpty()) {
+      return null;
+    }
+    final SimulatedUser user = users.get(iteration % users.size());
+    final String loa = this.authenticationProvider.getSupportedAuthnContextUris().get(0);
+    return this.authenticationProvider.createUserDetails(user, loa, iteration % 2 == 0, "127.0.0.1");
+  }
+
+  /**
+   * Creates the (Base64-encoded) SAML response that is posted by the response page. If signing parameters are given, a
+   * representative assertion for the user is built, signed and marshalled (the same operations as for a real
+   * response). Otherwise a placeholder is returned.
+   *
+   * @param userDetails the user details (may be {@code null})
+   * @param signingParameters the signing parameters (may be {@code null})
+   * @param iteration the iteration
+   * @return the encoded SAML response
+   */
+  private String createSamlResponse(final Saml2UserDetails userDetails,
+      final SignatureSigningParameters signingParameters, final int iteration) {
+    if (signingParameters == null || userDetails == null) {
+      return encode("<samlp:Response>%d</samlp:Response>", iteration);
+    }
+    final Instant now = Instant.now();
+
+    final Assertion assertion = (Assertion) XMLObjectSupport.buildXMLObject(Assertion.DEFAULT_ELEMENT_NAME);
+    assertion.setID("_warm-up-assertion-" + iteration);
+    assertion.setIssueInstant(now);
+    assertion.setIssuer(this.createIssuer());
+
+    final NameID nameId = (NameID) XMLObjectSupport.buildXMLObject(NameID.DEFAULT_ELEMENT_NAME);
+    nameId.setFormat(NameID.TRANSIENT);
+    nameId.setValue("_warm-up-" + iteration);
+    final Subject subject = (Subject) XMLObjectSupport.buildXMLObject(Subject.DEFAULT_ELEMENT_NAME);
+    subject.setNameID(nameId);
+    assertion.setSubject(subject);
+
+    final Conditions conditions = (Conditions) XMLObjectSupport.buildXMLObject(Conditions.DEFAULT_ELEMENT_NAME);
+    conditions.setNotBefore(now);
+    conditions.setNotOnOrAfter(now.plus(WARM_UP_ASSERTION_VALIDITY));
+    final Audience audience = (Audience) XMLObjectSupport.buildXMLObject(Audience.DEFAULT_ELEMENT_NAME);
+    audience.setURI(WARM_UP_AUDIENCE);
+    final AudienceRestriction audienceRestriction =
+        (AudienceRestriction) XMLObjectSupport.buildXMLObject(AudienceRestriction.DEFAULT_ELEMENT_NAME);
+    audienceRestriction.getAudiences().add(audience);
+    conditions.getAudienceRestrictions().add(audienceRestriction);
+    assertion.setConditions(conditions);
+
+    final AuthnContextClassRef classRef =
+        (AuthnContextClassRef) XMLObjectSupport.buildXMLObject(AuthnContextClassRef.DEFAULT_ELEMENT_NAME);
+    classRef.setURI(this.authenticationProvider.getSupportedAuthnContextUris().get(0));
+    final AuthnContext authnContext = (AuthnContext) XMLObjectSupport.buildXMLObject(AuthnContext.DEFAULT_ELEMENT_NAME);
+    authnContext.setAuthnContextClassRef(classRef);
+    final AuthnStatement authnStatement =
+        (AuthnStatement) XMLObjectSupport.buildXMLObject(AuthnStatement.DEFAULT_ELEMENT_NAME);
+    authnStatement.setAuthnInstant(now);
+    authnStatement.setAuthnContext(authnContext);
+    assertion.getAuthnStatements().add(authnStatement);
+
+    final AttributeStatement attributeStatement =
+        (AttributeStatement) XMLObjectSupport.buildXMLObject(AttributeStatement.DEFAULT_ELEMENT_NAME);
+    userDetails.getAttributes().forEach(a -> attributeStatement.getAttributes().add(a.toOpenSamlAttribute()));
+    assertion.getAttributeStatements().add(attributeStatement);
+
+    final StatusCode statusCode = (StatusCode) XMLObjectSupport.buildXMLObject(StatusCode.DEFAULT_ELEMENT_NAME);
+    statusCode.setValue(StatusCode.SUCCESS);
+    final Status status = (Status) XMLObjectSupport.buildXMLObject(Status.DEFAULT_ELEMENT_NAME);
+    status.setStatusCode(statusCode);
+    final Response response = (Response) XMLObjectSupport.buildXMLObject(Response.DEFAULT_ELEMENT_NAME);
+    response.setID("_warm-up-response-" + iteration);
+    response.setIssueInstant(now);
+    response.setIssuer(this.createIssuer());
+    response.setDestination(WARM_UP_ACS);
+    response.setStatus(status);
+    response.getAssertions().add(assertion);
+
+    try {
+      SignatureSupport.signObject(assertion, signingParameters);
+      final String xml = SerializeSupport.nodeToString(XMLObjectSupport.marshall(response));
+      return Base64.getEncoder().encodeToString(xml.getBytes(StandardCharsets.UTF_8));
+    }
+    catch (final SecurityException | MarshallingException | SignatureException e) {
+      throw new IllegalStateException("Failed to sign warm-up assertion", e);
+    }
+  }
+
+  private Issuer createIssuer() {
+    final Issuer issuer = (Issuer) XMLObjectSupport.buildXMLObject(Issuer.DEFAULT_ELEMENT_NAME);
+    issuer.setValue(this.entityId);
+    return issuer;
+  }
+
+  /**
+   * Creates the signature parameters for the warm-up assertions. A throwaway EC key (P-256) is generated so that the
+   * IdP signing credential is never used to sign synthetic assertions.
+   *
+   * @return the signature parameters
+   */
+  private static SignatureSigningParameters createSigningParameters() {
+    final KeyPair keyPair;
+    try {
+      final KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+      generator.initialize(new ECGenParameterSpec("secp256r1"));
+      keyPair = generator.generateKeyPair();
+    }
+    catch (final GeneralSecurityException e) {
+      throw new IllegalStateException("Failed to generate warm-up signing key", e);
+    }
+    final SignatureSigningParameters parameters = new SignatureSigningParameters();
+    parameters.setSigningCredential(new BasicCredential(keyPair.getPublic(), keyPair.getPrivate()));
+    parameters.setSignatureAlgorithm(SignatureConstants.ALGO_ID_SIGNATURE_ECDSA_SHA256);
+    parameters.setSignatureReferenceDigestMethod(SignatureConstants.ALGO_ID_DIGEST_SHA256);
+    parameters.setSignatureCanonicalizationAlgorithm(SignatureConstants.ALGO_ID_C14N_EXCL_OMIT_COMMENTS);
+    return parameters;
+  }
+
+  /**
+   * Renders the authentication (or signature) view and the response page for all UI languages.
+   *
+   * @param users the users to list
+   * @param typeahead whether the view should offer a search field (not all users are listed)
+   * @param signMessage the sign message to display
+   * @param userMessage the user message to display
+   * @param samlResponse the (encoded) SAML response to post
+   * @param iteration the iteration
+   */
+  private void renderTemplates(final List<SimulatedUser> users, final boolean typeahead, final String signMessage,
+      final String userMessage, final String samlResponse, final int iteration) {
+
+    final boolean signature = iteration % 2 == 1;
+
+    final UiModel ui = new UiModel();
+    ui.setSpDisplayName("Warm-up");
+    ui.setPossibleAuthnContextUris(this.authenticationProvider.getSupportedAuthnContextUris());
+    ui.setSignature(signature);
+    if (signature) {
+      ui.setSignMessage(signMessage);
+    }
+    else {
+      ui.setUserMessage(userMessage);
+    }
+    if (!users.isEmpty()) {
+      ui.setSelectedUser(users.get(0).getPersonalNumber());
+    }
+
+    final Map<String, Object> uiModel = new HashMap<>();
+    uiModel.put("users", users);
+    uiModel.put("typeahead", typeahead);
+    uiModel.put("languages", this.languages);
+    uiModel.put("ui", ui);
+    uiModel.put("result", new SelectedUserModel());
+
+    final Map<String, Object> responseModel = new HashMap<>();
+    responseModel.put("action", WARM_UP_ACS);
+    responseModel.put("SAMLResponse", samlResponse);
+    responseModel.put("RelayState", "warm-up");
+
+    final List<Locale> locales = this.languages.isEmpty()
+        ? List.of(Locale.ENGLISH)
+        : this.languages.stream().map(Language::getTag).map(Locale::forLanguageTag).toList();
+    for (final Locale locale : locales) {
+      this.render("simulated", uiModel, locale);
+      this.render("post-response", responseModel, locale);
+    }
+  }
+
+  /**
+   * Renders a template using a synthetic web exchange.
+   *
+   * @param template the template name
+   * @param model the model
+   * @param locale the locale
+   * @return the rendered page
+   */
+  private String render(final String template, final Map<String, Object> model, final Locale locale) {
+    final IWebExchange exchange = new WarmUpWebExchange(this.servletContext, locale);
+    final StringWriter writer = new StringWriter();
+    this.templateEngine.process(template, new WebContext(exchange, locale, model), writer);
+    return writer.toString();
+  }
+
+  /**
+   * Base64-encodes a formatted message.
+   *
+   * @param format the message format
+   * @param iteration the iteration
+   * @return the encoded message
+   */
+  private static String encode(final String format, final int iteration) {
+    return Base64.getEncoder()
+        .encodeToString(String.format(format, iteration, iteration).getBytes(StandardCharsets.UTF_8));
+  }
+
+}
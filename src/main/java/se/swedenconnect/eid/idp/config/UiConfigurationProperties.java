@@ -34,6 +34,36 @@ public class UiConfigurationProperties {
    */
   private List<Language> languages;
 
+  /**
+   * Settings for the user lists of the views.
+   */
+  private UserList userList = new UserList();
+
+  /**
+   * The path of the locale (language) cookie, relative to the context path. If not assigned, the context path is used.
+   * Note that the language is also used by pages outside of the authentication views (for example SAML error pages).
+   */
+  private String localeCookiePath;
+
+  /**
+   * Settings for the user lists of the views.
+   */
+  @Data
+  public static class UserList {
+
+    /**
+     * The maximum number of users to include in the user list when a view is rendered. If the users do not fit, the
+     * list is complemented with a search field (typeahead). Zero means that all users are listed.
+     */
+    private int initialSize = 0;
+
+    /**
+     * The maximum number of users returned by a search.
+     */
+    private int searchLimit = 20;
+
+  }
+
   /**
    * UI language settings.
    */
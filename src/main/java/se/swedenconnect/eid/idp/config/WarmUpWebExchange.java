@@ -0,0 +1,303 @@
+/*
+ * Copyright 2023-2025 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.eid.idp.config;
+
+import jakarta.servlet.ServletContext;
+import org.thymeleaf.web.IWebApplication;
+import org.thymeleaf.web.IWebExchange;
+import org.thymeleaf.web.IWebRequest;
+import org.thymeleaf.web.IWebSession;
+import org.thymeleaf.web.servlet.JakartaServletWebApplication;
+import se.swedenconnect.eid.idp.authn.SimulatedAuthenticationController;
+
+import java.nio.charset.StandardCharsets;
+import java.security.Principal;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A minimal Thymeleaf web exchange for a GET request for the authentication view. It is used by {@link StartupWarmUp}
+ * to render templates outside of a real request. The exchange has no session, and URLs are not transformed.
+ *
+ * @author agent
+ */
+class WarmUpWebExchange implements IWebExchange {
+
+  /** The request. */
+  private final Request request;
+
+  /** The web application. */
+  private final IWebApplication application;
+
+  /** The locale. */
+  private final Locale locale;
+
+  /** The request attributes. */
+  private final Map<String, Object> attributes = new HashMap<>();
+
+  /**
+   * Constructor.
+   *
+   * @param servletContext the servlet context
+   * @param locale the locale
+   */
+  WarmUpWebExchange(final ServletContext servletContext, final Locale locale) {
+    this.request = new Request(servletContext.getContextPath());
+    this.application = JakartaServletWebApplication.buildApplication(servletContext);
+    this.locale = locale;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public IWebRequest getRequest() {
+    return this.request;
+  }
+
+  /**
+   * There is no session, so {@code null} is returned (as for a servlet request without a session).
+   */
+  @Override
+  public IWebSession getSession() {
+    return null;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public IWebApplication getApplication() {
+    return this.application;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Principal getPrincipal() {
+    return null;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Locale getLocale() {
+    return this.locale;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String getContentType() {
+    return "text/html;charset=UTF-8";
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String getCharacterEncoding() {
+    return StandardCharsets.UTF_8.name();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean containsAttribute(final String name) {
+    return this.attributes.containsKey(name);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public int getAttributeCount() {
+    return this.attributes.size();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Set<String> getAllAttributeNames() {
+    return Collections.unmodifiableSet(this.attributes.keySet());
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Map<String, Object> getAttributeMap() {
+    return Collections.unmodifiableMap(this.attributes);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Object getAttributeValue(final String name) {
+    return this.attributes.get(name);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void setAttributeValue(final String name, final Object value) {
+    if (value == null) {
+      this.attributes.remove(name);
+    }
+    else {
+      this.attributes.put(name, value);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void removeAttribute(final String name) {
+    this.attributes.remove(name);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String transformURL(final String url) {
+    return url;
+  }
+
+  /**
+   * A GET request for the authentication view, without headers, parameters or cookies.
+   *
+   * @param contextPath the context path
+   */
+  private record Request(String contextPath) implements IWebRequest {
+
+    /** {@inheritDoc} */
+    @Override
+    public String getMethod() {
+      return "GET";
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String getScheme() {
+      return "https";
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String getServerName() {
+      return "localhost";
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Integer getServerPort() {
+      return 443;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String getApplicationPath() {
+      return this.contextPath;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String getPathWithinApplication() {
+      return SimulatedAuthenticationController.AUTHN_PATH;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String getQueryString() {
+      return null;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean containsHeader(final String name) {
+      return false;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getHeaderCount() {
+      return 0;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Set<String> getAllHeaderNames() {
+      return Collections.emptySet();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Map<String, String[]> getHeaderMap() {
+      return Collections.emptyMap();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String[] getHeaderValues(final String name) {
+      return new String[0];
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean containsParameter(final String name) {
+      return false;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getParameterCount() {
+      return 0;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Set<String> getAllParameterNames() {
+      return Collections.emptySet();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Map<String, String[]> getParameterMap() {
+      return Collections.emptyMap();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String[] getParameterValues(final String name) {
+      return new String[0];
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean containsCookie(final String name) {
+      return false;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getCookieCount() {
+      return 0;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Set<String> getAllCookieNames() {
+      return Collections.emptySet();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Map<String, String[]> getCookieMap() {
+      return Collections.emptyMap();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String[] getCookieValues(final String name) {
+      return new String[0];
+    }
+  }
+
+}
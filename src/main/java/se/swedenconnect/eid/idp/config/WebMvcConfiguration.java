@@ -24,6 +24,7 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.util.StringUtils;
 import org.springframework.web.servlet.LocaleResolver;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
@@ -73,7 +74,13 @@ public class WebMvcConfiguration implements WebMvcConfigurer {
   LocaleResolver localeResolver(@Value("${server.servlet.context-path}") final String contextPath) {
     final CookieLocaleResolver resolver = new CookieLocaleResolver();
     resolver.setDefaultLocale(new Locale("en"));
-    resolver.setCookiePath(contextPath);
+    final String path = this.ui.getLocaleCookiePath();
+    if (StringUtils.hasText(path) && !"/".equals(path)) {
+      resolver.setCookiePath(("/".equals(contextPath) ? "" : contextPath) + (path.startsWith("/") ? path : "/" + path));
+    }
+    else {
+      resolver.setCookiePath(contextPath);
+    }
     resolver.setCookieMaxAge(Duration.ofDays(365));
     return resolver;
   }
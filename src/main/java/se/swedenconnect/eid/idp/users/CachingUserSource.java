@@ -0,0 +1,380 @@
+/*
+ * Copyright 2023-2025 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.eid.idp.users;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.Nonnull;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A read-through cache in front of a (slow) {@link UserSource}.
+ * <p>
+ * The cache is bounded by the number of entries (the least recently used entries are evicted), and entries older than
+ * the time-to-live are never returned. When an entry that is older than the refresh-ahead time is read, it is returned,
+ * and the entry is reloaded in the background, so that frequently used users never expire. Misses (numbers that the
+ * source has no user for, for example an unknown PrincipalSelection) are cached using a separate time-to-live.
+ * </p>
+ * <p>
+ * Concurrent lookups of the same personal identity number are collapsed into one call to the source. If the source can
+ * not be reached, the error is passed on to all waiting callers, and nothing is cached.
+ * </p>
+ *
+ * @author agent
+ */
+@Slf4j
+public class CachingUserSource implements UserSource, MeterBinder, DisposableBean {
+
+  /** The cache name (used as a tag for metrics). */
+  private static final String CACHE_NAME = "userSource";
+
+  /** The source that is cached. */
+  private final UserSource source;
+
+  /** The maximum number of entries. */
+  private final int maxEntries;
+
+  /** The time-to-live for entries holding a user (in millis). */
+  private final long timeToLive;
+
+  /** The time-to-live for entries for unknown users (in millis). */
+  private long negativeTimeToLive = Duration.ofMinutes(1).toMillis();
+
+  /** The age (in millis) after which an entry is reloaded in the background when it is read (0 means never). */
+  private long refreshAhead = 0;
+
+  /**
+   * The executor for background reloads. If not assigned, a small thread pool owned by this instance is created the
+   * first time an entry is refreshed, and it is shut down by {@link #destroy()}.
+   */
+  @Setter
+  private Executor executor;
+
+  /** The thread pool created by this instance (if no executor has been assigned). */
+  private ExecutorService ownedExecutor;
+
+  /** The cache entries ordered by access (least recently used first). */
+  private final LinkedHashMap<String, CacheEntry> entries = new LinkedHashMap<>(16, 0.75f, true) {
+
+    @Override
+    protected boolean removeEldestEntry(final Map.Entry<String, CacheEntry> eldest) {
+      if (this.size() > CachingUserSource.this.maxEntries) {
+        CachingUserSource.this.evictions.increment();
+        return true;
+      }
+      return false;
+    }
+  };
+
+  /** The lookups in progress. */
+  private final Map<String, CompletableFuture<SimulatedUser>> loading = new ConcurrentHashMap<>();
+
+  /** Number of cache hits. */
+  private final LongAdder hits = new LongAdder();
+
+  /** Number of cache misses. */
+  private final LongAdder misses = new LongAdder();
+
+  /** Number of evicted entries (including expired entries). */
+  private final LongAdder evictions = new LongAdder();
+
+  /** Number of failed lookups. */
+  private final LongAdder failures = new LongAdder();
+
+  /**
+   * Constructor.
+   *
+   * @param source the source to cache
+   * @param maxEntries the maximum number of entries
+   * @param timeToLive the time-to-live for entries holding a user
+   */
+  public CachingUserSource(final UserSource source, final int maxEntries, final Duration timeToLive) {
+    this.source = Objects.requireNonNull(source, "source must not be null");
+    if (maxEntries <= 0) {
+      throw new IllegalArgumentException("maxEntries must be greater than 0");
+    }
+    this.maxEntries = maxEntries;
+    this.timeToLive = Objects.requireNonNull(timeToLive, "timeToLive must not be null").toMillis();
+  }
+
+  /**
+   * Assigns the time-to-live for entries for unknown users. The default is one minute.
+   *
+   * @param negativeTimeToLive the time-to-live ({@link Duration#ZERO} means that misses are not cached)
+   */
+  public void setNegativeTimeToLive(final Duration negativeTimeToLive) {
+    this.negativeTimeToLive = Objects.requireNonNull(negativeTimeToLive, "negativeTimeToLive must not be null")
+        .toMillis();
+  }
+
+  /**
+   * Assigns the age after which an entry (holding a user) is reloaded in the background when it is read. The default
+   * is 0, meaning that entries are not reloaded before they expire.
+   *
+   * @param refreshAhead the refresh-ahead time (should be less than the time-to-live)
+   */
+  public void setRefreshAhead(final Duration refreshAhead) {
+    this.refreshAhead = refreshAhead != null ? refreshAhead.toMillis() : 0;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public SimulatedUser findUser(final String personalNumber) throws IOException {
+    final long now = System.currentTimeMillis();
+    final CacheEntry entry = this.getEntry(personalNumber, now);
+    if (entry != null) {
+      this.hits.increment();
+      if (this.refreshAhead > 0 && entry.user() != null && now - entry.loaded() >= this.refreshAhead) {
+        this.refresh(personalNumber);
+      }
+      return entry.user();
+    }
+    this.misses.increment();
+
+    final CompletableFuture<SimulatedUser> future = new CompletableFuture<>();
+    final CompletableFuture<SimulatedUser> inProgress = this.loading.putIfAbsent(personalNumber, future);
+    if (inProgress != null) {
+      return await(inProgress);
+    }
+    this.load(personalNumber, future);
+    return await(future);
+  }
+
+  /**
+   * Clears the cache.
+   */
+  public synchronized void clear() {
+    this.entries.clear();
+  }
+
+  /**
+   * Gets the number of entries in the cache.
+   *
+   * @return the number of entries
+   */
+  public synchronized int getEntryCount() {
+    return this.entries.size();
+  }
+
+  /**
+   * Gets the number of cache hits.
+   *
+   * @return the number of hits
+   */
+  public long getHitCount() {
+    return this.hits.sum();
+  }
+
+  /**
+   * Gets the number of cache misses.
+   *
+   * @return the number of misses
+   */
+  public long getMissCount() {
+    return this.misses.sum();
+  }
+
+  /**
+   * Gets the number of evicted cache entries.
+   *
+   * @return the number of evictions
+   */
+  public long getEvictionCount() {
+    return this.evictions.sum();
+  }
+
+  /**
+   * Gets the number of failed lookups in the source.
+   *
+   * @return the number of failures
+   */
+  public long getFailureCount() {
+    return this.failures.sum();
+  }
+
+  /**
+   * Registers the cache metrics.
+   */
+  @Override
+  public void bindTo(@Nonnull final MeterRegistry registry) {
+    FunctionCounter.builder("cache.gets", this, CachingUserSource::getHitCount)
+        .tag("cache", CACHE_NAME)
+        .tag("result", "hit")
+        .description("The number of times a cached user (or miss) was returned")
+        .register(registry);
+    FunctionCounter.builder("cache.gets", this, CachingUserSource::getMissCount)
+        .tag("cache", CACHE_NAME)
+        .tag("result", "miss")
+        .description("The number of times the user source had to be called")
+        .register(registry);
+    FunctionCounter.builder("cache.evictions", this, CachingUserSource::getEvictionCount)
+        .tag("cache", CACHE_NAME)
+        .description("The number of evicted (or expired) cache entries")
+        .register(registry);
+    FunctionCounter.builder("user.source.failures", this, CachingUserSource::getFailureCount)
+        .description("The number of failed lookups in the user source")
+        .register(registry);
+    Gauge.builder("cache.size", this, CachingUserSource::getEntryCount)
+        .tag("cache", CACHE_NAME)
+        .description("The number of entries in the cache")
+        .register(registry);
+  }
+
+  private synchronized CacheEntry getEntry(final String personalNumber, final long now) {
+    final CacheEntry entry = this.entries.get(personalNumber);
+    if (entry != null && now > entry.expires()) {
+      this.entries.remove(personalNumber);
+      this.evictions.increment();
+      return null;
+    }
+    return entry;
+  }
+
+  private synchronized void put(final String personalNumber, final SimulatedUser user, final long now) {
+    if (user != null) {
+      this.entries.put(personalNumber, new CacheEntry(user, now, now + this.timeToLive));
+    }
+    else if (this.negativeTimeToLive > 0) {
+      this.entries.put(personalNumber, new CacheEntry(null, now, now + this.negativeTimeToLive));
+    }
+    else {
+      this.entries.remove(personalNumber);
+    }
+  }
+
+  /**
+   * Shuts down the thread pool for background reloads, if it was created by this instance. An assigned executor is
+   * managed by its owner and is left untouched.
+   */
+  @Override
+  public synchronized void destroy() {
+    if (this.ownedExecutor != null) {
+      this.ownedExecutor.shutdownNow();
+      this.ownedExecutor = null;
+    }
+  }
+
+  /**
+   * Gets the executor for background reloads. If none has been assigned, the pool owned by this instance is created
+   * (once).
+   *
+   * @return the executor
+   */
+  private synchronized Executor getExecutor() {
+    if (this.executor != null) {
+      return this.executor;
+    }
+    if (this.ownedExecutor == null) {
+      this.ownedExecutor = Executors.newFixedThreadPool(2, r -> {
+        final Thread thread = new Thread(r, "user-source-refresh");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+    return this.ownedExecutor;
+  }
+
+  /**
+   * Reloads an entry in the background (unless it is already being loaded). The current entry is returned until the
+   * reload has completed, and is kept if the reload fails.
+   *
+   * @param personalNumber the personal identity number
+   */
+  private void refresh(final String personalNumber) {
+    final CompletableFuture<SimulatedUser> future = new CompletableFuture<>();
+    if (this.loading.putIfAbsent(personalNumber, future) != null) {
+      return;
+    }
+    try {
+      this.getExecutor().execute(() -> this.load(personalNumber, future));
+    }
+    catch (final RejectedExecutionException e) {
+      this.loading.remove(personalNumber, future);
+      future.complete(null);
+    }
+  }
+
+  /**
+   * Loads a user from the source, caches the result and completes the future.
+   *
+   * @param personalNumber the personal identity number
+   * @param future the future to complete
+   */
+  private void load(final String personalNumber, final CompletableFuture<SimulatedUser> future) {
+    try {
+      final SimulatedUser found = this.source.findUser(personalNumber);
+      final SimulatedUser user = found != null ? ImmutableSimulatedUser.of(found) : null;
+      this.put(personalNumber, user, System.currentTimeMillis());
+      future.complete(user);
+    }
+    catch (final Exception e) {
+      this.failures.increment();
+      log.warn("Failed to look up user {} - {}", personalNumber, e.getMessage());
+      future.completeExceptionally(e);
+    }
+    finally {
+      this.loading.remove(personalNumber, future);
+    }
+  }
+
+  private static SimulatedUser await(final CompletableFuture<SimulatedUser> future) throws IOException {
+    try {
+      return future.get();
+    }
+    catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while looking up user", e);
+    }
+    catch (final ExecutionException e) {
+      if (e.getCause() instanceof final IOException ioe) {
+        throw ioe;
+      }
+      if (e.getCause() instanceof final RuntimeException re) {
+        throw re;
+      }
+      throw new IOException("Failed to look up user", e.getCause());
+    }
+  }
+
+  /**
+   * A cache entry.
+   *
+   * @param user the user ({@code null} for an unknown user)
+   * @param loaded when the entry was loaded (millis since epoch)
+   * @param expires the expiration time (millis since epoch)
+   */
+  private record CacheEntry(SimulatedUser user, long loaded, long expires) {
+  }
+
+}
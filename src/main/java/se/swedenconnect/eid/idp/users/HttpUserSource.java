@@ -0,0 +1,97 @@
+/*
+ * Copyright 2023-2025 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.eid.idp.users;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * A {@link UserSource} that looks up users in a test-identity directory over HTTP. The user having a given personal
+ * identity number is fetched using {@code GET <base-url>/<personal-number>}, and is returned as a JSON object having
+ * the same (kebab-case) names as {@code users.yml}. A 404 response means that the directory has no such user.
+ *
+ * @author agent
+ */
+public class HttpUserSource implements UserSource {
+
+  /** The base URL of the directory (ending with a slash). */
+  private final String baseUrl;
+
+  /** The request timeout. */
+  private final Duration timeout;
+
+  /** The HTTP client. */
+  private final HttpClient client;
+
+  /**
+   * Constructor.
+   *
+   * @param baseUrl the base URL of the directory
+   * @param timeout the connect and request timeout
+   */
+  public HttpUserSource(final String baseUrl, final Duration timeout) {
+    final String url = Objects.requireNonNull(baseUrl, "baseUrl must not be null");
+    this.baseUrl = url.endsWith("/") ? url : url + "/";
+    this.timeout = Objects.requireNonNull(timeout, "timeout must not be null");
+    this.client = HttpClient.newBuilder()
+        .connectTimeout(timeout)
+        .build();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public SimulatedUser findUser(final String personalNumber) throws IOException {
+    final HttpRequest request = HttpRequest.newBuilder(
+            URI.create(this.baseUrl + URLEncoder.encode(personalNumber, StandardCharsets.UTF_8)))
+        .timeout(this.timeout)
+        .header("Accept", "application/json")
+        .GET()
+        .build();
+    final HttpResponse<String> response;
+    try {
+      response = this.client.send(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+    }
+    catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while looking up user", e);
+    }
+    if (response.statusCode() == 404) {
+      return null;
+    }
+    if (response.statusCode() != 200) {
+      throw new IOException("Unexpected status from user directory: " + response.statusCode());
+    }
+    try {
+      final SimulatedUser user = UserBulkImporter.fromJson(response.body());
+      UserValidator.validate(user);
+      if (!personalNumber.equals(user.getPersonalNumber())) {
+        throw new IllegalArgumentException("Expected user " + personalNumber);
+      }
+      return user;
+    }
+    catch (final IllegalArgumentException e) {
+      throw new IOException("Invalid user from user directory - " + e.getMessage(), e);
+    }
+  }
+
+}
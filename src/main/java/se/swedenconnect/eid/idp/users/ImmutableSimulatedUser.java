@@ -0,0 +1,153 @@
+/*
+ * Copyright 2023-2025 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.eid.idp.users;
+
+import org.springframework.web.util.HtmlUtils;
+
+import java.io.Serial;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * An immutable {@link SimulatedUser}. The display name, date of birth, view string and the HTML-escaped option label
+ * are computed once when the user is created, so reading them (for example when the user list is rendered) does not
+ * allocate any objects, and the user may be shared between threads without synchronization.
+ * <p>
+ * The users of a {@link UserDirectory} are immutable, whereas users that are bound from configuration or parsed from
+ * cookies are ordinary (mutable) {@link SimulatedUser} objects.
+ * </p>
+ *
+ * @author agent
+ */
+public final class ImmutableSimulatedUser extends SimulatedUser {
+
+  @Serial
+  private static final long serialVersionUID = -3207410316935573298L;
+
+  /** The view string, see {@link #toViewString()}. */
+  private final String viewString;
+
+  /** The HTML-escaped view string. */
+  private final String optionLabel;
+
+  /**
+   * Constructor.
+   *
+   * @param personalNumber the personal identity number
+   * @param givenName the given name
+   * @param surname the surname
+   * @param displayName the display name (if {@code null}, it is calculated from the given name and surname)
+   * @param dateOfBirth the date of birth (if {@code null}, it is calculated from the personal identity number)
+   */
+  public ImmutableSimulatedUser(final String personalNumber, final String givenName, final String surname,
+      final String displayName, final String dateOfBirth) {
+    super.setPersonalNumber(Objects.requireNonNull(personalNumber, "personalNumber must not be null"));
+    super.setGivenName(givenName);
+    super.setSurname(surname);
+    super.setDisplayName(displayName);
+    super.setDateOfBirth(dateOfBirth);
+
+    // Calculate the derived values and store them ...
+    //
+    super.setDisplayName(super.getDisplayName());
+    super.setDateOfBirth(super.getDateOfBirth());
+    this.viewString = super.toViewString();
+    this.optionLabel = HtmlUtils.htmlEscape(this.viewString);
+  }
+
+  /**
+   * Returns an immutable copy of the supplied user. If the user already is immutable, it is returned as is.
+   *
+   * @param user the user
+   * @return an {@link ImmutableSimulatedUser}
+   */
+  public static ImmutableSimulatedUser of(final SimulatedUser user) {
+    return of(user, null);
+  }
+
+  /**
+   * Returns an immutable copy of the supplied user where the name strings are deduplicated using the supplied map. If
+   * the user already is immutable, it is returned as is.
+   *
+   * @param user the user
+   * @param names map of names used to deduplicate name strings (may be {@code null})
+   * @return an {@link ImmutableSimulatedUser}
+   */
+  static ImmutableSimulatedUser of(final SimulatedUser user, final Map<String, String> names) {
+    if (user instanceof final ImmutableSimulatedUser immutable) {
+      return immutable;
+    }
+    return new ImmutableSimulatedUser(user.getPersonalNumber(), dedup(user.getGivenName(), names),
+        dedup(user.getSurname(), names), dedup(user.getDisplayName(), names), user.getDateOfBirth());
+  }
+
+  private static String dedup(final String name, final Map<String, String> names) {
+    return name != null && names != null ? names.computeIfAbsent(name, n -> n) : name;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String toViewString() {
+    return this.viewString;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String getOptionLabel() {
+    return this.optionLabel;
+  }
+
+  /**
+   * Not supported - the user is immutable.
+   */
+  @Override
+  public void setPersonalNumber(final String personalNumber) {
+    throw new UnsupportedOperationException("User is immutable");
+  }
+
+  /**
+   * Not supported - the user is immutable.
+   */
+  @Override
+  public void setGivenName(final String givenName) {
+    throw new UnsupportedOperationException("User is immutable");
+  }
+
+  /**
+   * Not supported - the user is immutable.
+   */
+  @Override
+  public void setSurname(final String surname) {
+    throw new UnsupportedOperationException("User is immutable");
+  }
+
+  /**
+   * Not supported - the user is immutable.
+   */
+  @Override
+  public void setDisplayName(final String displayName) {
+    throw new UnsupportedOperationException("User is immutable");
+  }
+
+  /**
+   * Not supported - the user is immutable.
+   */
+  @Override
+  public void setDateOfBirth(final String dateOfBirth) {
+    throw new UnsupportedOperationException("User is immutable");
+  }
+
+}
@@ -0,0 +1,631 @@
+/*
+ * Copyright 2023-2025 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.eid.idp.users;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.TreeMap;
+
+/**
+ * A compact, read-only, store of simulated users that is kept in a memory-mapped file. Users are materialized into
+ * {@link SimulatedUser} objects only when they are read, so a large number of users can be served with a small heap.
+ * <p>
+ * The file has the following layout (all integers are big-endian):
+ * </p>
+ * <ul>
+ * <li>Header: magic ({@code "SEID"}), format version, number of users, number of names, and the offsets of the user
+ * records, the order index, the name offsets, the name data, the record positions, the name order, the posting offsets
+ * and the posting data (all {@code int}s).</li>
+ * <li>User records (24 bytes each), sorted by personal identity number: the personal identity number packed into a
+ * {@code long}, the name indexes of the given name, surname and display name ({@code -1} if the display name is
+ * "given name surname") and the date of birth as {@code YYYYMMDD} ({@code 0} if it is given by the personal identity
+ * number).</li>
+ * <li>Order index: the record indexes in display order (see {@link UserDirectory}).</li>
+ * <li>Name offsets: {@code names + 1} offsets into the name data.</li>
+ * <li>Name data: the (deduplicated) names in UTF-8.</li>
+ * <li>Record positions: the display position of each user record.</li>
+ * <li>Name order: the name indexes sorted by the lower case name (the search keys).</li>
+ * <li>Posting offsets: {@code names + 1} offsets (in name order) into the posting data.</li>
+ * <li>Posting data: for each name (in name order), the display positions (ascending) of the users having the name as
+ * given name or surname.</li>
+ * </ul>
+ * <p>
+ * The last four sections make up a persistent search index, so that {@link #search(String, int)} is served from the
+ * mapped file and only materializes the users that are candidates for a query.
+ * </p>
+ * <p>
+ * Use {@link #write(Collection, Path)}, or the {@link UserStoreConverter}, to create a store file.
+ * </p>
+ *
+ * @author agent
+ */
+public final class MappedUserStore {
+
+  /** The magic number. */
+  private static final int MAGIC = 0x53454944;
+
+  /** The format version. */
+  private static final int FORMAT_VERSION = 2;
+
+  /** The size of the header. */
+  private static final int HEADER_SIZE = 48;
+
+  /** The size of a user record. */
+  private static final int RECORD_SIZE = 24;
+
+  /** The mapped file. */
+  private final ByteBuffer buffer;
+
+  /** The number of users. */
+  private final int count;
+
+  /** The number of names. */
+  private final int nameCount;
+
+  /** Offset of the user records. */
+  private final int recordsOffset;
+
+  /** Offset of the order index. */
+  private final int orderOffset;
+
+  /** Offset of the name offsets. */
+  private final int namesOffset;
+
+  /** Offset of the name data. */
+  private final int nameDataOffset;
+
+  /** Offset of the record positions. */
+  private final int positionsOffset;
+
+  /** Offset of the name order. */
+  private final int nameOrderOffset;
+
+  /** Offset of the posting offsets. */
+  private final int postingsOffset;
+
+  /** Offset of the posting data. */
+  private final int postingDataOffset;
+
+  /** The users in display order. */
+  private final List<SimulatedUser> users = new UserList();
+
+  /**
+   * Constructor.
+   *
+   * @param buffer the (mapped) store contents
+   * @throws IOException if the contents is not a valid store
+   */
+  private MappedUserStore(final ByteBuffer buffer) throws IOException {
+    this.buffer = buffer;
+    if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+      throw new IOException("Not a user store");
+    }
+    if (buffer.getInt(4) != FORMAT_VERSION) {
+      throw new IOException("Unsupported user store version: " + buffer.getInt(4));
+    }
+    this.count = buffer.getInt(8);
+    this.nameCount = buffer.getInt(12);
+    this.recordsOffset = buffer.getInt(16);
+    this.orderOffset = buffer.getInt(20);
+    this.namesOffset = buffer.getInt(24);
+    this.nameDataOffset = buffer.getInt(28);
+    this.positionsOffset = buffer.getInt(32);
+    this.nameOrderOffset = buffer.getInt(36);
+    this.postingsOffset = buffer.getInt(40);
+    this.postingDataOffset = buffer.getInt(44);
+    if (this.count < 0 || this.nameCount < 0
+        || this.orderOffset != this.recordsOffset + (long) this.count * RECORD_SIZE
+        || this.namesOffset != this.orderOffset + (long) this.count * 4
+        || this.nameDataOffset != this.namesOffset + (this.nameCount + 1L) * 4
+        || this.nameDataOffset > buffer.capacity()
+        || this.positionsOffset != (long) this.nameDataOffset + buffer.getInt(this.namesOffset + this.nameCount * 4)
+        || this.nameOrderOffset != this.positionsOffset + (long) this.count * 4
+        || this.postingsOffset != this.nameOrderOffset + (long) this.nameCount * 4
+        || this.postingDataOffset != this.postingsOffset + (this.nameCount + 1L) * 4
+        || this.postingDataOffset > buffer.capacity()
+        || this.postingDataOffset + buffer.getInt(this.postingsOffset + this.nameCount * 4) * 4L > buffer.capacity()) {
+      throw new IOException("Corrupt user store");
+    }
+  }
+
+  /**
+   * Opens (maps) a user store file.
+   *
+   * @param path the file
+   * @return a {@link MappedUserStore}
+   * @throws IOException for errors reading the file
+   */
+  public static MappedUserStore open(final Path path) throws IOException {
+    try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      return new MappedUserStore(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
+  }
+
+  /**
+   * Gets the number of users.
+   *
+   * @return the number of users
+   */
+  public int size() {
+    return this.count;
+  }
+
+  /**
+   * Gets the users in display order. The list is a view, and each user is materialized when it is read.
+   *
+   * @return an unmodifiable list of users
+   */
+  public List<SimulatedUser> getUsers() {
+    return this.users;
+  }
+
+  /**
+   * Gets the user having the given personal identity number.
+   *
+   * @param personalNumber the personal identity number
+   * @return a (new) {@link SimulatedUser}, or {@code null} if there is no such user
+   */
+  public SimulatedUser getUser(final String personalNumber) {
+    final int record = this.find(personalNumber);
+    return record >= 0 ? this.materialize(record) : null;
+  }
+
+  /**
+   * Tells whether there is a user having the given personal identity number.
+   *
+   * @param personalNumber the personal identity number
+   * @return {@code true} if the user exists and {@code false} otherwise
+   */
+  public boolean contains(final String personalNumber) {
+    return this.find(personalNumber) >= 0;
+  }
+
+  /**
+   * Finds the first users (in display order) matching a query. The matching rules are the same as for
+   * {@link UserSearchIndex}. The candidates are found using binary search over the records (for the personal identity
+   * number) and the name order (for the names), so only the candidate users are materialized.
+   *
+   * @param query the query
+   * @param limit the maximum number of users to return
+   * @return a list of matching users
+   */
+  public List<SimulatedUser> search(final String query, final int limit) {
+    if (limit <= 0) {
+      return List.of();
+    }
+    final String[] tokens = UserSearchIndex.tokenize(query);
+    if (tokens.length == 0) {
+      return this.users.subList(0, Math.min(limit, this.count));
+    }
+
+    // Use the token having the fewest candidates, and check the remaining tokens against the users ...
+    //
+    Candidates candidates = null;
+    for (final String token : tokens) {
+      final Candidates c = this.candidates(token);
+      if (candidates == null || c.size() < candidates.size()) {
+        candidates = c;
+      }
+    }
+    final TreeMap<Integer, SimulatedUser> matches = new TreeMap<>();
+    for (int i = candidates.recordFrom(); i < candidates.recordTo(); i++) {
+      this.match(this.buffer.getInt(this.positionsOffset + i * 4), tokens, limit, matches);
+    }
+    for (int i = candidates.postingFrom(); i < candidates.postingTo(); i++) {
+      this.match(this.buffer.getInt(this.postingDataOffset + i * 4), tokens, limit, matches);
+    }
+    return new ArrayList<>(matches.values());
+  }
+
+  /**
+   * Checks the user at a display position against the query tokens, and keeps the (at most limit) first matches.
+   *
+   * @param position the display position
+   * @param tokens the tokens
+   * @param limit the maximum number of matches
+   * @param matches the matches (ordered by display position)
+   */
+  private void match(final int position, final String[] tokens, final int limit,
+      final TreeMap<Integer, SimulatedUser> matches) {
+    if ((matches.size() < limit || position < matches.lastKey()) && !matches.containsKey(position)) {
+      final SimulatedUser user = this.users.get(position);
+      if (UserSearchIndex.matches(user, tokens)) {
+        matches.put(position, user);
+        if (matches.size() > limit) {
+          matches.pollLastEntry();
+        }
+      }
+    }
+  }
+
+  /**
+   * Finds the candidates for a token, i.e., the records whose personal identity number starts with the token, and the
+   * postings of the names starting with the token.
+   *
+   * @param token the (normalized) token
+   * @return the candidates
+   */
+  private Candidates candidates(final String token) {
+    int recordFrom = 0;
+    int recordTo = 0;
+    if (token.length() <= 12 && token.chars().allMatch(c -> c >= '0' && c <= '9')) {
+      long scale = 1;
+      for (int i = token.length(); i < 12; i++) {
+        scale *= 10;
+      }
+      final long prefix = Long.parseLong(token);
+      recordFrom = this.recordLowerBound(prefix * scale);
+      recordTo = this.recordLowerBound((prefix + 1) * scale);
+    }
+    final int nameFrom = this.nameLowerBound(token);
+    final int nameTo = this.nameLowerBound(token + Character.MAX_VALUE);
+    return new Candidates(recordFrom, recordTo,
+        this.buffer.getInt(this.postingsOffset + nameFrom * 4), this.buffer.getInt(this.postingsOffset + nameTo * 4));
+  }
+
+  private int recordLowerBound(final long key) {
+    int low = 0;
+    int high = this.count;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (this.buffer.getLong(this.recordsOffset + mid * RECORD_SIZE) < key) {
+        low = mid + 1;
+      }
+      else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  private int nameLowerBound(final String key) {
+    int low = 0;
+    int high = this.nameCount;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (searchKey(this.getName(this.buffer.getInt(this.nameOrderOffset + mid * 4))).compareTo(key) < 0) {
+        low = mid + 1;
+      }
+      else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Gets the search key for a name (see {@link UserSearchIndex}).
+   *
+   * @param name the name
+   * @return the key
+   */
+  private static String searchKey(final String name) {
+    return name.toLowerCase(Locale.ROOT);
+  }
+
+  /**
+   * Finds the record for a personal identity number using binary search.
+   *
+   * @param personalNumber the personal identity number
+   * @return the record index, or -1
+   */
+  private int find(final String personalNumber) {
+    final long key = PersonalIdentityNumberCodec.parse(personalNumber);
+    if (key == PersonalIdentityNumberCodec.INVALID) {
+      return -1;
+    }
+    int low = 0;
+    int high = this.count - 1;
+    while (low <= high) {
+      final int mid = (low + high) >>> 1;
+      final long value = this.buffer.getLong(this.recordsOffset + mid * RECORD_SIZE);
+      if (value < key) {
+        low = mid + 1;
+      }
+      else if (value > key) {
+        high = mid - 1;
+      }
+      else {
+        return mid;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Creates a {@link SimulatedUser} from a record.
+   *
+   * @param record the record index
+   * @return an {@link ImmutableSimulatedUser}
+   */
+  private SimulatedUser materialize(final int record) {
+    final int offset = this.recordsOffset + record * RECORD_SIZE;
+    final int displayName = this.buffer.getInt(offset + 16);
+    final int dateOfBirth = this.buffer.getInt(offset + 20);
+    return new ImmutableSimulatedUser(
+        PersonalIdentityNumberCodec.format(this.buffer.getLong(offset)),
+        this.getName(this.buffer.getInt(offset + 8)),
+        this.getName(this.buffer.getInt(offset + 12)),
+        displayName >= 0 ? this.getName(displayName) : null,
+        dateOfBirth > 0 ? PersonalIdentityNumberCodec.formatDate(dateOfBirth) : null);
+  }
+
+  /**
+   * Gets a name from the name table.
+   *
+   * @param index the name index
+   * @return the name
+   */
+  private String getName(final int index) {
+    if (index < 0 || index >= this.nameCount) {
+      return null;
+    }
+    final int start = this.buffer.getInt(this.namesOffset + index * 4);
+    final int end = this.buffer.getInt(this.namesOffset + (index + 1) * 4);
+    final byte[] bytes = new byte[end - start];
+    this.buffer.get(this.nameDataOffset + start, bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Writes a user store file. If several users have the same personal identity number, the last one is used. The file
+   * is written to a temporary file that is then moved into place.
+   *
+   * @param users the users
+   * @param path the file to write
+   * @throws IOException for write errors
+   * @throws IllegalArgumentException if a user does not have a twelve digit personal identity number
+   */
+  public static void write(final Collection<SimulatedUser> users, final Path path) throws IOException {
+    // Order users for display, and then by personal identity number for the records ...
+    //
+    final List<SimulatedUser> displayOrder = UserDirectory.sort(users);
+    final List<SimulatedUser> records = new ArrayList<>(displayOrder);
+    final Map<SimulatedUser, Long> keys = new IdentityHashMap<>();
+    for (final SimulatedUser user : records) {
+      final long key = PersonalIdentityNumberCodec.parse(user.getPersonalNumber());
+      if (key == PersonalIdentityNumberCodec.INVALID) {
+        throw new IllegalArgumentException("Invalid personal identity number: " + user.getPersonalNumber());
+      }
+      keys.put(user, key);
+    }
+    records.sort(Comparator.comparing(keys::get));
+    final Map<SimulatedUser, Integer> recordIndexes = new IdentityHashMap<>();
+    for (int i = 0; i < records.size(); i++) {
+      recordIndexes.put(records.get(i), i);
+    }
+
+    // Deduplicate the names ...
+    //
+    final Map<String, Integer> nameIndexes = new HashMap<>();
+    final List<byte[]> names = new ArrayList<>();
+    final int[][] recordNames = new int[records.size()][3];
+    for (int i = 0; i < records.size(); i++) {
+      final SimulatedUser user = records.get(i);
+      recordNames[i][0] = nameIndex(user.getGivenName(), nameIndexes, names);
+      recordNames[i][1] = nameIndex(user.getSurname(), nameIndexes, names);
+      recordNames[i][2] = String.format("%s %s", user.getGivenName(), user.getSurname()).equals(user.getDisplayName())
+          ? -1
+          : nameIndex(user.getDisplayName(), nameIndexes, names);
+    }
+
+    // Build the search index: the names in search key order, and the users (display positions) of each name ...
+    //
+    final Integer[] nameOrder = new Integer[names.size()];
+    final String[] searchKeys = new String[names.size()];
+    for (final Map.Entry<String, Integer> e : nameIndexes.entrySet()) {
+      nameOrder[e.getValue()] = e.getValue();
+      searchKeys[e.getValue()] = searchKey(e.getKey());
+    }
+    Arrays.sort(nameOrder, Comparator.comparing(i -> searchKeys[i]));
+    final int[] rank = new int[names.size()];
+    for (int i = 0; i < nameOrder.length; i++) {
+      rank[nameOrder[i]] = i;
+    }
+    final int[] postingOffsets = new int[names.size() + 1];
+    for (final int[] userNames : recordNames) {
+      for (int n = 0; n < 2; n++) {
+        if (isPosted(userNames, n)) {
+          postingOffsets[rank[userNames[n]] + 1]++;
+        }
+      }
+    }
+    for (int i = 0; i < names.size(); i++) {
+      postingOffsets[i + 1] += postingOffsets[i];
+    }
+    final int[] postings = new int[postingOffsets[names.size()]];
+    final int[] next = Arrays.copyOf(postingOffsets, names.size());
+    final int[] positions = new int[records.size()];
+    for (int position = 0; position < displayOrder.size(); position++) {
+      final int record = recordIndexes.get(displayOrder.get(position));
+      positions[record] = position;
+      for (int n = 0; n < 2; n++) {
+        if (isPosted(recordNames[record], n)) {
+          postings[next[rank[recordNames[record][n]]]++] = position;
+        }
+      }
+    }
+
+    final int count = records.size();
+    int nameDataLength = 0;
+    for (final byte[] name : names) {
+      nameDataLength = Math.addExact(nameDataLength, name.length);
+    }
+    final int recordsOffset = HEADER_SIZE;
+    final int orderOffset = Math.addExact(recordsOffset, Math.multiplyExact(count, RECORD_SIZE));
+    final int namesOffset = Math.addExact(orderOffset, Math.multiplyExact(count, 4));
+    final int nameDataOffset = Math.addExact(namesOffset, Math.multiplyExact(names.size() + 1, 4));
+    final int positionsOffset = Math.addExact(nameDataOffset, nameDataLength);
+    final int nameOrderOffset = Math.addExact(positionsOffset, Math.multiplyExact(count, 4));
+    final int postingsOffset = Math.addExact(nameOrderOffset, Math.multiplyExact(names.size(), 4));
+    final int postingDataOffset = Math.addExact(postingsOffset, Math.multiplyExact(names.size() + 1, 4));
+    Math.addExact(postingDataOffset, Math.multiplyExact(postings.length, 4));
+
+    final Path tmp = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+    try {
+      try (final OutputStream os = Files.newOutputStream(tmp);
+          final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os, 65536))) {
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(count);
+        out.writeInt(names.size());
+        out.writeInt(recordsOffset);
+        out.writeInt(orderOffset);
+        out.writeInt(namesOffset);
+        out.writeInt(nameDataOffset);
+        out.writeInt(positionsOffset);
+        out.writeInt(nameOrderOffset);
+        out.writeInt(postingsOffset);
+        out.writeInt(postingDataOffset);
+
+        for (int i = 0; i < count; i++) {
+          final SimulatedUser user = records.get(i);
+          out.writeLong(keys.get(user));
+          out.writeInt(recordNames[i][0]);
+          out.writeInt(recordNames[i][1]);
+          out.writeInt(recordNames[i][2]);
+          out.writeInt(packDate(user));
+        }
+        for (final SimulatedUser user : displayOrder) {
+          out.writeInt(recordIndexes.get(user));
+        }
+        int offset = 0;
+        for (final byte[] name : names) {
+          out.writeInt(offset);
+          offset += name.length;
+        }
+        out.writeInt(offset);
+        for (final byte[] name : names) {
+          out.write(name);
+        }
+        for (final int position : positions) {
+          out.writeInt(position);
+        }
+        for (final Integer name : nameOrder) {
+          out.writeInt(name);
+        }
+        for (final int postingOffset : postingOffsets) {
+          out.writeInt(postingOffset);
+        }
+        for (final int position : postings) {
+          out.writeInt(position);
+        }
+      }
+      Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    finally {
+      Files.deleteIfExists(tmp);
+    }
+  }
+
+  private static int nameIndex(final String name, final Map<String, Integer> nameIndexes, final List<byte[]> names) {
+    if (name == null) {
+      return -1;
+    }
+    return nameIndexes.computeIfAbsent(name, n -> {
+      names.add(n.getBytes(StandardCharsets.UTF_8));
+      return names.size() - 1;
+    });
+  }
+
+  /**
+   * Tells whether a user should be added to the postings of its given name ({@code n = 0}) or surname ({@code n = 1}).
+   * A missing name is not posted, and a user whose given name and surname are the same is only posted once.
+   *
+   * @param userNames the name indexes of the user
+   * @param n the name
+   * @return {@code true} if the user should be added to the postings of the name
+   */
+  private static boolean isPosted(final int[] userNames, final int n) {
+    return userNames[n] >= 0 && (n == 0 || userNames[1] != userNames[0]);
+  }
+
+  /**
+   * Packs a date of birth that is not the one given by the personal identity number.
+   *
+   * @param user the user
+   * @return the date as YYYYMMDD, or 0
+   */
+  private static int packDate(final SimulatedUser user) {
+    final String dateOfBirth = user.getDateOfBirth();
+    if (dateOfBirth == null
+        || dateOfBirth.equals(PersonalIdentityNumberSupport.getBirthDate(user.getPersonalNumber()))) {
+      return 0;
+    }
+    if (!dateOfBirth.matches("\\d{4}-\\d{2}-\\d{2}")) {
+      throw new IllegalArgumentException("Invalid date of birth: " + dateOfBirth);
+    }
+    return Integer.parseInt(dateOfBirth.replace("-", ""));
+  }
+
+  /**
+   * The candidates for a query token: a range of user records, and a range of the posting data.
+   *
+   * @param recordFrom the first record
+   * @param recordTo the record after the last record
+   * @param postingFrom the first posting
+   * @param postingTo the posting after the last posting
+   */
+  private record Candidates(int recordFrom, int recordTo, int postingFrom, int postingTo) {
+
+    int size() {
+      return this.recordTo - this.recordFrom + this.postingTo - this.postingFrom;
+    }
+  }
+
+  /**
+   * The users in display order.
+   */
+  private final class UserList extends AbstractList<SimulatedUser> implements RandomAccess {
+
+    /** {@inheritDoc} */
+    @Override
+    public SimulatedUser get(final int index) {
+      final MappedUserStore store = MappedUserStore.this;
+      if (index < 0 || index >= store.count) {
+        throw new IndexOutOfBoundsException(index);
+      }
+      return store.materialize(store.buffer.getInt(store.orderOffset + index * 4));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int size() {
+      return MappedUserStore.this.count;
+    }
+  }
+
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2023-2025 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.eid.idp.users;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A codec for twelve digit Swedish personal identity numbers (and coordination numbers).
+ * <p>
+ * A number is parsed once into a packed {@code long} (its numeric value, YYYYMMDDNNNC), and the date of birth,
+ * coordination number status and check digit are then extracted from the packed value using arithmetic only, without
+ * creating any objects.
+ * </p>
+ *
+ * @author agent
+ */
+public final class PersonalIdentityNumberCodec {
+
+  /** The packed value for a string that is not twelve digits. */
+  public static final long INVALID = -1L;
+
+  /**
+   * Parses a twelve digit personal identity number into a packed value.
+   *
+   * @param id the personal identity number
+   * @return the packed value, or {@link #INVALID} if the number is not twelve digits
+   */
+  public static long parse(final CharSequence id) {
+    if (id == null || id.length() != 12) {
+      return INVALID;
+    }
+    long value = 0;
+    for (int i = 0; i < 12; i++) {
+      final char c = id.charAt(i);
+      if (c < '0' || c > '9') {
+        return INVALID;
+      }
+      value = value * 10 + (c - '0');
+    }
+    return value;
+  }
+
+  /**
+   * Formats a packed value as a twelve digit personal identity number.
+   *
+   * @param packed the packed value
+   * @return the personal identity number
+   */
+  public static String format(final long packed) {
+    final char[] chars = new char[12];
+    long value = packed;
+    for (int i = 11; i >= 0; i--) {
+      chars[i] = (char) ('0' + value % 10);
+      value /= 10;
+    }
+    return new String(chars);
+  }
+
+  /**
+   * Tells whether the packed number is a coordination number (samordningsnummer), i.e., a number where 60 has been
+   * added to the day of birth.
+   *
+   * @param packed the packed value
+   * @return {@code true} if the number is a coordination number and {@code false} otherwise
+   */
+  public static boolean isCoordinationNumber(final long packed) {
+    return packed != INVALID && packed / 10_000 % 100 > 60;
+  }
+
+  /**
+   * Gets the date of birth of the packed number (for a coordination number, 60 is subtracted from the day).
+   *
+   * @param packed the packed value
+   * @return the date of birth as YYYYMMDD
+   */
+  public static int getBirthDate(final long packed) {
+    final int date = (int) (packed / 10_000);
+    return date % 100 > 60 ? date - 60 : date;
+  }
+
+  /**
+   * Tells whether the date of birth of the packed number is a valid date.
+   *
+   * @param packed the packed value
+   * @return {@code true} if the date is valid and {@code false} otherwise
+   */
+  public static boolean hasValidDate(final long packed) {
+    if (packed == INVALID) {
+      return false;
+    }
+    final int date = getBirthDate(packed);
+    final int year = date / 10_000;
+    final int month = date / 100 % 100;
+    final int day = date % 100;
+    if (month < 1 || month > 12 || day < 1) {
+      return false;
+    }
+    final int days = switch (month) {
+      case 2 -> year % 4 == 0 && (year % 100 != 0 || year % 400 == 0) ? 29 : 28;
+      case 4, 6, 9, 11 -> 30;
+      default -> 31;
+    };
+    return day <= days;
+  }
+
+  /**
+   * Tells whether the packed number has a valid Luhn check digit. The check digit is calculated over the ten digit
+   * form of the number (YYMMDDNNN).
+   *
+   * @param packed the packed value
+   * @return {@code true} if the check digit is valid and {@code false} otherwise
+   */
+  public static boolean hasValidCheckDigit(final long packed) {
+    return packed != INVALID && calculateCheckDigit(packed) == packed % 10;
+  }
+
+  /**
+   * Calculates the Luhn check digit for the packed number. The check digit is calculated over the ten digit form of
+   * the number (YYMMDDNNN), and the current check digit (the last digit) of the packed value is ignored.
+   *
+   * @param packed the packed value
+   * @return the check digit (0-9)
+   */
+  public static int calculateCheckDigit(final long packed) {
+    long value = packed % 10_000_000_000L / 10;
+    int sum = 0;
+    for (int i = 0; i < 9; i++) {
+      final int digit = (int) (value % 10);
+      value /= 10;
+      final int product = i % 2 == 0 ? digit * 2 : digit;
+      sum += product > 9 ? product - 9 : product;
+    }
+    return (10 - sum % 10) % 10;
+  }
+
+  /**
+   * Tells whether the packed number is a valid personal identity number (or coordination number), i.e., it has a
+   * valid date of birth and a valid check digit.
+   *
+   * @param packed the packed value
+   * @return {@code true} if the number is valid and {@code false} otherwise
+   */
+  public static boolean isValid(final long packed) {
+    return hasValidDate(packed) && hasValidCheckDigit(packed);
+  }
+
+  /**
+   * Validates a list of personal identity numbers, for example the numbers of a batch of imported users.
+   *
+   * @param ids the personal identity numbers
+   * @param packed an array (at least as long as the list) that receives the packed values, where invalid numbers are
+   *     given the value {@link #INVALID}
+   * @return the index of the first invalid number, or -1 if all numbers are valid
+   */
+  public static int validateAll(final List<? extends CharSequence> ids, final long[] packed) {
+    int firstInvalid = -1;
+    for (int i = 0; i < ids.size(); i++) {
+      final long value = parse(ids.get(i));
+      if (isValid(value)) {
+        packed[i] = value;
+      }
+      else {
+        packed[i] = INVALID;
+        if (firstInvalid < 0) {
+          firstInvalid = i;
+        }
+      }
+    }
+    return firstInvalid;
+  }
+
+  /**
+   * Finds a number that occurs more than once among the supplied packed values.
+   *
+   * @param packed the packed values
+   * @param length the number of values to check
+   * @return a packed value that occurs more than once, or {@link #INVALID} if all values are unique
+   */
+  public static long findDuplicate(final long[] packed, final int length) {
+    final long[] sorted = Arrays.copyOf(packed, length);
+    Arrays.sort(sorted);
+    for (int i = 1; i < sorted.length; i++) {
+      if (sorted[i] == sorted[i - 1]) {
+        return sorted[i];
+      }
+    }
+    return INVALID;
+  }
+
+  /**
+   * Formats a date (YYYYMMDD) as YYYY-MM-DD.
+   *
+   * @param date the date
+   * @return the formatted date
+   */
+  public static String formatDate(final int date) {
+    final char[] chars = new char[10];
+    int value = date;
+    for (int i = 9; i >= 0; i--) {
+      if (i == 4 || i == 7) {
+        chars[i] = '-';
+        continue;
+      }
+      chars[i] = (char) ('0' + value % 10);
+      value /= 10;
+    }
+    return new String(chars);
+  }
+
+  // Hidden constructor
+  private PersonalIdentityNumberCodec() {
+  }
+
+}
@@ -30,16 +30,7 @@ public class PersonalIdentityNumberSupport {
    * @return true if the number is a coordination number and false otherwise
    */
   public static boolean isCoordinationNumber(final String id) {
-    if (id.length() != 12) {
-      return false;
-    }
-    try {
-      final int day = Integer.parseInt(id.substring(6, 8));
-      return (day >= 61);
-    }
-    catch (final Exception e) {
-      return false;
-    }
+    return PersonalIdentityNumberCodec.isCoordinationNumber(PersonalIdentityNumberCodec.parse(id));
   }
 
   /**
@@ -47,11 +38,25 @@ public class PersonalIdentityNumberSupport {
    *
    * @param personalIdentityNumber the personal identity number
    * @return the birth date on the format YYYY-MM-DD
+   * @throws IllegalArgumentException if the number is not twelve digits
    */
   public static String getBirthDate(final String personalIdentityNumber) {
-    final Integer day = Integer.parseInt(personalIdentityNumber.substring(6, 8));
-    return String.format("%s-%s-%02d", personalIdentityNumber.substring(0, 4), personalIdentityNumber.substring(4, 6),
-        day > 60 ? day - 60 : day);
+    final long packed = PersonalIdentityNumberCodec.parse(personalIdentityNumber);
+    if (packed == PersonalIdentityNumberCodec.INVALID) {
+      throw new IllegalArgumentException("Invalid personal identity number");
+    }
+    return PersonalIdentityNumberCodec.formatDate(PersonalIdentityNumberCodec.getBirthDate(packed));
+  }
+
+  /**
+   * Predicate that tells if the supplied twelve digit personal identity number (or coordination number) has a valid
+   * Luhn check digit.
+   *
+   * @param id the personal identity number (YYYYMMDDNNNC)
+   * @return true if the number is well-formed and has a valid check digit, and false otherwise
+   */
+  public static boolean hasValidCheckDigit(final String id) {
+    return PersonalIdentityNumberCodec.hasValidCheckDigit(PersonalIdentityNumberCodec.parse(id));
   }
 
   private PersonalIdentityNumberSupport() {
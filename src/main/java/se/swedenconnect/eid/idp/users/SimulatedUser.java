@@ -20,6 +20,7 @@ import lombok.Getter;
 import lombok.Setter;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.web.util.HtmlUtils;
 
 import java.io.Serial;
 import java.net.URLDecoder;
@@ -33,6 +34,10 @@ import java.util.Objects;
 
 /**
  * Representation of a user.
+ * <p>
+ * Users held by a {@link UserDirectory} are {@link ImmutableSimulatedUser} instances, where the derived values have
+ * been computed once.
+ * </p>
  *
  * @author Martin Lindström
  */
@@ -99,7 +104,10 @@ public class SimulatedUser implements UserDetails, Comparable<SimulatedUser> {
    */
   public String getDateOfBirth() {
     if (this.dateOfBirth == null && this.personalNumber != null) {
-      this.dateOfBirth = PersonalIdentityNumberSupport.getBirthDate(this.personalNumber);
+      final long packed = PersonalIdentityNumberCodec.parse(this.personalNumber);
+      if (packed != PersonalIdentityNumberCodec.INVALID) {
+        return PersonalIdentityNumberCodec.formatDate(PersonalIdentityNumberCodec.getBirthDate(packed));
+      }
     }
     return this.dateOfBirth;
   }
@@ -110,10 +118,7 @@ public class SimulatedUser implements UserDetails, Comparable<SimulatedUser> {
    * @return the display name
    */
   public String getDisplayName() {
-    if (this.displayName == null) {
-      this.displayName = String.format("%s %s", this.givenName, this.surname);
-    }
-    return this.displayName;
+    return this.displayName != null ? this.displayName : this.givenName + " " + this.surname;
   }
 
   /** {@inheritDoc} */
@@ -138,7 +143,16 @@ public class SimulatedUser implements UserDetails, Comparable<SimulatedUser> {
   }
 
   public String toViewString() {
-    return String.format("%s (%s)", this.getDisplayName(), this.personalNumber);
+    return this.getDisplayName() + " (" + this.personalNumber + ")";
+  }
+
+  /**
+   * Gets the HTML-escaped view string, i.e., the label to use when the user is listed on a HTML page.
+   *
+   * @return the option label
+   */
+  public String getOptionLabel() {
+    return HtmlUtils.htmlEscape(this.toViewString());
   }
 
   @Override
@@ -207,10 +221,9 @@ public class SimulatedUser implements UserDetails, Comparable<SimulatedUser> {
     if (this == obj) {
       return true;
     }
-    if (obj == null || this.getClass() != obj.getClass()) {
+    if (!(obj instanceof final SimulatedUser other)) {
       return false;
     }
-    final SimulatedUser other = (SimulatedUser) obj;
     return Objects.equals(this.personalNumber, other.personalNumber);
   }
 
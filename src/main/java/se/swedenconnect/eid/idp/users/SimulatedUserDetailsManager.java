@@ -15,63 +15,222 @@
  */
 package se.swedenconnect.eid.idp.users;
 
-import java.util.HashMap;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.security.provisioning.UserDetailsManager;
 
 /**
  * An implementation of {@link UserDetailsManager} that handles the simulated users.
+ * <p>
+ * The users are held in an immutable {@link UserDirectory} snapshot that is replaced on each change. Reads are
+ * therefore lock-free and never copy or sort the users.
+ * </p>
+ * <p>
+ * The directory holds two layers of users: the users of the users file, that are replaced when the file is reloaded
+ * (see {@link #replaceFileUsers(Collection)}), and the users that have been added by other means (the users given to
+ * the constructor, typically bound from configuration, and users added using {@link #createUser(UserDetails)} or
+ * {@link #createUsers(Collection)}, for example by an import). The added users are kept when the users of the file are
+ * replaced, and take precedence over users of the file having the same personal identity number.
+ * </p>
+ * <p>
+ * Optionally, a {@link SyntheticUserGenerator} may be installed. Its (generated) users can be looked up, but they are
+ * not part of the directory, and are therefore not listed by {@link #getUsers()}.
+ * </p>
+ * <p>
+ * Also optionally, a {@link UserSource} (typically a {@link CachingUserSource}) may be installed. It is consulted for
+ * users that are neither in the directory nor generated, and its users are not listed either.
+ * </p>
  *
  * @author Martin Lindström
  */
+@Slf4j
 public class SimulatedUserDetailsManager implements UserDetailsManager {
 
-  /** The simulated users. */
-  private final Map<String, SimulatedUser> users = new HashMap<>();
+  /** The current snapshot of the simulated users. */
+  private volatile UserDirectory directory = UserDirectory.EMPTY;
+
+  /** The users that are not loaded from the users file, by personal identity number. */
+  private final Map<String, SimulatedUser> addedUsers = new LinkedHashMap<>();
+
+  /** Optional generator for synthetic users. */
+  private SyntheticUserGenerator generator;
+
+  /** Optional (external) source of users. */
+  private UserSource userSource;
+
+  /**
+   * Default constructor creating an empty manager.
+   */
+  public SimulatedUserDetailsManager() {
+  }
+
+  /**
+   * Constructor setting up the manager with the supplied users. The users are kept when the users of the users file
+   * are replaced.
+   *
+   * @param users the initial users
+   */
+  public SimulatedUserDetailsManager(final Collection<SimulatedUser> users) {
+    this.directory = UserDirectory.of(users, 1);
+    this.rememberAdded(users);
+  }
+
+  /**
+   * Constructor setting up the manager with the users of a (read-only) {@link MappedUserStore}. The users can not be
+   * changed.
+   *
+   * @param store the user store
+   */
+  public SimulatedUserDetailsManager(final MappedUserStore store) {
+    this.directory = UserDirectory.of(store, 1);
+  }
+
+  /**
+   * Gets the current snapshot of the users.
+   *
+   * @return a {@link UserDirectory}
+   */
+  public UserDirectory getDirectory() {
+    return this.directory;
+  }
+
+  /**
+   * Assigns a generator for synthetic users. The users of the directory take precedence over the generated users.
+   *
+   * @param generator the generator
+   */
+  public void setGenerator(final SyntheticUserGenerator generator) {
+    this.generator = generator;
+  }
 
   /**
-   * Returns all users as a list.
+   * Assigns a source for users that are not found in the directory, or among the generated users.
+   *
+   * @param userSource the user source
+   */
+  public void setUserSource(final UserSource userSource) {
+    this.userSource = userSource;
+  }
+
+  /**
+   * Gets the user having the given personal identity number. The directory is checked first, then the generated
+   * users (if a generator has been installed), and finally the user source (if installed). The user source is only
+   * consulted for valid personal identity numbers, so arbitrary input (for example a search string) never results in
+   * calls to the source, or in (negative) cache entries. If the user source can not be reached, the user is treated as
+   * unknown.
+   *
+   * @param personalNumber the personal identity number
+   * @return the user, or {@code null} if there is no such user
+   */
+  public SimulatedUser getUser(final String personalNumber) {
+    SimulatedUser user = this.directory.getUser(personalNumber);
+    if (user == null && this.generator != null && personalNumber != null) {
+      user = this.generator.getUser(personalNumber);
+    }
+    if (user == null && this.userSource != null && isValidPersonalNumber(personalNumber)) {
+      try {
+        user = this.userSource.findUser(personalNumber);
+      }
+      catch (final IOException e) {
+        log.warn("User source not available - {}", e.getMessage());
+      }
+    }
+    return user;
+  }
+
+  /**
+   * Returns all users of the directory as a list (sorted). Generated users are not included.
    *
    * @return all users
    */
   public List<SimulatedUser> getUsers() {
-    return this.users.values().stream().toList();
+    return this.directory.getUsers();
   }
 
   /** {@inheritDoc} */
   @Override
   public UserDetails loadUserByUsername(final String username) throws UsernameNotFoundException {
-    return Optional.ofNullable(this.users.get(username))
+    return Optional.ofNullable(this.getUser(username))
         .orElseThrow(() -> new UsernameNotFoundException(username));
   }
 
-  /** {@inheritDoc} */
+  /**
+   * Replaces the users of the users file. Users that have been added by other means (see the class documentation) are
+   * kept. The new directory is installed in one operation, so readers see either the old or the new users.
+   *
+   * @param users the users of the users file
+   * @throws UnsupportedOperationException if the users are served from a {@link MappedUserStore}
+   */
+  public synchronized void replaceFileUsers(final Collection<SimulatedUser> users) {
+    if (this.directory.isStored()) {
+      throw new UnsupportedOperationException("Users are served from a user store");
+    }
+    final List<SimulatedUser> all = new ArrayList<>(users.size() + this.addedUsers.size());
+    all.addAll(users);
+    // The added users go last, so that they replace users of the file ...
+    all.addAll(this.addedUsers.values());
+    this.directory = UserDirectory.of(all, this.directory.getVersion() + 1);
+  }
+
+  /**
+   * Adds a user.
+   *
+   * @throws UnsupportedOperationException if the users are served from a {@link MappedUserStore}
+   */
   @Override
-  public void createUser(final UserDetails user) {
+  public synchronized void createUser(final UserDetails user) {
     if (!(user instanceof SimulatedUser)) {
       throw new IllegalArgumentException("Expected " + SimulatedUser.class.getSimpleName());
     }
-    this.users.put(user.getUsername(), (SimulatedUser) user);
+    if (user.getUsername() == null) {
+      throw new IllegalArgumentException("Missing personal identity number");
+    }
+    this.directory = this.directory.with((SimulatedUser) user, this.directory.getVersion() + 1);
+    this.rememberAdded(List.of((SimulatedUser) user));
+  }
+
+  /**
+   * Adds (or replaces) a batch of users. The users are installed in one operation, so readers see either none or all
+   * of them.
+   *
+   * @param users the users to add
+   * @throws UnsupportedOperationException if the users are served from a {@link MappedUserStore}
+   */
+  public synchronized void createUsers(final Collection<SimulatedUser> users) {
+    if (!users.isEmpty()) {
+      this.directory = this.directory.withAll(users, this.directory.getVersion() + 1);
+      this.rememberAdded(users);
+    }
   }
 
   /** {@inheritDoc} */
   @Override
-  public void updateUser(final UserDetails user) {
+  public synchronized void updateUser(final UserDetails user) {
     if (!this.userExists(user.getUsername())) {
       throw new IllegalArgumentException("User does not exist");
     }
     this.createUser(user);
   }
 
-  /** {@inheritDoc} */
+  /**
+   * Deletes a user from the directory. Generated users and users from the external user source can not be deleted, so
+   * for those the call has no effect.
+   */
   @Override
-  public void deleteUser(final String username) {
-    this.users.remove(username);
+  public synchronized void deleteUser(final String username) {
+    if (this.directory.contains(username)) {
+      this.directory = this.directory.without(username, this.directory.getVersion() + 1);
+      this.addedUsers.remove(username);
+    }
   }
 
   /** {@inheritDoc} */
@@ -82,7 +241,35 @@ public class SimulatedUserDetailsManager implements UserDetailsManager {
   /** {@inheritDoc} */
   @Override
   public boolean userExists(final String username) {
-    return this.users.containsKey(username);
+    return this.directory.contains(username)
+        || this.generator != null && username != null && this.generator.indexOf(username) >= 0
+        || this.userSource != null && isValidPersonalNumber(username) && this.getUser(username) != null;
+  }
+
+  /**
+   * Tells whether the supplied string is a valid personal identity number (or coordination number).
+   *
+   * @param personalNumber the string to test
+   * @return {@code true} if the string is a valid personal identity number and {@code false} otherwise
+   */
+  private static boolean isValidPersonalNumber(final String personalNumber) {
+    return PersonalIdentityNumberCodec.isValid(PersonalIdentityNumberCodec.parse(personalNumber));
+  }
+
+  /**
+   * Records users that have been added (not loaded from the users file). The (immutable) users of the directory are
+   * recorded, so the users are not held twice.
+   *
+   * @param users the added users
+   */
+  private void rememberAdded(final Collection<SimulatedUser> users) {
+    for (final SimulatedUser user : users) {
+      final String personalNumber = user.getPersonalNumber();
+      final SimulatedUser added = this.directory.getUser(personalNumber);
+      if (added != null) {
+        this.addedUsers.put(personalNumber, added);
+      }
+    }
   }
 
 }
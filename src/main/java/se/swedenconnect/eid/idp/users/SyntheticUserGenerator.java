@@ -0,0 +1,289 @@
+/*
+ * Copyright 2023-2025 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.eid.idp.users;
+
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * Generates a deterministic population of simulated users, for example for load tests that need a large number of
+ * distinct identities. No users are kept in memory. Each user is derived from the seed and its index in the population,
+ * and a generated personal identity number can be mapped back to its index in constant time.
+ * <p>
+ * Each index in the population is mapped to a unique combination of birth date, birth number and a flag telling
+ * whether the number is a coordination number (samordningsnummer). The mapping is a seeded permutation, so different
+ * seeds give different populations. The generated numbers have valid Luhn check digits, and about half of them are
+ * coordination numbers. Given names (depending on the gender given by the birth number) and surnames are also derived
+ * from the seed and index.
+ * </p>
+ * <p>
+ * In order not to generate the identities of real persons, only birth numbers in the series 980-999 are used. This is
+ * the series that Skatteverket uses for its test personal identity numbers (testpersonnummer), and numbers in this
+ * series are not assigned to real persons. This limits the population to about 1.1 million users.
+ * </p>
+ *
+ * @author agent
+ */
+public class SyntheticUserGenerator {
+
+  /** The first birth date of the generated users. */
+  private static final LocalDate FIRST_BIRTH_DATE = LocalDate.of(1930, 1, 1);
+
+  /** The last birth date of the generated users. */
+  private static final LocalDate LAST_BIRTH_DATE = LocalDate.of(2005, 12, 31);
+
+  /** The number of possible birth dates. */
+  private static final long DAYS = ChronoUnit.DAYS.between(FIRST_BIRTH_DATE, LAST_BIRTH_DATE) + 1;
+
+  /** The first birth number of the test series (980-999). */
+  private static final int FIRST_BIRTH_NUMBER = 980;
+
+  /** The number of birth numbers (980-999) per birth date. */
+  private static final long BIRTH_NUMBERS = 20;
+
+  /** The maximum size of a population. */
+  public static final long MAX_SIZE = DAYS * BIRTH_NUMBERS * 2;
+
+  /** The number of Feistel rounds. */
+  private static final int ROUNDS = 4;
+
+  /** Female given names. */
+  private static final String[] FEMALE_NAMES = {
+      "Agda", "Alice", "Anna", "Astrid", "Birgitta", "Britt", "Cecilia", "Ebba", "Elin", "Elsa", "Emma", "Eva",
+      "Frida", "Greta", "Hanna", "Ida", "Ingrid", "Johanna", "Karin", "Kerstin", "Linnea", "Maja", "Margareta",
+      "Maria", "Matilda", "Saga", "Sara", "Sofia", "Ulla", "Wilma" };
+
+  /** Male given names. */
+  private static final String[] MALE_NAMES = {
+      "Adam", "Alrik", "Anders", "Axel", "Bengt", "Bo", "Carl", "Elias", "Erik", "Filip", "Gustav", "Hugo", "Isak",
+      "Johan", "Karl", "Lars", "Leo", "Lucas", "Magnus", "Mats", "Nils", "Olof", "Oscar", "Per", "Sven", "Theo",
+      "Ture", "Valter", "William", "Östen" };
+
+  /** Surnames. */
+  private static final String[] SURNAMES = {
+      "Andersson", "Axelsson", "Berg", "Bergström", "Björk", "Dahl", "Ek", "Eriksson", "Forsberg", "Gustafsson",
+      "Hansson", "Hedlund", "Holm", "Isaksson", "Johansson", "Jonsson", "Karlsson", "Larsson", "Lidén", "Lind",
+      "Lindberg", "Lundgren", "Magnusson", "Nilsson", "Nyström", "Olsson", "Persson", "Sandberg", "Sjöberg",
+      "Svensson", "Wallin", "Åberg", "Åkesson", "Öberg", "Öhman" };
+
+  /** The seed. */
+  private final long seed;
+
+  /** The number of users in the population. */
+  private final long size;
+
+  /** The number of bits in each half of a Feistel block. */
+  private final int halfBits;
+
+  /** Mask for a half block. */
+  private final long halfMask;
+
+  /** The round keys (derived from the seed). */
+  private final long[] roundKeys = new long[ROUNDS];
+
+  /**
+   * Constructor.
+   *
+   * @param seed the seed
+   * @param size the number of users in the population (at most {@link #MAX_SIZE})
+   */
+  public SyntheticUserGenerator(final long seed, final long size) {
+    if (size < 0 || size > MAX_SIZE) {
+      throw new IllegalArgumentException("size must be between 0 and " + MAX_SIZE);
+    }
+    this.seed = seed;
+    this.size = size;
+
+    int bits = 64 - Long.numberOfLeadingZeros(MAX_SIZE - 1);
+    if (bits % 2 != 0) {
+      bits++;
+    }
+    this.halfBits = bits / 2;
+    this.halfMask = (1L << this.halfBits) - 1;
+    long state = seed;
+    for (int i = 0; i < ROUNDS; i++) {
+      state += 0x9E3779B97F4A7C15L;
+      this.roundKeys[i] = mix(state);
+    }
+  }
+
+  /**
+   * Gets the number of users in the population.
+   *
+   * @return the population size
+   */
+  public long size() {
+    return this.size;
+  }
+
+  /**
+   * Gets the user with the given index in the population.
+   *
+   * @param index the index (0 to size - 1)
+   * @return a (new) {@link SimulatedUser}
+   */
+  public SimulatedUser getUser(final long index) {
+    if (index < 0 || index >= this.size) {
+      throw new IndexOutOfBoundsException("index " + index + " is outside of the population");
+    }
+    return this.createUser(this.permute(index));
+  }
+
+  /**
+   * Gets the generated user having the given personal identity number.
+   *
+   * @param personalNumber the personal identity number
+   * @return a (new) {@link SimulatedUser}, or {@code null} if the number is not part of the population
+   */
+  public SimulatedUser getUser(final String personalNumber) {
+    final long index = this.indexOf(personalNumber);
+    return index >= 0 ? this.getUser(index) : null;
+  }
+
+  /**
+   * Gets the index of the generated user having the given personal identity number.
+   *
+   * @param personalNumber the personal identity number
+   * @return the index, or -1 if the number is not part of the population
+   */
+  public long indexOf(final String personalNumber) {
+    if (!PersonalIdentityNumberSupport.hasValidCheckDigit(personalNumber)) {
+      return -1;
+    }
+    final int year = Integer.parseInt(personalNumber, 0, 4, 10);
+    final int month = Integer.parseInt(personalNumber, 4, 6, 10);
+    int day = Integer.parseInt(personalNumber, 6, 8, 10);
+    final int birthNumber = Integer.parseInt(personalNumber, 8, 11, 10);
+    final boolean coordinationNumber = day > 60;
+    if (coordinationNumber) {
+      day -= 60;
+    }
+    final LocalDate birthDate;
+    try {
+      birthDate = LocalDate.of(year, month, day);
+    }
+    catch (final DateTimeException e) {
+      return -1;
+    }
+    if (birthNumber < FIRST_BIRTH_NUMBER || birthDate.isBefore(FIRST_BIRTH_DATE)
+        || birthDate.isAfter(LAST_BIRTH_DATE)) {
+      return -1;
+    }
+    final long position = (ChronoUnit.DAYS.between(FIRST_BIRTH_DATE, birthDate) * BIRTH_NUMBERS
+        + birthNumber - FIRST_BIRTH_NUMBER) * 2 + (coordinationNumber ? 1 : 0);
+    final long index = this.unpermute(position);
+    return index < this.size ? index : -1;
+  }
+
+  /**
+   * Creates the user for a position in the domain of possible numbers.
+   *
+   * @param position the position
+   * @return an {@link ImmutableSimulatedUser}
+   */
+  private SimulatedUser createUser(final long position) {
+    final boolean coordinationNumber = (position & 1) == 1;
+    final long rest = position >>> 1;
+    final int birthNumber = (int) (rest % BIRTH_NUMBERS) + FIRST_BIRTH_NUMBER;
+    final LocalDate birthDate = FIRST_BIRTH_DATE.plusDays(rest / BIRTH_NUMBERS);
+
+    final long date = birthDate.getYear() * 10_000L + birthDate.getMonthValue() * 100L
+        + birthDate.getDayOfMonth() + (coordinationNumber ? 60 : 0);
+    final long number = (date * 1_000 + birthNumber) * 10;
+
+    final long names = mix(position ^ this.roundKeys[0]);
+    final String[] givenNames = birthNumber % 2 == 1 ? MALE_NAMES : FEMALE_NAMES;
+
+    return new ImmutableSimulatedUser(
+        PersonalIdentityNumberCodec.format(number + PersonalIdentityNumberCodec.calculateCheckDigit(number)),
+        givenNames[(int) Long.remainderUnsigned(names, givenNames.length)],
+        SURNAMES[(int) Long.remainderUnsigned(names >>> 32, SURNAMES.length)], null, birthDate.toString());
+  }
+
+  /**
+   * Maps an index to a position in the domain of possible numbers. The Feistel network is a permutation of
+   * {@code [0, 2^bits)}, and by re-applying it until the result is within the domain (cycle walking) we get a
+   * permutation of the domain.
+   *
+   * @param index the index
+   * @return the position
+   */
+  private long permute(final long index) {
+    long x = index;
+    do {
+      x = this.encrypt(x);
+    }
+    while (x >= MAX_SIZE);
+    return x;
+  }
+
+  /**
+   * The inverse of {@link #permute(long)}.
+   *
+   * @param position the position
+   * @return the index
+   */
+  private long unpermute(final long position) {
+    long x = position;
+    do {
+      x = this.decrypt(x);
+    }
+    while (x >= MAX_SIZE);
+    return x;
+  }
+
+  private long encrypt(final long x) {
+    long left = x >>> this.halfBits;
+    long right = x & this.halfMask;
+    for (int i = 0; i < ROUNDS; i++) {
+      final long tmp = left ^ (mix(right ^ this.roundKeys[i]) & this.halfMask);
+      left = right;
+      right = tmp;
+    }
+    return (left << this.halfBits) | right;
+  }
+
+  private long decrypt(final long x) {
+    long left = x >>> this.halfBits;
+    long right = x & this.halfMask;
+    for (int i = ROUNDS - 1; i >= 0; i--) {
+      final long tmp = right ^ (mix(left ^ this.roundKeys[i]) & this.halfMask);
+      right = left;
+      left = tmp;
+    }
+    return (left << this.halfBits) | right;
+  }
+
+  /**
+   * The SplitMix64 finalizer.
+   *
+   * @param z the input
+   * @return the mixed value
+   */
+  private static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String toString() {
+    return String.format("seed=%d, size=%d", this.seed, this.size);
+  }
+
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright 2023-2025 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.eid.idp.users;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.Data;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Bulk import and export of simulated users as NDJSON (one JSON object per line) or CSV.
+ * <p>
+ * Imported users are read from a stream and committed to the {@link SimulatedUserDetailsManager} in batches. Each
+ * batch is validated as a whole, and is either committed in one operation, or (if any of its users is invalid)
+ * rejected. Since a batch is committed before the next one is read, a client can never send users faster than they are
+ * committed. The number of imports that may run concurrently is limited.
+ * </p>
+ * <p>
+ * The JSON objects use the same (kebab-case) names as {@code users.yml}, i.e., {@code personal-number},
+ * {@code given-name}, {@code surname}, {@code display-name} and {@code date-of-birth}. The CSV format is the one
+ * handled by {@link UserStoreConverter}.
+ * </p>
+ *
+ * @author agent
+ */
+@Slf4j
+public class UserBulkImporter {
+
+  /** The default number of users per batch. */
+  public static final int DEFAULT_BATCH_SIZE = 1000;
+
+  /** The maximum number of errors reported for an import. */
+  private static final int MAX_REPORTED_ERRORS = 100;
+
+  /** For reading and writing JSON. */
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+  /** The formats that are supported. */
+  public enum Format {
+    /** Newline delimited JSON. */
+    NDJSON,
+    /** Comma separated values. */
+    CSV
+  }
+
+  /** The manager holding the users. */
+  private final SimulatedUserDetailsManager manager;
+
+  /** Limits the number of concurrent imports. */
+  private final Semaphore permits;
+
+  /** The number of users per batch. */
+  @Setter
+  private int batchSize = DEFAULT_BATCH_SIZE;
+
+  /**
+   * Constructor.
+   *
+   * @param manager the manager holding the users
+   * @param maxConcurrentImports the maximum number of imports that may run concurrently
+   */
+  public UserBulkImporter(final SimulatedUserDetailsManager manager, final int maxConcurrentImports) {
+    this.manager = Objects.requireNonNull(manager, "manager must not be null");
+    this.permits = new Semaphore(maxConcurrentImports);
+  }
+
+  /**
+   * Imports users. Users that already exist are replaced.
+   *
+   * @param reader the reader to read users from
+   * @param format the format
+   * @return the result of the import
+   * @throws IOException for read errors
+   * @throws RejectedExecutionException if the maximum number of concurrent imports are already running
+   * @throws UnsupportedOperationException if the users are served from a {@link MappedUserStore}
+   */
+  public Result importUsers(final BufferedReader reader, final Format format) throws IOException {
+    if (this.manager.getDirectory().isStored()) {
+      throw new UnsupportedOperationException("Users are served from a user store");
+    }
+    if (!this.permits.tryAcquire()) {
+      throw new RejectedExecutionException("Too many concurrent imports");
+    }
+    try {
+      final Result result = new Result();
+      final List<SimulatedUser> batch = new ArrayList<>(this.batchSize);
+      int lineNumber = 0;
+      int batchStart = 0;
+      int batchLines = 0;
+      String error = null;
+      String line;
+      while ((line = reader.readLine()) != null) {
+        lineNumber++;
+        if (line.isBlank() || format == Format.CSV
+            && (line.startsWith("#") || lineNumber == 1 && UserStoreConverter.isCsvHeader(line))) {
+          continue;
+        }
+        if (batchLines++ == 0) {
+          batchStart = lineNumber;
+        }
+        if (error == null) {
+          try {
+            final SimulatedUser user = format == Format.CSV ? UserStoreConverter.parseCsvLine(line) : fromJson(line);
+            UserValidator.validate(user);
+            batch.add(user);
+          }
+          catch (final IllegalArgumentException e) {
+            error = String.format("Line %d: %s", lineNumber, e.getMessage());
+          }
+        }
+        if (batchLines >= this.batchSize) {
+          this.commit(batch, batchStart, lineNumber, error, result);
+          batchLines = 0;
+          error = null;
+        }
+      }
+      if (batchLines > 0) {
+        this.commit(batch, batchStart, lineNumber, error, result);
+      }
+      log.info("Imported {} users in {} batches ({} batches rejected)",
+          result.getImported(), result.getBatches(), result.getRejectedBatches());
+      return result;
+    }
+    finally {
+      this.permits.release();
+    }
+  }
+
+  /**
+   * Exports all users of the directory (a snapshot of the users is exported).
+   *
+   * @param writer the writer
+   * @param format the format
+   * @throws IOException for write errors
+   */
+  public void exportUsers(final Writer writer, final Format format) throws IOException {
+    if (format == Format.CSV) {
+      writer.write(UserStoreConverter.CSV_HEADER);
+      writer.write('\n');
+    }
+    for (final SimulatedUser user : this.manager.getDirectory().getUsers()) {
+      writer.write(format == Format.CSV ? UserStoreConverter.toCsvLine(user) : toJson(user));
+      writer.write('\n');
+    }
+    writer.flush();
+  }
+
+  /**
+   * Commits a batch, or rejects it if it has an error.
+   */
+  private void commit(final List<SimulatedUser> batch, final int firstLine, final int lastLine, final String error,
+      final Result result) {
+    result.setBatches(result.getBatches() + 1);
+    String batchError = error;
+    if (batchError == null) {
+      try {
+        UserValidator.validate(batch);
+        this.manager.createUsers(batch);
+        result.setImported(result.getImported() + batch.size());
+      }
+      catch (final IllegalArgumentException e) {
+        batchError = e.getMessage();
+      }
+    }
+    if (batchError != null) {
+      result.setRejectedBatches(result.getRejectedBatches() + 1);
+      if (result.getErrors().size() < MAX_REPORTED_ERRORS) {
+        result.getErrors().add(String.format("Batch at lines %d-%d rejected - %s", firstLine, lastLine, batchError));
+      }
+    }
+    batch.clear();
+  }
+
+  /**
+   * Parses a user from a JSON object having the keys {@code personal-number}, {@code given-name}, {@code surname},
+   * {@code display-name} and {@code date-of-birth}.
+   *
+   * @param json the JSON object
+   * @return the user
+   * @throws IllegalArgumentException if the JSON is invalid
+   */
+  static SimulatedUser fromJson(final String json) {
+    final Map<?, ?> map;
+    try {
+      map = OBJECT_MAPPER.readValue(json, Map.class);
+    }
+    catch (final JsonProcessingException e) {
+      throw new IllegalArgumentException("Invalid JSON", e);
+    }
+    final SimulatedUser user = new SimulatedUser();
+    user.setPersonalNumber(toString(map.get("personal-number")));
+    user.setGivenName(toString(map.get("given-name")));
+    user.setSurname(toString(map.get("surname")));
+    user.setDisplayName(toString(map.get("display-name")));
+    user.setDateOfBirth(toString(map.get("date-of-birth")));
+    return user;
+  }
+
+  /**
+   * Formats a user as a JSON object (see {@link #fromJson(String)}).
+   *
+   * @param user the user
+   * @return the JSON object
+   * @throws IOException for serialization errors
+   */
+  static String toJson(final SimulatedUser user) throws IOException {
+    final Map<String, String> map = new LinkedHashMap<>();
+    map.put("personal-number", user.getPersonalNumber());
+    map.put("given-name", user.getGivenName());
+    map.put("surname", user.getSurname());
+    map.put("display-name", user.getDisplayName());
+    map.put("date-of-birth", user.getDateOfBirth());
+    return OBJECT_MAPPER.writeValueAsString(map);
+  }
+
+  private static String toString(final Object value) {
+    return value != null ? value.toString() : null;
+  }
+
+  /**
+   * The result of an import.
+   */
+  @Data
+  public static class Result {
+
+    /** The number of imported users. */
+    private long imported;
+
+    /** The number of batches. */
+    private int batches;
+
+    /** The number of rejected batches. */
+    private int rejectedBatches;
+
+    /** Errors for the rejected batches. */
+    private List<String> errors = new ArrayList<>();
+
+  }
+
+}
@@ -0,0 +1,612 @@
+/*
+ * Copyright 2023-2025 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.eid.idp.users;
+
+import jakarta.annotation.Nonnull;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.Set;
+
+/**
+ * An immutable snapshot of the simulated users. The users are sorted (by surname, given name and personal identity
+ * number, using Swedish collation) when the snapshot is created, and indexed by their personal identity number.
+ * <p>
+ * Each snapshot has a version that is increased for every change made to the users. A snapshot is never changed, so it
+ * can be used without any locking.
+ * </p>
+ * <p>
+ * A directory either holds its users in memory, or is backed by a (read-only) {@link MappedUserStore}, in which case
+ * users are only materialized when they are read.
+ * </p>
+ *
+ * @author agent
+ */
+public final class UserDirectory {
+
+  /** An empty directory. */
+  public static final UserDirectory EMPTY = inMemory(new InMemoryUsers(new Entry[0]), 0);
+
+  /** The locale used for sorting users. */
+  private static final Locale COLLATION_LOCALE = Locale.forLanguageTag("sv-SE");
+
+  /**
+   * The collator used for sorting. The strength is secondary, so case is ignored (but not accents, e.g., "a" and "å"
+   * differ).
+   */
+  private static final Collator COLLATOR = createCollator();
+
+  /** A collator is not thread-safe, so each thread uses its own copy of {@link #COLLATOR}. */
+  private static final ThreadLocal<Collator> THREAD_COLLATOR =
+      ThreadLocal.withInitial(() -> (Collator) COLLATOR.clone());
+
+  /** The users. */
+  private final Users users;
+
+  /** The version of this snapshot. */
+  private final long version;
+
+  /** The search index (for an in-memory directory). */
+  private final UserSearchIndex searchIndex;
+
+  /**
+   * Constructor.
+   *
+   * @param users the users
+   * @param version the version
+   * @param searchIndex the search index ({@code null} for a stored directory)
+   */
+  private UserDirectory(final Users users, final long version, final UserSearchIndex searchIndex) {
+    this.users = users;
+    this.version = version;
+    this.searchIndex = searchIndex;
+  }
+
+  /**
+   * Creates an in-memory directory, and builds its search index.
+   *
+   * @param users the users
+   * @param version the version
+   * @return a {@link UserDirectory}
+   */
+  private static UserDirectory inMemory(final InMemoryUsers users, final long version) {
+    return new UserDirectory(users, version, UserSearchIndex.of(users.list()));
+  }
+
+  /**
+   * Creates a directory holding the supplied users. If several users have the same personal identity number, the last
+   * one is used.
+   *
+   * @param users the users
+   * @param version the version of the directory
+   * @return a {@link UserDirectory}
+   */
+  public static UserDirectory of(final Collection<SimulatedUser> users, final long version) {
+    return inMemory(new InMemoryUsers(sortedEntries(users, true)), version);
+  }
+
+  /**
+   * Creates a directory backed by a {@link MappedUserStore}.
+   *
+   * @param store the user store
+   * @param version the version of the directory
+   * @return a {@link UserDirectory}
+   */
+  public static UserDirectory of(final MappedUserStore store, final long version) {
+    return new UserDirectory(
+        new StoredUsers(Objects.requireNonNull(store, "store must not be null")), version, null);
+  }
+
+  /**
+   * Gets the version of this snapshot.
+   *
+   * @return the version
+   */
+  public long getVersion() {
+    return this.version;
+  }
+
+  /**
+   * Finds the first users (in directory order) matching a query. See {@link UserSearchIndex} for the matching rules.
+   * For a directory backed by a {@link MappedUserStore}, the search is served by the store, and only the candidate
+   * users are materialized.
+   *
+   * @param query the query
+   * @param limit the maximum number of users to return
+   * @return a list of matching users
+   */
+  public List<SimulatedUser> search(final String query, final int limit) {
+    return this.users instanceof final StoredUsers stored
+        ? stored.store.search(query, limit)
+        : this.getSearchIndex().search(query, limit);
+  }
+
+  /**
+   * Gets the search index for the users of an in-memory directory. The index is built when the directory is created
+   * (by the thread publishing the directory), so searches never build an index.
+   *
+   * @return a {@link UserSearchIndex}
+   * @throws UnsupportedOperationException if the directory is backed by a user store (use
+   *     {@link #search(String, int)})
+   */
+  UserSearchIndex getSearchIndex() {
+    if (this.isStored()) {
+      throw new UnsupportedOperationException("A stored directory is searched using its store");
+    }
+    return this.searchIndex;
+  }
+
+  /**
+   * Tells whether this directory is backed by a (read-only) {@link MappedUserStore}.
+   *
+   * @return {@code true} if the directory is backed by a user store
+   */
+  public boolean isStored() {
+    return this.users instanceof StoredUsers;
+  }
+
+  /**
+   * Gets the number of users.
+   *
+   * @return the number of users
+   */
+  public int size() {
+    return this.users.list().size();
+  }
+
+  /**
+   * Gets all users in sorted order.
+   *
+   * @return an unmodifiable list of users
+   */
+  public List<SimulatedUser> getUsers() {
+    return this.users.list();
+  }
+
+  /**
+   * Gets the user having the given personal identity number.
+   *
+   * @param personalNumber the personal identity number
+   * @return the user, or {@code null} if there is no such user
+   */
+  public SimulatedUser getUser(final String personalNumber) {
+    return personalNumber != null ? this.users.find(personalNumber) : null;
+  }
+
+  /**
+   * Tells whether there is a user having the given personal identity number.
+   *
+   * @param personalNumber the personal identity number
+   * @return {@code true} if the user exists and {@code false} otherwise
+   */
+  public boolean contains(final String personalNumber) {
+    return personalNumber != null && this.users.contains(personalNumber);
+  }
+
+  /**
+   * Returns a sorted list of the users of this directory and the supplied (few) users. Only the supplied users are
+   * sorted, and their positions among the users of the directory are found using binary search. The returned list is
+   * a view, so the users of the directory are not copied.
+   *
+   * @param others the users to merge
+   * @return an unmodifiable sorted list of users
+   */
+  public List<SimulatedUser> merge(final Collection<SimulatedUser> others) {
+    if (others == null || others.isEmpty()) {
+      return this.users.list();
+    }
+    final Entry[] added = sortedEntries(others, false);
+    final int[] positions = new int[added.length];
+    for (int j = 0; j < added.length; j++) {
+      // On equal keys, the users of the directory go first ...
+      int low = j > 0 ? positions[j - 1] : 0;
+      int high = this.users.list().size();
+      while (low < high) {
+        final int mid = (low + high) >>> 1;
+        if (this.users.entry(mid).compareTo(added[j]) <= 0) {
+          low = mid + 1;
+        }
+        else {
+          high = mid;
+        }
+      }
+      positions[j] = low;
+    }
+    return new MergedList(this.users.list(), added, positions);
+  }
+
+  /**
+   * Returns a new directory where the supplied user has been added (or replaced).
+   *
+   * @param user the user to add
+   * @param version the version of the new directory
+   * @return a {@link UserDirectory}
+   * @throws UnsupportedOperationException if the directory is backed by a user store
+   */
+  UserDirectory with(final SimulatedUser user, final long version) {
+    return this.withAll(List.of(user), version);
+  }
+
+  /**
+   * Returns a new directory where the supplied users have been added (or replaced). The (sorted) users are merged
+   * into the users of this directory, and the search index is updated, so adding a batch of users is linear in the
+   * size of the directory.
+   *
+   * @param added the users to add
+   * @param version the version of the new directory
+   * @return a {@link UserDirectory}
+   * @throws UnsupportedOperationException if the directory is backed by a user store
+   */
+  UserDirectory withAll(final Collection<SimulatedUser> added, final long version) {
+    final Entry[] current = this.inMemoryUsers().entries;
+    final Entry[] entries = sortedEntries(added, true);
+    final Set<String> replaced = new HashSet<>();
+    for (final Entry e : entries) {
+      replaced.add(e.user().getPersonalNumber());
+    }
+    final Entry[] merged = new Entry[current.length + entries.length];
+    final int[] positions = new int[current.length];
+    int i = 0;
+    int j = 0;
+    int k = 0;
+    while (i < current.length || j < entries.length) {
+      if (i < current.length && replaced.contains(current[i].user().getPersonalNumber())) {
+        positions[i++] = -1;
+      }
+      else if (j == entries.length || i < current.length && current[i].compareTo(entries[j]) <= 0) {
+        positions[i] = k;
+        merged[k++] = current[i++];
+      }
+      else {
+        merged[k++] = entries[j++];
+      }
+    }
+    return this.updated(new InMemoryUsers(Arrays.copyOf(merged, k)), positions, version);
+  }
+
+  /**
+   * Returns a new directory where the user with the given personal identity number has been removed.
+   *
+   * @param personalNumber the personal identity number
+   * @param version the version of the new directory
+   * @return a {@link UserDirectory}
+   * @throws UnsupportedOperationException if the directory is backed by a user store
+   */
+  UserDirectory without(final String personalNumber, final long version) {
+    final Entry[] current = this.inMemoryUsers().entries;
+    final Entry[] remaining = new Entry[current.length];
+    final int[] positions = new int[current.length];
+    int k = 0;
+    for (int i = 0; i < current.length; i++) {
+      if (current[i].user().getPersonalNumber().equals(personalNumber)) {
+        positions[i] = -1;
+      }
+      else {
+        positions[i] = k;
+        remaining[k++] = current[i];
+      }
+    }
+    return this.updated(new InMemoryUsers(Arrays.copyOf(remaining, k)), positions, version);
+  }
+
+  /**
+   * Creates a new in-memory directory from the users of this directory, where the search index of this directory is
+   * updated (rather than rebuilt).
+   *
+   * @param users the users of the new directory
+   * @param positions for each user of this directory, its position in the new directory (or -1 if removed)
+   * @param version the version of the new directory
+   * @return a {@link UserDirectory}
+   */
+  private UserDirectory updated(final InMemoryUsers users, final int[] positions, final long version) {
+    return new UserDirectory(users, version, this.searchIndex.update(users.list(), positions));
+  }
+
+  /**
+   * Sorts the supplied users in directory order.
+   *
+   * @param users the users to sort
+   * @return a sorted list
+   */
+  static List<SimulatedUser> sort(final Collection<SimulatedUser> users) {
+    return Arrays.stream(sortedEntries(users, false)).map(Entry::user).toList();
+  }
+
+  private InMemoryUsers inMemoryUsers() {
+    if (this.users instanceof final InMemoryUsers inMemoryUsers) {
+      return inMemoryUsers;
+    }
+    throw new UnsupportedOperationException("The user directory is read-only");
+  }
+
+  /**
+   * Creates sorted entries for the supplied users. If several users have the same personal identity number, the last
+   * one is used.
+   *
+   * @param users the users
+   * @param immutable whether the entries should hold {@link ImmutableSimulatedUser} copies of the users (with
+   *     deduplicated names)
+   * @return a sorted array of entries
+   */
+  private static Entry[] sortedEntries(final Collection<SimulatedUser> users, final boolean immutable) {
+    final Map<String, SimulatedUser> unique = new HashMap<>();
+    final Map<String, String> names = immutable ? new HashMap<>() : null;
+    for (final SimulatedUser user : Objects.requireNonNull(users, "users must not be null")) {
+      unique.put(Objects.requireNonNull(user.getPersonalNumber(), "personalNumber must not be null"),
+          immutable ? ImmutableSimulatedUser.of(user, names) : user);
+    }
+    final Entry[] entries = toEntries(unique.values());
+    Arrays.sort(entries);
+    return entries;
+  }
+
+  /**
+   * Creates sort entries for the supplied users.
+   *
+   * @param users the users
+   * @return an array of entries (not sorted)
+   */
+  private static Entry[] toEntries(final Collection<SimulatedUser> users) {
+    final Entry[] entries = new Entry[users.size()];
+    final Collator collator = THREAD_COLLATOR.get();
+    int pos = 0;
+    for (final SimulatedUser user : users) {
+      entries[pos++] = toEntry(user, collator);
+    }
+    return entries;
+  }
+
+  /**
+   * Creates the sort entry for a user. The collation keys are stored as bytes, since {@link CollationKey}s created by
+   * different collators (one per thread) must not be compared with each other.
+   *
+   * @param user the user
+   * @param collator the collator (owned by the calling thread)
+   * @return the entry
+   */
+  private static Entry toEntry(final SimulatedUser user, final Collator collator) {
+    return new Entry(user,
+        getCollationKey(collator, user.getSurname()), getCollationKey(collator, user.getGivenName()));
+  }
+
+  private static byte[] getCollationKey(final Collator collator, final String value) {
+    return value != null ? collator.getCollationKey(value).toByteArray() : null;
+  }
+
+  /**
+   * Creates the collator used for sorting.
+   *
+   * @return the collator
+   */
+  private static Collator createCollator() {
+    final Collator collator = Collator.getInstance(COLLATION_LOCALE);
+    collator.setStrength(Collator.SECONDARY);
+    return collator;
+  }
+
+  /**
+   * The users of a directory.
+   */
+  private interface Users {
+
+    /**
+     * Gets the users in sorted order.
+     *
+     * @return an unmodifiable list
+     */
+    List<SimulatedUser> list();
+
+    /**
+     * Gets the sort entry for the user at the given position.
+     *
+     * @param index the position
+     * @return the entry
+     */
+    Entry entry(final int index);
+
+    /**
+     * Finds a user.
+     *
+     * @param personalNumber the personal identity number
+     * @return the user, or {@code null}
+     */
+    SimulatedUser find(final String personalNumber);
+
+    /**
+     * Tells whether a user exists.
+     *
+     * @param personalNumber the personal identity number
+     * @return {@code true} if the user exists
+     */
+    boolean contains(final String personalNumber);
+  }
+
+  /**
+   * Users held in memory, with precomputed collation keys.
+   */
+  private static final class InMemoryUsers implements Users {
+
+    /** The sorted entries. */
+    private final Entry[] entries;
+
+    /** The sorted users. */
+    private final List<SimulatedUser> users;
+
+    /** The users indexed by personal identity number. */
+    private final Map<String, SimulatedUser> index;
+
+    InMemoryUsers(final Entry[] entries) {
+      this.entries = entries;
+      final SimulatedUser[] sorted = new SimulatedUser[entries.length];
+      final Map<String, SimulatedUser> index = new HashMap<>(Math.max(16, entries.length * 4 / 3 + 1));
+      for (int i = 0; i < entries.length; i++) {
+        sorted[i] = entries[i].user();
+        index.put(sorted[i].getPersonalNumber(), sorted[i]);
+      }
+      this.users = Collections.unmodifiableList(Arrays.asList(sorted));
+      this.index = Collections.unmodifiableMap(index);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public List<SimulatedUser> list() {
+      return this.users;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Entry entry(final int index) {
+      return this.entries[index];
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public SimulatedUser find(final String personalNumber) {
+      return this.index.get(personalNumber);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean contains(final String personalNumber) {
+      return this.index.containsKey(personalNumber);
+    }
+  }
+
+  /**
+   * Users served from a {@link MappedUserStore}. The collation keys are calculated when needed.
+   */
+  private static final class StoredUsers implements Users {
+
+    /** The store. */
+    private final MappedUserStore store;
+
+    StoredUsers(final MappedUserStore store) {
+      this.store = store;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public List<SimulatedUser> list() {
+      return this.store.getUsers();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Entry entry(final int index) {
+      return toEntry(this.store.getUsers().get(index), THREAD_COLLATOR.get());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public SimulatedUser find(final String personalNumber) {
+      return this.store.getUser(personalNumber);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean contains(final String personalNumber) {
+      return this.store.contains(personalNumber);
+    }
+  }
+
+  /**
+   * A view of a sorted list into which a few sorted users have been merged.
+   */
+  private static final class MergedList extends AbstractList<SimulatedUser> implements RandomAccess {
+
+    /** The (large) sorted list. */
+    private final List<SimulatedUser> base;
+
+    /** The merged users. */
+    private final Entry[] added;
+
+    /** For each merged user, the number of users from the base list that precede it. */
+    private final int[] positions;
+
+    MergedList(final List<SimulatedUser> base, final Entry[] added, final int[] positions) {
+      this.base = base;
+      this.added = added;
+      this.positions = positions;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public SimulatedUser get(final int index) {
+      Objects.checkIndex(index, this.size());
+      int before = 0;
+      for (int j = 0; j < this.added.length; j++) {
+        final int mergedIndex = this.positions[j] + j;
+        if (mergedIndex == index) {
+          return this.added[j].user();
+        }
+        if (mergedIndex > index) {
+          break;
+        }
+        before++;
+      }
+      return this.base.get(index - before);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int size() {
+      return this.base.size() + this.added.length;
+    }
+  }
+
+  /**
+   * A user and its collation keys.
+   *
+   * @param user the user
+   * @param surname the collation key bytes for the surname
+   * @param givenName the collation key bytes for the given name
+   */
+  private record Entry(SimulatedUser user, byte[] surname, byte[] givenName)
+      implements Comparable<Entry> {
+
+    /** {@inheritDoc} */
+    @Override
+    public int compareTo(@Nonnull final Entry o) {
+      int c = compareKeys(this.surname, o.surname);
+      if (c == 0) {
+        c = compareKeys(this.givenName, o.givenName);
+      }
+      return c != 0 ? c : Objects.compare(this.user.getPersonalNumber(), o.user.getPersonalNumber(),
+          Comparator.nullsLast(String::compareTo));
+    }
+
+    private static int compareKeys(final byte[] k1, final byte[] k2) {
+      if (k1 == null || k2 == null) {
+        return k1 == k2 ? 0 : k1 == null ? 1 : -1;
+      }
+      return Arrays.compareUnsigned(k1, k2);
+    }
+  }
+
+}
@@ -0,0 +1,638 @@
+/*
+ * Copyright 2023-2025 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.eid.idp.users;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.Nonnull;
+import lombok.Data;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.yaml.snakeyaml.DumperOptions;
+import org.yaml.snakeyaml.LoaderOptions;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.events.Event;
+import org.yaml.snakeyaml.events.MappingStartEvent;
+import org.yaml.snakeyaml.events.ScalarEvent;
+import org.yaml.snakeyaml.events.SequenceStartEvent;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.Normalizer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * A streaming loader for users files in YAML ({@code users.yml}) or CSV format.
+ * <p>
+ * The file is read (using the SnakeYAML event API for YAML) by the calling thread, and the rows are handed over in
+ * chunks to a pool of worker threads that validate the personal identity numbers and names, normalize the names (NFC,
+ * and collapsed white space) and create {@link ImmutableSimulatedUser} objects. The chunks are then committed in file
+ * order, where duplicates are detected, and the users are handed to the caller in batches (the caller typically
+ * collects the batches, and installs all users in one operation, so that the user directory is only built once).
+ * Invalid rows are rejected, and reported in the {@link Result}.
+ * </p>
+ * <p>
+ * The loader reports the throughput ({@code users.load.throughput}, users per second) and the number of rejected rows
+ * ({@code users.load.rejected}) of the last load of each file.
+ * </p>
+ *
+ * @author agent
+ */
+@Slf4j
+public class UserFileLoader implements MeterBinder {
+
+  /** The default number of users handed over in each batch. */
+  public static final int DEFAULT_BATCH_SIZE = 10_000;
+
+  /** The default number of rows processed by a worker in one go. */
+  public static final int DEFAULT_CHUNK_SIZE = 1_000;
+
+  /** The maximum number of errors reported in a result. */
+  private static final int MAX_ERRORS = 100;
+
+  /** For collapsing white space in names. */
+  private static final Pattern WHITESPACE = Pattern.compile("[\\s\\p{Z}]+");
+
+  /** The supported file formats. */
+  public enum Format {
+
+    /** YAML having a {@code users} list. */
+    YAML,
+
+    /** CSV ({@code personal-number,given-name,surname[,display-name[,date-of-birth]]}). */
+    CSV;
+
+    /**
+     * Gets the format of a file based on its extension ({@code .csv} means CSV, and everything else YAML).
+     *
+     * @param fileName the file name
+     * @return the format
+     */
+    public static Format of(final String fileName) {
+      return fileName != null && fileName.toLowerCase().endsWith(".csv") ? CSV : YAML;
+    }
+  }
+
+  /** The number of users handed over in each batch. */
+  @Setter
+  private int batchSize = DEFAULT_BATCH_SIZE;
+
+  /** The number of rows processed by a worker in one go. */
+  @Setter
+  private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+  /** The number of worker threads. */
+  @Setter
+  private int parallelism = Runtime.getRuntime().availableProcessors();
+
+  /** The result of the last load of each file. */
+  private final Map<String, Result> results = new ConcurrentHashMap<>();
+
+  /** The meter registry (assigned when the metrics are bound). */
+  private MeterRegistry registry;
+
+  /**
+   * Loads users from a location ({@code classpath:}, {@code file:} or a path). If the location does not exist, nothing
+   * is loaded.
+   *
+   * @param location the location
+   * @param sink receives the users in batches
+   * @return the result, or {@code null} if the location does not exist
+   * @throws IOException for read errors
+   * @throws IllegalArgumentException if the file can not be parsed
+   */
+  public Result load(final String location, final Consumer<List<SimulatedUser>> sink) throws IOException {
+    final Resource resource = location.startsWith("classpath:")
+        ? new ClassPathResource(location.substring("classpath:".length()))
+        : new FileSystemResource(UsersFileReloader.resolveFile(location));
+    if (!resource.exists()) {
+      log.info("Users file {} does not exist - no users loaded", location);
+      return null;
+    }
+    try (final Reader reader =
+        new BufferedReader(new InputStreamReader(resource.getInputStream(), StandardCharsets.UTF_8))) {
+      return this.load(reader, Format.of(resource.getFilename()), location, sink);
+    }
+  }
+
+  /**
+   * Loads users from a file. The format is given by the file extension.
+   *
+   * @param file the file
+   * @param sink receives the users in batches
+   * @return the result
+   * @throws IOException for read errors
+   * @throws IllegalArgumentException if the file can not be parsed
+   */
+  public Result load(final Path file, final Consumer<List<SimulatedUser>> sink) throws IOException {
+    try (final Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      return this.load(reader, Format.of(file.getFileName().toString()), file.toString(), sink);
+    }
+  }
+
+  /**
+   * Loads users. The users are handed to the sink in batches (in file order) by the calling thread.
+   *
+   * @param reader the reader
+   * @param format the format
+   * @param name the name of the file (used for reporting)
+   * @param sink receives the users in batches
+   * @return the result
+   * @throws IOException for read errors
+   * @throws IllegalArgumentException if the file can not be parsed
+   */
+  public Result load(final Reader reader, final Format format, final String name,
+      final Consumer<List<SimulatedUser>> sink) throws IOException {
+    Objects.requireNonNull(sink, "sink must not be null");
+    final long start = System.nanoTime();
+    final Result result = new Result();
+    result.setFile(name);
+
+    final int workers = Math.max(1, this.parallelism);
+    final ExecutorService executor = Executors.newFixedThreadPool(workers, r -> {
+      final Thread thread = new Thread(r, "users-loader");
+      thread.setDaemon(true);
+      return thread;
+    });
+    try {
+      final RowReader rows = format == Format.CSV
+          ? new CsvRows(reader instanceof final BufferedReader br ? br : new BufferedReader(reader))
+          : new YamlRows(reader);
+      final Map<String, String> names = new ConcurrentHashMap<>();
+      final Committer committer = new Committer(result, sink, Math.max(1, this.batchSize));
+      final Deque<Future<Chunk>> pending = new ArrayDeque<>();
+
+      // Read the rows, and let the workers process them chunk by chunk. The chunks are committed in order,
+      // and the number of chunks in progress is bounded ...
+      //
+      List<Row> chunk = new ArrayList<>();
+      Row row;
+      while ((row = rows.next()) != null) {
+        chunk.add(row);
+        if (chunk.size() >= this.chunkSize) {
+          final List<Row> submitted = chunk;
+          pending.add(executor.submit(() -> process(submitted, names)));
+          chunk = new ArrayList<>();
+          while (pending.size() > 2 * workers) {
+            committer.commit(await(pending.poll()));
+          }
+        }
+      }
+      if (!chunk.isEmpty()) {
+        final List<Row> submitted = chunk;
+        pending.add(executor.submit(() -> process(submitted, names)));
+      }
+      while (!pending.isEmpty()) {
+        committer.commit(await(pending.poll()));
+      }
+      committer.flush();
+    }
+    finally {
+      executor.shutdownNow();
+    }
+
+    result.setDuration((System.nanoTime() - start) / 1_000_000L);
+    this.results.put(name, result);
+    if (this.registry != null) {
+      this.registerMeters(this.registry, name);
+    }
+    log.info("Loaded {} users from {} in {} ms ({} users/s) - {} rows rejected",
+        result.getLoaded(), name, result.getDuration(), (long) result.getThroughput(), result.getRejected());
+    return result;
+  }
+
+  /**
+   * Gets the result of the last load of a file.
+   *
+   * @param name the name of the file
+   * @return the result, or {@code null} if the file has not been loaded
+   */
+  public Result getResult(final String name) {
+    return this.results.get(name);
+  }
+
+  /**
+   * Normalizes a name, i.e., strips leading and trailing white space, collapses white space (including no-break spaces)
+   * and normalizes the name into Unicode NFC.
+   *
+   * @param name the name
+   * @return the normalized name, or {@code null} if the name is {@code null} or blank
+   */
+  static String normalizeName(final String name) {
+    if (name == null) {
+      return null;
+    }
+    int start = 0;
+    int end = name.length();
+    while (start < end && isSpace(name.charAt(start))) {
+      start++;
+    }
+    while (end > start && isSpace(name.charAt(end - 1))) {
+      end--;
+    }
+    if (start == end) {
+      return null;
+    }
+    String normalized = name.substring(start, end);
+    for (int i = 0; i < normalized.length(); i++) {
+      final char c = normalized.charAt(i);
+      if (isSpace(c) && (c != ' ' || isSpace(normalized.charAt(i + 1)))) {
+        normalized = WHITESPACE.matcher(normalized).replaceAll(" ");
+        break;
+      }
+    }
+    return Normalizer.isNormalized(normalized, Normalizer.Form.NFC)
+        ? normalized
+        : Normalizer.normalize(normalized, Normalizer.Form.NFC);
+  }
+
+  private static boolean isSpace(final char c) {
+    return Character.isWhitespace(c) || Character.isSpaceChar(c);
+  }
+
+  /**
+   * Registers the metrics for the files that have been loaded so far. Files loaded later are registered when they are
+   * loaded.
+   */
+  @Override
+  public void bindTo(@Nonnull final MeterRegistry registry) {
+    this.registry = registry;
+    this.results.keySet().forEach(name -> this.registerMeters(registry, name));
+  }
+
+  private void registerMeters(final MeterRegistry registry, final String name) {
+    Gauge.builder("users.load.throughput", this.results, r -> r.get(name).getThroughput())
+        .tag("file", name)
+        .description("Users loaded per second (last load)")
+        .register(registry);
+    Gauge.builder("users.load.rejected", this.results, r -> r.get(name).getRejected())
+        .tag("file", name)
+        .description("Rejected rows (last load)")
+        .register(registry);
+  }
+
+  /**
+   * Validates and normalizes a chunk of rows (called by the worker threads).
+   *
+   * @param rows the rows
+   * @param names map used to deduplicate name strings
+   * @return the processed chunk
+   */
+  private static Chunk process(final List<Row> rows, final Map<String, String> names) {
+    final Chunk chunk = new Chunk(rows.size());
+    for (final Row row : rows) {
+      final String[] fields = row.fields() != null ? row.fields() : row.csv().split(",", -1);
+      if (fields.length < 3) {
+        chunk.reject(row.line(), row.csv() != null ? "Expected at least 3 fields" : "Invalid user entry");
+        continue;
+      }
+      final String personalNumber = fields[0] != null ? fields[0].strip() : null;
+      final long packed = PersonalIdentityNumberCodec.parse(personalNumber);
+      if (!PersonalIdentityNumberCodec.isValid(packed)) {
+        chunk.reject(row.line(), "Invalid personal identity number: " + personalNumber);
+        continue;
+      }
+      final String givenName = dedup(normalizeName(fields[1]), names);
+      final String surname = dedup(normalizeName(fields[2]), names);
+      if (givenName == null || surname == null) {
+        chunk.reject(row.line(), "Missing name for user " + personalNumber);
+        continue;
+      }
+      final String displayName = fields.length > 3 ? dedup(normalizeName(fields[3]), names) : null;
+      final String dateOfBirth = fields.length > 4 && fields[4] != null && !fields[4].isBlank()
+          ? fields[4].strip()
+          : null;
+      chunk.add(row.line(), packed,
+          new ImmutableSimulatedUser(personalNumber, givenName, surname, displayName, dateOfBirth));
+    }
+    return chunk;
+  }
+
+  private static String dedup(final String name, final Map<String, String> names) {
+    if (name == null) {
+      return null;
+    }
+    final String existing = names.putIfAbsent(name, name);
+    return existing != null ? existing : name;
+  }
+
+  private static Chunk await(final Future<Chunk> future) throws IOException {
+    try {
+      return future.get();
+    }
+    catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while loading users", e);
+    }
+    catch (final ExecutionException e) {
+      if (e.getCause() instanceof final RuntimeException re) {
+        throw re;
+      }
+      throw new IOException("Failed to load users", e.getCause());
+    }
+  }
+
+  /**
+   * The result of a load.
+   */
+  @Data
+  public static class Result {
+
+    /** The name of the file. */
+    private String file;
+
+    /** The number of loaded users. */
+    private int loaded;
+
+    /** The number of rejected rows. */
+    private int rejected;
+
+    /** The time it took to load the file (in milliseconds). */
+    private long duration;
+
+    /** The errors of the rejected rows (at most 100 errors are reported). */
+    private List<String> errors = new ArrayList<>();
+
+    /**
+     * Gets the throughput of the load.
+     *
+     * @return the number of loaded users per second
+     */
+    public double getThroughput() {
+      return this.duration > 0 ? this.loaded * 1000.0 / this.duration : this.loaded;
+    }
+
+    private void reject(final int line, final String message) {
+      this.rejected++;
+      if (this.errors.size() < MAX_ERRORS) {
+        this.errors.add("Line " + line + ": " + message);
+      }
+    }
+  }
+
+  /**
+   * A row read from the file. A CSV row holds the (unparsed) line, and a YAML row holds the fields.
+   *
+   * @param line the line number
+   * @param csv the CSV line (or {@code null})
+   * @param fields the fields (or {@code null})
+   */
+  private record Row(int line, String csv, String[] fields) {
+  }
+
+  /**
+   * Reads rows from a file.
+   */
+  @FunctionalInterface
+  private interface RowReader {
+
+    /**
+     * Reads the next row.
+     *
+     * @return the row, or {@code null} if there are no more rows
+     * @throws IOException for read errors
+     */
+    Row next() throws IOException;
+  }
+
+  /**
+   * Reads rows from a CSV file. Blank lines, comments and a header line are skipped.
+   */
+  private static final class CsvRows implements RowReader {
+
+    private final BufferedReader reader;
+
+    private int lineNumber = 0;
+
+    CsvRows(final BufferedReader reader) {
+      this.reader = reader;
+    }
+
+    @Override
+    public Row next() throws IOException {
+      String line;
+      while ((line = this.reader.readLine()) != null) {
+        this.lineNumber++;
+        if (line.isBlank() || line.startsWith("#")
+            || this.lineNumber == 1 && UserStoreConverter.isCsvHeader(line)) {
+          continue;
+        }
+        return new Row(this.lineNumber, line, null);
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Reads rows from the {@code users} list of a YAML file using the event API, so that the document is never held in
+   * memory.
+   */
+  private static final class YamlRows implements RowReader {
+
+    private final Iterator<Event> events;
+
+    YamlRows(final Reader reader) {
+      final LoaderOptions options = new LoaderOptions();
+      options.setCodePointLimit(Integer.MAX_VALUE);
+      this.events = new Yaml(options).parse(reader).iterator();
+
+      // Find the users list ...
+      //
+      int depth = 0;
+      boolean usersKey = false;
+      while (this.events.hasNext()) {
+        final Event event = this.events.next();
+        if (usersKey && event instanceof SequenceStartEvent) {
+          return;
+        }
+        usersKey = depth == 1 && event instanceof final ScalarEvent scalar && "users".equals(scalar.getValue());
+        if (event instanceof MappingStartEvent || event instanceof SequenceStartEvent) {
+          depth++;
+        }
+        else if (event.is(Event.ID.MappingEnd) || event.is(Event.ID.SequenceEnd)) {
+          depth--;
+        }
+      }
+      throw new IllegalArgumentException("Expected a users list");
+    }
+
+    @Override
+    public Row next() {
+      final Event event = this.events.next();
+      if (event.is(Event.ID.SequenceEnd)) {
+        return null;
+      }
+      final int line = event.getStartMark().getLine() + 1;
+      if (!(event instanceof MappingStartEvent)) {
+        this.skip(event);
+        return new Row(line, null, new String[0]);
+      }
+      final String[] fields = new String[5];
+      Event key;
+      while (!(key = this.events.next()).is(Event.ID.MappingEnd)) {
+        final Event value = this.events.next();
+        if (!(key instanceof final ScalarEvent scalarKey) || !(value instanceof final ScalarEvent scalarValue)) {
+          this.skip(key);
+          this.skip(value);
+          continue;
+        }
+        final int index = switch (scalarKey.getValue().replace("-", "").replace("_", "").toLowerCase()) {
+          case "personalnumber" -> 0;
+          case "givenname" -> 1;
+          case "surname" -> 2;
+          case "displayname" -> 3;
+          case "dateofbirth" -> 4;
+          default -> -1;
+        };
+        if (index >= 0 && !isNull(scalarValue)) {
+          fields[index] = scalarValue.getValue();
+        }
+      }
+      return new Row(line, null, fields);
+    }
+
+    private static boolean isNull(final ScalarEvent scalar) {
+      return scalar.getScalarStyle() == DumperOptions.ScalarStyle.PLAIN && switch (scalar.getValue()) {
+        case "", "~", "null", "Null", "NULL" -> true;
+        default -> false;
+      };
+    }
+
+    /**
+     * Skips the events of a node (if the event starts a mapping or sequence).
+     *
+     * @param event the first event of the node
+     */
+    private void skip(final Event event) {
+      if (event instanceof MappingStartEvent || event instanceof SequenceStartEvent) {
+        int depth = 1;
+        while (depth > 0) {
+          final Event e = this.events.next();
+          if (e instanceof MappingStartEvent || e instanceof SequenceStartEvent) {
+            depth++;
+          }
+          else if (e.is(Event.ID.MappingEnd) || e.is(Event.ID.SequenceEnd)) {
+            depth--;
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * The users and rejected rows of a processed chunk.
+   */
+  private static final class Chunk {
+
+    private final List<SimulatedUser> users;
+
+    private final int[] lines;
+
+    private final long[] packed;
+
+    private final List<String> errors = new ArrayList<>();
+
+    private final List<Integer> errorLines = new ArrayList<>();
+
+    Chunk(final int size) {
+      this.users = new ArrayList<>(size);
+      this.lines = new int[size];
+      this.packed = new long[size];
+    }
+
+    void add(final int line, final long packed, final SimulatedUser user) {
+      this.lines[this.users.size()] = line;
+      this.packed[this.users.size()] = packed;
+      this.users.add(user);
+    }
+
+    void reject(final int line, final String message) {
+      this.errorLines.add(line);
+      this.errors.add(message);
+    }
+  }
+
+  /**
+   * Commits processed chunks (in file order), detects duplicates and hands the users over in batches.
+   */
+  private static final class Committer {
+
+    private final Result result;
+
+    private final Consumer<List<SimulatedUser>> sink;
+
+    private final int batchSize;
+
+    private final Set<Long> seen = new HashSet<>();
+
+    private List<SimulatedUser> batch = new ArrayList<>();
+
+    Committer(final Result result, final Consumer<List<SimulatedUser>> sink, final int batchSize) {
+      this.result = result;
+      this.sink = sink;
+      this.batchSize = batchSize;
+    }
+
+    void commit(final Chunk chunk) {
+      for (int i = 0; i < chunk.errors.size(); i++) {
+        this.result.reject(chunk.errorLines.get(i), chunk.errors.get(i));
+      }
+      for (int i = 0; i < chunk.users.size(); i++) {
+        if (!this.seen.add(chunk.packed[i])) {
+          this.result.reject(chunk.lines[i], "Duplicate user " + chunk.users.get(i).getPersonalNumber());
+          continue;
+        }
+        this.batch.add(chunk.users.get(i));
+        if (this.batch.size() >= this.batchSize) {
+          this.flush();
+        }
+      }
+    }
+
+    void flush() {
+      if (!this.batch.isEmpty()) {
+        this.sink.accept(this.batch);
+        this.result.setLoaded(this.result.getLoaded() + this.batch.size());
+        this.batch = new ArrayList<>();
+      }
+    }
+  }
+
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright 2023-2025 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.eid.idp.users;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeSet;
+
+/**
+ * An immutable prefix index over the personal identity number, given name and surname of a list of users.
+ * <p>
+ * A query is split into tokens, and a user matches if every token is a (case-insensitive) prefix of the personal
+ * identity number, given name or surname of the user. The matching users are returned in the order of the indexed
+ * list, which means that the best matches are simply the first ones.
+ * </p>
+ *
+ * @author agent
+ */
+public final class UserSearchIndex {
+
+  /** The indexed users. */
+  private final List<SimulatedUser> users;
+
+  /** The (normalized) keys in sorted order. */
+  private final String[] keys;
+
+  /** The position (in the user list) of the user for each key. */
+  private final int[] positions;
+
+  /**
+   * Constructor.
+   *
+   * @param users the users
+   * @param keys the sorted keys
+   * @param positions the position of the user for each key
+   */
+  private UserSearchIndex(final List<SimulatedUser> users, final String[] keys, final int[] positions) {
+    this.users = users;
+    this.keys = keys;
+    this.positions = positions;
+  }
+
+  /**
+   * Creates an index over the supplied users.
+   *
+   * @param users the users (the order of the list is the order of search results)
+   * @return a {@link UserSearchIndex}
+   */
+  public static UserSearchIndex of(final List<SimulatedUser> users) {
+    Objects.requireNonNull(users, "users must not be null");
+
+    // Names are shared by many users, so we make sure that each normalized name is only held once ...
+    //
+    final Map<String, String> names = new HashMap<>();
+    final List<Key> entries = new ArrayList<>(users.size() * 3);
+    for (int i = 0; i < users.size(); i++) {
+      final SimulatedUser user = users.get(i);
+      addKey(entries, user.getPersonalNumber(), i, null);
+      addKey(entries, user.getGivenName(), i, names);
+      addKey(entries, user.getSurname(), i, names);
+    }
+    entries.sort(Comparator.comparing(Key::key).thenComparingInt(Key::position));
+
+    final String[] keys = new String[entries.size()];
+    final int[] positions = new int[entries.size()];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = entries.get(i).key();
+      positions[i] = entries.get(i).position();
+    }
+    return new UserSearchIndex(users, keys, positions);
+  }
+
+  /**
+   * Creates an index for a new list of users, where the users of this index have been kept in the same relative order
+   * (or removed), and new users have been added. The keys of the kept users are reused (with new positions), so only
+   * the added users are indexed and sorted, and the index is updated in linear time.
+   *
+   * @param users the new list of users
+   * @param positions for each user of this index, its position in the new list, or -1 if it has been removed (the
+   *     positions of the kept users must be increasing)
+   * @return a {@link UserSearchIndex}
+   */
+  public UserSearchIndex update(final List<SimulatedUser> users, final int[] positions) {
+    Objects.requireNonNull(users, "users must not be null");
+    if (positions.length != this.users.size()) {
+      throw new IllegalArgumentException("Expected a position for each indexed user");
+    }
+
+    // Index the users that were added ...
+    //
+    final boolean[] kept = new boolean[users.size()];
+    for (final int position : positions) {
+      if (position >= 0) {
+        kept[position] = true;
+      }
+    }
+    final Map<String, String> names = new HashMap<>();
+    final List<Key> added = new ArrayList<>();
+    for (int i = 0; i < users.size(); i++) {
+      if (!kept[i]) {
+        final SimulatedUser user = users.get(i);
+        addKey(added, user.getPersonalNumber(), i, null);
+        addKey(added, user.getGivenName(), i, names);
+        addKey(added, user.getSurname(), i, names);
+      }
+    }
+    added.sort(Comparator.comparing(Key::key).thenComparingInt(Key::position));
+
+    // and merge them with the (moved) keys of the kept users ...
+    //
+    final String[] keys = new String[this.keys.length + added.size()];
+    final int[] keyPositions = new int[keys.length];
+    int i = 0;
+    int j = 0;
+    int k = 0;
+    while (i < this.keys.length || j < added.size()) {
+      if (i < this.keys.length && positions[this.positions[i]] < 0) {
+        i++;
+        continue;
+      }
+      final boolean takeKept = j == added.size() || i < this.keys.length
+          && compare(this.keys[i], positions[this.positions[i]], added.get(j).key(), added.get(j).position()) <= 0;
+      if (takeKept) {
+        keys[k] = this.keys[i];
+        keyPositions[k++] = positions[this.positions[i++]];
+      }
+      else {
+        keys[k] = added.get(j).key();
+        keyPositions[k++] = added.get(j++).position();
+      }
+    }
+    return new UserSearchIndex(users, Arrays.copyOf(keys, k), Arrays.copyOf(keyPositions, k));
+  }
+
+  /**
+   * Gets the number of indexed users.
+   *
+   * @return the number of users
+   */
+  public int size() {
+    return this.users.size();
+  }
+
+  /**
+   * Finds the first users (in the order of the indexed list) matching the query. An empty query matches all users.
+   *
+   * @param query the query
+   * @param limit the maximum number of users to return
+   * @return a list of matching users
+   */
+  public List<SimulatedUser> search(final String query, final int limit) {
+    if (limit <= 0) {
+      return List.of();
+    }
+    final String[] tokens = tokenize(query);
+    if (tokens.length == 0) {
+      return this.users.subList(0, Math.min(limit, this.users.size()));
+    }
+
+    // Use the token having the fewest matching keys, and check the remaining tokens against the users ...
+    //
+    int from = 0;
+    int to = this.keys.length;
+    for (final String token : tokens) {
+      final int low = this.lowerBound(token);
+      final int high = this.lowerBound(token + Character.MAX_VALUE);
+      if (high - low < to - from) {
+        from = low;
+        to = high;
+      }
+    }
+    final TreeSet<Integer> matches = new TreeSet<>();
+    for (int i = from; i < to; i++) {
+      final int position = this.positions[i];
+      if ((matches.size() < limit || position < matches.last())
+          && !matches.contains(position) && matches(this.users.get(position), tokens)) {
+        matches.add(position);
+        if (matches.size() > limit) {
+          matches.pollLast();
+        }
+      }
+    }
+    final List<SimulatedUser> result = new ArrayList<>(matches.size());
+    for (final Integer position : matches) {
+      result.add(this.users.get(position));
+    }
+    return result;
+  }
+
+  /**
+   * Splits a query into normalized tokens.
+   *
+   * @param query the query
+   * @return the tokens
+   */
+  public static String[] tokenize(final String query) {
+    if (query == null || query.isBlank()) {
+      return new String[0];
+    }
+    return Arrays.stream(query.trim().split("\\s+"))
+        .map(t -> t.matches("[0-9-]+") ? t.replace("-", "") : t)
+        .map(t -> t.toLowerCase(Locale.ROOT))
+        .filter(t -> !t.isEmpty())
+        .toArray(String[]::new);
+  }
+
+  /**
+   * Tells whether a user matches all the supplied (normalized) tokens.
+   *
+   * @param user the user
+   * @param tokens the tokens (see {@link #tokenize(String)})
+   * @return {@code true} if the user matches and {@code false} otherwise
+   */
+  public static boolean matches(final SimulatedUser user, final String[] tokens) {
+    for (final String token : tokens) {
+      if (!startsWith(user.getPersonalNumber(), token) && !startsWith(user.getGivenName(), token)
+          && !startsWith(user.getSurname(), token)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private int lowerBound(final String key) {
+    int low = 0;
+    int high = this.keys.length;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (this.keys[mid].compareTo(key) < 0) {
+        low = mid + 1;
+      }
+      else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  private static int compare(final String key1, final int position1, final String key2, final int position2) {
+    final int c = key1.compareTo(key2);
+    return c != 0 ? c : Integer.compare(position1, position2);
+  }
+
+  private static boolean startsWith(final String value, final String token) {
+    return value != null && value.regionMatches(true, 0, token, 0, token.length());
+  }
+
+  private static void addKey(final List<Key> entries, final String value, final int position,
+      final Map<String, String> names) {
+    if (value == null || value.isEmpty()) {
+      return;
+    }
+    final String key = value.toLowerCase(Locale.ROOT);
+    entries.add(new Key(names != null ? names.computeIfAbsent(key, k -> k) : key, position));
+  }
+
+  /**
+   * A key and the position of its user.
+   */
+  private record Key(String key, int position) {
+  }
+
+}
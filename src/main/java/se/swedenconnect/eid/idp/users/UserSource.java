@@ -0,0 +1,41 @@
+/*
+ * Copyright 2023-2025 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.eid.idp.users;
+
+import java.io.IOException;
+
+/**
+ * A source of simulated users that is consulted by {@link SimulatedUserDetailsManager} for users that are not found
+ * among the configured (or generated) users, for example an external test-identity directory.
+ * <p>
+ * A source is typically slow, and should be wrapped in a {@link CachingUserSource}.
+ * </p>
+ *
+ * @author agent
+ */
+@FunctionalInterface
+public interface UserSource {
+
+  /**
+   * Looks up the user having the given personal identity number.
+   *
+   * @param personalNumber the personal identity number
+   * @return the user, or {@code null} if the source has no such user
+   * @throws IOException if the source could not be reached
+   */
+  SimulatedUser findUser(final String personalNumber) throws IOException;
+
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2023-2025 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.eid.idp.users;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Converts users from a YAML file (in the same format as {@code users.yml}) or a CSV file into a
+ * {@link MappedUserStore} file.
+ * <p>
+ * Each line of a CSV file holds {@code personal-number,given-name,surname[,display-name[,date-of-birth]]}. Empty
+ * lines, lines starting with {@code #}, and a header line, are ignored. The files are read using
+ * {@link UserFileLoader}, so rows that the IdP would reject (invalid personal identity numbers, missing names or
+ * duplicates) are skipped and reported.
+ * </p>
+ * <p>
+ * Usage: {@code UserStoreConverter <users.yml|users.csv> <output file>}. The converter depends on the IdP classes and
+ * their dependencies (Spring), and is therefore run from the packaged IdP jar using the Spring Boot
+ * {@code PropertiesLauncher} ({@code -Dloader.main=se.swedenconnect.eid.idp.users.UserStoreConverter}), or using the
+ * full runtime class path. See README.md.
+ * </p>
+ *
+ * @author agent
+ */
+public final class UserStoreConverter {
+
+  /** The header line of a CSV file. */
+  public static final String CSV_HEADER = "personal-number,given-name,surname,display-name,date-of-birth";
+
+  /**
+   * Converts a YAML or CSV file into a user store file.
+   *
+   * @param args the input file and the output file
+   * @throws IOException for read/write errors
+   */
+  public static void main(final String[] args) throws IOException {
+    if (args.length != 2) {
+      System.err.println("Usage: UserStoreConverter <users.yml|users.csv> <output file>");
+      System.exit(1);
+    }
+    final List<SimulatedUser> users = new ArrayList<>();
+    final UserFileLoader.Result result = new UserFileLoader().load(Path.of(args[0]), users::addAll);
+    result.getErrors().forEach(e -> System.err.println("Skipped - " + e));
+    MappedUserStore.write(users, Path.of(args[1]));
+    System.out.printf("Wrote %d users to %s (%d rows skipped)%n", users.size(), args[1], result.getRejected());
+  }
+
+  /**
+   * Reads users from a YAML or CSV file (depending on the file extension). The file is read by a
+   * {@link UserFileLoader}, so the users are validated and normalized in the same way as when the IdP loads a users
+   * file, and invalid rows are skipped.
+   *
+   * @param path the file
+   * @return a list of users
+   * @throws IOException for read errors
+   * @throws IllegalArgumentException if the file can not be parsed
+   */
+  public static List<SimulatedUser> read(final Path path) throws IOException {
+    final List<SimulatedUser> users = new ArrayList<>();
+    new UserFileLoader().load(path, users::addAll);
+    return users;
+  }
+
+  /**
+   * Reads users from YAML (having a {@code users} list) or CSV. See {@link #read(Path)}.
+   *
+   * @param reader the reader
+   * @param format the format
+   * @return a list of users
+   * @throws IOException for read errors
+   * @throws IllegalArgumentException if the input can not be parsed
+   */
+  public static List<SimulatedUser> read(final Reader reader, final UserFileLoader.Format format)
+      throws IOException {
+    final List<SimulatedUser> users = new ArrayList<>();
+    new UserFileLoader().load(reader, format, format.name(), users::addAll);
+    return users;
+  }
+
+  /**
+   * Tells whether a CSV line is a header line, i.e., a line where the first field is not a personal identity number.
+   *
+   * @param line the line
+   * @return {@code true} if the line is a header line
+   */
+  public static boolean isCsvHeader(final String line) {
+    return !line.split(",", -1)[0].trim().chars().allMatch(Character::isDigit);
+  }
+
+  /**
+   * Parses a CSV line ({@code personal-number,given-name,surname[,display-name[,date-of-birth]]}) into a user.
+   *
+   * @param line the line
+   * @return the user
+   * @throws IllegalArgumentException if the line is invalid
+   */
+  public static SimulatedUser parseCsvLine(final String line) {
+    final String[] fields = line.split(",", -1);
+    if (fields.length < 3) {
+      throw new IllegalArgumentException("Expected at least 3 fields");
+    }
+    final SimulatedUser user = new SimulatedUser();
+    user.setPersonalNumber(fields[0].trim());
+    user.setGivenName(fields[1].trim());
+    user.setSurname(fields[2].trim());
+    if (fields.length > 3 && !fields[3].isBlank()) {
+      user.setDisplayName(fields[3].trim());
+    }
+    if (fields.length > 4 && !fields[4].isBlank()) {
+      user.setDateOfBirth(fields[4].trim());
+    }
+    return user;
+  }
+
+  /**
+   * Formats a user as a CSV line (without line break). See {@link #parseCsvLine(String)}.
+   *
+   * @param user the user
+   * @return a CSV line
+   */
+  public static String toCsvLine(final SimulatedUser user) {
+    return String.join(",", user.getPersonalNumber(), user.getGivenName(), user.getSurname(), user.getDisplayName(),
+        user.getDateOfBirth());
+  }
+
+  // Hidden constructor
+  private UserStoreConverter() {
+  }
+
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2023-2025 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.eid.idp.users;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Validation of simulated users that are loaded or imported.
+ *
+ * @author agent
+ */
+public final class UserValidator {
+
+  /**
+   * Validates a user. The personal identity number must consist of 12 digits, have a valid date of birth and a valid
+   * check digit, and the user must have a given name and a surname.
+   *
+   * @param user the user
+   * @throws IllegalArgumentException if the user is invalid
+   */
+  public static void validate(final SimulatedUser user) {
+    if (!PersonalIdentityNumberCodec.isValid(PersonalIdentityNumberCodec.parse(user.getPersonalNumber()))) {
+      throw new IllegalArgumentException("Invalid personal identity number: " + user.getPersonalNumber());
+    }
+    validateNames(user);
+  }
+
+  /**
+   * Validates the supplied users (see {@link #validate(SimulatedUser)}), and makes sure that no personal identity
+   * number occurs more than once. The personal identity numbers are validated in bulk, using
+   * {@link PersonalIdentityNumberCodec#validateAll(List, long[])}.
+   *
+   * @param users the users
+   * @throws IllegalArgumentException if the users are invalid
+   */
+  public static void validate(final Collection<SimulatedUser> users) {
+    final List<String> numbers = users.stream().map(SimulatedUser::getPersonalNumber).toList();
+    final long[] packed = new long[numbers.size()];
+    final int invalid = PersonalIdentityNumberCodec.validateAll(numbers, packed);
+    if (invalid >= 0) {
+      throw new IllegalArgumentException("Invalid personal identity number: " + numbers.get(invalid));
+    }
+    final long duplicate = PersonalIdentityNumberCodec.findDuplicate(packed, packed.length);
+    if (duplicate != PersonalIdentityNumberCodec.INVALID) {
+      throw new IllegalArgumentException("Duplicate user " + PersonalIdentityNumberCodec.format(duplicate));
+    }
+    users.forEach(UserValidator::validateNames);
+  }
+
+  private static void validateNames(final SimulatedUser user) {
+    if (user.getGivenName() == null || user.getGivenName().isBlank()
+        || user.getSurname() == null || user.getSurname().isBlank()) {
+      throw new IllegalArgumentException("Missing name for user " + user.getPersonalNumber());
+    }
+  }
+
+  // Hidden constructor
+  private UserValidator() {
+  }
+
+}
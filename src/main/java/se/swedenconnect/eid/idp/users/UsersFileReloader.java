@@ -0,0 +1,280 @@
+/*
+ * Copyright 2023-2025 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.eid.idp.users;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.Nonnull;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.SmartLifecycle;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the users file ({@code users.yml}) and reloads the users of a {@link SimulatedUserDetailsManager} when the
+ * file is changed. The file is parsed and validated in a background thread, and the users of the file are then
+ * replaced in one atomic operation, so requests are never blocked and never see a partially loaded set of users. Users
+ * that are not from the file (configured or imported users) are kept, see
+ * {@link SimulatedUserDetailsManager#replaceFileUsers(java.util.Collection)}. If the file can not be parsed, or is
+ * invalid, the current users are kept.
+ * <p>
+ * The directory of the file is watched (not only the file), so that files that are replaced (for example, a mounted
+ * Kubernetes ConfigMap) are also detected. If the file is not in the file system (for example, on the classpath), it is
+ * not watched, but the metrics are still reported.
+ * </p>
+ *
+ * @author agent
+ */
+@Slf4j
+public class UsersFileReloader implements SmartLifecycle, MeterBinder {
+
+  /** The users file (may be {@code null}). */
+  private final Path file;
+
+  /** The manager whose users are reloaded. */
+  private final SimulatedUserDetailsManager manager;
+
+  /** How long to wait after a change before the file is reloaded (to let the writer finish). */
+  @Setter
+  private Duration quietPeriod = Duration.ofSeconds(1);
+
+  /** Loads (parses and validates) the users file. */
+  @Setter
+  private UserFileLoader loader = new UserFileLoader();
+
+  /** Timer for successful reloads. */
+  private Timer successTimer;
+
+  /** Timer for failed reloads. */
+  private Timer failureTimer;
+
+  /** The watch service. */
+  private WatchService watchService;
+
+  /** The watcher thread. */
+  private Thread watcher;
+
+  /** The modification time and size of the file when it was last loaded. */
+  private String lastLoaded;
+
+  /**
+   * Constructor.
+   *
+   * @param file the users file, or {@code null} if the users file is not in the file system
+   * @param manager the manager whose users are reloaded
+   */
+  public UsersFileReloader(final Path file, final SimulatedUserDetailsManager manager) {
+    this.file = file != null ? file.toAbsolutePath() : null;
+    this.manager = Objects.requireNonNull(manager, "manager must not be null");
+    this.lastLoaded = this.fileState();
+  }
+
+  /**
+   * Resolves a location of the users file to a path. Only locations in the file system can be watched.
+   *
+   * @param location the location (a path, or a {@code file:} URL)
+   * @return the path, or {@code null} if the location is not in the file system
+   */
+  public static Path resolveFile(final String location) {
+    if (location == null || location.isBlank() || location.startsWith("classpath:")) {
+      return null;
+    }
+    return Path.of(location.startsWith("file:") ? location.substring("file:".length()) : location);
+  }
+
+  /**
+   * Reloads the users file (if it has been changed since it was last loaded).
+   *
+   * @return {@code true} if the users were replaced, and {@code false} otherwise
+   */
+  public synchronized boolean reload() {
+    final String state = this.fileState();
+    if (state == null || state.equals(this.lastLoaded)) {
+      return false;
+    }
+    final long start = System.nanoTime();
+    try {
+      final List<SimulatedUser> users = this.load();
+      this.manager.replaceFileUsers(users);
+      this.lastLoaded = state;
+      record(this.successTimer, start);
+      log.info("Reloaded {} users from {}", users.size(), this.file);
+      return true;
+    }
+    catch (final Exception e) {
+      // Do not try again until the file is changed ...
+      this.lastLoaded = state;
+      record(this.failureTimer, start);
+      log.error("Failed to reload users from {} - keeping the current users: {}", this.file, e.getMessage());
+      return false;
+    }
+  }
+
+  /**
+   * Parses and validates the users file. The file is loaded the same way as when the application is started, but a
+   * file holding any invalid rows is rejected as a whole, and so is an empty file.
+   *
+   * @return the users
+   * @throws IOException for read errors
+   * @throws IllegalArgumentException if the users are invalid
+   */
+  private List<SimulatedUser> load() throws IOException {
+    final List<SimulatedUser> users = new ArrayList<>();
+    final UserFileLoader.Result result = this.loader.load(this.file, users::addAll);
+    if (result.getRejected() > 0) {
+      throw new IllegalArgumentException(result.getErrors().get(0));
+    }
+    if (users.isEmpty()) {
+      throw new IllegalArgumentException("No users found");
+    }
+    return users;
+  }
+
+  /**
+   * Registers the reload metrics ({@code users.reload} tagged with the result, and {@code users.count}).
+   */
+  @Override
+  public void bindTo(@Nonnull final MeterRegistry registry) {
+    this.successTimer = Timer.builder("users.reload")
+        .tag("result", "success")
+        .description("Reloads of the users file")
+        .register(registry);
+    this.failureTimer = Timer.builder("users.reload")
+        .tag("result", "failure")
+        .description("Reloads of the users file")
+        .register(registry);
+    Gauge.builder("users.count", this.manager, m -> m.getDirectory().size())
+        .description("The number of users")
+        .register(registry);
+  }
+
+  /**
+   * Starts watching the users file.
+   */
+  @Override
+  public synchronized void start() {
+    if (this.watcher != null) {
+      return;
+    }
+    if (this.file == null) {
+      log.info("The users file is not in the file system - users will not be reloaded");
+      return;
+    }
+    if (this.manager.getDirectory().isStored()) {
+      log.info("Users are served from a user store - {} will not be watched", this.file);
+      return;
+    }
+    try {
+      this.watchService = FileSystems.getDefault().newWatchService();
+      this.file.getParent().register(this.watchService, StandardWatchEventKinds.ENTRY_CREATE,
+          StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+    }
+    catch (final IOException e) {
+      log.warn("Can not watch {} - users will not be reloaded: {}", this.file, e.getMessage());
+      return;
+    }
+    this.watcher = new Thread(this::watch, "users-reloader");
+    this.watcher.setDaemon(true);
+    this.watcher.start();
+    log.info("Watching {} for changes", this.file);
+  }
+
+  /**
+   * Stops watching the users file.
+   */
+  @Override
+  public synchronized void stop() {
+    if (this.watcher == null) {
+      return;
+    }
+    try {
+      this.watchService.close();
+    }
+    catch (final IOException ignored) {
+    }
+    this.watcher.interrupt();
+    this.watcher = null;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public synchronized boolean isRunning() {
+    return this.watcher != null;
+  }
+
+  /**
+   * Waits for changes in the directory of the users file, and reloads the file when the changes have settled.
+   */
+  private void watch() {
+    final WatchService service = this.watchService;
+    try {
+      while (!Thread.currentThread().isInterrupted()) {
+        WatchKey key = service.take();
+        // Wait until no more changes are reported ...
+        while (key != null) {
+          key.pollEvents();
+          key.reset();
+          key = service.poll(this.quietPeriod.toMillis(), TimeUnit.MILLISECONDS);
+        }
+        this.reload();
+      }
+    }
+    catch (final InterruptedException | ClosedWatchServiceException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Gets the modification time and size of the file.
+   *
+   * @return a string representing the state of the file, or {@code null} if the file does not exist
+   */
+  private String fileState() {
+    if (this.file == null) {
+      return null;
+    }
+    try {
+      final BasicFileAttributes attributes = Files.readAttributes(this.file, BasicFileAttributes.class);
+      return attributes.lastModifiedTime().toMillis() + ":" + attributes.size();
+    }
+    catch (final IOException e) {
+      return null;
+    }
+  }
+
+  private static void record(final Timer timer, final long start) {
+    if (timer != null) {
+      timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+  }
+
+}
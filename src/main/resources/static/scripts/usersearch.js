@@ -0,0 +1,56 @@
+/*
+ * Copyright 2023-2025 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+jQuery(function($) {
+
+  $(document).ready(function () {
+
+    var search = $('#userSearch');
+    if (search.length == 0) {
+      return;
+    }
+    search.parent().show();
+
+    var select = $('#selectSimulatedUser');
+    var url = search.data('search-url');
+    var timer = null;
+    var pending = null;
+
+    // Replaces the options of the user list with the search result (keeping the "NONE" option and the selected user)
+    function update(users) {
+      var selected = select.val();
+      select.find('option').filter(function() {
+        return this.value != 'NONE' && this.value != selected;
+      }).remove();
+      $.each(users, function(i, user) {
+        if (user.personalNumber != selected) {
+          select.append($('<option>').val(user.personalNumber).text(user.text));
+        }
+      });
+    }
+
+    search.on('input', function() {
+      clearTimeout(timer);
+      timer = setTimeout(function() {
+        if (pending) {
+          pending.abort();
+        }
+        pending = $.getJSON(url, { q: search.val() }, update);
+      }, 200);
+    });
+
+  });
+
+});
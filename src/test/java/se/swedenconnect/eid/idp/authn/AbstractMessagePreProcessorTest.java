@@ -15,7 +15,25 @@
  */
 package se.swedenconnect.eid.idp.authn;
 
+import com.vladsch.flexmark.ext.tables.TablesExtension;
+import com.vladsch.flexmark.html.HtmlRenderer;
+import com.vladsch.flexmark.parser.Parser;
+import com.vladsch.flexmark.parser.ParserEmulationProfile;
+import com.vladsch.flexmark.util.data.MutableDataSet;
+import jakarta.annotation.Nonnull;
+import org.apache.commons.text.StringEscapeUtils;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Attribute;
+import org.jsoup.nodes.Element;
+import org.jsoup.safety.Safelist;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Random;
 
 /**
  * Test cases for AbstractMessagePreProcessorTest.
@@ -30,6 +48,207 @@ public class AbstractMessagePreProcessorTest {
     System.out.println(html);
   }
 
+  /**
+   * Asserts that the single-pass validation and cleaning gives exactly the same result as the previous
+   * implementation (first {@code Jsoup.isValid} and then {@code Jsoup.clean}).
+   */
+  @ParameterizedTest
+  @MethodSource("htmlCorpus")
+  public void testValidateAndCleanHtmlMatchesJsoup(final String html) {
+    final String expected = LegacyImplementation.validateAndClean(html);
+    try {
+      final String result = new TestMessagePreProcessor().validateAndCleanHtml(html);
+      Assertions.assertNotNull(expected, "Expected HTML to be rejected: " + html);
+      Assertions.assertEquals(expected, result);
+    }
+    catch (final MessageProcessingException e) {
+      Assertions.assertNull(expected, "Expected HTML to be accepted: " + html);
+    }
+  }
+
+  static List<String> htmlCorpus() {
+    return List.of(
+        "",
+        "Just text",
+        "Text with entities &amp; &lt;b&gt; &nbsp; &#228;",
+        "Unicode: åäö ÅÄÖ € ✓",
+        "<p>Simple paragraph</p>",
+        "<p class=\"x\" style=\"color: red\" id=\"p1\">With attributes</p>",
+        "<b onclick=\"alert(1)\">Bold</b> and <i>italic</i> and <u>underlined</u>",
+        "<div><p>Nested <strong>strong <em>em</em></strong></p></div>",
+        "<h1>H1</h1><h2>H2</h2><h3>H3</h3><h4>H4</h4><h5>H5</h5><h6>H6</h6>",
+        "<ul><li>One</li><li>Two<ol><li>Sub</li></ol></li></ul>",
+        "<dl><dt>Term</dt><dd>Definition</dd></dl>",
+        "<table><caption>Cap</caption><thead><tr><th>H</th></tr></thead>"
+            + "<tbody><tr><td>D</td></tr></tbody><tfoot><tr><td>F</td></tr></tfoot></table>",
+        "<table><tr><td>Implicit tbody</td></tr></table>",
+        "<pre>  preformatted\n\ttext  </pre>",
+        "<blockquote><q cite=\"http://example.com\">Quote</q> <cite>Cite</cite></blockquote>",
+        "<p>Line 1<br>Line 2<br/>Line 3</p>",
+        "<small>s</small><sub>sub</sub><sup>sup</sup><strike>strike</strike><code>code</code><span>span</span>",
+        "<p>Unclosed paragraph",
+        "<div><p>Unclosed in div</div>",
+        "Stray end tag</p>",
+        "<p>a</p>\n\n   <p>b</p>   \n",
+        "<script>alert('x')</script>",
+        "<p>Hello <a href=\"https://example.com\">link</a></p>",
+        "<img src=\"x.png\">",
+        "<p><!-- comment --></p>",
+        "<![CDATA[cdata]]>",
+        "<svg><circle r=\"1\"/></svg>",
+        "<style>p { color: red }</style>",
+        "<textarea>text</textarea>",
+        "<iframe src=\"https://example.com\"></iframe>",
+        "<p>Text <font color=\"red\">font</font></p>",
+        "<body><p>body</p></body>",
+        "<html><body>html</body></html>",
+        "<!DOCTYPE html><p>doctype</p>",
+        "<p>Attribute without value <b disabled>b</b></p>",
+        "<p>Bad attribute <b \"x\">b</b></p>",
+        "<span>Unterminated tag <b",
+        "<div>" + "<div>".repeat(50) + "deep" + "</div>".repeat(51),
+        "<p>" + "word ".repeat(500) + "</p>");
+  }
+
+  /**
+   * Asserts that the safe Markdown renderer only writes allowed tags without attributes, and that it accepts and
+   * rejects the same Markdown as the previous implementation (render and then validate and clean the HTML).
+   */
+  @ParameterizedTest
+  @MethodSource("markdownCorpus")
+  public void testMarkdownMatchesLegacy(final String markdown) {
+    final String expected = LegacyImplementation.markdownToHtml(markdown);
+    final TestMessagePreProcessor processor = new TestMessagePreProcessor();
+    try {
+      final String html = processor.convertMarkdown(markdown);
+      Assertions.assertNotNull(expected, "Expected Markdown to be rejected: " + markdown);
+      Assertions.assertTrue(Jsoup.isValid(html, new Safelist().addTags(LegacyImplementation.allowedHtmlTags)),
+          "Non-allowed tags or attributes in: " + html);
+      Assertions.assertEquals(expected, processor.validateAndCleanHtml(html));
+    }
+    catch (final MessageProcessingException e) {
+      Assertions.assertNull(expected, "Expected Markdown to be accepted: " + markdown);
+    }
+  }
+
+  static List<String> markdownCorpus() {
+    return List.of(
+        "",
+        "Just text",
+        "### Heading\n\nThis is a **bold** text",
+        "# H1\n## H2\n### H3\n#### H4\n##### H5\n###### H6",
+        "Setext heading\n==============\n\nAnother\n-------",
+        "*em* _em_ **strong** __strong__ ***both***",
+        "Text with <, >, & and \"quotes\" and 'apostrophes'",
+        "Escapes: \\*not em\\* \\<b\\> \\[x\\]",
+        "Entities: &amp; &lt;b&gt; &nbsp; &#228; &#x3C;script&#x3E;",
+        "Line 1  \nLine 2\\\nLine 3\nLine 4",
+        "- One\n- Two\n  - Sub\n- Three",
+        "1. One\n2. Two\n3. Three",
+        "5. Starts at five\n6. Six",
+        "- Loose\n\n- List\n\n  With paragraph",
+        "> Quote\n> > Nested quote\n\n> - list in quote",
+        "Inline `code <b>` and ``co`de``",
+        "```java\nString s = \"<script>\";\n  indented\n```",
+        "    indented code <b>\n    second line",
+        "| A | B |\n|---|:-:|\n| 1 | **2** |\n| <3> | `4` |",
+        "| Only header |\n|---|",
+        "Reference [not defined] and [text][nope] and ![img][nope]",
+        "[defined]\n\n[defined]: https://example.com",
+        "[text][defined]\n\n[defined]: https://example.com",
+        "![image][defined]\n\n[defined]: https://example.com/x.png",
+        "[link](https://example.com)",
+        "![image](https://example.com/x.png)",
+        "<https://example.com>",
+        "<mail@example.com>",
+        "Text\n\n---\n\nText",
+        "***",
+        "Raw <b>bold</b> and <i>italic</i>",
+        "<p class=\"x\">Raw paragraph with attributes</p>\n\nAnd **markdown**",
+        "<div>\n<script>alert(1)</script>\n</div>",
+        "Inline <script>alert(1)</script> script",
+        "<a href=\"javascript:alert(1)\">raw link</a>",
+        "<!-- comment -->\n\nText",
+        "Text <!-- inline comment --> text",
+        "<img src=x onerror=alert(1)>",
+        "Unicode: åäö ÅÄÖ € ✓ 😀 漢字",
+        "**Unclosed emphasis\n\n_and more",
+        "- " + "nested\n  - ".repeat(20) + "deep",
+        "> ".repeat(30) + "deep quote",
+        "Paragraph " + "word ".repeat(500));
+  }
+
+  @Test
+  public void testProcessingLimits() throws Exception {
+    final MessageProcessingLimits limits = new MessageProcessingLimits(100, 10, Duration.ofSeconds(10));
+    final TestMessagePreProcessor processor = new TestMessagePreProcessor();
+    processor.setLimits(limits);
+
+    // Within the limits ...
+    processor.convertMarkdown("> > > quote\n\n" + "- item\n".repeat(10));
+    processor.validateAndCleanHtml("<div>".repeat(5) + "text" + "</div>".repeat(5));
+
+    // Too many nodes ...
+    Assertions.assertThrows(MessageProcessingException.class,
+        () -> processor.convertMarkdown("- item\n".repeat(100)));
+    Assertions.assertThrows(MessageProcessingException.class,
+        () -> processor.validateAndCleanHtml("<b>b</b>".repeat(100)));
+    Assertions.assertEquals(2, limits.getRejectedCount(MessageProcessingLimits.Limit.NODES));
+
+    // Too deep ...
+    Assertions.assertThrows(MessageProcessingException.class,
+        () -> processor.convertMarkdown("> ".repeat(20) + "deep"));
+    Assertions.assertThrows(MessageProcessingException.class,
+        () -> processor.convertMarkdown("Raw <b>html</b>\n\n" + "> ".repeat(20) + "deep"));
+    Assertions.assertThrows(MessageProcessingException.class,
+        () -> processor.validateAndCleanHtml("<div>".repeat(20) + "deep" + "</div>".repeat(20)));
+    Assertions.assertEquals(3, limits.getRejectedCount(MessageProcessingLimits.Limit.DEPTH));
+
+    // Out of time ...
+    final MessageProcessingLimits timeLimits = new MessageProcessingLimits(100, 10, Duration.ofMillis(-1));
+    processor.setLimits(timeLimits);
+    Assertions.assertThrows(MessageProcessingException.class, () -> processor.convertMarkdown("Text"));
+    Assertions.assertThrows(MessageProcessingException.class, () -> processor.validateAndCleanHtml("<b>b</b>"));
+    Assertions.assertEquals(2, timeLimits.getRejectedCount(MessageProcessingLimits.Limit.TIME));
+  }
+
+  @ParameterizedTest
+  @MethodSource("textCorpus")
+  public void testTextToHtml(final String text) {
+    Assertions.assertEquals(LegacyImplementation.textToHtml(text), new TestMessagePreProcessor().textToHtml(text));
+  }
+
+  @Test
+  public void testTextToHtmlRandom() {
+    final String chars = "ab <>&\"'\t\r\n\u00a0\u00e5\u00c4\u03b1\u2022\u20ac\u2666\u2667\ud83d\ude00";
+    final Random random = new Random(4711);
+    for (int i = 0; i < 1000; i++) {
+      final StringBuilder sb = new StringBuilder();
+      for (int j = 0, len = random.nextInt(50); j < len; j++) {
+        sb.append(chars.charAt(random.nextInt(chars.length())));
+      }
+      final String text = sb.toString();
+      Assertions.assertEquals(LegacyImplementation.textToHtml(text), new TestMessagePreProcessor().textToHtml(text));
+    }
+  }
+
+  static List<String> textCorpus() {
+    return List.of(
+        "",
+        "Plain text",
+        "I hereby sign the document \"agreement.pdf\" & accept <all> terms",
+        "Line 1\nLine 2\r\nLine 3\rLine 4\n\rLine 5",
+        "\n\r\n\r\r\n\n",
+        "Column\tColumn\t\tColumn",
+        "Räksmörgås ÅÄÖ åäö é ü ß © ® ° ± µ ¶ · ¼ ½ ¾ ¿ × ÷",
+        "Greek: αβγ ΔΩ, math: ∑ ∏ √ ∞ ≤ ≥ ≠, arrows: ← → ⇔, misc: • … ‰ € ™ ♠ ♣ ♥ ♦",
+        "Quotes: ‘single’ “double” „low” ‹angle› «guillemets» and 'apostrophe'",
+        "Non-breaking\u00a0space and soft\u00adhyphen",
+        "Emoji 😀 and CJK 漢字",
+        "<script>alert('xss')</script>",
+        "x".repeat(5000));
+  }
+
   public static class TestMessagePreProcessor extends AbstractMessagePreProcessor {
 
     public String convertMarkdown(final String markdown) throws MessageProcessingException {
@@ -37,4 +256,52 @@ public class AbstractMessagePreProcessorTest {
     }
 
   }
+
+  /**
+   * The previous implementations of validate and clean, and text to HTML. Used as a reference in the differential
+   * tests.
+   */
+  private static class LegacyImplementation {
+
+    private static final String[] allowedHtmlTags = new String[] { "b", "blockquote", "br", "caption", "cite", "code",
+        "dd", "div", "dl", "dt", "em", "h1", "h2", "h3", "h4", "h5", "h6",
+        "i", "li", "ol", "p", "pre", "q", "small", "span", "strike", "strong",
+        "sub", "sup", "table", "tbody", "td", "tfoot", "th", "thead", "tr", "u", "ul" };
+
+    /**
+     * Returns the cleaned HTML, or {@code null} if the HTML is not valid.
+     */
+    static String validateAndClean(final String html) {
+      final Safelist validationWhitelist = new Safelist() {
+        @Override
+        public boolean isSafeAttribute(@Nonnull final String tagName, @Nonnull final Element el,
+            @Nonnull final Attribute attr) {
+          return true;
+        }
+      };
+      validationWhitelist.addTags(allowedHtmlTags);
+      if (!Jsoup.isValid(html, validationWhitelist)) {
+        return null;
+      }
+      return Jsoup.clean(html, new Safelist().addTags(allowedHtmlTags));
+    }
+
+    static String markdownToHtml(final String markdown) {
+      final MutableDataSet options = new MutableDataSet();
+      options.setFrom(ParserEmulationProfile.MARKDOWN);
+      options.set(Parser.EXTENSIONS, List.of(TablesExtension.create()));
+      final String html = HtmlRenderer.builder(options).build().render(Parser.builder(options).build().parse(markdown));
+      return validateAndClean(html);
+    }
+
+    static String textToHtml(final String text) {
+      String htmlMessage = "<div style='font-family: \"Lucida Console\", Monaco, monospace'>";
+      htmlMessage += StringEscapeUtils.escapeHtml4(text);
+      htmlMessage = htmlMessage.replaceAll("(\r\n|\n\r|\r|\n)", "<br />");
+      htmlMessage = htmlMessage.replaceAll("\t", "&emsp;");
+      htmlMessage += "</div>";
+      return htmlMessage;
+    }
+  }
+
 }
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2023-2025 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.eid.idp.authn;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Test cases for Base64MessageDecoder.
+ *
+ * @author agent
+ */
+public class Base64MessageDecoderTest {
+
+  @Test
+  public void testDecodeText() throws Exception {
+    final Base64MessageDecoder decoder = new Base64MessageDecoder(100_000);
+    for (final String text : List.of("", "a", "ab", "abc", "abcd", "Räksmörgås", "Emoji 😀 and CJK 漢字",
+        "Line 1\nLine 2", "x".repeat(10_000), "åäö".repeat(5_000))) {
+      Assertions.assertEquals(text, decoder.decode(encode(text.getBytes(StandardCharsets.UTF_8))));
+      Assertions.assertEquals(text, decoder.decode(
+          encode(text.getBytes(StandardCharsets.UTF_8)).replace("=", "")));
+    }
+  }
+
+  @Test
+  public void testDecodeRandomBytes() throws Exception {
+    // Random bytes give lots of malformed UTF-8 that should be replaced just like new String() does ...
+    final Base64MessageDecoder decoder = new Base64MessageDecoder(100_000);
+    final Random random = new Random(4711);
+    for (int i = 0; i < 500; i++) {
+      final byte[] bytes = new byte[random.nextInt(i < 450 ? 100 : 20_000)];
+      random.nextBytes(bytes);
+      Assertions.assertEquals(new String(bytes, StandardCharsets.UTF_8), decoder.decode(encode(bytes)));
+    }
+  }
+
+  @Test
+  public void testInvalidEncodingIsRejectedAsJdkDecoder() {
+    final Base64MessageDecoder decoder = new Base64MessageDecoder(100_000);
+    for (final String encoded : List.of("a", "ab=", "abc==", "abcd=", "abcd==", "====", "a===", "ab==cd",
+        "ab cd", "ab\ncd", "abc-", "abc_", "åäö=", "YWJj\r\n", "YW=j")) {
+      Assertions.assertThrows(IllegalArgumentException.class, () -> Base64.getDecoder().decode(encoded),
+          () -> "Expected JDK to reject " + encoded);
+      Assertions.assertThrows(MessageProcessingException.class, () -> decoder.decode(encoded),
+          () -> "Expected decoder to reject " + encoded);
+    }
+  }
+
+  @Test
+  public void testMaxSize() throws Exception {
+    final Base64MessageDecoder decoder = new Base64MessageDecoder(10);
+    Assertions.assertEquals("0123456789", decoder.decode(encode("0123456789".getBytes(StandardCharsets.UTF_8))));
+
+    final MessageProcessingException e = Assertions.assertThrows(MessageProcessingException.class,
+        () -> decoder.decode(encode("01234567890".getBytes(StandardCharsets.UTF_8))));
+    Assertions.assertTrue(e.getMessage().contains("maximum allowed size"));
+  }
+
+  private static String encode(final byte[] bytes) {
+    return Base64.getEncoder().encodeToString(bytes);
+  }
+
+}
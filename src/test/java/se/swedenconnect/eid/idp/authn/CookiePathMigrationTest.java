@@ -0,0 +1,88 @@
+/*
+ * Copyright 2023-2025 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.eid.idp.authn;
+
+import jakarta.servlet.http.Cookie;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import se.swedenconnect.eid.idp.config.CookieWriter;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Test cases for CookiePathMigration.
+ *
+ * @author agent
+ */
+public class CookiePathMigrationTest {
+
+  private final CookieWriter selectedUser = new CookieWriter("selectedUser", "/idp/extauth", Duration.ofDays(365));
+
+  private final CookieWriter savedUsers = new CookieWriter("savedUsers", "/idp/extauth", Duration.ofDays(365));
+
+  @Test
+  public void testMigrate() {
+    final CookiePathMigration migration = new CookiePathMigration("/idp", List.of(this.selectedUser, this.savedUsers));
+    Assertions.assertTrue(migration.isEnabled());
+    Assertions.assertEquals("/idp/extauth", migration.getPath());
+
+    // The browser holds both a current and a legacy selectedUser cookie (current first), and a chunked legacy
+    // savedUsers cookie ...
+    final MockHttpServletRequest request = new MockHttpServletRequest();
+    request.setCookies(new Cookie("selectedUser", "new"), new Cookie("selectedUser", "old"),
+        new Cookie("savedUsers", "v1.2.abc"), new Cookie("savedUsers1", "def"), new Cookie("other", "x"));
+    final MockHttpServletResponse response = new MockHttpServletResponse();
+    Assertions.assertTrue(migration.migrate(request, response));
+
+    final List<String> headers = response.getHeaders(HttpHeaders.SET_COOKIE);
+    Assertions.assertEquals(7, headers.size());
+    Assertions.assertTrue(headers.get(0).startsWith("selectedUser=new; Path=/idp/extauth;"));
+    Assertions.assertTrue(headers.get(1).startsWith("selectedUser=; Path=/idp;"));
+    Assertions.assertTrue(headers.get(1).contains("Max-Age=0"));
+    Assertions.assertTrue(headers.get(2).startsWith("savedUsers=v1.2.abc; Path=/idp/extauth;"));
+    Assertions.assertTrue(headers.get(4).startsWith("savedUsers1=def; Path=/idp/extauth;"));
+    Assertions.assertTrue(headers.get(5).startsWith("savedUsers1=; Path=/idp;"));
+    Assertions.assertTrue(headers.get(6).startsWith(CookiePathMigration.MARKER_COOKIE_NAME + "=/idp/extauth;"));
+
+    // Once migrated, nothing is done ...
+    final MockHttpServletRequest request2 = new MockHttpServletRequest();
+    request2.setCookies(new Cookie("selectedUser", "new"), response.getCookie(CookiePathMigration.MARKER_COOKIE_NAME));
+    final MockHttpServletResponse response2 = new MockHttpServletResponse();
+    Assertions.assertFalse(migration.migrate(request2, response2));
+    Assertions.assertTrue(response2.getHeaders(HttpHeaders.SET_COOKIE).isEmpty());
+
+    // A browser without cookies only gets the marker ...
+    final MockHttpServletResponse response3 = new MockHttpServletResponse();
+    Assertions.assertTrue(migration.migrate(new MockHttpServletRequest(), response3));
+    Assertions.assertEquals(1, response3.getHeaders(HttpHeaders.SET_COOKIE).size());
+  }
+
+  @Test
+  public void testSamePath() {
+    final CookiePathMigration migration = new CookiePathMigration("/idp/extauth", List.of(this.selectedUser));
+    Assertions.assertFalse(migration.isEnabled());
+    final MockHttpServletRequest request = new MockHttpServletRequest();
+    request.setCookies(new Cookie("selectedUser", "value"));
+    final MockHttpServletResponse response = new MockHttpServletResponse();
+    Assertions.assertFalse(migration.migrate(request, response));
+    Assertions.assertTrue(response.getHeaders(HttpHeaders.SET_COOKIE).isEmpty());
+  }
+
+}
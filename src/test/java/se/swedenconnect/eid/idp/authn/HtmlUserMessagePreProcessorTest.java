@@ -0,0 +1,147 @@
+/*
+ * Copyright 2023-2025 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.eid.idp.authn;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+import se.swedenconnect.spring.saml.idp.error.Saml2ErrorStatusException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Test cases for HtmlUserMessagePreProcessor.
+ *
+ * @author agent
+ */
+public class HtmlUserMessagePreProcessorTest {
+
+  private static final MimeType TEXT_MARKDOWN = MimeTypeUtils.parseMimeType("text/markdown");
+
+  @Test
+  public void testMessagesAreRenderedWhenRead() throws Exception {
+    final Map<String, String> messages = new LinkedHashMap<>();
+    messages.put("sv", encode("**Hej**"));
+    messages.put("en", encode("**Hello**"));
+
+    final Map<String, String> processed =
+        new HtmlUserMessagePreProcessor().processUserMessage(messages, TEXT_MARKDOWN);
+    final LazyProcessedMessageMap lazyMap = Assertions.assertInstanceOf(LazyProcessedMessageMap.class, processed);
+    Assertions.assertEquals(2, processed.size());
+    Assertions.assertFalse(lazyMap.isRendered("sv"));
+    Assertions.assertFalse(lazyMap.isRendered("en"));
+
+    final String en = processed.get("en");
+    Assertions.assertTrue(en.contains("<strong>Hello</strong>"));
+    Assertions.assertTrue(lazyMap.isRendered("en"));
+    Assertions.assertFalse(lazyMap.isRendered("sv"));
+    Assertions.assertSame(en, processed.get("en"));
+  }
+
+  @Test
+  public void testErrorsAreReportedWhenProcessed() {
+    final Map<String, String> messages = new LinkedHashMap<>();
+    messages.put("sv", encode("Hej"));
+    messages.put("en", encode("[link](https://example.com)"));
+    Assertions.assertThrows(Saml2ErrorStatusException.class,
+        () -> new HtmlUserMessagePreProcessor().processUserMessage(messages, TEXT_MARKDOWN));
+
+    Assertions.assertThrows(Saml2ErrorStatusException.class,
+        () -> new HtmlUserMessagePreProcessor().processUserMessage(Map.of("en", "not base64!"),
+            MimeTypeUtils.TEXT_PLAIN));
+  }
+
+  @Test
+  public void testIdenticalMessagesAreRenderedOnce() throws Exception {
+    final Map<String, String> messages = new LinkedHashMap<>();
+    messages.put("sv", encode("Hej"));
+    messages.put("en", encode("Hello"));
+    messages.put("de", encode("Hello"));
+    messages.put("fr", encode("Hello"));
+
+    final Map<String, String> processed =
+        new HtmlUserMessagePreProcessor().processUserMessage(messages, TEXT_MARKDOWN);
+    Assertions.assertEquals(List.of("sv", "en", "de", "fr"), List.copyOf(processed.keySet()));
+    final String en = processed.get("en");
+    Assertions.assertTrue(((LazyProcessedMessageMap) processed).isRendered("de"));
+    Assertions.assertSame(en, processed.get("de"));
+    Assertions.assertSame(en, processed.get("fr"));
+    Assertions.assertFalse(((LazyProcessedMessageMap) processed).isRendered("sv"));
+  }
+
+  @Test
+  public void testParallelProcessing() throws Exception {
+    final ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      final HtmlUserMessagePreProcessor processor = new HtmlUserMessagePreProcessor();
+      processor.setExecutor(executor);
+      processor.setParallelThreshold(2);
+
+      final Map<String, String> messages = new LinkedHashMap<>();
+      for (int i = 0; i < 10; i++) {
+        messages.put("l" + i, encode("# Message " + i));
+      }
+      final Map<String, String> processed = processor.processUserMessage(messages, TEXT_MARKDOWN);
+      for (int i = 0; i < 10; i++) {
+        Assertions.assertTrue(processed.get("l" + i).contains("<h1>Message " + i + "</h1>"));
+      }
+
+      messages.put("l5", encode("![image](https://example.com/x.png)"));
+      Assertions.assertThrows(Saml2ErrorStatusException.class,
+          () -> processor.processUserMessage(messages, TEXT_MARKDOWN));
+    }
+    finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testSerializeWritesOnlyMessages() throws Exception {
+    final Map<String, String> messages = new LinkedHashMap<>();
+    messages.put("sv", encode("Hej <du>"));
+    messages.put("en", encode("Hello"));
+    final Map<String, String> processed =
+        new HtmlUserMessagePreProcessor().processUserMessage(messages, MimeTypeUtils.TEXT_PLAIN);
+
+    final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    try (final ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+      oos.writeObject(processed);
+    }
+    try (final ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray()))) {
+      final Object deserialized = ois.readObject();
+      final LazyProcessedMessageMap lazyMap = Assertions.assertInstanceOf(LazyProcessedMessageMap.class, deserialized);
+      Assertions.assertFalse(lazyMap.isRendered("sv"));
+      Assertions.assertTrue(lazyMap.get("sv").contains("Hej &lt;du&gt;"));
+      Assertions.assertEquals(processed, deserialized);
+    }
+  }
+
+  private static String encode(final String message) {
+    return Base64.getEncoder().encodeToString(message.getBytes(StandardCharsets.UTF_8));
+  }
+
+}
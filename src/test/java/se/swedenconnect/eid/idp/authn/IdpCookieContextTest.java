@@ -0,0 +1,78 @@
+/*
+ * Copyright 2023-2025 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.eid.idp.authn;
+
+import jakarta.servlet.http.Cookie;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import se.swedenconnect.eid.idp.config.CookieWriter;
+import se.swedenconnect.eid.idp.users.SimulatedUser;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Test cases for IdpCookieContext.
+ *
+ * @author agent
+ */
+public class IdpCookieContextTest {
+
+  @Test
+  public void testNoCookies() {
+    final MockHttpServletRequest request = new MockHttpServletRequest();
+    final IdpCookieContext context = getContext(request);
+    Assertions.assertNull(context.getSelectedUser());
+    Assertions.assertNull(context.getSelectedLoa());
+    Assertions.assertNull(context.getAutoAuthnUser());
+    Assertions.assertTrue(context.getSavedUsers().isEmpty());
+  }
+
+  @Test
+  public void testCookies() {
+    final SimulatedUser user = new SimulatedUser();
+    user.setPersonalNumber("188803099368");
+    user.setGivenName("Agda");
+    user.setSurname("Andersson");
+
+    final MockHttpServletRequest request = new MockHttpServletRequest();
+    request.setCookies(new Cookie("other", "x"),
+        new Cookie("selectedUser", "197609265819#http://id.elegnamnden.se/loa/1.0/loa3"),
+        new Cookie("savedUsers", SimulatedUser.encodeList(List.of(user))),
+        new Cookie("autoAuthUser", "188803099368"));
+
+    final IdpCookieContext context = getContext(request);
+    Assertions.assertSame(context, getContext(request));
+    Assertions.assertEquals("197609265819", context.getSelectedUser());
+    Assertions.assertEquals("http://id.elegnamnden.se/loa/1.0/loa3", context.getSelectedLoa());
+    Assertions.assertEquals("188803099368", context.getAutoAuthnUser());
+    Assertions.assertEquals(List.of(user), context.getSavedUsers());
+    Assertions.assertSame(context.getSavedUsers(), context.getSavedUsers());
+    Assertions.assertEquals("Agda Andersson", context.getSavedUser("188803099368").getDisplayName());
+    Assertions.assertNull(context.getSavedUser("197609265819"));
+
+    context.setSavedUsers(List.of());
+    Assertions.assertTrue(getContext(request).getSavedUsers().isEmpty());
+  }
+
+  private static IdpCookieContext getContext(final MockHttpServletRequest request) {
+    return IdpCookieContext.getContext(request, "selectedUser",
+        new SavedUsersCookie(new CookieWriter("savedUsers", "/idp", Duration.ofDays(365)),
+            SavedUsersCookie.DEFAULT_MAX_COOKIE_LENGTH), "autoAuthUser");
+  }
+
+}
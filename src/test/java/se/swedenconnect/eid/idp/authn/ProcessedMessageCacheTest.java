@@ -0,0 +1,82 @@
+/*
+ * Copyright 2023-2025 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.eid.idp.authn;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+/**
+ * Test cases for ProcessedMessageCache.
+ *
+ * @author agent
+ */
+public class ProcessedMessageCacheTest {
+
+  @Test
+  public void testKeyIncludesType() {
+    Assertions.assertEquals(
+        ProcessedMessageCache.createKey("SGVsbG8=", "TEXT"), ProcessedMessageCache.createKey("SGVsbG8=", "TEXT"));
+    Assertions.assertNotEquals(
+        ProcessedMessageCache.createKey("SGVsbG8=", "TEXT"), ProcessedMessageCache.createKey("SGVsbG8=", "TEXT_HTML"));
+  }
+
+  @Test
+  public void testHitsAndMisses() {
+    final ProcessedMessageCache cache = new ProcessedMessageCache("test", 10_000, Duration.ofHours(1));
+    Assertions.assertNull(cache.get("k1"));
+    cache.put("k1", "<p>value</p>");
+    Assertions.assertEquals("<p>value</p>", cache.get("k1"));
+    Assertions.assertEquals(1, cache.getHitCount());
+    Assertions.assertEquals(1, cache.getMissCount());
+  }
+
+  @Test
+  public void testLeastRecentlyUsedIsEvicted() {
+    final String value = "x".repeat(100);
+    // Room for two entries ...
+    final ProcessedMessageCache cache = new ProcessedMessageCache("test", 2 * (128 + 4 + 200), Duration.ofHours(1));
+    cache.put("k1", value);
+    cache.put("k2", value);
+    Assertions.assertNotNull(cache.get("k1"));
+    cache.put("k3", value);
+
+    Assertions.assertEquals(2, cache.getEntryCount());
+    Assertions.assertEquals(1, cache.getEvictionCount());
+    Assertions.assertNotNull(cache.get("k1"));
+    Assertions.assertNull(cache.get("k2"));
+    Assertions.assertNotNull(cache.get("k3"));
+  }
+
+  @Test
+  public void testTooLargeValueIsNotCached() {
+    final ProcessedMessageCache cache = new ProcessedMessageCache("test", 200, Duration.ofHours(1));
+    cache.put("k1", "x".repeat(100));
+    Assertions.assertEquals(0, cache.getEntryCount());
+    Assertions.assertEquals(0, cache.getSize());
+  }
+
+  @Test
+  public void testExpired() {
+    final ProcessedMessageCache cache = new ProcessedMessageCache("test", 10_000, Duration.ofMillis(-1));
+    cache.put("k1", "value");
+    Assertions.assertNull(cache.get("k1"));
+    Assertions.assertEquals(0, cache.getEntryCount());
+    Assertions.assertEquals(1, cache.getEvictionCount());
+  }
+
+}
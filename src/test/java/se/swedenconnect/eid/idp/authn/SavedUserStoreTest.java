@@ -0,0 +1,197 @@
+/*
+ * Copyright 2023-2025 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.eid.idp.authn;
+
+import jakarta.servlet.http.Cookie;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import se.swedenconnect.eid.idp.config.CookieWriter;
+import se.swedenconnect.eid.idp.users.SimulatedUser;
+import se.swedenconnect.eid.idp.users.SyntheticUserGenerator;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Test cases for the saved user stores.
+ *
+ * @author agent
+ */
+public class SavedUserStoreTest {
+
+  private static final SyntheticUserGenerator GENERATOR = new SyntheticUserGenerator(1, 1000);
+
+  @Test
+  public void testId() {
+    final String id = SavedUserStore.createId();
+    Assertions.assertTrue(SavedUserStore.isValidId(id));
+    Assertions.assertNotEquals(id, SavedUserStore.createId());
+    Assertions.assertFalse(SavedUserStore.isValidId("../../../../etc/passwd0"));
+    Assertions.assertFalse(SavedUserStore.isValidId(null));
+  }
+
+  @Test
+  public void testInMemoryStore() throws Exception {
+    final InMemorySavedUserStore store = new InMemorySavedUserStore(2, 3, Duration.ofMinutes(1));
+    final String id = SavedUserStore.createId();
+    Assertions.assertTrue(store.getUsers(id).isEmpty());
+
+    store.addUsers(id, List.of(user(0), user(1), user(2)));
+    final List<SimulatedUser> users = store.addUsers(id, List.of(user(3), user(1)));
+    Assertions.assertEquals(List.of(user(2), user(3), user(1)), users);
+    Assertions.assertEquals(users, store.getUsers(id));
+
+    // The least recently used identifier is evicted ...
+    final String id2 = SavedUserStore.createId();
+    final String id3 = SavedUserStore.createId();
+    store.addUsers(id2, List.of(user(4)));
+    store.getUsers(id);
+    store.addUsers(id3, List.of(user(5)));
+    Assertions.assertEquals(2, store.getEntryCount());
+    Assertions.assertTrue(store.getUsers(id2).isEmpty());
+    Assertions.assertEquals(users, store.getUsers(id));
+
+    // Idle timeout ...
+    final InMemorySavedUserStore store2 = new InMemorySavedUserStore(10, 3, Duration.ofMillis(50));
+    store2.addUsers(id, List.of(user(0)));
+    Thread.sleep(100);
+    Assertions.assertTrue(store2.getUsers(id).isEmpty());
+    Assertions.assertEquals(0, store2.getEntryCount());
+  }
+
+  @Test
+  public void testFileStore(@TempDir final Path dir) throws Exception {
+    final FileSavedUserStore store = new FileSavedUserStore(dir, 2, 3, Duration.ofMinutes(1));
+    final FileSavedUserStore otherNode = new FileSavedUserStore(dir, 2, 3, Duration.ofMinutes(1));
+    final String id = SavedUserStore.createId();
+    Assertions.assertTrue(store.getUsers(id).isEmpty());
+
+    store.addUsers(id, List.of(user(0), user(1)));
+    final List<SimulatedUser> users = otherNode.addUsers(id, List.of(user(2), user(3)));
+    Assertions.assertEquals(List.of(user(1), user(2), user(3)), users);
+    Assertions.assertEquals(users, store.getUsers(id));
+    Assertions.assertEquals(users.get(0).getGivenName(), store.getUsers(id).get(0).getGivenName());
+
+    Assertions.assertThrows(IllegalArgumentException.class, () -> store.getUsers("../x"));
+
+    // Purge ...
+    store.addUsers(SavedUserStore.createId(), List.of(user(4)));
+    store.addUsers(SavedUserStore.createId(), List.of(user(5)));
+    Files.setLastModifiedTime(dir.resolve(id + ".users"),
+        FileTime.fromMillis(System.currentTimeMillis() - 10_000));
+    store.purge();
+    try (final Stream<Path> files = Files.list(dir)) {
+      Assertions.assertEquals(2, files.filter(f -> f.toString().endsWith(".users")).count());
+    }
+    Assertions.assertTrue(store.getUsers(id).isEmpty());
+
+    // Expired on read ...
+    final String id2 = SavedUserStore.createId();
+    store.addUsers(id2, List.of(user(6)));
+    Files.setLastModifiedTime(dir.resolve(id2 + ".users"),
+        FileTime.fromMillis(System.currentTimeMillis() - 60_000));
+    Assertions.assertTrue(otherNode.getUsers(id2).isEmpty());
+    Assertions.assertFalse(Files.exists(dir.resolve(id2 + ".users")));
+  }
+
+  @Test
+  public void testSavedUsersCookieWithStore() {
+    final SavedUsersCookie cookie =
+        new SavedUsersCookie(new CookieWriter("savedUsers", "/idp", Duration.ofDays(365)), 200);
+    cookie.setStore(new InMemorySavedUserStore(10, SimulatedAuthenticationController.MAX_SAVED_USERS,
+        Duration.ofMinutes(1)));
+
+    // Users from a previous (chunked) cookie are moved to the store ...
+    final List<SimulatedUser> previous = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      previous.add(user(i));
+    }
+    final MockHttpServletResponse response = new MockHttpServletResponse();
+    cookie.write(previous, 0, response);
+    Assertions.assertTrue(response.getCookies().length > 1);
+
+    final MockHttpServletRequest request = new MockHttpServletRequest();
+    request.setCookies(response.getCookies());
+    final IdpCookieContext context = new IdpCookieContext(request, "selectedUser", cookie, "auto");
+    Assertions.assertEquals(previous, context.getSavedUsers());
+
+    final MockHttpServletResponse response2 = new MockHttpServletResponse();
+    final List<SimulatedUser> users = cookie.addUser(user(10), context, response2);
+    Assertions.assertEquals(11, users.size());
+    Assertions.assertEquals(response.getCookies().length, response2.getCookies().length);
+    Assertions.assertTrue(response2.getCookies()[0].getValue().startsWith("s1."));
+    Assertions.assertEquals(0, response2.getCookies()[1].getMaxAge());
+
+    // The next request only carries the identifier ...
+    final MockHttpServletRequest request2 = new MockHttpServletRequest();
+    request2.setCookies(response2.getCookies()[0]);
+    final IdpCookieContext context2 = new IdpCookieContext(request2, "selectedUser", cookie, "auto");
+    Assertions.assertEquals(users, context2.getSavedUsers());
+
+    final List<SimulatedUser> users2 = cookie.addUser(user(11), context2, new MockHttpServletResponse());
+    Assertions.assertEquals(12, users2.size());
+    Assertions.assertEquals(user(11), users2.get(11));
+
+    // Without the store, the identifier is ignored ...
+    Assertions.assertTrue(SavedUsersCookie.decode(new String[] { response2.getCookies()[0].getValue() }).isEmpty());
+  }
+
+  @Test
+  public void testSavedUsersCookieWithFailingStore() {
+    final SavedUsersCookie cookie =
+        new SavedUsersCookie(new CookieWriter("savedUsers", "/idp", Duration.ofDays(365)), 200);
+    cookie.setStore(new InMemorySavedUserStore(10, SimulatedAuthenticationController.MAX_SAVED_USERS,
+        Duration.ofMinutes(1)) {
+      @Override
+      public List<SimulatedUser> addUsers(final String id, final List<SimulatedUser> users) {
+        throw new IllegalStateException("Store is not available");
+      }
+    });
+
+    // Without an identifier, the users are written to the cookie ...
+    final MockHttpServletResponse response = new MockHttpServletResponse();
+    final List<SimulatedUser> users = cookie.addUser(user(0),
+        new IdpCookieContext(new MockHttpServletRequest(), "selectedUser", cookie, "auto"), response);
+    Assertions.assertEquals(List.of(user(0)), users);
+    Assertions.assertEquals(users, SavedUsersCookie.decode(new String[] { response.getCookies()[0].getValue() }));
+
+    // With an identifier, the cookie is kept ...
+    final MockHttpServletRequest request = new MockHttpServletRequest();
+    request.setCookies(new Cookie("savedUsers", "s1." + SavedUserStore.createId()));
+    final MockHttpServletResponse response2 = new MockHttpServletResponse();
+    Assertions.assertEquals(List.of(user(1)),
+        cookie.addUser(user(1), new IdpCookieContext(request, "selectedUser", cookie, "auto"), response2));
+    Assertions.assertEquals(0, response2.getCookies().length);
+  }
+
+  private static SimulatedUser user(final int index) {
+    final SimulatedUser generated = GENERATOR.getUser(index);
+    final SimulatedUser user = new SimulatedUser();
+    user.setPersonalNumber(generated.getPersonalNumber());
+    user.setGivenName(generated.getGivenName());
+    user.setSurname(generated.getSurname());
+    return user;
+  }
+
+}
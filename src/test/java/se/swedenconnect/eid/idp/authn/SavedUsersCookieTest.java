@@ -0,0 +1,107 @@
+/*
+ * Copyright 2023-2025 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.eid.idp.authn;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.http.Cookie;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import se.swedenconnect.eid.idp.config.CookieWriter;
+import se.swedenconnect.eid.idp.users.SimulatedUser;
+import se.swedenconnect.eid.idp.users.SyntheticUserGenerator;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Test cases for SavedUsersCookie.
+ *
+ * @author agent
+ */
+public class SavedUsersCookieTest {
+
+  @Test
+  public void testEncodeDecode() {
+    final List<SimulatedUser> users = createUsers(40);
+    final List<String> values = SavedUsersCookie.encode(users, SavedUsersCookie.DEFAULT_MAX_COOKIE_LENGTH);
+    Assertions.assertEquals(1, values.size());
+    Assertions.assertTrue(values.get(0).startsWith("v1.1."));
+
+    // At most half the size of than the previous format ...
+    Assertions.assertTrue(values.get(0).length() * 2 < SimulatedUser.encodeList(users).length());
+
+    final List<SimulatedUser> decoded = SavedUsersCookie.decode(values.toArray(new String[4]));
+    Assertions.assertEquals(users.stream().map(SimulatedUser::toViewString).toList(),
+        decoded.stream().map(SimulatedUser::toViewString).toList());
+
+    // The previous format is still read ...
+    Assertions.assertEquals(users, SavedUsersCookie.decode(new String[] { SimulatedUser.encodeList(users) }));
+
+    // Invalid values are ignored ...
+    Assertions.assertTrue(SavedUsersCookie.decode(new String[] { "v1.1.AAAA" }).isEmpty());
+    Assertions.assertTrue(SavedUsersCookie.decode(new String[] { "v1.2." + values.get(0).substring(5) }).isEmpty());
+    Assertions.assertTrue(SavedUsersCookie.decode(new String[] { null }).isEmpty());
+  }
+
+  @Test
+  public void testChunkedCookies() {
+    final SavedUsersCookie cookie =
+        new SavedUsersCookie(new CookieWriter("savedUsers", "/idp", Duration.ofDays(365)), 200);
+    final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    cookie.bindTo(registry);
+
+    final List<SimulatedUser> users = createUsers(40);
+    final MockHttpServletResponse response = new MockHttpServletResponse();
+    cookie.write(users, 0, response);
+    final List<String> headers = response.getHeaders(HttpHeaders.SET_COOKIE);
+    Assertions.assertTrue(headers.size() > 1 && headers.size() <= SavedUsersCookie.MAX_COOKIES);
+    Assertions.assertTrue(headers.get(1).startsWith("savedUsers1="));
+    Assertions.assertEquals(1, registry.get("idp.cookie.size").summary().count());
+
+    // Read the cookies back ...
+    final MockHttpServletRequest request = new MockHttpServletRequest();
+    request.setCookies(response.getCookies());
+    final IdpCookieContext context = IdpCookieContext.getContext(request, "selectedUser", cookie, "auto");
+    Assertions.assertEquals(headers.size(), context.getSavedUsersCookieCount());
+    Assertions.assertEquals(users.subList(users.size() - context.getSavedUsers().size(), users.size()),
+        context.getSavedUsers());
+
+    // Fewer users - the superfluous cookies are cleared ...
+    final MockHttpServletResponse response2 = new MockHttpServletResponse();
+    cookie.write(users.subList(0, 1), headers.size(), response2);
+    final Cookie[] cookies = response2.getCookies();
+    Assertions.assertEquals(headers.size(), cookies.length);
+    Assertions.assertEquals(0, cookies[1].getMaxAge());
+  }
+
+  private static List<SimulatedUser> createUsers(final int count) {
+    final SyntheticUserGenerator generator = new SyntheticUserGenerator(1, 1000);
+    final List<SimulatedUser> users = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      final SimulatedUser user = new SimulatedUser();
+      user.setPersonalNumber(generator.getUser(i).getPersonalNumber());
+      user.setGivenName(generator.getUser(i).getGivenName());
+      user.setSurname(generator.getUser(i).getSurname());
+      users.add(user);
+    }
+    return users;
+  }
+
+}
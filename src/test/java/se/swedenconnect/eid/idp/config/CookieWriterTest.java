@@ -0,0 +1,141 @@
+/*
+ * Copyright 2023-2025 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.eid.idp.config;
+
+import jakarta.servlet.http.Cookie;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseCookie;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Test cases for CookieWriter.
+ *
+ * @author agent
+ */
+public class CookieWriterTest {
+
+  @Test
+  public void testHeader() {
+    final CookieWriter writer = new CookieWriter("selectedUser", "/idp", Duration.ofDays(365));
+    final CapturingResponse response = new CapturingResponse();
+    final String value = "188803099368#http://id.elegnamnden.se/loa/1.0/loa3";
+    final int length = writer.addCookie(value, response);
+
+    final String expected = ResponseCookie.from("selectedUser", value)
+        .path("/idp").maxAge(Duration.ofDays(365)).secure(true).httpOnly(true).build().toString()
+        .replaceAll("; Expires=[^;]*", "");
+    Assertions.assertEquals(expected, response.headers.get(0));
+    Assertions.assertEquals(expected.length(), length);
+
+    final Cookie cookie = response.getCookie("selectedUser");
+    Assertions.assertNotNull(cookie);
+    Assertions.assertEquals(value, cookie.getValue());
+    Assertions.assertEquals("/idp", cookie.getPath());
+    Assertions.assertEquals(365 * 24 * 3600, cookie.getMaxAge());
+    Assertions.assertTrue(cookie.getSecure() && cookie.isHttpOnly());
+
+    // Numbered cookies and clearing (that does not affect other cookies) ...
+    writer.addCookie(2, "abc", response);
+    writer.clearCookie(response);
+    final List<String> headers = response.headers;
+    Assertions.assertEquals(3, headers.size());
+    Assertions.assertTrue(headers.get(1).startsWith("selectedUser2=abc; Path=/idp; Max-Age=31536000"));
+    Assertions.assertEquals("selectedUser=; Path=/idp; Max-Age=0; Expires=Thu, 01 Jan 1970 00:00:00 GMT; Secure; "
+        + "HttpOnly", headers.get(2));
+
+    // SameSite ...
+    Assertions.assertEquals("a=b; Path=/; Max-Age=60; Secure; HttpOnly; SameSite=Lax",
+        new CookieWriter("a", "/", Duration.ofMinutes(1), "Lax").toHeaderValue(0, "b"));
+
+    Assertions.assertThrows(IllegalArgumentException.class, () -> new CookieWriter("a;b", "/", Duration.ZERO));
+  }
+
+  @Test
+  public void testEscape() {
+    final CookieWriter writer = new CookieWriter("c", null, Duration.ofMinutes(1));
+    Assertions.assertEquals("c=a%3B%20b%0D%0ASet-Cookie:%20x%22%C3%A5%F0%9F%98%80; Max-Age=60; Secure; HttpOnly",
+        writer.toHeaderValue(0, "a; b\r\nSet-Cookie: x\"å😀"));
+    Assertions.assertEquals("c=; Max-Age=60; Secure; HttpOnly", writer.toHeaderValue(0, null));
+  }
+
+  @Test
+  public void testConcurrentWrites() throws Exception {
+    final CookieWriter writer = new CookieWriter("savedUsers", "/idp", Duration.ofDays(365));
+    final int threads = 16;
+    final int iterations = 2_000;
+    final ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      final CountDownLatch start = new CountDownLatch(1);
+      final List<Future<?>> futures = new ArrayList<>();
+      for (int t = 0; t < threads; t++) {
+        final int thread = t;
+        futures.add(executor.submit(() -> {
+          start.await();
+          for (int i = 0; i < iterations; i++) {
+            final CapturingResponse response = new CapturingResponse();
+            final String value = "v" + thread + "-" + i;
+            if (i % 3 == 0) {
+              writer.clearCookie(i % 4, response);
+              Assertions.assertEquals(writer.getName(i % 4) + "=; Path=/idp; Max-Age=0; "
+                  + "Expires=Thu, 01 Jan 1970 00:00:00 GMT; Secure; HttpOnly",
+                  response.headers.get(0));
+            }
+            else {
+              writer.addCookie(i % 4, value, response);
+              Assertions.assertEquals(writer.getName(i % 4) + "=" + value
+                  + "; Path=/idp; Max-Age=31536000; Secure; HttpOnly", response.headers.get(0));
+            }
+          }
+          return null;
+        }));
+      }
+      start.countDown();
+      for (final Future<?> future : futures) {
+        future.get();
+      }
+    }
+    finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Records the {@code Set-Cookie} header values as written (MockHttpServletResponse re-formats them).
+   */
+  private static class CapturingResponse extends MockHttpServletResponse {
+
+    private final List<String> headers = new ArrayList<>();
+
+    @Override
+    public void addHeader(final String name, final String value) {
+      if (HttpHeaders.SET_COOKIE.equals(name)) {
+        this.headers.add(value);
+      }
+      super.addHeader(name, value);
+    }
+  }
+
+}
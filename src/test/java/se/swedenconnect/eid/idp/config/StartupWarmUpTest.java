@@ -0,0 +1,150 @@
+/*
+ * Copyright 2023-2025 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.eid.idp.config;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.context.support.ResourceBundleMessageSource;
+import org.springframework.mock.web.MockServletContext;
+import org.thymeleaf.spring6.SpringTemplateEngine;
+import org.thymeleaf.templatemode.TemplateMode;
+import org.thymeleaf.templateresolver.ClassLoaderTemplateResolver;
+import se.swedenconnect.eid.idp.authn.HtmlSignMessagePreProcessor;
+import se.swedenconnect.eid.idp.authn.HtmlUserMessagePreProcessor;
+import se.swedenconnect.eid.idp.authn.SimulatedAuthenticationProvider;
+import se.swedenconnect.eid.idp.config.UiConfigurationProperties.Language;
+import se.swedenconnect.eid.idp.users.SimulatedUser;
+import se.swedenconnect.eid.idp.users.SyntheticUserGenerator;
+import se.swedenconnect.opensaml.OpenSAMLInitializer;
+
+import java.time.Duration;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Test cases for StartupWarmUp.
+ *
+ * @author agent
+ */
+public class StartupWarmUpTest {
+
+  @BeforeAll
+  public static void initOpenSAML() throws Exception {
+    OpenSAMLInitializer.getInstance().initialize();
+  }
+
+  @Test
+  public void testWarmUp() throws Exception {
+    final StartupWarmUp warmUp = this.createWarmUp();
+    final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    warmUp.bindTo(registry);
+
+    Assertions.assertEquals(Status.DOWN, warmUp.health().getStatus());
+    warmUp.start().get(30, TimeUnit.SECONDS);
+
+    Assertions.assertEquals(StartupWarmUp.State.COMPLETED, warmUp.getState());
+    Assertions.assertEquals(Status.UP, warmUp.health().getStatus());
+    Assertions.assertTrue(registry.get("idp.warmup.duration").timeGauge().value(TimeUnit.NANOSECONDS) > 0);
+  }
+
+  @Test
+  public void testTimeout() throws Exception {
+    final StartupWarmUp warmUp = this.createWarmUp();
+    warmUp.setIterations(Integer.MAX_VALUE);
+    warmUp.setTimeout(Duration.ofMillis(200));
+    warmUp.start().get(30, TimeUnit.SECONDS);
+
+    Assertions.assertEquals(StartupWarmUp.State.TIMED_OUT, warmUp.getState());
+    Assertions.assertEquals(Status.UP, warmUp.health().getStatus());
+  }
+
+  @Test
+  public void testDisabled() throws Exception {
+    final StartupWarmUp warmUp = this.createWarmUp();
+    warmUp.setEnabled(false);
+    warmUp.start().get();
+    Assertions.assertEquals(StartupWarmUp.State.DISABLED, warmUp.getState());
+    Assertions.assertEquals(Status.UP, warmUp.health().getStatus());
+  }
+
+  @Test
+  public void testOnlyInitialUsersAreRendered() throws Exception {
+    final SyntheticUserGenerator generator = new SyntheticUserGenerator(1, 100_000);
+    final List<SimulatedUser> users = new AbstractList<>() {
+
+      @Override
+      public SimulatedUser get(final int index) {
+        Assertions.assertTrue(index < 5, "User " + index + " should not be read");
+        return generator.getUser(index);
+      }
+
+      @Override
+      public int size() {
+        return (int) generator.size();
+      }
+    };
+    final StartupWarmUp warmUp = this.createWarmUp(() -> users);
+    warmUp.setInitialUserListSize(5);
+    warmUp.start().get(30, TimeUnit.SECONDS);
+    Assertions.assertEquals(StartupWarmUp.State.COMPLETED, warmUp.getState());
+  }
+
+  @Test
+  public void testSignAssertions() throws Exception {
+    final StartupWarmUp warmUp = this.createWarmUp();
+    warmUp.setSignAssertions(true);
+    warmUp.setIterations(2);
+    warmUp.start().get(30, TimeUnit.SECONDS);
+    Assertions.assertEquals(StartupWarmUp.State.COMPLETED, warmUp.getState());
+  }
+
+  private StartupWarmUp createWarmUp() {
+    return this.createWarmUp(() -> List.of(
+        SimulatedUser.parse("188803099368#Agda#Andersson"),
+        SimulatedUser.parse("197609265819#Alrik#Lid%C3%A9n")));
+  }
+
+  private StartupWarmUp createWarmUp(final Supplier<List<SimulatedUser>> users) {
+    final ClassLoaderTemplateResolver resolver = new ClassLoaderTemplateResolver();
+    resolver.setPrefix("templates/");
+    resolver.setSuffix(".html");
+    resolver.setTemplateMode(TemplateMode.HTML);
+    final ResourceBundleMessageSource messageSource = new ResourceBundleMessageSource();
+    messageSource.setBasename("messages");
+    final SpringTemplateEngine templateEngine = new SpringTemplateEngine();
+    templateEngine.setTemplateResolver(resolver);
+    templateEngine.setTemplateEngineMessageSource(messageSource);
+
+    final SimulatedAuthenticationProvider provider = new SimulatedAuthenticationProvider("/extauth", "/resume",
+        List.of("http://id.elegnamnden.se/loa/1.0/loa3"), List.of());
+
+    final Language sv = new Language();
+    sv.setTag("sv");
+    sv.setText("Svenska");
+    final Language en = new Language();
+    en.setTag("en");
+    en.setText("English");
+
+    return new StartupWarmUp(new HtmlSignMessagePreProcessor(), new HtmlUserMessagePreProcessor(), provider,
+        templateEngine, new MockServletContext(), users, List.of(sv, en));
+  }
+
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2023-2025 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.eid.idp.users;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Test cases for CachingUserSource.
+ *
+ * @author agent
+ */
+public class CachingUserSourceTest {
+
+  private static final String AGDA = "188803099368";
+
+  private static final String UNKNOWN = "197609265819";
+
+  @Test
+  public void testCollapseConcurrentLookups() throws Exception {
+    final AtomicInteger calls = new AtomicInteger();
+    final CountDownLatch release = new CountDownLatch(1);
+    final CachingUserSource cache = new CachingUserSource(pnr -> {
+      calls.incrementAndGet();
+      try {
+        release.await(5, TimeUnit.SECONDS);
+      }
+      catch (final InterruptedException e) {
+        throw new IOException(e);
+      }
+      return createUser(pnr);
+    }, 10, Duration.ofMinutes(1));
+
+    final ExecutorService executor = Executors.newFixedThreadPool(8);
+    final List<Future<SimulatedUser>> results = new ArrayList<>();
+    for (int i = 0; i < 8; i++) {
+      results.add(executor.submit(() -> cache.findUser(AGDA)));
+    }
+    Thread.sleep(100);
+    release.countDown();
+    for (final Future<SimulatedUser> result : results) {
+      Assertions.assertEquals("Agda Andersson", result.get(5, TimeUnit.SECONDS).getDisplayName());
+    }
+    executor.shutdown();
+    Assertions.assertEquals(1, calls.get());
+    Assertions.assertSame(cache.findUser(AGDA), cache.findUser(AGDA));
+    Assertions.assertEquals(1, calls.get());
+  }
+
+  @Test
+  public void testNegativeCachingAndEviction() throws Exception {
+    final AtomicInteger calls = new AtomicInteger();
+    final CachingUserSource cache = new CachingUserSource(pnr -> {
+      calls.incrementAndGet();
+      return AGDA.equals(pnr) ? createUser(pnr) : null;
+    }, 2, Duration.ofMinutes(1));
+
+    Assertions.assertNull(cache.findUser(UNKNOWN));
+    Assertions.assertNull(cache.findUser(UNKNOWN));
+    Assertions.assertEquals(1, calls.get());
+
+    cache.setNegativeTimeToLive(Duration.ZERO);
+    cache.clear();
+    Assertions.assertNull(cache.findUser(UNKNOWN));
+    Assertions.assertNull(cache.findUser(UNKNOWN));
+    Assertions.assertEquals(3, calls.get());
+
+    // Bounded by the number of entries ...
+    cache.setNegativeTimeToLive(Duration.ofMinutes(1));
+    cache.findUser(AGDA);
+    cache.findUser("195207092015");
+    cache.findUser("199008252398");
+    Assertions.assertEquals(2, cache.getEntryCount());
+    Assertions.assertEquals(1, cache.getEvictionCount());
+  }
+
+  @Test
+  public void testExpiryAndRefreshAhead() throws Exception {
+    final AtomicInteger calls = new AtomicInteger();
+    final AtomicBoolean fail = new AtomicBoolean(false);
+    final CachingUserSource cache = new CachingUserSource(pnr -> {
+      if (fail.get()) {
+        throw new IOException("Directory not available");
+      }
+      calls.incrementAndGet();
+      return createUser(pnr);
+    }, 10, Duration.ofMillis(200));
+    cache.setExecutor(Runnable::run);
+    cache.setRefreshAhead(Duration.ofMillis(50));
+
+    final SimulatedUser first = cache.findUser(AGDA);
+    Assertions.assertSame(first, cache.findUser(AGDA));
+    Assertions.assertEquals(1, calls.get());
+
+    // Older than the refresh-ahead time - the cached user is returned, and a new one is loaded ...
+    Thread.sleep(80);
+    Assertions.assertSame(first, cache.findUser(AGDA));
+    Assertions.assertEquals(2, calls.get());
+    Assertions.assertNotSame(first, cache.findUser(AGDA));
+
+    // A failed refresh keeps the cached user, but a failed lookup is not cached ...
+    fail.set(true);
+    Thread.sleep(80);
+    Assertions.assertNotNull(cache.findUser(AGDA));
+    Thread.sleep(250);
+    Assertions.assertThrows(IOException.class, () -> cache.findUser(AGDA));
+    Assertions.assertEquals(2, cache.getFailureCount());
+    fail.set(false);
+    Assertions.assertNotNull(cache.findUser(AGDA));
+  }
+
+  @Test
+  public void testDestroyShutsDownOwnedExecutor() throws Exception {
+    final CountDownLatch refreshed = new CountDownLatch(2);
+    final CachingUserSource cache = new CachingUserSource(pnr -> {
+      refreshed.countDown();
+      return createUser(pnr);
+    }, 10, Duration.ofMinutes(1));
+    cache.setRefreshAhead(Duration.ofMillis(10));
+
+    cache.findUser(AGDA);
+    Thread.sleep(20);
+    cache.findUser(AGDA);
+    Assertions.assertTrue(refreshed.await(5, TimeUnit.SECONDS));
+    Assertions.assertTrue(refreshThreads().findAny().isPresent());
+
+    cache.destroy();
+    for (final Thread thread : refreshThreads().toList()) {
+      thread.join(5000);
+    }
+    Assertions.assertFalse(refreshThreads().anyMatch(Thread::isAlive));
+  }
+
+  private static Stream<Thread> refreshThreads() {
+    return Thread.getAllStackTraces().keySet().stream()
+        .filter(t -> "user-source-refresh".equals(t.getName()));
+  }
+
+  @Test
+  public void testManager() {
+    final AtomicInteger calls = new AtomicInteger();
+    final SimulatedUserDetailsManager manager = new SimulatedUserDetailsManager(List.of());
+    final CachingUserSource cache = new CachingUserSource(pnr -> {
+      calls.incrementAndGet();
+      if (UNKNOWN.equals(pnr)) {
+        throw new IOException("Directory not available");
+      }
+      return AGDA.equals(pnr) ? createUser(pnr) : null;
+    }, 10, Duration.ofMinutes(1));
+    manager.setUserSource(cache);
+
+    // Strings that are not valid personal identity numbers never reach the source (or the cache) ...
+    for (final String invalid : List.of("q", "18880309936", "188803099369", "188813099368", "19xx03099368")) {
+      Assertions.assertNull(manager.getUser(invalid));
+      Assertions.assertFalse(manager.userExists(invalid));
+    }
+    Assertions.assertEquals(0, calls.get());
+    Assertions.assertEquals(0, cache.getEntryCount());
+
+    Assertions.assertEquals("Agda Andersson", manager.getUser(AGDA).getDisplayName());
+    Assertions.assertTrue(manager.userExists(AGDA));
+    Assertions.assertFalse(manager.userExists("199008252398"));
+    Assertions.assertNull(manager.getUser(UNKNOWN));
+    Assertions.assertTrue(manager.getUsers().isEmpty());
+  }
+
+  private static SimulatedUser createUser(final String personalNumber) {
+    final SimulatedUser user = new SimulatedUser();
+    user.setPersonalNumber(personalNumber);
+    user.setGivenName("Agda");
+    user.setSurname("Andersson");
+    return user;
+  }
+
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2023-2025 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.eid.idp.users;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+/**
+ * Test cases for ImmutableSimulatedUser.
+ *
+ * @author agent
+ */
+public class ImmutableSimulatedUserTest {
+
+  @Test
+  public void testPrecomputed() {
+    final SimulatedUser user = new SimulatedUser();
+    user.setPersonalNumber("188803099368");
+    user.setGivenName("Agda");
+    user.setSurname("<Andersson>");
+
+    final ImmutableSimulatedUser immutable = ImmutableSimulatedUser.of(user);
+    Assertions.assertEquals("Agda <Andersson>", immutable.getDisplayName());
+    Assertions.assertEquals("1888-03-09", immutable.getDateOfBirth());
+    Assertions.assertEquals(user.toViewString(), immutable.toViewString());
+    Assertions.assertSame(immutable.toViewString(), immutable.toViewString());
+    Assertions.assertEquals("Agda &lt;Andersson&gt; (188803099368)", immutable.getOptionLabel());
+    Assertions.assertEquals(user.getOptionLabel(), immutable.getOptionLabel());
+    Assertions.assertEquals(user, immutable);
+    Assertions.assertEquals(immutable, user);
+    Assertions.assertSame(immutable, ImmutableSimulatedUser.of(immutable));
+    Assertions.assertThrows(UnsupportedOperationException.class, () -> immutable.setSurname("Lind"));
+
+    // The mutable user does not cache derived values ...
+    user.setGivenName("Anna");
+    Assertions.assertEquals("Anna <Andersson>", user.getDisplayName());
+  }
+
+  @Test
+  public void testDirectory() {
+    final SimulatedUser u1 = new SimulatedUser();
+    u1.setPersonalNumber("188803099368");
+    u1.setGivenName(new String("Agda"));
+    u1.setSurname(new String("Andersson"));
+    final SimulatedUser u2 = new SimulatedUser();
+    u2.setPersonalNumber("199008252398");
+    u2.setGivenName("Lars");
+    u2.setSurname(new String("Andersson"));
+
+    final UserDirectory directory = UserDirectory.of(List.of(u1, u2), 1);
+    Assertions.assertTrue(directory.getUsers().stream().allMatch(ImmutableSimulatedUser.class::isInstance));
+    Assertions.assertSame(directory.getUsers().get(0).getSurname(), directory.getUsers().get(1).getSurname());
+    Assertions.assertTrue(directory.withAll(List.of(u1), 2).getUsers().stream()
+        .allMatch(ImmutableSimulatedUser.class::isInstance));
+  }
+
+}
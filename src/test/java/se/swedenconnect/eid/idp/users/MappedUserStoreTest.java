@@ -0,0 +1,158 @@
+/*
+ * Copyright 2023-2025 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.eid.idp.users;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Test cases for MappedUserStore and UserStoreConverter.
+ *
+ * @author agent
+ */
+public class MappedUserStoreTest {
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  public void testConvertUsersYaml() throws Exception {
+    final List<SimulatedUser> users =
+        UserStoreConverter.read(Path.of(MappedUserStoreTest.class.getResource("/users.yml").toURI()));
+    Assertions.assertFalse(users.isEmpty());
+
+    final Path file = this.tempDir.resolve("users.bin");
+    MappedUserStore.write(users, file);
+    final MappedUserStore store = MappedUserStore.open(file);
+    Assertions.assertEquals(users.size(), store.size());
+
+    final UserDirectory expected = UserDirectory.of(users, 1);
+    for (int i = 0; i < users.size(); i++) {
+      final SimulatedUser e = expected.getUsers().get(i);
+      final SimulatedUser a = store.getUsers().get(i);
+      Assertions.assertEquals(e.getPersonalNumber(), a.getPersonalNumber());
+      Assertions.assertEquals(e.getGivenName(), a.getGivenName());
+      Assertions.assertEquals(e.getSurname(), a.getSurname());
+      Assertions.assertEquals(e.getDisplayName(), a.getDisplayName());
+      Assertions.assertEquals(e.getDateOfBirth(), a.getDateOfBirth());
+      Assertions.assertEquals(e.getDisplayName(), store.getUser(e.getPersonalNumber()).getDisplayName());
+    }
+    Assertions.assertNull(store.getUser("188803099369"));
+    Assertions.assertFalse(store.contains("abc"));
+  }
+
+  @Test
+  public void testCsv() throws Exception {
+    final List<SimulatedUser> users = UserStoreConverter.read(new StringReader("""
+        personal-number,given-name,surname,display-name,date-of-birth
+        # A comment
+        188803099368,Agda,Andersson,,
+        197609265819, Alrik ,Lidén,Alrik  Lidén Jr,1976-09-27
+        188803099369,Invalid,Number,,
+        188803099368,Agda,Duplicate,,
+        """), UserFileLoader.Format.CSV);
+    Assertions.assertEquals(2, users.size());
+    final Path file = this.tempDir.resolve("users.bin");
+    MappedUserStore.write(users, file);
+    final MappedUserStore store = MappedUserStore.open(file);
+
+    final SimulatedUser agda = store.getUser("188803099368");
+    Assertions.assertEquals("Agda Andersson", agda.getDisplayName());
+    Assertions.assertEquals("1888-03-09", agda.getDateOfBirth());
+    final SimulatedUser alrik = store.getUser("197609265819");
+    Assertions.assertEquals("Alrik", alrik.getGivenName());
+    Assertions.assertEquals("Alrik Lidén Jr", alrik.getDisplayName());
+    Assertions.assertEquals("1976-09-27", alrik.getDateOfBirth());
+  }
+
+  @Test
+  public void testLargeStore() throws Exception {
+    final SyntheticUserGenerator generator = new SyntheticUserGenerator(1, 100_000);
+    final List<SimulatedUser> users = new ArrayList<>();
+    for (long i = 0; i < generator.size(); i++) {
+      users.add(generator.getUser(i));
+    }
+    final Path file = this.tempDir.resolve("users.bin");
+    MappedUserStore.write(users, file);
+    // 24 bytes per record, 4 for the order index, and 12 for the search index (positions and postings) ...
+    Assertions.assertTrue(Files.size(file) < 100_000 * 48);
+
+    final SimulatedUserDetailsManager manager = new SimulatedUserDetailsManager(MappedUserStore.open(file));
+    Assertions.assertEquals(100_000, manager.getUsers().size());
+    for (long i = 0; i < generator.size(); i += 997) {
+      final SimulatedUser user = generator.getUser(i);
+      Assertions.assertEquals(user.getDisplayName(),
+          ((SimulatedUser) manager.loadUserByUsername(user.getPersonalNumber())).getDisplayName());
+    }
+
+    // Merge a saved user into the stored users ...
+    final SimulatedUser saved = new SimulatedUser();
+    saved.setPersonalNumber("200001012384");
+    saved.setGivenName("Adam");
+    saved.setSurname("Aaberg");
+    final List<SimulatedUser> merged = manager.getDirectory().merge(List.of(saved));
+    Assertions.assertEquals(100_001, merged.size());
+    Assertions.assertSame(saved, merged.get(0));
+    Assertions.assertEquals(manager.getUsers().get(0), merged.get(1));
+    Assertions.assertEquals(manager.getUsers().get(99_999), merged.get(100_000));
+
+    Assertions.assertThrows(UnsupportedOperationException.class, () -> manager.createUser(saved));
+  }
+
+  @Test
+  public void testSearch() throws Exception {
+    final SyntheticUserGenerator generator = new SyntheticUserGenerator(3, 20_000);
+    final List<SimulatedUser> users = new ArrayList<>();
+    for (long i = 0; i < generator.size(); i++) {
+      users.add(generator.getUser(i));
+    }
+    final Path file = this.tempDir.resolve("users.bin");
+    MappedUserStore.write(users, file);
+    final UserDirectory stored = UserDirectory.of(MappedUserStore.open(file), 1);
+    final UserDirectory inMemory = UserDirectory.of(users, 1);
+
+    final SimulatedUser user = inMemory.getUsers().get(12_345);
+    for (final String query : List.of(user.getSurname(), user.getGivenName().substring(0, 2),
+        user.getGivenName() + " " + user.getSurname(), user.getPersonalNumber().substring(0, 6),
+        user.getPersonalNumber().substring(0, 8) + "-" + user.getPersonalNumber().substring(8),
+        user.getPersonalNumber(), "a", "", "xyzzy")) {
+      Assertions.assertEquals(numbers(inMemory.search(query, 25)), numbers(stored.search(query, 25)), query);
+    }
+    Assertions.assertTrue(stored.search("a", 0).isEmpty());
+    Assertions.assertThrows(UnsupportedOperationException.class, stored::getSearchIndex);
+  }
+
+  private static List<String> numbers(final List<SimulatedUser> users) {
+    return users.stream().map(SimulatedUser::getPersonalNumber).toList();
+  }
+
+  @Test
+  public void testInvalidFile() throws Exception {
+    final Path file = this.tempDir.resolve("users.bin");
+    Files.write(file, new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20, 21, 22, 23,
+        24, 25, 26, 27, 28, 29, 30, 31, 32, 33 });
+    Assertions.assertThrows(IOException.class, () -> MappedUserStore.open(file));
+  }
+
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2023-2025 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.eid.idp.users;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Test cases for PersonalIdentityNumberCodec.
+ *
+ * @author agent
+ */
+public class PersonalIdentityNumberCodecTest {
+
+  @Test
+  public void testCodec() {
+    final long packed = PersonalIdentityNumberCodec.parse("188803099368");
+    Assertions.assertEquals(188803099368L, packed);
+    Assertions.assertEquals("188803099368", PersonalIdentityNumberCodec.format(packed));
+    Assertions.assertEquals(18880309, PersonalIdentityNumberCodec.getBirthDate(packed));
+    Assertions.assertEquals("1888-03-09", PersonalIdentityNumberCodec.formatDate(18880309));
+    Assertions.assertFalse(PersonalIdentityNumberCodec.isCoordinationNumber(packed));
+    Assertions.assertTrue(PersonalIdentityNumberCodec.isValid(packed));
+    Assertions.assertEquals("000000000012", PersonalIdentityNumberCodec.format(12));
+
+    Assertions.assertEquals(PersonalIdentityNumberCodec.INVALID, PersonalIdentityNumberCodec.parse("18880309-9368"));
+    Assertions.assertEquals(PersonalIdentityNumberCodec.INVALID, PersonalIdentityNumberCodec.parse("8803099368"));
+    Assertions.assertEquals(PersonalIdentityNumberCodec.INVALID, PersonalIdentityNumberCodec.parse(null));
+    Assertions.assertFalse(PersonalIdentityNumberCodec.isValid(PersonalIdentityNumberCodec.INVALID));
+    Assertions.assertFalse(PersonalIdentityNumberCodec.hasValidCheckDigit(188803099369L));
+    Assertions.assertEquals(8, PersonalIdentityNumberCodec.calculateCheckDigit(188803099369L));
+    Assertions.assertEquals(8, PersonalIdentityNumberCodec.calculateCheckDigit(188803099360L));
+
+    // Coordination number ...
+    final long coordination = PersonalIdentityNumberCodec.parse("197010632391");
+    Assertions.assertTrue(PersonalIdentityNumberCodec.isCoordinationNumber(coordination));
+    Assertions.assertEquals(19701003, PersonalIdentityNumberCodec.getBirthDate(coordination));
+    Assertions.assertTrue(PersonalIdentityNumberCodec.isValid(coordination));
+    Assertions.assertEquals("1970-10-03", PersonalIdentityNumberSupport.getBirthDate("197010632391"));
+
+    // Dates ...
+    Assertions.assertTrue(PersonalIdentityNumberCodec.hasValidDate(200002290000L));
+    Assertions.assertFalse(PersonalIdentityNumberCodec.hasValidDate(190002290000L));
+    Assertions.assertFalse(PersonalIdentityNumberCodec.hasValidDate(199004310000L));
+    Assertions.assertFalse(PersonalIdentityNumberCodec.hasValidDate(199013010000L));
+    Assertions.assertFalse(PersonalIdentityNumberCodec.hasValidDate(199001000000L));
+  }
+
+  @Test
+  public void testValidateAll() throws Exception {
+    final List<SimulatedUser> users =
+        UserStoreConverter.read(Path.of(PersonalIdentityNumberCodecTest.class.getResource("/users.yml").toURI()));
+    final long[] packed = new long[users.size()];
+    Assertions.assertEquals(-1, PersonalIdentityNumberCodec.validateAll(
+        users.stream().map(SimulatedUser::getPersonalNumber).toList(), packed));
+    Assertions.assertEquals(PersonalIdentityNumberCodec.INVALID, PersonalIdentityNumberCodec.findDuplicate(packed,
+        packed.length));
+
+    final long[] packed2 = new long[3];
+    Assertions.assertEquals(1, PersonalIdentityNumberCodec.validateAll(
+        List.of("188803099368", "188803099369", "188803099368"), packed2));
+    Assertions.assertEquals(PersonalIdentityNumberCodec.INVALID, packed2[1]);
+    Assertions.assertEquals(188803099368L, PersonalIdentityNumberCodec.findDuplicate(packed2, 3));
+    Assertions.assertTrue(Arrays.equals(new long[] { 188803099368L, -1L, 188803099368L }, packed2));
+  }
+
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2023-2025 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.eid.idp.users;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Test cases for SyntheticUserGenerator.
+ *
+ * @author agent
+ */
+public class SyntheticUserGeneratorTest {
+
+  @Test
+  public void testCheckDigit() {
+    for (final String id : List.of("188803099368", "197609265819", "197309069289", "196911292032")) {
+      Assertions.assertTrue(PersonalIdentityNumberSupport.hasValidCheckDigit(id), id);
+    }
+    Assertions.assertFalse(PersonalIdentityNumberSupport.hasValidCheckDigit("188803099369"));
+    Assertions.assertFalse(PersonalIdentityNumberSupport.hasValidCheckDigit("18880309936X"));
+    Assertions.assertFalse(PersonalIdentityNumberSupport.hasValidCheckDigit("8803099368"));
+  }
+
+  @Test
+  public void testGeneratedUsers() {
+    final SyntheticUserGenerator generator = new SyntheticUserGenerator(4711, 20_000);
+    final Set<String> numbers = new HashSet<>();
+    int coordinationNumbers = 0;
+    for (long i = 0; i < generator.size(); i++) {
+      final SimulatedUser user = generator.getUser(i);
+      final String pnr = user.getPersonalNumber();
+      Assertions.assertTrue(PersonalIdentityNumberSupport.hasValidCheckDigit(pnr), pnr);
+      Assertions.assertTrue(Integer.parseInt(pnr.substring(8, 11)) >= 980, pnr);
+      Assertions.assertTrue(numbers.add(pnr), "Duplicate " + pnr);
+      Assertions.assertEquals(i, generator.indexOf(pnr));
+      Assertions.assertEquals(PersonalIdentityNumberSupport.getBirthDate(pnr), user.getDateOfBirth());
+      Assertions.assertNotNull(user.getGivenName());
+      Assertions.assertNotNull(user.getSurname());
+      if (PersonalIdentityNumberSupport.isCoordinationNumber(pnr)) {
+        coordinationNumbers++;
+      }
+    }
+    Assertions.assertTrue(coordinationNumbers > 5_000 && coordinationNumbers < 15_000);
+  }
+
+  @Test
+  public void testDeterministic() {
+    final SyntheticUserGenerator g1 = new SyntheticUserGenerator(1, 1_000_000);
+    final SyntheticUserGenerator g2 = new SyntheticUserGenerator(1, 1_000_000);
+    final SyntheticUserGenerator g3 = new SyntheticUserGenerator(2, 1_000_000);
+    final SimulatedUser u1 = g1.getUser(999_999);
+    final SimulatedUser u2 = g2.getUser(999_999);
+    Assertions.assertEquals(u1.getPersonalNumber(), u2.getPersonalNumber());
+    Assertions.assertEquals(u1.getDisplayName(), u2.getDisplayName());
+    Assertions.assertNotEquals(u1.getPersonalNumber(), g3.getUser(999_999).getPersonalNumber());
+  }
+
+  @Test
+  public void testLookup() {
+    final SyntheticUserGenerator generator = new SyntheticUserGenerator(0, 10);
+    final SimulatedUser user = generator.getUser(7);
+    Assertions.assertEquals(user.getDisplayName(), generator.getUser(user.getPersonalNumber()).getDisplayName());
+
+    // Not part of the population (or not valid)
+    final SyntheticUserGenerator all = new SyntheticUserGenerator(0, SyntheticUserGenerator.MAX_SIZE);
+    int outside = 0;
+    for (long i = 0; i < 1000; i++) {
+      if (generator.indexOf(all.getUser(i).getPersonalNumber()) < 0) {
+        outside++;
+      }
+    }
+    Assertions.assertTrue(outside >= 990);
+    Assertions.assertNull(generator.getUser("188803099369"));
+    Assertions.assertNull(generator.getUser("200013329998"));
+    Assertions.assertNull(generator.getUser("197609265819"));
+    Assertions.assertNull(generator.getUser("abc"));
+
+    final SimulatedUserDetailsManager manager = new SimulatedUserDetailsManager(List.of());
+    manager.setGenerator(generator);
+    Assertions.assertTrue(manager.userExists(user.getPersonalNumber()));
+    Assertions.assertEquals(user.getPersonalNumber(), manager.loadUserByUsername(user.getPersonalNumber()).getUsername());
+    Assertions.assertTrue(manager.getUsers().isEmpty());
+  }
+
+}
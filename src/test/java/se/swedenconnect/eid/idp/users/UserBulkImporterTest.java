@@ -0,0 +1,119 @@
+/*
+ * Copyright 2023-2025 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.eid.idp.users;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Test cases for UserBulkImporter.
+ *
+ * @author agent
+ */
+public class UserBulkImporterTest {
+
+  @Test
+  public void testImportExport() throws Exception {
+    final SimulatedUserDetailsManager manager = new SimulatedUserDetailsManager(List.of());
+    final UserBulkImporter importer = new UserBulkImporter(manager, 1);
+    importer.setBatchSize(2);
+
+    final UserBulkImporter.Result result = importer.importUsers(new BufferedReader(new StringReader("""
+        {"personal-number":"188803099368","given-name":"Agda","surname":"Andersson"}
+        {"personal-number":"197609265819","given-name":"Alrik","surname":"Lidén","date-of-birth":"1976-09-27"}
+
+        {"personal-number":"197609265818","given-name":"Bad","surname":"Number"}
+        {"personal-number":"195207092010","given-name":"Anna","surname":"Lind"}
+        {"personal-number":"199008252398","given-name":"Lars","surname":"Andersson"}
+        """)), UserBulkImporter.Format.NDJSON);
+
+    Assertions.assertEquals(3, result.getBatches());
+    Assertions.assertEquals(1, result.getRejectedBatches());
+    Assertions.assertEquals(3, result.getImported());
+    Assertions.assertTrue(result.getErrors().get(0).startsWith("Batch at lines 4-5"));
+    Assertions.assertEquals("1976-09-27", manager.getUser("197609265819").getDateOfBirth());
+    Assertions.assertNull(manager.getUser("195207092010"));
+
+    // Export as CSV and import into a new manager ...
+    final StringWriter csv = new StringWriter();
+    importer.exportUsers(csv, UserBulkImporter.Format.CSV);
+    Assertions.assertTrue(csv.toString().startsWith(UserStoreConverter.CSV_HEADER + "\n"));
+
+    final SimulatedUserDetailsManager manager2 = new SimulatedUserDetailsManager(List.of());
+    final UserBulkImporter.Result result2 = new UserBulkImporter(manager2, 1)
+        .importUsers(new BufferedReader(new StringReader(csv.toString())), UserBulkImporter.Format.CSV);
+    Assertions.assertEquals(3, result2.getImported());
+    Assertions.assertEquals(manager.getUsers().stream().map(SimulatedUser::toViewString).toList(),
+        manager2.getUsers().stream().map(SimulatedUser::toViewString).toList());
+
+    final StringWriter ndjson = new StringWriter();
+    importer.exportUsers(ndjson, UserBulkImporter.Format.NDJSON);
+    Assertions.assertEquals(3, ndjson.toString().lines().count());
+  }
+
+  @Test
+  public void testConcurrentReaders() throws Exception {
+    final SyntheticUserGenerator generator = new SyntheticUserGenerator(3, 20_000);
+    final StringBuilder csv = new StringBuilder();
+    for (long i = 0; i < generator.size(); i++) {
+      csv.append(UserStoreConverter.toCsvLine(generator.getUser(i))).append('\n');
+    }
+    final SimulatedUserDetailsManager manager = new SimulatedUserDetailsManager(List.of());
+    final UserBulkImporter importer = new UserBulkImporter(manager, 1);
+    importer.setBatchSize(500);
+
+    // Readers must always see a consistent (sorted and complete) snapshot while users are imported ...
+    final AtomicBoolean done = new AtomicBoolean(false);
+    final AtomicBoolean failed = new AtomicBoolean(false);
+    final CountDownLatch started = new CountDownLatch(2);
+    final ExecutorService executor = Executors.newFixedThreadPool(2);
+    for (int t = 0; t < 2; t++) {
+      executor.execute(() -> {
+        started.countDown();
+        while (!done.get()) {
+          final UserDirectory directory = manager.getDirectory();
+          if (directory.size() % 500 != 0 || directory.getUsers().stream().anyMatch(u -> !directory.contains(
+              u.getPersonalNumber()))) {
+            failed.set(true);
+          }
+        }
+      });
+    }
+    started.await();
+    final UserBulkImporter.Result result =
+        importer.importUsers(new BufferedReader(new StringReader(csv.toString())), UserBulkImporter.Format.CSV);
+    done.set(true);
+    executor.shutdown();
+    Assertions.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+    Assertions.assertFalse(failed.get());
+    Assertions.assertEquals(20_000, result.getImported());
+    Assertions.assertEquals(40, result.getBatches());
+    Assertions.assertEquals(20_000, manager.getUsers().size());
+    Assertions.assertEquals(UserDirectory.sort(manager.getUsers()), manager.getUsers());
+  }
+
+}
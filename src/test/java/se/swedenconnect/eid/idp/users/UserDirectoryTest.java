@@ -0,0 +1,118 @@
+/*
+ * Copyright 2023-2025 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.eid.idp.users;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+/**
+ * Test cases for UserDirectory and SimulatedUserDetailsManager.
+ *
+ * @author agent
+ */
+public class UserDirectoryTest {
+
+  @Test
+  public void testSortedAndIndexed() {
+    final UserDirectory directory = UserDirectory.of(List.of(
+        user("199001012385", "Östen", "Öberg"),
+        user("197609265819", "Alrik", "Lidén"),
+        user("188803099368", "Agda", "Andersson"),
+        user("196911292032", "Åsa", "Åberg"),
+        user("198010102383", "Ärla", "Ärlig"),
+        user("199210052383", "Bo", "Andersson")), 1);
+
+    Assertions.assertEquals(List.of("188803099368", "199210052383", "197609265819", "196911292032", "198010102383",
+        "199001012385"), pnrs(directory.getUsers()));
+    Assertions.assertEquals("Lidén", directory.getUser("197609265819").getSurname());
+    Assertions.assertTrue(directory.contains("196911292032"));
+    Assertions.assertFalse(directory.contains("200001012384"));
+    Assertions.assertThrows(UnsupportedOperationException.class, () -> directory.getUsers().clear());
+  }
+
+  @Test
+  public void testSortIgnoresCase() {
+    final UserDirectory directory = UserDirectory.of(List.of(
+        user("188803099368", "Bo", "berg"),
+        user("197609265819", "Adam", "Berg"),
+        user("196911292032", "Agda", "af Klint"),
+        user("199210052383", "Agda", "Andersson")), 1);
+
+    Assertions.assertEquals(List.of("196911292032", "199210052383", "197609265819", "188803099368"),
+        pnrs(directory.getUsers()));
+  }
+
+  @Test
+  public void testMerge() {
+    final UserDirectory directory = UserDirectory.of(List.of(
+        user("188803099368", "Agda", "Andersson"),
+        user("197609265819", "Alrik", "Lidén"),
+        user("199001012385", "Östen", "Öberg")), 1);
+
+    Assertions.assertSame(directory.getUsers(), directory.merge(List.of()));
+    Assertions.assertEquals(List.of("200001012384", "188803099368", "197609265819", "196911292032", "199001012385"),
+        pnrs(directory.merge(List.of(user("196911292032", "Åsa", "Åberg"), user("200001012384", "Adam", "Adamsson")))));
+  }
+
+  @Test
+  public void testManagerUpdatesSnapshot() {
+    final SimulatedUserDetailsManager manager = new SimulatedUserDetailsManager(List.of(
+        user("188803099368", "Agda", "Andersson"),
+        user("199001012385", "Östen", "Öberg")));
+    final UserDirectory first = manager.getDirectory();
+
+    manager.createUser(user("197609265819", "Alrik", "Lidén"));
+    Assertions.assertEquals(List.of("188803099368", "197609265819", "199001012385"), pnrs(manager.getUsers()));
+    Assertions.assertEquals(2, first.size());
+    Assertions.assertTrue(manager.getDirectory().getVersion() > first.getVersion());
+
+    manager.updateUser(user("197609265819", "Alrik", "Adamsson"));
+    Assertions.assertEquals(List.of("197609265819", "188803099368", "199001012385"), pnrs(manager.getUsers()));
+
+    manager.deleteUser("188803099368");
+    Assertions.assertEquals(List.of("197609265819", "199001012385"), pnrs(manager.getUsers()));
+    Assertions.assertFalse(manager.userExists("188803099368"));
+  }
+
+  @Test
+  public void testManagerDoesNotDeleteGeneratedUsers() {
+    final SimulatedUserDetailsManager manager = new SimulatedUserDetailsManager(List.of(
+        user("188803099368", "Agda", "Andersson")));
+    final SyntheticUserGenerator generator = new SyntheticUserGenerator(1, 10);
+    manager.setGenerator(generator);
+    final String generated = generator.getUser(0).getPersonalNumber();
+    final UserDirectory directory = manager.getDirectory();
+
+    manager.deleteUser(generated);
+    Assertions.assertSame(directory, manager.getDirectory());
+    Assertions.assertTrue(manager.userExists(generated));
+  }
+
+  private static SimulatedUser user(final String pnr, final String givenName, final String surname) {
+    final SimulatedUser user = new SimulatedUser();
+    user.setPersonalNumber(pnr);
+    user.setGivenName(givenName);
+    user.setSurname(surname);
+    return user;
+  }
+
+  private static List<String> pnrs(final List<SimulatedUser> users) {
+    return users.stream().map(SimulatedUser::getPersonalNumber).toList();
+  }
+
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2023-2025 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.eid.idp.users;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringReader;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Test cases for UserFileLoader.
+ *
+ * @author agent
+ */
+public class UserFileLoaderTest {
+
+  @Test
+  public void testYaml() throws Exception {
+    final UserFileLoader loader = new UserFileLoader();
+    loader.setChunkSize(2);
+    final List<Integer> batches = new ArrayList<>();
+    final List<SimulatedUser> users = new ArrayList<>();
+    loader.setBatchSize(2);
+
+    final UserFileLoader.Result result = loader.load(new StringReader("""
+        other: value
+        users:
+          - personal-number: 188803099368
+            given-name: "  Agda  "
+            surname: Andersson
+            display-name: ~
+            roles: [a, b]
+          - personal-number: 197609265818
+            given-name: Bad
+            surname: Number
+          - personal-number: "197609265819"
+            givenName: "Alrik\\tOlof"
+            surname: Lidén
+            date-of-birth: 1976-09-27
+          - personal-number: 188803099368
+            given-name: Agda
+            surname: Andersson
+          - just a string
+          - personal-number: 199008252398
+            given-name: Lars
+            surname: "  "
+          - personal-number: 195207092015
+            given-name: Anna
+            surname: Andersson
+        """), UserFileLoader.Format.YAML, "users.yml", b -> {
+      batches.add(b.size());
+      users.addAll(b);
+    });
+
+    Assertions.assertEquals(3, result.getLoaded());
+    Assertions.assertEquals(4, result.getRejected());
+    Assertions.assertEquals(List.of(2, 1), batches);
+    Assertions.assertEquals(List.of("188803099368", "197609265819", "195207092015"),
+        users.stream().map(SimulatedUser::getPersonalNumber).toList());
+    Assertions.assertEquals("Agda Andersson", users.get(0).getDisplayName());
+    Assertions.assertEquals("Alrik Olof", users.get(1).getGivenName());
+    Assertions.assertEquals("1976-09-27", users.get(1).getDateOfBirth());
+    Assertions.assertSame(users.get(0).getSurname(), users.get(2).getSurname());
+    Assertions.assertTrue(result.getErrors().stream().anyMatch(e -> e.startsWith("Line 8: Invalid personal")));
+    Assertions.assertTrue(result.getErrors().stream().anyMatch(e -> e.startsWith("Line 15: Duplicate user")));
+    Assertions.assertTrue(result.getErrors().stream().anyMatch(e -> e.startsWith("Line 18: Invalid user entry")));
+
+    final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    loader.bindTo(registry);
+    Assertions.assertEquals(4.0, registry.get("users.load.rejected").tag("file", "users.yml").gauge().value());
+
+    Assertions.assertThrows(IllegalArgumentException.class, () -> loader.load(new StringReader("foo: bar"),
+        UserFileLoader.Format.YAML, "empty.yml", b -> {}));
+  }
+
+  @Test
+  public void testLoadLargeCsv() throws Exception {
+    final SyntheticUserGenerator generator = new SyntheticUserGenerator(7, 50_000);
+    final StringBuilder csv = new StringBuilder(UserStoreConverter.CSV_HEADER).append('\n');
+    for (long i = 0; i < generator.size(); i++) {
+      csv.append(UserStoreConverter.toCsvLine(generator.getUser(i))).append('\n');
+    }
+    csv.append("195207092015,Anna\n");
+
+    final UserFileLoader loader = new UserFileLoader();
+    loader.setParallelism(4);
+    final SimulatedUserDetailsManager manager = new SimulatedUserDetailsManager(List.of());
+    final UserFileLoader.Result result =
+        loader.load(new StringReader(csv.toString()), UserFileLoader.Format.CSV, "users.csv", manager::createUsers);
+
+    Assertions.assertEquals(50_000, result.getLoaded());
+    Assertions.assertEquals(List.of("Line 50002: Expected at least 3 fields"), result.getErrors());
+    Assertions.assertEquals(50_000, manager.getUsers().size());
+    Assertions.assertEquals(generator.getUser(4711).toViewString(),
+        manager.getUser(generator.getUser(4711).getPersonalNumber()).toViewString());
+  }
+
+  @Test
+  public void testUsersFile() throws Exception {
+    final Path file = Path.of(UserFileLoaderTest.class.getResource("/users.yml").toURI());
+    final List<SimulatedUser> users = new ArrayList<>();
+    final UserFileLoader.Result result = new UserFileLoader().load(file, users::addAll);
+    Assertions.assertEquals(0, result.getRejected());
+    Assertions.assertEquals(UserStoreConverter.read(file).stream().map(SimulatedUser::toViewString).toList(),
+        users.stream().map(SimulatedUser::toViewString).toList());
+
+    Assertions.assertNull(new UserFileLoader().load("classpath:/no-such-users.yml", users::addAll));
+  }
+
+  @Test
+  public void testNormalizeName() {
+    Assertions.assertNull(UserFileLoader.normalizeName(" \t"));
+    Assertions.assertEquals("Bernt Olof", UserFileLoader.normalizeName(" Bernt  \u00a0Olof "));
+    Assertions.assertEquals("Bernt Olof", UserFileLoader.normalizeName("Bernt\nOlof"));
+    Assertions.assertEquals("Lid\u00e9n", UserFileLoader.normalizeName("Lide\u0301n"));
+  }
+
+}
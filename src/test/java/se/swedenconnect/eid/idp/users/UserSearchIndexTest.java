@@ -0,0 +1,107 @@
+/*
+ * Copyright 2023-2025 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.eid.idp.users;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Test cases for UserSearchIndex.
+ *
+ * @author agent
+ */
+public class UserSearchIndexTest {
+
+  @Test
+  public void testSearch() {
+    final UserDirectory directory = UserDirectory.of(List.of(
+        user("188803099368", "Agda", "Andersson"),
+        user("197609265819", "Alrik", "Lidén"),
+        user("195207092010", "Anna", "Lind"),
+        user("199008252398", "Lars", "Andersson")), 1);
+    final UserSearchIndex index = directory.getSearchIndex();
+    Assertions.assertSame(index, directory.getSearchIndex());
+
+    Assertions.assertEquals(List.of("188803099368", "199008252398"), numbers(index.search("and", 10)));
+    Assertions.assertEquals(List.of("199008252398", "197609265819", "195207092010"), numbers(index.search("L", 10)));
+    Assertions.assertEquals(List.of("197609265819"), numbers(index.search("lidé", 10)));
+    Assertions.assertEquals(List.of("199008252398"), numbers(index.search("andersson la", 10)));
+    Assertions.assertEquals(List.of("197609265819"), numbers(index.search("19760926-58", 10)));
+    Assertions.assertEquals(List.of("188803099368"), numbers(index.search("and", 1)));
+    Assertions.assertEquals(4, index.search("  ", 10).size());
+    Assertions.assertTrue(index.search("xyz", 10).isEmpty());
+  }
+
+  @Test
+  public void testLimit() {
+    final SyntheticUserGenerator generator = new SyntheticUserGenerator(7, 20_000);
+    final List<SimulatedUser> users = new ArrayList<>();
+    for (long i = 0; i < generator.size(); i++) {
+      users.add(generator.getUser(i));
+    }
+    final UserDirectory directory = UserDirectory.of(users, 1);
+    final String surname = directory.getUsers().get(10_000).getSurname();
+
+    // The result is the first matching users in the order of the directory ...
+    final List<SimulatedUser> expected = directory.getUsers().stream()
+        .filter(u -> UserSearchIndex.matches(u, UserSearchIndex.tokenize(surname)))
+        .limit(20)
+        .toList();
+    Assertions.assertEquals(expected, directory.getSearchIndex().search(surname, 20));
+  }
+
+  @Test
+  public void testUpdatedIndex() {
+    final SyntheticUserGenerator generator = new SyntheticUserGenerator(11, 5_000);
+    final List<SimulatedUser> users = new ArrayList<>();
+    for (long i = 0; i < 4_000; i++) {
+      users.add(generator.getUser(i));
+    }
+    UserDirectory directory = UserDirectory.of(users, 1);
+
+    // Add new users, replace a user and remove a user - the updated index must equal a rebuilt index ...
+    final List<SimulatedUser> added = new ArrayList<>();
+    for (long i = 4_000; i < 5_000; i++) {
+      added.add(generator.getUser(i));
+    }
+    final SimulatedUser replaced = user(users.get(17).getPersonalNumber(), "Agda", "Andersson");
+    added.add(replaced);
+    directory = directory.withAll(added, 2).without(users.get(4711 % 4_000).getPersonalNumber(), 3);
+    final UserDirectory rebuilt = UserDirectory.of(directory.getUsers(), 4);
+
+    final SimulatedUser user = directory.getUsers().get(2_500);
+    for (final String query : List.of(user.getSurname(), user.getGivenName().substring(0, 1), "agda andersson",
+        users.get(17).getSurname(), user.getPersonalNumber().substring(0, 4), "")) {
+      Assertions.assertEquals(rebuilt.search(query, 50), directory.search(query, 50), query);
+    }
+  }
+
+  private static List<String> numbers(final List<SimulatedUser> users) {
+    return users.stream().map(SimulatedUser::getPersonalNumber).toList();
+  }
+
+  private static SimulatedUser user(final String personalNumber, final String givenName, final String surname) {
+    final SimulatedUser user = new SimulatedUser();
+    user.setPersonalNumber(personalNumber);
+    user.setGivenName(givenName);
+    user.setSurname(surname);
+    return user;
+  }
+
+}
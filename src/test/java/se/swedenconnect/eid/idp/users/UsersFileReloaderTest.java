@@ -0,0 +1,158 @@
+/*
+ * Copyright 2023-2025 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.eid.idp.users;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Test cases for UsersFileReloader.
+ *
+ * @author agent
+ */
+public class UsersFileReloaderTest {
+
+  private static final String USERS = """
+      users:
+        - personal-number: "188803099368"
+          given-name: Agda
+          surname: Andersson
+      """;
+
+  private static final String MORE_USERS = USERS + """
+        - personal-number: "197609265819"
+          given-name: Alrik
+          surname: Lidén
+          date-of-birth: 1976-09-26
+      """;
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  public void testReload() throws Exception {
+    final Path file = this.write(USERS, 1);
+    final SimulatedUserDetailsManager manager = new SimulatedUserDetailsManager(List.of());
+    final UsersFileReloader reloader = new UsersFileReloader(file, manager);
+    final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    reloader.bindTo(registry);
+
+    // The file has not been changed since the reloader was created ...
+    Assertions.assertFalse(reloader.reload());
+
+    this.write(MORE_USERS, 2);
+    Assertions.assertTrue(reloader.reload());
+    Assertions.assertEquals(2, manager.getUsers().size());
+    Assertions.assertEquals("1976-09-26", manager.getUser("197609265819").getDateOfBirth());
+    Assertions.assertEquals(2, registry.get("users.count").gauge().value());
+    Assertions.assertEquals(1, registry.get("users.reload").tag("result", "success").timer().count());
+
+    // Invalid files are not loaded ...
+    this.write(USERS.replace("188803099368", "188803099369"), 3);
+    Assertions.assertFalse(reloader.reload());
+    this.write("users: [", 4);
+    Assertions.assertFalse(reloader.reload());
+    this.write(USERS + USERS.substring(USERS.indexOf('\n') + 1), 5);
+    Assertions.assertFalse(reloader.reload());
+    Assertions.assertEquals(2, manager.getUsers().size());
+    Assertions.assertEquals(3, registry.get("users.reload").tag("result", "failure").timer().count());
+  }
+
+  @Test
+  public void testReloadKeepsAddedUsers() throws Exception {
+    final Path file = this.write(USERS, 1);
+    final SimulatedUser configured = new SimulatedUser();
+    configured.setPersonalNumber("195207092015");
+    configured.setGivenName("Kalle");
+    configured.setSurname("Anka");
+    final SimulatedUserDetailsManager manager = new SimulatedUserDetailsManager(List.of(configured));
+    final UsersFileReloader reloader = new UsersFileReloader(file, manager);
+
+    // Import a user, and a user that replaces a user of the file ...
+    final UserBulkImporter importer = new UserBulkImporter(manager, 1);
+    final UserBulkImporter.Result result = importer.importUsers(new BufferedReader(new StringReader("""
+        {"personal-number":"197010632391","given-name":"Sixten","surname":"Samordnad"}
+        {"personal-number":"197609265819","given-name":"Imported","surname":"Lidén"}
+        """)), UserBulkImporter.Format.NDJSON);
+    Assertions.assertEquals(2, result.getImported());
+
+    this.write(MORE_USERS, 2);
+    Assertions.assertTrue(reloader.reload());
+    Assertions.assertEquals(4, manager.getUsers().size());
+    Assertions.assertEquals("Sixten", manager.getUser("197010632391").getGivenName());
+    Assertions.assertEquals("Imported", manager.getUser("197609265819").getGivenName());
+    Assertions.assertEquals("Kalle", manager.getUser("195207092015").getGivenName());
+    Assertions.assertEquals("Agda", manager.getUser("188803099368").getGivenName());
+
+    // Users removed from the file are removed, but not the added users ...
+    this.write(USERS.replace("188803099368", "194911172296"), 3);
+    Assertions.assertTrue(reloader.reload());
+    Assertions.assertNull(manager.getUser("188803099368"));
+    Assertions.assertNotNull(manager.getUser("194911172296"));
+    Assertions.assertNotNull(manager.getUser("197010632391"));
+    Assertions.assertNotNull(manager.getUser("195207092015"));
+    Assertions.assertEquals("Imported", manager.getUser("197609265819").getGivenName());
+  }
+
+  @Test
+  public void testWatch() throws Exception {
+    final Path file = this.write(USERS, 1);
+    final SimulatedUserDetailsManager manager = new SimulatedUserDetailsManager(List.of());
+    final UsersFileReloader reloader = new UsersFileReloader(file, manager);
+    reloader.setQuietPeriod(Duration.ofMillis(100));
+    reloader.start();
+    try {
+      Assertions.assertTrue(reloader.isRunning());
+      this.write(MORE_USERS, 2);
+      final long deadline = System.currentTimeMillis() + 20_000;
+      while (manager.getUsers().size() != 2 && System.currentTimeMillis() < deadline) {
+        Thread.sleep(50);
+      }
+      Assertions.assertEquals(2, manager.getUsers().size());
+    }
+    finally {
+      reloader.stop();
+    }
+    Assertions.assertFalse(reloader.isRunning());
+  }
+
+  @Test
+  public void testResolveFile() {
+    Assertions.assertNull(UsersFileReloader.resolveFile("classpath:/users.yml"));
+    Assertions.assertNull(UsersFileReloader.resolveFile(null));
+    Assertions.assertEquals(Path.of("/opt/idp/users.yml"), UsersFileReloader.resolveFile("file:/opt/idp/users.yml"));
+    Assertions.assertEquals(Path.of("/opt/idp/users.yml"), UsersFileReloader.resolveFile("/opt/idp/users.yml"));
+  }
+
+  private Path write(final String contents, final int generation) throws Exception {
+    final Path file = this.tempDir.resolve("users.yml");
+    Files.writeString(file, contents);
+    // Make sure that each generation has a distinct modification time ...
+    Files.setLastModifiedTime(file, FileTime.fromMillis(1_700_000_000_000L + generation * 1000L));
+    return file;
+  }
+
+}